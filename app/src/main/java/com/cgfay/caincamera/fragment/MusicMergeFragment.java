@@ -33,6 +33,10 @@ public class MusicMergeFragment extends Fragment implements View.OnClickListener
 
     private static final String TAG = "MusicMergeFragment";
 
+    // 进程内混音的PCM格式，与ffmpeg混音命令中的aformat一致
+    private static final int MIX_SAMPLE_RATE = 48000;
+    private static final int MIX_CHANNEL_COUNT = 2;
+
     private Activity mActivity;
 
     private String mVideoPath;
@@ -266,40 +270,98 @@ public class MusicMergeFragment extends Fragment implements View.OnClickListener
             mCommandEditor = new CainCommandEditor();
         }
         final String videoPath = VideoEditorUtil.createFileInBox(mActivity, "mp4");
+        if (mVideoVolume > 0.001f && mMusicVolume > 0.001f) {
+            pcmAudioVideoMix(audioPath, videoPath);
+            return;
+        }
         mCommandEditor.execCommand(CainCommandEditor.audioVideoMix(mVideoPath, audioPath, videoPath, mVideoVolume, mMusicVolume), result -> {
             FileUtils.deleteFile(audioPath);
-            // 成功则释放播放器并跳转至编辑页面
-            if (result == 0 && FileUtils.fileExists(videoPath)) {
-                // 需要释放销毁播放器，后面要用到播放器，防止内存占用过大
-                if (mVideoPlayerView != null) {
-                    mVideoPlayerView.pause();
-                }
-                if (mCommandEditor != null) {
-                    mCommandEditor.release();
-                    mCommandEditor = null;
+            onAudioVideoMixed(result, videoPath);
+        });
+    }
+
+    /**
+     * 视频原声和音乐都保留时，先解码为PCM，在进程内混音，再替换视频的音频流
+     * @param audioPath 剪辑之后的音乐文件
+     * @param videoPath 输出的视频文件
+     */
+    private void pcmAudioVideoMix(String audioPath, String videoPath) {
+        final CainCommandEditor editor = mCommandEditor;
+        final String videoPcmPath = VideoEditorUtil.createPathInBox(mActivity, "pcm");
+        final String musicPcmPath = VideoEditorUtil.createPathInBox(mActivity, "pcm");
+        final String mixPcmPath = VideoEditorUtil.createPathInBox(mActivity, "pcm");
+        final CainCommandEditor.CommandProcessCallback finish = result -> {
+            FileUtils.deleteFile(audioPath);
+            FileUtils.deleteFile(videoPcmPath);
+            FileUtils.deleteFile(musicPcmPath);
+            FileUtils.deleteFile(mixPcmPath);
+            onAudioVideoMixed(result, videoPath);
+        };
+        // 命令和混音都在编辑器的处理线程中依次执行
+        editor.execCommand(CainCommandEditor.audioToPcm(mVideoPath, videoPcmPath,
+                MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT), videoResult -> {
+            if (videoResult != 0) {
+                finish.onProcessResult(videoResult);
+                return;
+            }
+            editor.execCommand(CainCommandEditor.audioToPcm(audioPath, musicPcmPath,
+                    MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT), musicResult -> {
+                if (musicResult != 0) {
+                    finish.onProcessResult(musicResult);
+                    return;
                 }
-                mActivity.runOnUiThread(() -> {
-                    long processTime = System.currentTimeMillis() - startTime;
-                    Toast.makeText(mActivity,
-                            "音频混合处理耗时: " + (processTime / 1000f) + "秒",
-                            Toast.LENGTH_SHORT)
-                            .show();
-                    Intent intent = new Intent(mActivity, VideoEditActivity.class);
-                    intent.putExtra(VideoEditActivity.VIDEO_PATH, videoPath);
-                    startActivity(intent);
-                    mActivity.finish();
-                });
-            } else {
-                mActivity.runOnUiThread(() -> {
-                    Log.e(TAG, "video cut's error!");
-                    if (mVideoPlayerView != null) {
-                        mVideoPlayerView.start();
+                // 以视频原声的时长为准，与amix的duration=first一致
+                editor.mixPcm(videoPcmPath, musicPcmPath, mixPcmPath,
+                        MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT, mVideoVolume,
+                        MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT, mMusicVolume, 0, mixResult -> {
+                    if (mixResult != 0) {
+                        finish.onProcessResult(mixResult);
+                        return;
                     }
+                    editor.execCommand(CainCommandEditor.pcmVideoMix(mixPcmPath, mVideoPath, videoPath,
+                            MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT), finish);
                 });
+            });
+        });
+    }
+
+    /**
+     * 音视频混合结束
+     * @param result    0表示成功
+     * @param videoPath 输出的视频文件
+     */
+    private void onAudioVideoMixed(int result, String videoPath) {
+        // 成功则释放播放器并跳转至编辑页面
+        if (result == 0 && FileUtils.fileExists(videoPath)) {
+            // 需要释放销毁播放器，后面要用到播放器，防止内存占用过大
+            if (mVideoPlayerView != null) {
+                mVideoPlayerView.pause();
             }
+            if (mCommandEditor != null) {
+                mCommandEditor.release();
+                mCommandEditor = null;
+            }
+            mActivity.runOnUiThread(() -> {
+                long processTime = System.currentTimeMillis() - startTime;
+                Toast.makeText(mActivity,
+                        "音频混合处理耗时: " + (processTime / 1000f) + "秒",
+                        Toast.LENGTH_SHORT)
+                        .show();
+                Intent intent = new Intent(mActivity, VideoEditActivity.class);
+                intent.putExtra(VideoEditActivity.VIDEO_PATH, videoPath);
+                startActivity(intent);
+                mActivity.finish();
+            });
+        } else {
             mActivity.runOnUiThread(() -> {
-                mLayoutProgress.setVisibility(View.GONE);
+                Log.e(TAG, "video cut's error!");
+                if (mVideoPlayerView != null) {
+                    mVideoPlayerView.start();
+                }
             });
+        }
+        mActivity.runOnUiThread(() -> {
+            mLayoutProgress.setVisibility(View.GONE);
         });
     }
 
@@ -279,10 +279,19 @@ public class FFMediaRecordPresenter implements PreviewCallback, FFAudioRecorder.
 
     @Override
     public void onPreviewFrame(byte[] data) {
+        // 预览帧缓冲需要归还给相机复用，录制完成或者不录制时立即归还
         if (mMediaRecorder != null && mIsRecording) {
-            mHandler.post(() -> mMediaRecorder.recordVideoFrame(data, data.length,
-                    mRecordWidth, mRecordHeight,
-                    AVFormatter.PIXEL_FORMAT_NV21));
+            boolean posted = mHandler.post(() -> {
+                mMediaRecorder.recordVideoFrame(data, data.length,
+                        mRecordWidth, mRecordHeight,
+                        AVFormatter.PIXEL_FORMAT_NV21);
+                mCameraController.releasePreviewFrame(data);
+            });
+            if (!posted) {
+                mCameraController.releasePreviewFrame(data);
+            }
+        } else {
+            mCameraController.releasePreviewFrame(data);
         }
     }
 
@@ -1,6 +1,7 @@
 package com.cgfay.camera.camera;
 
 import android.app.Activity;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
@@ -44,6 +45,14 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
     private OnSurfaceTextureListener mSurfaceTextureListener;
     // 预览数据回调
     private PreviewCallback mPreviewCallback;
+    // 预览帧缓冲池，缓冲在相机和预览回调之间循环使用
+    private final PreviewFramePool mFramePool = new PreviewFramePool();
+    // 预览回调可能在其他线程归还缓冲，归还和关闭相机需要互斥
+    private final Object mBufferLock = new Object();
+    // 预览回调数据的缩小倍数
+    private volatile int mPreviewCallbackScale = 1;
+    // 缩小之后的预览帧缓冲池
+    private final PreviewFramePool mScaledFramePool = new PreviewFramePool();
     // 输出纹理更新回调
     private OnFrameAvailableListener mFrameAvailableListener;
     // 相机输出的SurfaceTexture
@@ -89,7 +98,8 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
         mOutputTexture = createDetachedSurfaceTexture();
         try {
             mCamera.setPreviewTexture(mOutputTexture);
-            mCamera.setPreviewCallback(this);
+            addPreviewCallbackBuffers();
+            mCamera.setPreviewCallbackWithBuffer(this);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -99,6 +109,23 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
         }
     }
 
+    /**
+     * 按照预览大小分配回调缓冲并交给相机，相机只会把预览帧写入这些缓冲
+     */
+    private void addPreviewCallbackBuffers() {
+        int frameSize = mPreviewWidth * mPreviewHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        synchronized (mBufferLock) {
+            mFramePool.setFrameSize(frameSize);
+            for (int i = 0; i < PreviewFramePool.DEFAULT_BUFFER_COUNT; i++) {
+                byte[] buffer = mFramePool.acquire();
+                if (buffer == null) {
+                    break;
+                }
+                mCamera.addCallbackBuffer(buffer);
+            }
+        }
+    }
+
     /**
      * 创建一个SurfaceTexture并
      * @return
@@ -145,13 +172,19 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
 
     @Override
     public void closeCamera() {
-        if (mCamera != null) {
-            mCamera.setPreviewCallback(null);
-            mCamera.setPreviewCallbackWithBuffer(null);
-            mCamera.addCallbackBuffer(null);
-            mCamera.stopPreview();
-            mCamera.release();
-            mCamera = null;
+        synchronized (mBufferLock) {
+            if (mCamera != null) {
+                mCamera.setPreviewCallback(null);
+                mCamera.setPreviewCallbackWithBuffer(null);
+                mCamera.addCallbackBuffer(null);
+                mCamera.stopPreview();
+                mCamera.release();
+                mCamera = null;
+                Log.d(TAG, "closeCamera: " + mFramePool.getReport());
+                Log.d(TAG, "closeCamera: scaled " + mScaledFramePool.getReport());
+            }
+            // 相机持有的缓冲随相机一起释放，重新打开时重新分配
+            mFramePool.clear();
         }
         releaseSurfaceTexture();
     }
@@ -166,6 +199,24 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
         mPreviewCallback = callback;
     }
 
+    @Override
+    public void releasePreviewFrame(byte[] data) {
+        if (data != null && data.length != mFramePool.getFrameSize()) {
+            // 缩小之后的数据不需要交给相机
+            mScaledFramePool.release(data);
+            return;
+        }
+        synchronized (mBufferLock) {
+            mFramePool.release(data);
+            if (mCamera != null) {
+                byte[] buffer = mFramePool.acquire();
+                if (buffer != null) {
+                    mCamera.addCallbackBuffer(buffer);
+                }
+            }
+        }
+    }
+
     @Override
     public void setOnFrameAvailableListener(OnFrameAvailableListener listener) {
         mFrameAvailableListener = listener;
@@ -184,11 +235,49 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
 
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
-        if (mPreviewCallback != null) {
+        if (mPreviewCallback == null || mPreviewCallback.skipPreviewFrame()) {
+            releasePreviewFrame(data);
+            return;
+        }
+        int scale = mPreviewCallbackScale;
+        if (scale == 1) {
             mPreviewCallback.onPreviewFrame(data);
+            return;
+        }
+        // 相机只能输出完整分辨率，缩小之后立即把完整的缓冲还给相机
+        int width = getPreviewCallbackWidth();
+        int height = getPreviewCallbackHeight();
+        mScaledFramePool.setFrameSize(width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8);
+        byte[] scaled = mScaledFramePool.acquire();
+        if (scaled != null) {
+            ImageConvert.scaleNV21(data, mPreviewWidth, mPreviewHeight, scale, scaled);
+        }
+        releasePreviewFrame(data);
+        if (scaled != null) {
+            mPreviewCallback.onPreviewFrame(scaled);
         }
     }
 
+    @Override
+    public void setPreviewCallbackScale(int scale) {
+        mPreviewCallbackScale = Math.max(1, scale);
+    }
+
+    @Override
+    public int getPreviewCallbackScale() {
+        return mPreviewCallbackScale;
+    }
+
+    @Override
+    public int getPreviewCallbackWidth() {
+        return ImageConvert.getScaledSize(mPreviewWidth, mPreviewCallbackScale);
+    }
+
+    @Override
+    public int getPreviewCallbackHeight() {
+        return ImageConvert.getScaledSize(mPreviewHeight, mPreviewCallbackScale);
+    }
+
     @Override
     public void setFront(boolean front) {
         if (front) {
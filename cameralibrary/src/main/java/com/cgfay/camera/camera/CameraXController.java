@@ -59,6 +59,12 @@ public class CameraXController implements ICameraController {
     private ImageAnalysis mPreviewAnalyzer;
     // 预览回调
     private PreviewCallback mPreviewCallback;
+    // 预览帧缓冲池
+    private final PreviewFramePool mFramePool = new PreviewFramePool();
+    // 预览回调数据的缩小倍数
+    private int mPreviewCallbackScale = 1;
+    // 预览帧分析器
+    private PreviewCallbackAnalyzer mCallbackAnalyzer;
     // SurfaceTexture准备监听器
     private OnSurfaceTextureListener mSurfaceTextureListener;
     // 纹理更新监听器
@@ -124,7 +130,9 @@ public class CameraXController implements ICameraController {
                 .setTargetResolution(new Size(mPreviewWidth, mPreviewHeight))
                 .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                 .build();
-        mPreviewAnalyzer.setAnalyzer(mExecutor, new PreviewCallbackAnalyzer(mPreviewCallback));
+        mCallbackAnalyzer = new PreviewCallbackAnalyzer(mPreviewCallback, mFramePool);
+        mCallbackAnalyzer.setScale(mPreviewCallbackScale);
+        mPreviewAnalyzer.setAnalyzer(mExecutor, mCallbackAnalyzer);
 
         // 前后置摄像头选择器
         CameraSelector cameraSelector =
@@ -176,6 +184,7 @@ public class CameraXController implements ICameraController {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        Log.d(TAG, "closeCamera: " + mFramePool.getReport());
     }
 
     @Override
@@ -188,6 +197,34 @@ public class CameraXController implements ICameraController {
         mPreviewCallback = callback;
     }
 
+    @Override
+    public void releasePreviewFrame(byte[] data) {
+        mFramePool.release(data);
+    }
+
+    @Override
+    public void setPreviewCallbackScale(int scale) {
+        mPreviewCallbackScale = Math.max(1, scale);
+        if (mCallbackAnalyzer != null) {
+            mCallbackAnalyzer.setScale(mPreviewCallbackScale);
+        }
+    }
+
+    @Override
+    public int getPreviewCallbackScale() {
+        return mPreviewCallbackScale;
+    }
+
+    @Override
+    public int getPreviewCallbackWidth() {
+        return ImageConvert.getScaledSize(getPreviewWidth(), mPreviewCallbackScale);
+    }
+
+    @Override
+    public int getPreviewCallbackHeight() {
+        return ImageConvert.getScaledSize(getPreviewHeight(), mPreviewCallbackScale);
+    }
+
     @Override
     public void setOnFrameAvailableListener(OnFrameAvailableListener listener) {
         mFrameAvailableListener = listener;
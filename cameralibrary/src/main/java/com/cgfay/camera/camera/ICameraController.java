@@ -29,6 +29,33 @@ public interface ICameraController {
      */
     void setPreviewCallback(PreviewCallback callback);
 
+    /**
+     * 归还预览回调的数据，预览帧来自缓冲池，用完之后必须归还，否则缓冲用完之后不再回调
+     * @param data 预览回调的数据
+     */
+    void releasePreviewFrame(byte[] data);
+
+    /**
+     * 设置预览回调数据的缩小倍数，按照整数倍隔点采样，人脸检测不需要完整分辨率
+     * @param scale 缩小倍数，默认为1，不缩小
+     */
+    void setPreviewCallbackScale(int scale);
+
+    /**
+     * 获取预览回调数据的缩小倍数
+     */
+    int getPreviewCallbackScale();
+
+    /**
+     * 获取预览回调数据的宽度
+     */
+    int getPreviewCallbackWidth();
+
+    /**
+     * 获取预览回调数据的高度
+     */
+    int getPreviewCallbackHeight();
+
     /**
      * 设置纹理更新回调
      */
@@ -34,6 +34,9 @@ final class ImageConvert {
 
     }
 
+    // 每个线程复用的行缓冲，分析器只在一个线程中回调
+    private static final ThreadLocal<byte[]> sRowData = new ThreadLocal<>();
+
     /**
      * 获取转换后的格式
      * @param image         Image数据对象
@@ -41,92 +44,281 @@ final class ImageConvert {
      * @return              图像字节数组
      */
     public static byte[] getDataFromImage(@NonNull Image image, @ColorFormat int colorFormat) {
+        byte[] data = new byte[getDataSize(image)];
+        getDataFromImage(image, colorFormat, data);
+        return data;
+    }
+
+    /**
+     * 转换后的数据大小
+     * @param image Image数据对象
+     * @return 字节数
+     */
+    public static int getDataSize(@NonNull Image image) {
+        return getDataSize(image, 1);
+    }
+
+    /**
+     * 缩小之后的数据大小
+     * @param image Image数据对象
+     * @param scale 缩小倍数，1表示不缩小
+     * @return 字节数
+     */
+    public static int getDataSize(@NonNull Image image, int scale) {
+        Rect crop = image.getCropRect();
+        return getScaledSize(crop.width(), scale) * getScaledSize(crop.height(), scale)
+                * ImageFormat.getBitsPerPixel(image.getFormat()) / 8;
+    }
+
+    /**
+     * 缩小之后的宽度或者高度，缩小时取偶数，保证UV平面的大小是整数
+     */
+    static int getScaledSize(int size, int scale) {
+        return scale == 1 ? size : (size / scale) & ~1;
+    }
+
+    /**
+     * 转换到调用者提供的数组中，配合缓冲池使用时不需要每一帧分配内存
+     * @param image         Image数据对象
+     * @param colorFormat   转换的颜色格式
+     * @param data          输出数组，长度不能小于{@link #getDataSize(Image)}
+     */
+    public static void getDataFromImage(@NonNull Image image, @ColorFormat int colorFormat,
+                                        @NonNull byte[] data) {
+        getDataFromImage(image, colorFormat, 1, data);
+    }
+
+    /**
+     * 转换到调用者提供的数组中，同时按照裁剪区域裁剪，并且隔点采样缩小，人脸检测不需要完整分辨率
+     * @param image         Image数据对象
+     * @param colorFormat   转换的颜色格式
+     * @param scale         缩小倍数，1表示不缩小
+     * @param data          输出数组，长度不能小于{@link #getDataSize(Image, int)}
+     */
+    public static void getDataFromImage(@NonNull Image image, @ColorFormat int colorFormat,
+                                        int scale, @NonNull byte[] data) {
         if (colorFormat != COLOR_FORMAT_I420 && colorFormat != COLOR_FORMAT_NV21) {
             throw new IllegalArgumentException("only support COLOR_FORMAT_I420 " + "and COLOR_FORMAT_NV21");
         }
         if (!isImageFormatSupported(image)) {
             throw new RuntimeException("can't convert Image to byte array, format " + image.getFormat());
         }
+        if (scale < 1) {
+            throw new IllegalArgumentException("invalid scale: " + scale);
+        }
+        if (data.length < getDataSize(image, scale)) {
+            throw new IllegalArgumentException("data too short: " + data.length);
+        }
         Rect crop = image.getCropRect();
-        int format = image.getFormat();
-        int width = crop.width();
-        int height = crop.height();
         Image.Plane[] planes = image.getPlanes();
-        byte[] data = new byte[width * height * ImageFormat.getBitsPerPixel(format) / 8];
-        byte[] rowData = new byte[planes[0].getRowStride()];
         if (VERBOSE) {
-            Log.v(TAG, "get data from " + planes.length + " planes");
+            Log.v(TAG, "get data from " + planes.length + " planes, y rowStride "
+                    + planes[0].getRowStride() + ", uv rowStride " + planes[1].getRowStride()
+                    + ", uv pixelStride " + planes[1].getPixelStride());
+        }
+        convert(planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(),
+                planes[1].getRowStride(), planes[1].getPixelStride(),
+                crop.left, crop.top, crop.width(), crop.height(), scale, colorFormat, data);
+    }
+
+    /**
+     * 把YUV_420_888的三个平面转换成NV21或者I420，不依赖Image，可以在JVM中测试。
+     * 常见的半平面布局(U、V平面是同一块VU交错的内存，像素跨度为2)转NV21时，UV平面每行一次批量复制，
+     * 行跨度等于宽度时整个平面一次批量复制；其他布局每行批量读入行缓冲之后按跨度取出。
+     * Android规定U、V平面的行跨度和像素跨度相同。
+     * @param yBuffer       Y平面
+     * @param yRowStride    Y平面的行跨度
+     * @param yPixelStride  Y平面的像素跨度
+     * @param uBuffer       U平面
+     * @param vBuffer       V平面
+     * @param uvRowStride   U、V平面的行跨度
+     * @param uvPixelStride U、V平面的像素跨度
+     * @param left          裁剪区域左边界
+     * @param top           裁剪区域上边界
+     * @param width         裁剪区域宽度
+     * @param height        裁剪区域高度
+     * @param scale         缩小倍数，1表示不缩小
+     * @param colorFormat   转换的颜色格式
+     * @param data          输出数组
+     */
+    static void convert(ByteBuffer yBuffer, int yRowStride, int yPixelStride,
+                        ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride,
+                        int left, int top, int width, int height, int scale,
+                        @ColorFormat int colorFormat, byte[] data) {
+        int outWidth = getScaledSize(width, scale);
+        int outHeight = getScaledSize(height, scale);
+        int uvLeft = left >> 1;
+        int uvTop = top >> 1;
+        int uvWidth = outWidth >> 1;
+        int uvHeight = outHeight >> 1;
+        byte[] rowData = getRowData(Math.max(yRowStride, uvRowStride));
+
+        // Y平面
+        if (scale == 1 && yPixelStride == 1) {
+            copyRows(yBuffer, yRowStride * top + left, yRowStride, outWidth, outHeight, data, 0);
+        } else {
+            gatherPlane(yBuffer, yRowStride * top + yPixelStride * left, yRowStride * scale,
+                    yPixelStride * scale, outWidth, outHeight, data, 0, 1, rowData);
         }
-        int yLength = 0;
-        int stride = 1;
-        for (int i = 0; i < planes.length; i++) {
-            switch (i) {
-                case 0: {
-                    yLength = 0;
-                    stride = 1;
-                    break;
-                }
-                case 1: {
-                    if (colorFormat == COLOR_FORMAT_I420) {
-                        yLength = width * height;
-                        stride = 1;
-                    } else {
-                        yLength = width * height + 1;
-                        stride = 2;
-                    }
-                    break;
-                }
-                case 2: {
-                    if (colorFormat == COLOR_FORMAT_I420) {
-                        yLength = (int) (width * height * 1.25);
-                        stride = 1;
-                    } else {
-                        yLength = width * height;
-                        stride = 2;
-                    }
-                    break;
-                }
+
+        // UV平面
+        int uvStart = uvRowStride * uvTop + uvPixelStride * uvLeft;
+        int ySize = outWidth * outHeight;
+        if (colorFormat == COLOR_FORMAT_NV21) {
+            if (scale == 1 && isInterleavedVU(uBuffer, vBuffer, uvStart, uvRowStride, uvPixelStride,
+                    uvWidth, uvHeight)) {
+                copyInterleavedVU(uBuffer, vBuffer, uvStart, uvRowStride, uvWidth * 2, uvHeight,
+                        data, ySize);
+            } else {
+                gatherPlane(vBuffer, uvStart, uvRowStride * scale, uvPixelStride * scale,
+                        uvWidth, uvHeight, data, ySize, 2, rowData);
+                gatherPlane(uBuffer, uvStart, uvRowStride * scale, uvPixelStride * scale,
+                        uvWidth, uvHeight, data, ySize + 1, 2, rowData);
+            }
+        } else {
+            int uvSize = uvWidth * uvHeight;
+            if (scale == 1 && uvPixelStride == 1) {
+                copyRows(uBuffer, uvStart, uvRowStride, uvWidth, uvHeight, data, ySize);
+                copyRows(vBuffer, uvStart, uvRowStride, uvWidth, uvHeight, data, ySize + uvSize);
+            } else {
+                gatherPlane(uBuffer, uvStart, uvRowStride * scale, uvPixelStride * scale,
+                        uvWidth, uvHeight, data, ySize, 1, rowData);
+                gatherPlane(vBuffer, uvStart, uvRowStride * scale, uvPixelStride * scale,
+                        uvWidth, uvHeight, data, ySize + uvSize, 1, rowData);
             }
+        }
+    }
 
-            ByteBuffer buffer = planes[i].getBuffer();
-            int rowStride = planes[i].getRowStride();
-            int pixelStride = planes[i].getPixelStride();
-            if (VERBOSE) {
-                Log.v(TAG, "pixelStride " + pixelStride);
-                Log.v(TAG, "rowStride " + rowStride);
-                Log.v(TAG, "width " + width);
-                Log.v(TAG, "height " + height);
-                Log.v(TAG, "buffer size " + buffer.remaining());
+    /**
+     * 隔点采样缩小NV21数据，相机只能输出完整分辨率时使用
+     * @param src       NV21数据
+     * @param width     图像宽度
+     * @param height    图像高度
+     * @param scale     缩小倍数
+     * @param dst       输出数组，长度不能小于缩小之后的NV21大小
+     */
+    public static void scaleNV21(@NonNull byte[] src, int width, int height, int scale,
+                                 @NonNull byte[] dst) {
+        int ySize = width * height;
+        ByteBuffer yBuffer = ByteBuffer.wrap(src, 0, ySize);
+        ByteBuffer vBuffer = ByteBuffer.wrap(src, ySize, src.length - ySize).slice();
+        ByteBuffer uBuffer = ByteBuffer.wrap(src, ySize + 1, src.length - ySize - 1).slice();
+        convert(yBuffer, width, 1, uBuffer, vBuffer, width, 2, 0, 0, width, height, scale,
+                COLOR_FORMAT_NV21, dst);
+    }
+
+    private static byte[] getRowData(int length) {
+        byte[] rowData = sRowData.get();
+        if (rowData == null || rowData.length < length) {
+            rowData = new byte[length];
+            sRowData.set(rowData);
+        }
+        return rowData;
+    }
+
+    /**
+     * U、V平面是否为同一块VU交错的内存，即U平面的第k个字节就是V平面的第k + 1个字节。
+     * 相机的数据不能修改，只读取比较：两个平面长度相同，并且每一行首尾两个U字节与V平面后一个字节相同。
+     * @param start     第一个像素的位置
+     * @param w         每行读取的像素数
+     * @param h         读取的行数
+     */
+    static boolean isInterleavedVU(ByteBuffer uBuffer, ByteBuffer vBuffer, int start,
+                                   int rowStride, int uvPixelStride, int w, int h) {
+        if (uvPixelStride != 2 || w <= 0 || h <= 0
+                || uBuffer.remaining() != vBuffer.remaining()) {
+            return false;
+        }
+        int uBase = uBuffer.position();
+        int vBase = vBuffer.position();
+        int limit = vBuffer.remaining();
+        for (int row = 0; row < h; row++) {
+            int first = start + row * rowStride;
+            int last = first + (w - 1) * 2;
+            if (uBuffer.get(uBase + first) != vBuffer.get(vBase + first + 1)) {
+                return false;
             }
+            // V平面最后一行少一个字节，末尾的U字节没有对应的V字节
+            if (last + 1 < limit && uBuffer.get(uBase + last) != vBuffer.get(vBase + last + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            int shift = (i == 0) ? 0 : 1;
-            int w = width >> shift;
-            int h = height >> shift;
-            buffer.position(rowStride * (crop.top >> shift) + pixelStride * (crop.left >> shift));
+    /**
+     * 按行批量复制，行跨度等于宽度时整个区域一次复制
+     */
+    private static void copyRows(ByteBuffer buffer, int start, int rowStride, int w, int h,
+                                 byte[] data, int offset) {
+        int base = buffer.position();
+        if (rowStride == w) {
+            buffer.position(base + start);
+            buffer.get(data, offset, w * h);
+        } else {
             for (int row = 0; row < h; row++) {
-                int length;
-                if (pixelStride == 1 && stride == 1) {
-                    length = w;
-                    buffer.get(data, yLength, length);
-                    yLength += length;
-                } else {
-                    length = (w - 1) * pixelStride + 1;
-                    buffer.get(rowData, 0, length);
-                    for (int col = 0; col < w; col++) {
-                        data[yLength] = rowData[col * pixelStride];
-                        yLength += stride;
-                    }
-                }
-                if (row < h - 1) {
-                    buffer.position(buffer.position() + rowStride - length);
-                }
+                buffer.position(base + start + row * rowStride);
+                buffer.get(data, offset + row * w, w);
             }
-            if (VERBOSE) {
-                Log.v(TAG, "Finished reading data from plane " + i);
+        }
+        buffer.position(base);
+    }
+
+    /**
+     * 复制VU交错的内存，V平面最后一行少一个字节，这个字节是U平面的最后一个字节
+     */
+    private static void copyInterleavedVU(ByteBuffer uBuffer, ByteBuffer vBuffer, int start,
+                                          int rowStride, int w, int h, byte[] data, int offset) {
+        int base = vBuffer.position();
+        int limit = vBuffer.limit() - base;
+        int rows = rowStride == w ? 1 : h;
+        int length = rowStride == w ? w * h : w;
+        for (int row = 0; row < rows; row++) {
+            int position = start + row * rowStride;
+            int count = Math.min(length, limit - position);
+            vBuffer.position(base + position);
+            vBuffer.get(data, offset + row * length, count);
+            if (count < length) {
+                // V平面的第k + 1个字节是U平面的第k个字节
+                data[offset + row * length + length - 1] =
+                        uBuffer.get(uBuffer.position() + position + length - 2);
             }
         }
+        vBuffer.position(base);
+    }
 
-        return data;
+    /**
+     * 按跨度取出平面数据，每行批量读入行缓冲之后再按跨度取出
+     * @param buffer        平面数据
+     * @param start         第一个像素的位置
+     * @param rowStride     读取的行跨度
+     * @param pixelStride   读取的像素跨度
+     * @param w             输出宽度
+     * @param h             输出高度
+     * @param data          输出数组
+     * @param offset        输出的起始位置
+     * @param stride        输出的像素跨度，NV21的UV交错排列时为2
+     * @param rowData       行缓冲，长度不能小于(w - 1) * pixelStride + 1
+     */
+    private static void gatherPlane(ByteBuffer buffer, int start, int rowStride, int pixelStride,
+                                    int w, int h, byte[] data, int offset, int stride,
+                                    byte[] rowData) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        int base = buffer.position();
+        int length = (w - 1) * pixelStride + 1;
+        int index = offset;
+        for (int row = 0; row < h; row++) {
+            buffer.position(base + start + row * rowStride);
+            buffer.get(rowData, 0, length);
+            for (int col = 0; col < length; col += pixelStride) {
+                data[index] = rowData[col];
+                index += stride;
+            }
+        }
+        buffer.position(base);
     }
 
     /**
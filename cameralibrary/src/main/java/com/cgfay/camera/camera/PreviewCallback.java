@@ -2,8 +2,18 @@ package com.cgfay.camera.camera;
 
 /**
  * 预览回调数据
+ * 数据来自缓冲池，用完之后需要通过{@link ICameraController#releasePreviewFrame(byte[])}归还
  */
 public interface PreviewCallback {
 
+    /**
+     * 是否跳过这一帧，在转换和缩小之前调用，跳过的帧直接归还，不会回调{@link #onPreviewFrame(byte[])}
+     * 默认不跳过，每一帧都回调
+     * @return true表示跳过
+     */
+    default boolean skipPreviewFrame() {
+        return false;
+    }
+
     void onPreviewFrame(byte[] data);
 }
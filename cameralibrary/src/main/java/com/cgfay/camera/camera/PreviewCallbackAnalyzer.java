@@ -9,6 +9,8 @@ import androidx.camera.core.ImageProxy;
 
 /**
  * 预览帧分析器
+ * 预览帧转换到缓冲池的数组中，回调的数据用完之后需要归还给缓冲池，缓冲全部被占用时丢弃这一帧
+ * 设置了缩小倍数时在转换的同时隔点采样缩小，不需要再复制一次
  */
 public class PreviewCallbackAnalyzer implements ImageAnalysis.Analyzer {
 
@@ -16,10 +18,22 @@ public class PreviewCallbackAnalyzer implements ImageAnalysis.Analyzer {
     private static final boolean VERBOSE = false;
 
     private PreviewCallback mPreviewCallback;
+    // 预览帧缓冲池
+    private final PreviewFramePool mFramePool;
+    // 缩小倍数
+    private volatile int mScale = 1;
 
-
-    public PreviewCallbackAnalyzer(PreviewCallback previewCallback) {
+    public PreviewCallbackAnalyzer(PreviewCallback previewCallback, PreviewFramePool framePool) {
         mPreviewCallback = previewCallback;
+        mFramePool = framePool;
+    }
+
+    /**
+     * 设置缩小倍数
+     * @param scale 1表示不缩小
+     */
+    public void setScale(int scale) {
+        mScale = Math.max(1, scale);
     }
 
     @SuppressLint("UnsafeExperimentalUsageError")
@@ -31,11 +45,16 @@ public class PreviewCallbackAnalyzer implements ImageAnalysis.Analyzer {
                     "orientation - " + image.getImageInfo().getRotationDegrees() + ", imageFormat" +
                     " - " + image.getFormat());
         }
-        if (mPreviewCallback != null && image.getImage() != null) {
-            byte[] data = ImageConvert.getDataFromImage(image.getImage(),
-                    ImageConvert.COLOR_FORMAT_NV21);
+        if (mPreviewCallback != null && image.getImage() != null && !mPreviewCallback.skipPreviewFrame()) {
+            int scale = mScale;
+            mFramePool.setFrameSize(ImageConvert.getDataSize(image.getImage(), scale));
+            byte[] data = mFramePool.acquire();
             if (data != null) {
+                ImageConvert.getDataFromImage(image.getImage(), ImageConvert.COLOR_FORMAT_NV21,
+                        scale, data);
                 mPreviewCallback.onPreviewFrame(data);
+            } else if (VERBOSE) {
+                Log.d(TAG, "analyze: all preview buffers are in use, drop frame");
             }
         }
         // 使用完需要释放，否则下一次不会回调了
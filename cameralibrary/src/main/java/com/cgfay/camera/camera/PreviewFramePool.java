@@ -0,0 +1,131 @@
+package com.cgfay.camera.camera;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * 预览帧缓冲池
+ * 预览帧(NV21)的缓冲在相机和人脸检测之间循环使用，避免每一帧分配一个完整的byte[]。
+ * 缓冲总数有上限，全部被占用时不再分配，由调用者丢弃这一帧，人脸检测跟不上时自然降低检测帧率。
+ * 缓冲池只接收自己分配的缓冲，预览尺寸变化或者相机重新打开之后，之前分配的缓冲归还时直接丢弃。
+ * 可以在任意线程中使用，不依赖Android。
+ * @author CainHuang
+ * @date 2019/9/8
+ */
+public class PreviewFramePool {
+
+    // 默认缓冲个数，相机正在写入、等待检测和正在检测各一个
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    // 缓冲个数上限
+    private final int mMaxCount;
+    // 空闲的缓冲
+    private final ArrayDeque<byte[]> mFreeBuffers = new ArrayDeque<>();
+    // 当前帧大小
+    private int mFrameSize;
+    // 当前尺寸已经分配的缓冲，包括空闲和被占用的缓冲，按照对象判断是否属于缓冲池
+    private final ArrayList<byte[]> mAllocatedBuffers = new ArrayList<>();
+
+    // 取出、复用、分配和缓冲不足的次数
+    private int mAcquireCount;
+    private int mReuseCount;
+    private int mAllocateCount;
+    private int mExhaustedCount;
+
+    public PreviewFramePool() {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    public PreviewFramePool(int maxCount) {
+        mMaxCount = maxCount;
+    }
+
+    /**
+     * 设置帧大小，大小变化时丢弃旧的缓冲
+     * @param frameSize 每一帧的字节数
+     */
+    public synchronized void setFrameSize(int frameSize) {
+        if (mFrameSize != frameSize) {
+            mFrameSize = frameSize;
+            mFreeBuffers.clear();
+            mAllocatedBuffers.clear();
+        }
+    }
+
+    public synchronized int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * 取出一个缓冲
+     * @return 缓冲全部被占用时返回null
+     */
+    public synchronized byte[] acquire() {
+        mAcquireCount++;
+        byte[] buffer = mFreeBuffers.poll();
+        if (buffer != null) {
+            mReuseCount++;
+            return buffer;
+        }
+        if (mFrameSize <= 0 || mAllocatedBuffers.size() >= mMaxCount) {
+            mExhaustedCount++;
+            return null;
+        }
+        mAllocateCount++;
+        buffer = new byte[mFrameSize];
+        mAllocatedBuffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲，不是当前缓冲池分配的缓冲直接丢弃
+     * @param buffer
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || !contains(mAllocatedBuffers, buffer) || contains(mFreeBuffers, buffer)) {
+            return;
+        }
+        mFreeBuffers.offer(buffer);
+    }
+
+    private static boolean contains(Iterable<byte[]> buffers, byte[] buffer) {
+        for (byte[] item : buffers) {
+            if (item == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 丢弃全部缓冲，被占用的缓冲归还时也会被丢弃
+     */
+    public synchronized void clear() {
+        mFreeBuffers.clear();
+        mAllocatedBuffers.clear();
+        mFrameSize = 0;
+    }
+
+    public synchronized int getFreeCount() {
+        return mFreeBuffers.size();
+    }
+
+    public synchronized int getAllocateCount() {
+        return mAllocateCount;
+    }
+
+    public synchronized int getExhaustedCount() {
+        return mExhaustedCount;
+    }
+
+    /**
+     * 缓冲池统计信息
+     */
+    public synchronized String getReport() {
+        return String.format(Locale.US, "PreviewFramePool: %d acquired, %d reused, %d allocated"
+                        + ", %d exhausted, %d free of %d, frame size %d",
+                mAcquireCount, mReuseCount, mAllocateCount, mExhaustedCount,
+                mFreeBuffers.size(), mAllocatedBuffers.size(), mFrameSize);
+    }
+}
@@ -552,8 +552,8 @@ public class CameraPreviewFragment extends Fragment implements View.OnClickListe
         mEffectFragment.addOnCompareEffectListener(compare -> {
             mPreviewPresenter.showCompare(compare);
         });
-        mEffectFragment.addOnFilterChangeListener(color -> {
-            mPreviewPresenter.changeDynamicFilter(color);
+        mEffectFragment.addOnFilterChangeListener(filterIndex -> {
+            mPreviewPresenter.changeDynamicFilter(filterIndex);
         });
         mEffectFragment.addOnMakeupChangeListener(makeup -> {
             mPreviewPresenter.changeDynamicMakeup(makeup);
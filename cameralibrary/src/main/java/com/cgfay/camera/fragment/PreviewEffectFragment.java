@@ -25,7 +25,6 @@ import com.cgfay.camera.adapter.PreviewBeautyAdapter;
 import com.cgfay.camera.adapter.PreviewFilterAdapter;
 import com.cgfay.camera.adapter.PreviewMakeupAdapter;
 import com.cgfay.camera.camera.CameraParam;
-import com.cgfay.filter.glfilter.color.bean.DynamicColor;
 import com.cgfay.filter.glfilter.makeup.bean.DynamicMakeup;
 import com.cgfay.filter.glfilter.resource.FilterHelper;
 import com.cgfay.filter.glfilter.resource.MakeupHelper;
@@ -271,21 +270,9 @@ public class PreviewEffectFragment extends Fragment implements View.OnClickListe
             if (mActivity == null) {
                 return;
             }
-            if (!resourceData.name.equals("none")) {
-                String folderPath = FilterHelper.getFilterDirectory(mActivity) + File.separator + resourceData.unzipFolder;
-                DynamicColor color = null;
-                try {
-                    color = ResourceJsonCodec.decodeFilterData(folderPath);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                if (mOnFilterChangeListener != null) {
-                    mOnFilterChangeListener.onFilterChange(color);
-                }
-            } else {
-                if (mOnFilterChangeListener != null) {
-                    mOnFilterChangeListener.onFilterChange(null);
-                }
+            // 由监听者按照索引解码滤镜，并预加载相邻的滤镜
+            if (mOnFilterChangeListener != null) {
+                mOnFilterChangeListener.onFilterChange(mFilterAdapter.getSelectedPosition());
             }
             scrollToCurrentFilter(mFilterAdapter.getSelectedPosition());
         });
@@ -495,7 +482,7 @@ public class PreviewEffectFragment extends Fragment implements View.OnClickListe
     public interface OnFilterChangeListener {
 
         /** 滤镜切换监听器 */
-        void onFilterChange(DynamicColor color);
+        void onFilterChange(int filterIndex);
     }
 
     /**
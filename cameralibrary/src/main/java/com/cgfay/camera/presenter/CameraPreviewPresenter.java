@@ -10,6 +10,7 @@ import androidx.fragment.app.FragmentActivity;
 import android.opengl.EGLContext;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.cgfay.camera.activity.CameraSettingActivity;
 import com.cgfay.camera.camera.CameraController;
@@ -65,11 +66,17 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
         OnSurfaceTextureListener, OnFrameAvailableListener, OnRecordStateListener {
 
     private static final String TAG = "CameraPreviewPresenter";
+    // 人脸检测图像的缩小倍数
+    private static final int DETECT_SCALE = 2;
+    // 每次检测之后跳过的帧数，跳过的帧由渲染端推算关键点
+    private static final int DETECT_TRACK_FRAMES = 2;
 
     private byte[] cacheFrame = null;
 
     // 当前索引
     private int mFilterIndex = 0;
+    // 解码过的滤镜数据，key为滤镜索引
+    private final SparseArray<DynamicColor> mFilterColors = new SparseArray<>();
 
     // 预览参数
     private CameraParam mCameraParam;
@@ -141,6 +148,8 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
 //        }
         mCameraController = new CameraController(mActivity);
         mCameraController.setPreviewCallback(this);
+        // 预览回调只用于人脸检测，检测图像缩小一半
+        mCameraController.setPreviewCallbackScale(DETECT_SCALE);
         mCameraController.setOnFrameAvailableListener(this);
         mCameraController.setOnSurfaceTextureListener(this);
 
@@ -154,6 +163,7 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
         FaceTracker.getInstance()
                 .setFaceCallback(this)
                 .previewTrack(true)
+                .trackFrames(DETECT_TRACK_FRAMES)
                 .initTracker();
     }
 
@@ -299,17 +309,59 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
         if (mActivity == null) {
             return;
         }
-        String folderPath = FilterHelper.getFilterDirectory(mActivity) + File.separator +
-                FilterHelper.getFilterList().get(filterIndex).unzipFolder;
-        DynamicColor color = null;
-        if (!FilterHelper.getFilterList().get(filterIndex).unzipFolder.equalsIgnoreCase("none")) {
+        int count = FilterHelper.getFilterList().size();
+        if (filterIndex < 0 || filterIndex >= count) {
+            return;
+        }
+        mFilterIndex = filterIndex;
+        mCameraRenderer.changeFilter(getFilterColor(filterIndex));
+        // 预加载左右相邻的滤镜，滑动切换时可以直接使用，滤镜数据交给预加载线程解码
+        List<String> neighbours = new ArrayList<>();
+        addFilterFolder(neighbours, (filterIndex + 1) % count);
+        addFilterFolder(neighbours, (filterIndex - 1 + count) % count);
+        mCameraRenderer.prefetchFilters(neighbours);
+    }
+
+    /**
+     * 获取滤镜数据，解码过的滤镜数据直接复用
+     * @param filterIndex
+     * @return 无滤镜或者解码失败时返回null
+     */
+    private DynamicColor getFilterColor(int filterIndex) {
+        String folderPath = getFilterFolder(filterIndex);
+        if (folderPath == null) {
+            return null;
+        }
+        DynamicColor color = mFilterColors.get(filterIndex);
+        if (color == null) {
             try {
                 color = ResourceJsonCodec.decodeFilterData(folderPath);
+                mFilterColors.put(filterIndex, color);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
-        mCameraRenderer.changeFilter(color);
+        return color;
+    }
+
+    /**
+     * 获取滤镜的解压目录
+     * @param filterIndex
+     * @return 无滤镜时返回null
+     */
+    private String getFilterFolder(int filterIndex) {
+        ResourceData resourceData = FilterHelper.getFilterList().get(filterIndex);
+        if (resourceData.unzipFolder.equalsIgnoreCase("none")) {
+            return null;
+        }
+        return FilterHelper.getFilterDirectory(mActivity) + File.separator + resourceData.unzipFolder;
+    }
+
+    private void addFilterFolder(List<String> folderPaths, int filterIndex) {
+        String folderPath = getFilterFolder(filterIndex);
+        if (folderPath != null && !folderPaths.contains(folderPath)) {
+            folderPaths.add(folderPath);
+        }
     }
 
     @Override
@@ -505,26 +557,36 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
     }
 
     // Camera preview data callback ------------------------------------------
+    @Override
+    public boolean skipPreviewFrame() {
+        // 两次检测之间的帧不需要转换和缩小
+        return FaceTracker.getInstance().skipFrame();
+    }
+
     @Override
     public void onPreviewFrame(byte[] data) {
         Log.d(TAG, "onPreviewFrame: width - " + mCameraController.getPreviewWidth()
                 + ", height - " + mCameraController.getPreviewHeight());
+        // 检测结束之后把缓冲归还给产生这一帧的相机
+        final ICameraController controller = mCameraController;
         FaceTracker.getInstance()
-                .trackFace(data, mCameraController.getPreviewWidth(),
-                        mCameraController.getPreviewHeight());
+                .trackFace(data, controller.getPreviewCallbackWidth(),
+                        controller.getPreviewCallbackHeight(), controller.getPreviewWidth(),
+                        controller.getPreviewHeight(), controller.getPreviewCallbackScale(),
+                        controller::releasePreviewFrame);
     }
 
     // Face detection complete callback ------------------------------------------
     @Override
     public void onTrackingFinish() {
         Log.d(TAG, "onTrackingFinish: ");
-        mCameraRenderer.requestRender();
     }
 
     // SurfaceTexture frame available callback --------------------------------------
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-//        mCameraRenderer.requestRender();
+        // 检测会丢帧，每一帧预览都需要渲染，关键点在渲染时插值
+        mCameraRenderer.requestRender();
     }
 
     // recording and compositing start ------------------------------------------
@@ -7,15 +7,12 @@ import android.os.Message;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
-import com.cgfay.filter.glfilter.color.bean.DynamicColor;
-import com.cgfay.filter.glfilter.makeup.bean.DynamicMakeup;
-import com.cgfay.filter.glfilter.stickers.bean.DynamicSticker;
-
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 
 /**
  * 渲染器Handler
+ * 切换滤镜、彩妆、贴纸等参数命令和渲染事件通过命令队列提交，同一种参数命令只保留最新的一个，
+ * 在处理下一个消息(一般是渲染下一帧)之前统一执行。
  */
 public class CameraRenderHandler extends Handler {
 
@@ -23,15 +20,24 @@ public class CameraRenderHandler extends Handler {
     static final int MSG_DISPLAY_CHANGE = 0x02;     // 显示发生变化
     static final int MSG_DESTROY = 0x03;            // 销毁
     static final int MSG_RENDER = 0x04;             // 渲染
-    static final int MSG_CHANGE_FILTER = 0x05;      // 切换滤镜
-    static final int MSG_CHANGE_MAKEUP = 0x06;      // 切换彩妆
-    static final int MSG_CHANGE_RESOURCE = 0x07;    // 切换贴纸资源
-    static final int MSG_CHANGE_EDGE_BLUR = 0x08;   // 边框模糊功能
+    static final int MSG_FLUSH_COMMANDS = 0x0A;     // 执行命令队列
+
+    // 参数命令的key，同一个key的命令会被合并
+    static final int CMD_CHANGE_FILTER = 0x05;      // 切换滤镜
+    static final int CMD_CHANGE_MAKEUP = 0x06;      // 切换彩妆
+    static final int CMD_CHANGE_RESOURCE = 0x07;    // 切换贴纸资源
+    static final int CMD_CHANGE_EDGE_BLUR = 0x08;   // 边框模糊功能
+    static final int CMD_PREFETCH_FILTER = 0x09;    // 预加载相邻滤镜
+
+    // 命令队列为空时提交命令，等待一帧的时间再执行，持续渲染时由渲染消息顺带执行
+    private static final long FLUSH_DELAY_MS = 16;
 
-    // 渲染事件处理队列
-    private ArrayList<Runnable> mEventQueue = new ArrayList<Runnable>();
+    // 参数命令和渲染事件队列
+    private final RenderCommandQueue mCommandQueue = new RenderCommandQueue();
 
     private final WeakReference<CameraRenderer> mWeakRender;
+    // 渲染器是否已经销毁，销毁之后的命令留到下一次初始化之后执行
+    private boolean mDestroyed;
 
     public CameraRenderHandler(Looper looper, CameraRenderer renderer) {
         super(looper);
@@ -44,7 +50,10 @@ public class CameraRenderHandler extends Handler {
             return;
         }
 
-        handleQueueEvent();
+        // 参数命令需要使用EGL上下文，初始化消息处理完之后再执行，销毁之后不再执行
+        if (msg.what != MSG_INIT && !mDestroyed) {
+            handleQueueEvent();
+        }
 
         CameraRenderer renderer = mWeakRender.get();
         switch (msg.what) {
@@ -57,6 +66,8 @@ public class CameraRenderHandler extends Handler {
                 } else if (msg.obj instanceof SurfaceTexture) {
                     renderer.initRender((SurfaceTexture) msg.obj);
                 }
+                mDestroyed = false;
+                handleQueueEvent();
                 break;
 
             case MSG_DISPLAY_CHANGE:
@@ -65,6 +76,7 @@ public class CameraRenderHandler extends Handler {
 
             // 销毁GL环境
             case MSG_DESTROY:
+                mDestroyed = true;
                 renderer.release();
                 break;
 
@@ -73,50 +85,27 @@ public class CameraRenderHandler extends Handler {
                 renderer.onDrawFrame();
                 break;
 
-            // 切换滤镜
-            case MSG_CHANGE_FILTER:
-                renderer.changeDynamicFilter((DynamicColor) msg.obj);
-                break;
-
-            // 切换彩妆
-            case MSG_CHANGE_MAKEUP:
-                if (msg.obj == null) {
-                    renderer.changeDynamicMakeup((DynamicMakeup) null);
-                } else {
-                    renderer.changeDynamicMakeup((DynamicMakeup) msg.obj);
-                }
-                break;
-
-            // 切换道具资源
-            case MSG_CHANGE_RESOURCE:
-                if (msg.obj == null) {
-                    renderer.changeDynamicResource((DynamicSticker) null);
-                } else if (msg.obj instanceof DynamicColor) {
-                    renderer.changeDynamicResource((DynamicColor) msg.obj);
-                } else if (msg.obj instanceof DynamicSticker) {
-                    renderer.changeDynamicResource((DynamicSticker) msg.obj);
-                }
-                break;
-
-            // 切换边框模糊滤镜
-            case MSG_CHANGE_EDGE_BLUR:
-                renderer.changeEdgeBlurFilter((boolean)msg.obj);
+            // 命令已经在处理消息之前执行
+            case MSG_FLUSH_COMMANDS:
                 break;
         }
     }
 
     /**
-     * 处理优先的队列事件
+     * 执行命令队列中的参数命令和渲染事件
      */
     void handleQueueEvent() {
-        synchronized (this) {
-            Runnable runnable;
-            while (!mEventQueue.isEmpty()) {
-                runnable = mEventQueue.remove(0);
-                if (runnable != null) {
-                    runnable.run();
-                }
-            }
+        mCommandQueue.drain();
+    }
+
+    /**
+     * 提交参数命令，取代同一个key上还没有执行的命令
+     * @param key       命令的key
+     * @param command   命令
+     */
+    public void postCommand(int key, Runnable command) {
+        if (mCommandQueue.post(key, command)) {
+            sendEmptyMessageDelayed(MSG_FLUSH_COMMANDS, FLUSH_DELAY_MS);
         }
     }
 
@@ -128,9 +117,15 @@ public class CameraRenderHandler extends Handler {
         if (runnable == null) {
             throw new IllegalArgumentException("runnable must not be null");
         }
-        synchronized (this) {
-            mEventQueue.add(runnable);
-            notifyAll();
+        if (mCommandQueue.post(runnable)) {
+            sendEmptyMessageDelayed(MSG_FLUSH_COMMANDS, FLUSH_DELAY_MS);
         }
     }
+
+    /**
+     * 命令队列的统计信息
+     */
+    public String getCommandReport() {
+        return mCommandQueue.getReport();
+    }
 }
@@ -1,5 +1,6 @@
 package com.cgfay.camera.render;
 
+import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES30;
 import android.os.Handler;
@@ -24,6 +25,8 @@ import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -34,6 +37,9 @@ public class CameraRenderer extends Thread {
 
     private static final String TAG = "CameraRenderer";
 
+    // 无效的时间戳
+    private static final long NO_TIMESTAMP = -1;
+
     private final Object mSync = new Object();
 
     private int mPriority;
@@ -41,8 +47,22 @@ public class CameraRenderer extends Thread {
 
     private @Nullable CameraRenderHandler mHandler;
 
-    // 截屏
+    // 截屏，不支持OpenGLES 3.0时使用
     private GLImageReader mImageReader;
+    // 基于PBO的异步截屏
+    private GLPixelBufferReader mPixelReader;
+    // 等待读取结果的拍照帧时间戳，按读取顺序排列
+    private final ArrayDeque<Long> mPictureTimestamps = new ArrayDeque<>();
+    // 等待读取结果的连续截帧时间戳，按读取顺序排列
+    private final ArrayDeque<Long> mFrameCaptureTimestamps = new ArrayDeque<>();
+    // 连续截帧回调
+    private GLPixelBufferReader.OnPixelsAvailableListener mFrameCaptureListener;
+    // 剩余需要截取的帧数，小于0表示一直截取
+    private int mFrameCaptureCount;
+    // 截帧间隔(ns)
+    private long mFrameCaptureInterval;
+    // 上一次截帧的时间戳
+    private long mLastFrameCaptureTime = NO_TIMESTAMP;
     // EGL共享上下文
     private EglCore mEglCore;
     // 预览用的EGLSurface
@@ -168,6 +188,9 @@ public class CameraRenderer extends Thread {
      */
     void release() {
         Log.d(TAG, "release: ");
+        if (mHandler != null) {
+            Log.d(TAG, "release: " + mHandler.getCommandReport());
+        }
         if (mImageReader != null) {
             mImageReader.release();
             mImageReader = null;
@@ -175,6 +198,15 @@ public class CameraRenderer extends Thread {
         if (mDisplaySurface != null) {
             mDisplaySurface.makeCurrent();
         }
+        synchronized (mSync) {
+            if (mPixelReader != null) {
+                Log.d(TAG, "release: pixel reader dropped " + mPixelReader.getDroppedCount() + " frames");
+                mPixelReader.release();
+                mPixelReader = null;
+            }
+            mPictureTimestamps.clear();
+            mFrameCaptureTimestamps.clear();
+        }
         if (mInputTexture != OpenGLUtils.GL_NOT_TEXTURE) {
             OpenGLUtils.deleteTexture(mInputTexture);
             mInputTexture = OpenGLUtils.GL_NOT_TEXTURE;
@@ -194,7 +226,7 @@ public class CameraRenderer extends Thread {
     }
 
     /**
-     * 拍照
+     * 拍照，上一张照片还在异步读取时，每次拍照分别回调
      */
     public void takePicture() {
         synchronized (mSync) {
@@ -237,8 +269,15 @@ public class CameraRenderer extends Thread {
      * @param color
      */
     public void changeFilter(DynamicColor color) {
-        Handler handler = getHandler();
-        handler.sendMessage(handler.obtainMessage(CameraRenderHandler.MSG_CHANGE_FILTER, color));
+        getHandler().postCommand(CameraRenderHandler.CMD_CHANGE_FILTER, () -> changeDynamicFilter(color));
+    }
+
+    /**
+     * 预加载相邻的滤镜，滑动切换时可以直接使用，滤镜数据在预加载线程中解码
+     * @param folderPaths 滤镜解压目录
+     */
+    public void prefetchFilters(List<String> folderPaths) {
+        getHandler().postCommand(CameraRenderHandler.CMD_PREFETCH_FILTER, () -> prefetchDynamicFilters(folderPaths));
     }
 
     /**
@@ -246,8 +285,7 @@ public class CameraRenderer extends Thread {
      * @param makeup
      */
     public void changeMakeup(DynamicMakeup makeup) {
-        Handler handler = getHandler();
-        handler.sendMessage(handler.obtainMessage(CameraRenderHandler.MSG_CHANGE_MAKEUP, makeup));
+        getHandler().postCommand(CameraRenderHandler.CMD_CHANGE_MAKEUP, () -> changeDynamicMakeup(makeup));
     }
 
     /**
@@ -255,8 +293,7 @@ public class CameraRenderer extends Thread {
      * @param color 滤镜
      */
     public void changeResource(DynamicColor color) {
-        Handler handler = getHandler();
-        handler.sendMessage(handler.obtainMessage(CameraRenderHandler.MSG_CHANGE_RESOURCE, color));
+        getHandler().postCommand(CameraRenderHandler.CMD_CHANGE_RESOURCE, () -> changeDynamicResource(color));
     }
 
     /**
@@ -264,8 +301,7 @@ public class CameraRenderer extends Thread {
      * @param sticker 动态贴纸
      */
     public void changeResource(DynamicSticker sticker) {
-        Handler handler = getHandler();
-        handler.sendMessage(handler.obtainMessage(CameraRenderHandler.MSG_CHANGE_RESOURCE, sticker));
+        getHandler().postCommand(CameraRenderHandler.CMD_CHANGE_RESOURCE, () -> changeDynamicResource(sticker));
     }
 
     /**
@@ -273,8 +309,7 @@ public class CameraRenderer extends Thread {
      * @param hasBlur 是否允许边框模糊
      */
     public void changeEdgeBlur(boolean hasBlur) {
-        Handler handler = getHandler();
-        handler.sendMessage(handler.obtainMessage(CameraRenderHandler.MSG_CHANGE_EDGE_BLUR, hasBlur));
+        getHandler().postCommand(CameraRenderHandler.CMD_CHANGE_EDGE_BLUR, () -> changeEdgeBlurFilter(hasBlur));
     }
 
     // ---------------------------------------- 渲染内部处理方法 -------------------------------------
@@ -370,28 +405,136 @@ public class CameraRenderer extends Thread {
         // 显示到屏幕
         mDisplaySurface.swapBuffers();
 
-        // 执行拍照
+        // 执行拍照和连续截帧
         synchronized (mSync) {
-            if (mCameraParam.isTakePicture) {
-                if (mImageReader == null) {
-                    mImageReader = new GLImageReader(mEglCore.getEGLContext(), bitmap -> {
-                        if (mCameraParam.captureCallback != null) {
-                            mCameraParam.captureCallback.onCapture(bitmap);
-                        }
-                    });
-                    mImageReader.init(mRenderManager.getTextureWidth(), mRenderManager.getTextureHeight());
-                }
-                if (mImageReader != null) {
-                    mImageReader.drawFrame(mCurrentTexture);
-                }
-                mCameraParam.isTakePicture = false;
-            }
+            captureFrame(timeStamp);
         }
 
         // 计算渲染帧率
         calculateFps();
     }
 
+    /**
+     * 拍照和连续截帧
+     * 支持OpenGLES 3.0时通过PBO异步读取，结果在之后的帧中回调，不阻塞渲染线程，否则使用GLImageReader拍照
+     * @param timeStamp 当前帧的时间戳
+     */
+    private void captureFrame(long timeStamp) {
+        if (mPixelReader != null) {
+            mPixelReader.poll();
+        }
+        boolean takePicture = mCameraParam.isTakePicture;
+        boolean captureFrame = mFrameCaptureListener != null && mFrameCaptureCount != 0
+                && (mLastFrameCaptureTime == NO_TIMESTAMP
+                || timeStamp - mLastFrameCaptureTime >= mFrameCaptureInterval);
+        if (!takePicture && !captureFrame) {
+            return;
+        }
+        if (mPixelReader == null && mImageReader == null) {
+            if (GLPixelBufferReader.isSupported()) {
+                mPixelReader = new GLPixelBufferReader(mPixelsAvailableListener);
+            } else {
+                mImageReader = new GLImageReader(mEglCore.getEGLContext(), bitmap -> {
+                    if (mCameraParam.captureCallback != null) {
+                        mCameraParam.captureCallback.onCapture(bitmap);
+                    }
+                });
+                mImageReader.init(mRenderManager.getTextureWidth(), mRenderManager.getTextureHeight());
+            }
+        }
+        if (mImageReader != null) {
+            if (takePicture) {
+                mImageReader.drawFrame(mCurrentTexture);
+                mCameraParam.isTakePicture = false;
+            }
+            if (captureFrame) {
+                Log.w(TAG, "captureFrame: frame capture requires OpenGLES 3.0");
+                mFrameCaptureListener = null;
+            }
+            return;
+        }
+        mPixelReader.init(mRenderManager.getTextureWidth(), mRenderManager.getTextureHeight());
+        // PBO全部被占用时本帧不读取，拍照请求保留到下一帧
+        if (!mPixelReader.readPixels(mCurrentTexture, timeStamp)) {
+            return;
+        }
+        if (takePicture) {
+            mPictureTimestamps.addLast(timeStamp);
+            mCameraParam.isTakePicture = false;
+        }
+        if (captureFrame) {
+            mFrameCaptureTimestamps.addLast(timeStamp);
+            mLastFrameCaptureTime = timeStamp;
+            if (mFrameCaptureCount > 0) {
+                mFrameCaptureCount--;
+            }
+        }
+    }
+
+    /**
+     * PBO读取完成回调，在渲染线程中执行
+     */
+    private final GLPixelBufferReader.OnPixelsAvailableListener mPixelsAvailableListener =
+            (pixels, width, height, timestamp) -> {
+        if (pollTimestamp(mPictureTimestamps, timestamp)) {
+            if (mCameraParam.captureCallback != null) {
+                // 拍照结果交给外部持有，每次拍照创建新的Bitmap
+                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                GLPixelBufferReader.copyToBitmap(pixels, bitmap);
+                mCameraParam.captureCallback.onCapture(bitmap);
+            }
+        }
+        if (pollTimestamp(mFrameCaptureTimestamps, timestamp) && mFrameCaptureListener != null) {
+            mFrameCaptureListener.onPixelsAvailable(pixels, width, height, timestamp);
+        }
+    };
+
+    /**
+     * 从等待队列中取出读取完成的时间戳，更早的时间戳对应的读取已经被丢弃，一并移除
+     * @param timestamps    等待读取结果的时间戳
+     * @param timestamp     读取完成的帧时间戳
+     * @return 该帧是否在等待队列中
+     */
+    private static boolean pollTimestamp(ArrayDeque<Long> timestamps, long timestamp) {
+        while (!timestamps.isEmpty() && timestamps.peekFirst() < timestamp) {
+            timestamps.pollFirst();
+        }
+        if (!timestamps.isEmpty() && timestamps.peekFirst() == timestamp) {
+            timestamps.pollFirst();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 开始连续截帧，用于连拍、延时摄影等场景，需要OpenGLES 3.0
+     * 回调在渲染线程中执行，像素缓冲会被复用，GPU来不及读取时会跳过部分帧
+     * @param frameCount    截取的帧数，小于等于0时一直截取直到调用stopFrameCapture
+     * @param intervalMs    截帧间隔，为0时截取每一帧
+     * @param listener      截帧回调
+     */
+    public void startFrameCapture(int frameCount, long intervalMs,
+                                  @NonNull GLPixelBufferReader.OnPixelsAvailableListener listener) {
+        synchronized (mSync) {
+            mFrameCaptureCount = frameCount > 0 ? frameCount : -1;
+            mFrameCaptureInterval = Math.max(0, intervalMs) * 1000000L;
+            mLastFrameCaptureTime = NO_TIMESTAMP;
+            mFrameCaptureTimestamps.clear();
+            mFrameCaptureListener = listener;
+        }
+    }
+
+    /**
+     * 停止连续截帧，已经发起的读取不再回调
+     */
+    public void stopFrameCapture() {
+        synchronized (mSync) {
+            mFrameCaptureListener = null;
+            mFrameCaptureCount = 0;
+            mFrameCaptureTimestamps.clear();
+        }
+    }
+
     /**
      * 更新输入纹理
      * @param surfaceTexture
@@ -465,6 +608,17 @@ public class CameraRenderer extends Thread {
         }
     }
 
+    /**
+     * 预加载相邻滤镜
+     * @param folderPaths
+     */
+    void prefetchDynamicFilters(List<String> folderPaths) {
+        synchronized (mSync) {
+            mDisplaySurface.makeCurrent();
+            mRenderManager.prefetchDynamicFilters(folderPaths);
+        }
+    }
+
     /**
      * 切换动态彩妆
      * @param makeup
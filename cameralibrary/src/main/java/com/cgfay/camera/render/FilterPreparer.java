@@ -0,0 +1,262 @@
+package com.cgfay.camera.render;
+
+import android.content.Context;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.cgfay.filter.gles.EglCore;
+import com.cgfay.filter.gles.OffscreenSurface;
+import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.utils.GLProgramCache;
+
+/**
+ * 滤镜预加载器
+ * 在工作线程中使用与渲染线程共享的EGL上下文创建滤镜，读取shader、解码纹理和编译program都不占用渲染线程。
+ * 创建完成之后等待GPU执行完毕，渲染线程在两帧之间通过poll取出并替换到滤镜链中。
+ * 纹理和program在共享上下文之间可以直接使用，FBO不能共享，滤镜替换之后再由渲染线程绑定缓冲池。
+ * 同一个位置连续提交时只保留最新的请求，被取代的结果直接释放。
+ * @author CainHuang
+ * @date 2019/9/4
+ */
+public class FilterPreparer {
+
+    private static final String TAG = "FilterPreparer";
+
+    /**
+     * 滤镜工厂，可能在工作线程中调用，也可能在回退时由渲染线程调用
+     */
+    public interface Factory {
+
+        /**
+         * 创建滤镜，调用时当前线程已经绑定了EGL上下文
+         * @param context
+         * @return 滤镜，创建失败时返回null
+         */
+        GLImageFilter create(Context context);
+    }
+
+    /**
+     * 预加载结果
+     */
+    public static final class Result {
+
+        // 创建好的滤镜，工作线程创建失败时为null
+        private final GLImageFilter mFilter;
+        // 工作线程中创建滤镜的耗时(ns)
+        private final long mPrepareTime;
+
+        Result(GLImageFilter filter, long prepareTime) {
+            mFilter = filter;
+            mPrepareTime = prepareTime;
+        }
+
+        public GLImageFilter getFilter() {
+            return mFilter;
+        }
+
+        public long getPrepareTime() {
+            return mPrepareTime;
+        }
+    }
+
+    private final Context mContext;
+    // 渲染线程的EGL上下文
+    private final EGLContext mSharedContext;
+    private final Object mLock = new Object();
+
+    // 工作线程
+    private HandlerThread mThread;
+    private Handler mHandler;
+    // 工作线程的EGL上下文，只在工作线程中访问
+    private EglCore mEglCore;
+    private OffscreenSurface mSurface;
+
+    // 每个位置最新请求的序号
+    private final SparseIntArray mGenerations = new SparseIntArray();
+    // 已经创建完成、等待渲染线程取出的结果
+    private final SparseArray<Result> mResults = new SparseArray<>();
+    // 工作线程的EGL上下文创建失败之后不再可用
+    private boolean mAvailable = true;
+    private boolean mReleased;
+
+    public FilterPreparer(Context context, EGLContext sharedContext) {
+        mContext = context;
+        mSharedContext = sharedContext;
+    }
+
+    /**
+     * 是否可以在工作线程中创建滤镜
+     */
+    public boolean isAvailable() {
+        synchronized (mLock) {
+            return mAvailable && !mReleased;
+        }
+    }
+
+    /**
+     * 提交预加载请求，取代同一位置上未完成的请求
+     * @param index     滤镜在滤镜链中的位置
+     * @param factory   滤镜工厂
+     * @return 不可用时返回false，调用者需要自己创建滤镜
+     */
+    public boolean prepare(final int index, final Factory factory) {
+        final int generation;
+        Result superseded;
+        synchronized (mLock) {
+            if (!mAvailable || mReleased) {
+                return false;
+            }
+            if (mThread == null) {
+                mThread = new HandlerThread("FilterPreparer");
+                mThread.start();
+                mHandler = new Handler(mThread.getLooper());
+            }
+            generation = mGenerations.get(index) + 1;
+            mGenerations.put(index, generation);
+            superseded = removeResult(index);
+        }
+        // 结果中的纹理和program是共享的，在渲染线程中也可以释放
+        release(superseded);
+        mHandler.post(() -> prepareFilter(index, generation, factory));
+        return true;
+    }
+
+    /**
+     * 取出已经创建完成的滤镜，只能在渲染线程中调用
+     * @param index 滤镜在滤镜链中的位置
+     * @return 还没有完成时返回null
+     */
+    public Result poll(int index) {
+        synchronized (mLock) {
+            return removeResult(index);
+        }
+    }
+
+    /**
+     * 取消同一位置上的请求，工作线程中已经开始创建的滤镜在完成之后释放
+     * @param index 滤镜在滤镜链中的位置
+     */
+    public void cancel(int index) {
+        Result result;
+        synchronized (mLock) {
+            mGenerations.put(index, mGenerations.get(index) + 1);
+            result = removeResult(index);
+        }
+        release(result);
+    }
+
+    /**
+     * 释放预加载器，需要在渲染线程的EGL上下文销毁之前调用
+     */
+    public void release() {
+        HandlerThread thread;
+        SparseArray<Result> results = new SparseArray<>();
+        synchronized (mLock) {
+            mReleased = true;
+            for (int i = 0; i < mGenerations.size(); i++) {
+                mGenerations.put(mGenerations.keyAt(i), mGenerations.valueAt(i) + 1);
+            }
+            for (int i = 0; i < mResults.size(); i++) {
+                results.put(mResults.keyAt(i), mResults.valueAt(i));
+            }
+            mResults.clear();
+            thread = mThread;
+            mThread = null;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            release(results.valueAt(i));
+        }
+        if (thread == null) {
+            return;
+        }
+        // 工作线程中剩下的请求都已经过期，销毁EGL上下文之后退出，渲染线程不等待
+        mHandler.post(this::releaseEgl);
+        thread.quitSafely();
+    }
+
+    /**
+     * 在工作线程中创建滤镜
+     */
+    private void prepareFilter(int index, int generation, Factory factory) {
+        if (!isLatest(index, generation) || !makeCurrent()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        GLImageFilter filter = null;
+        try {
+            filter = factory.create(mContext);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "prepareFilter: failed to create filter at " + index, e);
+        }
+        // 等待纹理上传和program链接完成，渲染线程取出之后可以直接使用
+        GLES30.glFinish();
+        long prepareTime = System.nanoTime() - startTime;
+        synchronized (mLock) {
+            if (!mReleased && mGenerations.get(index) == generation) {
+                mResults.put(index, new Result(filter, prepareTime));
+                return;
+            }
+        }
+        if (filter != null) {
+            filter.release();
+        }
+    }
+
+    /**
+     * 绑定工作线程的EGL上下文，第一次调用时创建
+     */
+    private boolean makeCurrent() {
+        if (mEglCore == null) {
+            try {
+                // 只用1x1的pbuffer，不需要可录制的配置
+                mEglCore = new EglCore(mSharedContext, 0);
+                mSurface = new OffscreenSurface(mEglCore, 1, 1);
+                mSurface.makeCurrent();
+                // 共享上下文中的program由同一个缓存管理
+                GLProgramCache.shareCache(mSharedContext, mEglCore.getEGLContext());
+            } catch (RuntimeException e) {
+                Log.e(TAG, "makeCurrent: failed to create shared context", e);
+                releaseEgl();
+                synchronized (mLock) {
+                    mAvailable = false;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void releaseEgl() {
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+        if (mEglCore != null) {
+            mEglCore.release();
+            mEglCore = null;
+        }
+    }
+
+    private boolean isLatest(int index, int generation) {
+        synchronized (mLock) {
+            return !mReleased && mGenerations.get(index) == generation;
+        }
+    }
+
+    private Result removeResult(int index) {
+        Result result = mResults.get(index);
+        mResults.remove(index);
+        return result;
+    }
+
+    private static void release(Result result) {
+        if (result != null && result.getFilter() != null) {
+            result.getFilter().release();
+        }
+    }
+}
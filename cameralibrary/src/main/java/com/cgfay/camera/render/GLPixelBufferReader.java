@@ -0,0 +1,278 @@
+package com.cgfay.camera.render;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.filter.glfilter.utils.TextureRotationUtils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 基于PBO(像素缓冲对象)的异步纹理读取器
+ * 在当前渲染上下文中把纹理绘制到FBO，glReadPixels写入PBO后立即返回，GPU完成之后(通过fence判断)
+ * 才映射PBO并复制到复用的ByteBuffer中回调，渲染线程不需要等待GPU。
+ * 多个PBO轮流使用，可以连续读取每一帧，PBO全部被占用时丢弃新的读取请求而不是阻塞。
+ * 需要OpenGLES 3.0，只能在GL线程中使用。
+ * @author CainHuang
+ * @date 2019/9/1
+ */
+public class GLPixelBufferReader {
+
+    private static final String TAG = "GLPixelBufferReader";
+
+    // 默认PBO个数
+    private static final int DEFAULT_BUFFER_COUNT = 3;
+
+    // 上下颠倒的纹理坐标，FBO的第一行是图像的顶部，读出的数据和Bitmap的行顺序一致
+    private static final float[] TextureVertices_flipY = {
+            0.0f, 1.0f,
+            1.0f, 1.0f,
+            0.0f, 0.0f,
+            1.0f, 0.0f,
+    };
+
+    /**
+     * 像素读取回调
+     */
+    public interface OnPixelsAvailableListener {
+
+        /**
+         * 像素读取完成，在GL线程中回调
+         * @param pixels    RGBA像素数据，从上到下逐行排列，缓冲会被复用，只在回调期间有效
+         * @param width     宽度
+         * @param height    高度
+         * @param timestamp 发起读取时传入的时间戳
+         */
+        void onPixelsAvailable(ByteBuffer pixels, int width, int height, long timestamp);
+    }
+
+    private final OnPixelsAvailableListener mListener;
+    // PBO个数
+    private final int mBufferCount;
+    // PBO
+    private final int[] mPixelBuffers;
+    // 每个PBO对应的fence，为0表示空闲
+    private final long[] mFences;
+    // 每个PBO对应的时间戳
+    private final long[] mTimestamps;
+    // 下一个写入的PBO
+    private int mWriteIndex;
+    // 最早发起读取的PBO
+    private int mReadIndex;
+    // 正在读取的PBO个数
+    private int mPendingCount;
+
+    // 复用的像素数据
+    private ByteBuffer mPixels;
+    // 绘制到FBO的滤镜
+    private GLImageFilter mImageFilter;
+    private final int[] mFrameBuffers = new int[1];
+    private final int[] mFrameBufferTextures = new int[1];
+    private FloatBuffer mVertexBuffer;
+    private FloatBuffer mTextureBuffer;
+    private int mWidth;
+    private int mHeight;
+
+    // 丢弃的读取请求个数
+    private int mDroppedCount;
+
+    public GLPixelBufferReader(OnPixelsAvailableListener listener) {
+        this(DEFAULT_BUFFER_COUNT, listener);
+    }
+
+    public GLPixelBufferReader(int bufferCount, OnPixelsAvailableListener listener) {
+        mListener = listener;
+        mBufferCount = Math.max(2, bufferCount);
+        mPixelBuffers = new int[mBufferCount];
+        mFences = new long[mBufferCount];
+        mTimestamps = new long[mBufferCount];
+    }
+
+    /**
+     * 当前上下文是否支持PBO
+     */
+    public static boolean isSupported() {
+        String version = GLES30.glGetString(GLES30.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES ") && version.length() > 10
+                && version.charAt(10) >= '3';
+    }
+
+    /**
+     * 初始化，大小变化时重新创建FBO和PBO
+     * @param width
+     * @param height
+     */
+    public void init(int width, int height) {
+        if (mImageFilter != null && mWidth == width && mHeight == height) {
+            return;
+        }
+        release();
+        mWidth = width;
+        mHeight = height;
+        int size = width * height * 4;
+        mPixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        mVertexBuffer = OpenGLUtils.createFloatBuffer(TextureRotationUtils.CubeVertices);
+        mTextureBuffer = OpenGLUtils.createFloatBuffer(TextureVertices_flipY);
+        mImageFilter = new GLImageFilter(null);
+        mImageFilter.onInputSizeChanged(width, height);
+        mImageFilter.onDisplaySizeChanged(width, height);
+        OpenGLUtils.createFrameBuffer(mFrameBuffers, mFrameBufferTextures, width, height);
+
+        GLES30.glGenBuffers(mBufferCount, mPixelBuffers, 0);
+        for (int i = 0; i < mBufferCount; i++) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[i]);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    /**
+     * 发起异步读取，结果在之后的poll中回调
+     * @param texture   需要读取的纹理
+     * @param timestamp 时间戳
+     * @return PBO全部被占用时返回false，本次请求被丢弃
+     */
+    public boolean readPixels(int texture, long timestamp) {
+        if (mImageFilter == null) {
+            return false;
+        }
+        // 先回收已经完成的PBO
+        poll();
+        if (mPendingCount == mBufferCount) {
+            mDroppedCount++;
+            return false;
+        }
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFrameBuffers[0]);
+        mImageFilter.drawFrame(texture, mVertexBuffer, mTextureBuffer);
+
+        // 读取到PBO中，不等待GPU完成
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[mWriteIndex]);
+        GLES30.glPixelStorei(GLES30.GL_PACK_ALIGNMENT, 4);
+        GLES30.glReadPixels(0, 0, mWidth, mHeight, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+
+        mFences[mWriteIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        mTimestamps[mWriteIndex] = timestamp;
+        mWriteIndex = (mWriteIndex + 1) % mBufferCount;
+        mPendingCount++;
+        // 让GPU尽快开始执行
+        GLES30.glFlush();
+        return true;
+    }
+
+    /**
+     * 按顺序回调已经完成的读取，每帧调用一次，不会阻塞
+     */
+    public void poll() {
+        while (mPendingCount > 0) {
+            long fence = mFences[mReadIndex];
+            int result = GLES30.glClientWaitSync(fence, 0, 0);
+            if (result == GLES30.GL_TIMEOUT_EXPIRED) {
+                return;
+            }
+            deliver(result != GLES30.GL_WAIT_FAILED);
+        }
+    }
+
+    /**
+     * 等待所有读取完成并回调，用于停止连续读取时取出剩余的帧
+     */
+    public void flush() {
+        while (mPendingCount > 0) {
+            GLES30.glClientWaitSync(mFences[mReadIndex], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT,
+                    GLES30.GL_TIMEOUT_IGNORED);
+            deliver(true);
+        }
+    }
+
+    /**
+     * 映射最早的PBO，复制到复用的缓冲中并回调
+     * @param success fence是否正常完成
+     */
+    private void deliver(boolean success) {
+        int index = mReadIndex;
+        GLES30.glDeleteSync(mFences[index]);
+        mFences[index] = 0;
+        mReadIndex = (mReadIndex + 1) % mBufferCount;
+        mPendingCount--;
+        if (!success) {
+            Log.w(TAG, "deliver: wait sync failed, frame dropped");
+            mDroppedCount++;
+            return;
+        }
+        int size = mWidth * mHeight * 4;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[index]);
+        Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size,
+                GLES30.GL_MAP_READ_BIT);
+        if (mapped instanceof ByteBuffer) {
+            mPixels.clear();
+            mPixels.put((ByteBuffer) mapped);
+            mPixels.flip();
+        }
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        if (!(mapped instanceof ByteBuffer)) {
+            Log.w(TAG, "deliver: map buffer failed, frame dropped");
+            mDroppedCount++;
+            return;
+        }
+        if (mListener != null) {
+            mListener.onPixelsAvailable(mPixels, mWidth, mHeight, mTimestamps[index]);
+        }
+    }
+
+    /**
+     * 把读取到的像素复制到复用的Bitmap中，ARGB_8888在内存中的字节顺序就是RGBA，不需要逐像素转换
+     * @param pixels    回调中的像素数据
+     * @param bitmap    大小相同的ARGB_8888格式Bitmap
+     */
+    public static void copyToBitmap(ByteBuffer pixels, Bitmap bitmap) {
+        pixels.rewind();
+        bitmap.copyPixelsFromBuffer(pixels);
+        pixels.rewind();
+    }
+
+    /**
+     * 正在读取的帧数
+     */
+    public int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * 丢弃的读取请求个数
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 释放资源
+     */
+    public void release() {
+        for (int i = 0; i < mBufferCount; i++) {
+            if (mFences[i] != 0) {
+                GLES30.glDeleteSync(mFences[i]);
+                mFences[i] = 0;
+            }
+        }
+        mPendingCount = 0;
+        mReadIndex = 0;
+        mWriteIndex = 0;
+        if (mImageFilter != null) {
+            GLES30.glDeleteBuffers(mBufferCount, mPixelBuffers, 0);
+            GLES30.glDeleteFramebuffers(1, mFrameBuffers, 0);
+            GLES30.glDeleteTextures(1, mFrameBufferTextures, 0);
+            mImageFilter.release();
+            mImageFilter = null;
+        }
+        mPixels = null;
+    }
+}
@@ -0,0 +1,232 @@
+package com.cgfay.camera.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 渲染命令队列
+ * 切换滤镜、彩妆、贴纸等参数命令按照key合并，同一个key在两次执行之间只保留最新的命令，
+ * 快速滑动切换时渲染线程每帧只执行一次最新的参数，不会堆积大量过期的命令。
+ * 合并时只替换命令，保留第一次提交的位置。只有两次提交之间没有插入事件时才合并，
+ * 否则新的命令排在事件后面，保证命令和事件之间的先后顺序与提交顺序一致。
+ * 没有key的事件不合并，按照提交顺序执行。
+ * 执行时先在锁内取出全部命令，在锁外按顺序执行，命令中可以继续提交新的命令，留到下一次执行。
+ * 不依赖Android，可以在JVM中测试。
+ * @author CainHuang
+ * @date 2019/9/7
+ */
+public class RenderCommandQueue {
+
+    /**
+     * 时钟，测试时可以替换
+     */
+    public interface Clock {
+
+        long nanoTime();
+    }
+
+    /**
+     * 待执行的命令
+     */
+    private static final class Entry {
+
+        // 命令的key，事件为null
+        final Object key;
+        final Runnable command;
+        // 第一次提交的时间，合并之后保留最早的时间，用于统计最长等待时间
+        final long postTime;
+
+        Entry(Object key, Runnable command, long postTime) {
+            this.key = key;
+            this.command = command;
+            this.postTime = postTime;
+        }
+    }
+
+    private final Clock mClock;
+    private final Object mLock = new Object();
+    // 待执行的命令，按照第一次提交的顺序排列
+    private final List<Entry> mPending = new ArrayList<>();
+    // 还可以合并的命令在队列中的位置，提交事件之后之前的命令都不再合并
+    private final HashMap<Object, Integer> mMergeable = new HashMap<>();
+
+    // 提交、合并和执行的命令数
+    private int mPostCount;
+    private int mMergeCount;
+    private int mExecuteCount;
+    // 执行的批次
+    private int mDrainCount;
+    // 最大队列深度
+    private int mMaxDepth;
+    // 命令从第一次提交到执行的总等待时间和最长等待时间(ns)
+    private long mTotalLatency;
+    private long mMaxLatency;
+
+    public RenderCommandQueue() {
+        this(System::nanoTime);
+    }
+
+    public RenderCommandQueue(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * 提交参数命令，取代同一个key上还没有执行、并且之后没有提交事件的命令
+     * @param key       命令的key
+     * @param command   命令
+     * @return 队列之前为空时返回true，调用者需要唤醒渲染线程
+     */
+    public boolean post(int key, Runnable command) {
+        return enqueue(key, command);
+    }
+
+    /**
+     * 提交事件，事件不会被合并
+     * @param command   事件
+     * @return 队列之前为空时返回true，调用者需要唤醒渲染线程
+     */
+    public boolean post(Runnable command) {
+        return enqueue(null, command);
+    }
+
+    private boolean enqueue(Object key, Runnable command) {
+        if (command == null) {
+            throw new IllegalArgumentException("command must not be null");
+        }
+        synchronized (mLock) {
+            boolean wasEmpty = mPending.isEmpty();
+            long postTime = mClock.nanoTime();
+            mPostCount++;
+            if (key == null) {
+                // 事件之前的命令不能再被替换，否则替换的命令会在事件之前执行
+                mMergeable.clear();
+                mPending.add(new Entry(null, command, postTime));
+            } else {
+                // 可以合并的命令替换时保留原来的位置
+                Integer index = mMergeable.get(key);
+                if (index != null) {
+                    mMergeCount++;
+                    mPending.set(index, new Entry(key, command, mPending.get(index).postTime));
+                } else {
+                    mMergeable.put(key, mPending.size());
+                    mPending.add(new Entry(key, command, postTime));
+                }
+            }
+            mMaxDepth = Math.max(mMaxDepth, mPending.size());
+            return wasEmpty;
+        }
+    }
+
+    /**
+     * 执行全部待执行的命令，只能在渲染线程中调用
+     * @return 执行的命令数
+     */
+    public int drain() {
+        List<Entry> entries;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return 0;
+            }
+            entries = new ArrayList<>(mPending);
+            mPending.clear();
+            mMergeable.clear();
+        }
+        long now = mClock.nanoTime();
+        long totalLatency = 0;
+        long maxLatency = 0;
+        for (Entry entry : entries) {
+            long latency = now - entry.postTime;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+        synchronized (mLock) {
+            mDrainCount++;
+            mExecuteCount += entries.size();
+            mTotalLatency += totalLatency;
+            mMaxLatency = Math.max(mMaxLatency, maxLatency);
+        }
+        for (Entry entry : entries) {
+            entry.command.run();
+        }
+        return entries.size();
+    }
+
+    /**
+     * 丢弃全部待执行的命令
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mPending.clear();
+            mMergeable.clear();
+        }
+    }
+
+    /**
+     * 当前队列深度
+     */
+    public int size() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * 是否有key对应的命令等待执行
+     * @param key
+     */
+    public boolean contains(int key) {
+        synchronized (mLock) {
+            for (Entry entry : mPending) {
+                if (entry.key != null && entry.key.equals(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public int getPostCount() {
+        synchronized (mLock) {
+            return mPostCount;
+        }
+    }
+
+    public int getMergeCount() {
+        synchronized (mLock) {
+            return mMergeCount;
+        }
+    }
+
+    public int getExecuteCount() {
+        synchronized (mLock) {
+            return mExecuteCount;
+        }
+    }
+
+    public int getMaxDepth() {
+        synchronized (mLock) {
+            return mMaxDepth;
+        }
+    }
+
+    public long getMaxLatency() {
+        synchronized (mLock) {
+            return mMaxLatency;
+        }
+    }
+
+    /**
+     * 命令队列统计信息
+     */
+    public String getReport() {
+        synchronized (mLock) {
+            return String.format(Locale.US, "RenderCommandQueue: %d posted, %d merged, %d executed"
+                            + " in %d batches, max depth %d, avg latency %.2fms, max latency %.2fms",
+                    mPostCount, mMergeCount, mExecuteCount, mDrainCount, mMaxDepth,
+                    mExecuteCount > 0 ? mTotalLatency / 1000000.0 / mExecuteCount : 0.0,
+                    mMaxLatency / 1000000.0);
+        }
+    }
+}
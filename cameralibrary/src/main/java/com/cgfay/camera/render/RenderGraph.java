@@ -0,0 +1,193 @@
+package com.cgfay.camera.render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 渲染图
+ * 记录滤镜链中每个节点当前是否不改变图像，编译出实际需要绘制的渲染计划，跳过不改变图像的节点。
+ * 节点状态没有变化时直接复用上一次的渲染计划，并统计每个pass的绘制耗时。
+ * 重新编译时同一节点名称不变的pass继续使用，耗时统计不会因为其他节点的变化而清空。
+ * 只记录节点的状态，不依赖OpenGLES，可以直接在JVM中测试。
+ * @author CainHuang
+ * @date 2019/8/31
+ */
+public final class RenderGraph {
+
+    /**
+     * 渲染pass
+     */
+    public static final class Pass {
+
+        // 节点索引
+        private final int mNode;
+        // pass名称
+        private final String mName;
+        // 累计耗时(ns)
+        private long mTotalTime;
+        // 累计绘制次数
+        private int mFrameCount;
+
+        Pass(int node, String name) {
+            mNode = node;
+            mName = name;
+        }
+
+        /**
+         * 获取节点索引
+         */
+        public int getNode() {
+            return mNode;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * 平均耗时(ms)
+         */
+        public double getAverageTimeMs() {
+            return mFrameCount > 0 ? mTotalTime / 1000000.0 / mFrameCount : 0;
+        }
+    }
+
+    /**
+     * 渲染计划
+     */
+    public static final class RenderPlan {
+
+        private final List<Pass> mPasses;
+
+        RenderPlan(List<Pass> passes) {
+            mPasses = passes;
+        }
+
+        public int getPassCount() {
+            return mPasses.size();
+        }
+
+        public Pass getPass(int index) {
+            return mPasses.get(index);
+        }
+    }
+
+    // 节点个数
+    private final int mNodeCount;
+    // 节点是否存在
+    private final boolean[] mPresent;
+    // 节点当前是否不改变图像
+    private final boolean[] mIdentity;
+    // 节点名称
+    private final String[] mNames;
+    // 每个节点上一次使用的pass，名称相同时复用
+    private final Pass[] mPasses;
+
+    // 节点状态是否变化
+    private boolean mDirty = true;
+    // 当前的渲染计划
+    private RenderPlan mPlan;
+    // 累计编译次数
+    private int mCompileCount;
+
+    public RenderGraph(int nodeCount) {
+        mNodeCount = nodeCount;
+        mPresent = new boolean[nodeCount];
+        mIdentity = new boolean[nodeCount];
+        mNames = new String[nodeCount];
+        mPasses = new Pass[nodeCount];
+    }
+
+    /**
+     * 更新节点状态，状态变化时才需要重新编译
+     * @param index     节点索引
+     * @param name      节点名称
+     * @param identity  当前是否不改变图像
+     */
+    public void setNode(int index, String name, boolean identity) {
+        if (mPresent[index] && mIdentity[index] == identity && name.equals(mNames[index])) {
+            return;
+        }
+        mPresent[index] = true;
+        mNames[index] = name;
+        mIdentity[index] = identity;
+        mDirty = true;
+    }
+
+    /**
+     * 移除节点
+     * @param index 节点索引
+     */
+    public void removeNode(int index) {
+        if (mPresent[index]) {
+            mPresent[index] = false;
+            mNames[index] = null;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * 节点状态是否变化，变化之后下一次compile会生成新的渲染计划
+     */
+    public boolean isDirty() {
+        return mDirty;
+    }
+
+    /**
+     * 累计编译次数
+     */
+    public int getCompileCount() {
+        return mCompileCount;
+    }
+
+    /**
+     * 编译渲染计划，节点状态没有变化时返回上一次的结果
+     */
+    public RenderPlan compile() {
+        if (!mDirty && mPlan != null) {
+            return mPlan;
+        }
+        List<Pass> passes = new ArrayList<>();
+        for (int i = 0; i < mNodeCount; i++) {
+            if (mPresent[i] && !mIdentity[i]) {
+                if (mPasses[i] == null || !mPasses[i].mName.equals(mNames[i])) {
+                    mPasses[i] = new Pass(i, mNames[i]);
+                }
+                passes.add(mPasses[i]);
+            }
+        }
+        mPlan = new RenderPlan(passes);
+        mDirty = false;
+        mCompileCount++;
+        return mPlan;
+    }
+
+    /**
+     * 记录pass的绘制耗时
+     * @param pass  渲染计划中的pass
+     * @param time  耗时(ns)
+     */
+    public void recordPassTime(Pass pass, long time) {
+        pass.mTotalTime += time;
+        pass.mFrameCount++;
+    }
+
+    /**
+     * 当前渲染计划中每个pass的平均耗时
+     */
+    public String getReport() {
+        if (mPlan == null) {
+            return "RenderGraph: not compiled";
+        }
+        StringBuilder builder = new StringBuilder("RenderGraph: ")
+                .append(mPlan.getPassCount()).append(" passes, ")
+                .append(mCompileCount).append(" compiles");
+        for (int i = 0; i < mPlan.getPassCount(); i++) {
+            Pass pass = mPlan.getPass(i);
+            builder.append("\n  ").append(pass.getName())
+                    .append(String.format(Locale.US, ": %.3fms", pass.getAverageTimeMs()));
+        }
+        return builder.toString();
+    }
+}
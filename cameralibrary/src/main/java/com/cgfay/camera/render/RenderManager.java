@@ -1,46 +1,105 @@
 package com.cgfay.camera.render;
 
 import android.content.Context;
+import android.opengl.EGL14;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.MotionEvent;
 
 import com.badlogic.gdx.math.Vector3;
 import com.cgfay.camera.camera.CameraParam;
+import com.cgfay.filter.glfilter.base.FilterLruCache;
+import com.cgfay.filter.glfilter.base.FrameBufferPool;
+import com.cgfay.filter.glfilter.base.GLImageBlurPyramid;
 import com.cgfay.filter.glfilter.base.GLImageDepthBlurFilter;
 import com.cgfay.filter.glfilter.base.GLImageFilter;
 import com.cgfay.filter.glfilter.base.GLImageOESInputFilter;
 import com.cgfay.filter.glfilter.base.GLImageVignetteFilter;
+import com.cgfay.filter.glfilter.base.IBlurPyramidFilter;
 import com.cgfay.filter.glfilter.beauty.GLImageBeautyFilter;
 import com.cgfay.filter.glfilter.beauty.bean.IBeautify;
 import com.cgfay.filter.glfilter.face.GLImageFaceReshapeFilter;
 import com.cgfay.filter.glfilter.face.GLImageFacePointsFilter;
+import com.cgfay.filter.glfilter.lut.LutTexture;
 import com.cgfay.filter.glfilter.color.GLImageDynamicColorFilter;
 import com.cgfay.filter.glfilter.color.bean.DynamicColor;
 import com.cgfay.filter.glfilter.makeup.GLImageMakeupFilter;
 import com.cgfay.filter.glfilter.makeup.bean.DynamicMakeup;
 import com.cgfay.filter.glfilter.multiframe.GLImageFrameEdgeBlurFilter;
+import com.cgfay.filter.glfilter.resource.ResourceJsonCodec;
 import com.cgfay.filter.glfilter.stickers.GLImageDynamicStickerFilter;
 import com.cgfay.filter.glfilter.stickers.GestureHelp;
 import com.cgfay.filter.glfilter.stickers.StaticStickerNormalFilter;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicSticker;
+import com.cgfay.filter.glfilter.utils.GLProgramCache;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 import com.cgfay.filter.glfilter.utils.TextureRotationUtils;
 import com.cgfay.landmark.LandmarkEngine;
 
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
 import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * 渲染管理器
  */
 public final class RenderManager {
 
+    private static final String TAG = "RenderManager";
+
+    // program二进制的缓存目录
+    private static final String PROGRAM_BINARY_DIR = "program_binary";
+    // 3D查找表的缓存目录
+    private static final String LUT_CACHE_DIR = "lut";
+    // 预加载超时时间，超时之后在渲染线程中直接创建滤镜
+    private static final long PREPARE_TIMEOUT_MS = 1000;
+    // 预加载相邻滤镜时使用的预加载器索引，与滤镜索引区分开
+    private static final int PREFETCH_INDEX_BASE = 0x100;
+    private static final int PREFETCH_INDEX_COUNT = 64;
+    // 颜色滤镜缓存的显存预算
+    private static final long COLOR_FILTER_CACHE_BYTES = 24 * 1024 * 1024;
+
     public RenderManager() {
         mCameraParam = CameraParam.getInstance();
     }
 
     // 滤镜列表
     private SparseArray<GLImageFilter> mFilterArrays = new SparseArray<GLImageFilter>();
+    // 滤镜链共享的FBO缓冲池
+    private FrameBufferPool mFrameBufferPool;
+    // 共享的模糊金字塔
+    private GLImageBlurPyramid mBlurPyramid;
+    // 上一帧输出的纹理，在下一帧开始绘制时归还缓冲池
+    private int mOutputTexture = OpenGLUtils.GL_NOT_TEXTURE;
+    // 显示之前的滤镜组成的渲染图，跳过不改变图像的滤镜
+    private final RenderGraph mRenderGraph = new RenderGraph(RenderIndex.DisplayIndex);
+
+    // 滤镜预加载器，在工作线程中创建滤镜
+    private FilterPreparer mFilterPreparer;
+    // 等待替换的滤镜，key为滤镜索引
+    private final SparseArray<PendingFilter> mPendingFilters = new SparseArray<>();
+    // 滤镜替换次数、回退到渲染线程创建的次数
+    private int mSwapCount;
+    private int mFallbackCount;
+    // 替换滤镜时渲染线程的累计耗时和最大耗时(ns)
+    private long mTotalSwapTime;
+    private long mMaxSwapTime;
+    // 从请求到替换完成的最大延迟(ns)
+    private long mMaxSwapLatency;
+
+    // 暂时不用的颜色滤镜，切换回来或者预加载过的滤镜直接使用
+    private FilterLruCache<GLImageFilter> mColorFilterCache;
+    // 当前颜色滤镜的缓存key
+    private String mColorFilterKey;
+    // 正在预加载的相邻滤镜，key为预加载器索引，value为缓存key
+    private final SparseArray<String> mPrefetchKeys = new SparseArray<>();
+    private int mPrefetchSerial;
+    // 切换时预加载还没有完成、直接等待预加载结果的次数
+    private int mPrefetchJoinCount;
 
     // 坐标缓冲
     private ScaleType mScaleType = ScaleType.CENTER_CROP;
@@ -65,16 +124,63 @@ public final class RenderManager {
      */
     public void init(Context context) {
         initBuffers();
+        // 链接好的program保存到缓存目录，下次启动时直接加载
+        GLProgramCache.setBinaryDirectory(new File(context.getCacheDir(), PROGRAM_BINARY_DIR));
+        // 转换好的3D查找表保存到缓存目录，下次加载时不需要解码和转换
+        LutTexture.setCacheDirectory(new File(context.getCacheDir(), LUT_CACHE_DIR));
+        mFrameBufferPool = new FrameBufferPool();
+        mBlurPyramid = new GLImageBlurPyramid(context, mFrameBufferPool);
         initFilters(context);
+        // 初始化时渲染线程的EGL上下文是当前上下文
+        mFilterPreparer = new FilterPreparer(context, EGL14.eglGetCurrentContext());
+        mColorFilterCache = new FilterLruCache<>(COLOR_FILTER_CACHE_BYTES, GLImageFilter::release);
         mContext = context;
+        // 人脸检测的频率比渲染低，渲染时推算两次检测之间的关键点位置
+        LandmarkEngine.getInstance().setSmoothMode(LandmarkEngine.SMOOTH_TRACK);
     }
 
     /**
      * 释放资源
      */
     public void release() {
+        Log.d(TAG, getFrameTimeReport());
+        LandmarkEngine.getInstance().setSmoothMode(LandmarkEngine.SMOOTH_NONE);
+        Log.d(TAG, "release: " + getFilterSwapReport());
+        // 预加载器创建的纹理和program属于共享上下文，需要在渲染线程的上下文销毁之前释放
+        if (mFilterPreparer != null) {
+            mFilterPreparer.release();
+            mFilterPreparer = null;
+        }
+        mPendingFilters.clear();
+        mPrefetchKeys.clear();
+        if (mColorFilterCache != null) {
+            Log.d(TAG, "release: " + mColorFilterCache.getReport() + ", prefetch joins = " + mPrefetchJoinCount);
+            mColorFilterCache.clear();
+            mColorFilterCache = null;
+        }
+        mColorFilterKey = null;
         releaseBuffers();
         releaseFilters();
+        if (mBlurPyramid != null) {
+            Log.d(TAG, "release: blur pyramid hits = " + mBlurPyramid.getHitCount()
+                    + ", draws = " + mBlurPyramid.getMissCount());
+            mBlurPyramid.release();
+            mBlurPyramid = null;
+        }
+        if (mFrameBufferPool != null) {
+            Log.d(TAG, "release: frame buffer allocations = " + mFrameBufferPool.getAllocationCount()
+                    + ", peak count = " + mFrameBufferPool.getPeakCount()
+                    + ", peak bytes = " + mFrameBufferPool.getPeakBytes());
+            mFrameBufferPool.release();
+            mFrameBufferPool = null;
+        }
+        // 滤镜已经全部释放，删除空闲的program
+        GLProgramCache programCache = GLProgramCache.getCurrent();
+        if (programCache != null) {
+            Log.d(TAG, "release: " + programCache.getReport());
+            programCache.trim();
+        }
+        mOutputTexture = OpenGLUtils.GL_NOT_TEXTURE;
         mContext = null;
     }
 
@@ -150,6 +256,31 @@ public final class RenderManager {
         mFilterArrays.put(RenderIndex.DisplayIndex, new GLImageFilter(context));
         // 人脸关键点调试
         mFilterArrays.put(RenderIndex.FacePointIndex, new GLImageFacePointsFilter(context));
+        // 显示之前的滤镜共用FBO缓冲池
+        for (int i = 0; i < RenderIndex.DisplayIndex; i++) {
+            attachFrameBufferPool(mFilterArrays.get(i));
+        }
+    }
+
+    /**
+     * 滤镜使用共享的FBO缓冲池和模糊金字塔
+     * @param filter
+     */
+    private void attachFrameBufferPool(GLImageFilter filter) {
+        if (filter != null && mFrameBufferPool != null) {
+            filter.setFrameBufferPool(mFrameBufferPool);
+        }
+        attachBlurPyramid(filter);
+    }
+
+    /**
+     * 需要模糊的滤镜使用共享的模糊金字塔，同一帧内相同的输入只模糊一次
+     * @param filter
+     */
+    private void attachBlurPyramid(GLImageFilter filter) {
+        if (filter instanceof IBlurPyramidFilter && mBlurPyramid != null) {
+            ((IBlurPyramidFilter) filter).setBlurPyramid(mBlurPyramid);
+        }
     }
 
     /**
@@ -160,6 +291,7 @@ public final class RenderManager {
         if (enableEdgeBlur) {
             mFilterArrays.get(RenderIndex.DisplayIndex).release();
             GLImageFrameEdgeBlurFilter filter = new GLImageFrameEdgeBlurFilter(mContext);
+            attachBlurPyramid(filter);
             filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
             filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
             mFilterArrays.put(RenderIndex.DisplayIndex, filter);
@@ -177,34 +309,136 @@ public final class RenderManager {
      * @param color
      */
     public synchronized void changeDynamicFilter(DynamicColor color) {
-        if (mFilterArrays.get(RenderIndex.FilterIndex) != null) {
-            mFilterArrays.get(RenderIndex.FilterIndex).release();
-            mFilterArrays.put(RenderIndex.FilterIndex, null);
-        }
         if (color == null) {
+            changeFilter(RenderIndex.FilterIndex, null, null);
             return;
         }
-        GLImageDynamicColorFilter filter = new GLImageDynamicColorFilter(mContext, color);
-        filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
-        filter.initFrameBuffer(mTextureWidth, mTextureHeight);
-        filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
-        mFilterArrays.put(RenderIndex.FilterIndex, filter);
+        String key = color.unzipPath;
+        PendingFilter pending = mPendingFilters.get(RenderIndex.FilterIndex);
+        if (key != null && pending != null && key.equals(pending.key)) {
+            return;
+        }
+        // 切换回当前正在使用的滤镜，只需要取消等待中的滤镜
+        if (key != null && key.equals(mColorFilterKey)) {
+            cancelPendingFilter(RenderIndex.FilterIndex);
+            return;
+        }
+        FilterPreparer.Factory factory = context -> new GLImageDynamicColorFilter(context, color);
+        long requestTime = System.nanoTime();
+        // 缓存中有滤镜时直接替换
+        GLImageFilter filter = mColorFilterCache != null ? mColorFilterCache.take(key) : null;
+        if (filter != null) {
+            cancelPendingFilter(RenderIndex.FilterIndex);
+            swapFilter(RenderIndex.FilterIndex, filter, key, requestTime, requestTime);
+            return;
+        }
+        // 正在预加载时等待预加载的结果
+        int slot = findPrefetch(key);
+        if (slot >= 0) {
+            mPrefetchKeys.remove(slot);
+            cancelPendingFilter(RenderIndex.FilterIndex);
+            mPrefetchJoinCount++;
+            mPendingFilters.put(RenderIndex.FilterIndex, new PendingFilter(slot, key, factory, requestTime));
+            return;
+        }
+        changeFilter(RenderIndex.FilterIndex, key, factory);
     }
 
     /**
-     * 切换动态滤镜
+     * 在工作线程中预加载相邻的颜色滤镜，滤镜数据也在工作线程中解码，完成之后放入缓存。不在列表中的预加载会被取消
+     * @param folderPaths 需要预加载的滤镜解压目录
+     */
+    public synchronized void prefetchDynamicFilters(List<String> folderPaths) {
+        if (mFilterPreparer == null || !mFilterPreparer.isAvailable() || mColorFilterCache == null) {
+            return;
+        }
+        for (int i = mPrefetchKeys.size() - 1; i >= 0; i--) {
+            if (!folderPaths.contains(mPrefetchKeys.valueAt(i))) {
+                mFilterPreparer.cancel(mPrefetchKeys.keyAt(i));
+                mPrefetchKeys.removeAt(i);
+            }
+        }
+        PendingFilter pending = mPendingFilters.get(RenderIndex.FilterIndex);
+        for (int i = 0; i < folderPaths.size(); i++) {
+            final String key = folderPaths.get(i);
+            if (key == null || key.equals(mColorFilterKey) || mColorFilterCache.contains(key)
+                    || findPrefetch(key) >= 0 || (pending != null && key.equals(pending.key))) {
+                continue;
+            }
+            int slot = nextPrefetchSlot();
+            if (mFilterPreparer.prepare(slot, context -> createDynamicColorFilter(context, key))) {
+                mPrefetchKeys.put(slot, key);
+            }
+        }
+    }
+
+    /**
+     * 解码滤镜数据并创建颜色滤镜，在预加载器的工作线程中调用
+     * @param context
+     * @param folderPath 滤镜解压目录，也是缓存key
+     * @return 解码失败时返回null
+     */
+    private static GLImageFilter createDynamicColorFilter(Context context, String folderPath) {
+        try {
+            return new GLImageDynamicColorFilter(context, ResourceJsonCodec.decodeFilterData(folderPath));
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "createDynamicColorFilter: failed to decode " + folderPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * 查找正在预加载的滤镜
+     * @param key 缓存key
+     * @return 预加载器索引，没有时返回-1
+     */
+    private int findPrefetch(String key) {
+        for (int i = 0; i < mPrefetchKeys.size(); i++) {
+            if (mPrefetchKeys.valueAt(i).equals(key)) {
+                return mPrefetchKeys.keyAt(i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 下一个空闲的预加载器索引
+     */
+    private int nextPrefetchSlot() {
+        while (true) {
+            int slot = PREFETCH_INDEX_BASE + mPrefetchSerial++ % PREFETCH_INDEX_COUNT;
+            PendingFilter pending = mPendingFilters.get(RenderIndex.FilterIndex);
+            if (mPrefetchKeys.get(slot) == null && (pending == null || pending.slot != slot)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * 颜色滤镜放入缓存，其他滤镜直接释放
+     * @param key
+     * @param filter
+     */
+    private void recycleColorFilter(String key, GLImageFilter filter) {
+        if (filter instanceof GLImageDynamicColorFilter && mColorFilterCache != null) {
+            mColorFilterCache.put(key, filter, ((GLImageDynamicColorFilter) filter).getTextureBytes());
+        } else if (filter != null) {
+            filter.release();
+        }
+    }
+
+    /**
+     * 切换动态彩妆
      * @param dynamicMakeup
      */
     public synchronized void changeDynamicMakeup(DynamicMakeup dynamicMakeup) {
-        if (mFilterArrays.get(RenderIndex.MakeupIndex) != null) {
-            ((GLImageMakeupFilter)mFilterArrays.get(RenderIndex.MakeupIndex)).changeMakeupData(dynamicMakeup);
-        } else {
-            GLImageMakeupFilter filter = new GLImageMakeupFilter(mContext, dynamicMakeup);
-            filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
-            filter.initFrameBuffer(mTextureWidth, mTextureHeight);
-            filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
-            mFilterArrays.put(RenderIndex.MakeupIndex, filter);
+        if (dynamicMakeup == null && mFilterArrays.get(RenderIndex.MakeupIndex) != null) {
+            // 清空彩妆不需要加载资源，直接在当前滤镜上修改
+            cancelPendingFilter(RenderIndex.MakeupIndex);
+            ((GLImageMakeupFilter)mFilterArrays.get(RenderIndex.MakeupIndex)).changeMakeupData(null);
+            return;
         }
+        changeFilter(RenderIndex.MakeupIndex, null, context -> new GLImageMakeupFilter(context, dynamicMakeup));
     }
 
     /**
@@ -212,18 +446,11 @@ public final class RenderManager {
      * @param color
      */
     public synchronized void changeDynamicResource(DynamicColor color) {
-        if (mFilterArrays.get(RenderIndex.ResourceIndex) != null) {
-            mFilterArrays.get(RenderIndex.ResourceIndex).release();
-            mFilterArrays.put(RenderIndex.ResourceIndex, null);
-        }
         if (color == null) {
+            changeFilter(RenderIndex.ResourceIndex, null, null);
             return;
         }
-        GLImageDynamicColorFilter filter = new GLImageDynamicColorFilter(mContext, color);
-        filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
-        filter.initFrameBuffer(mTextureWidth, mTextureHeight);
-        filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
-        mFilterArrays.put(RenderIndex.ResourceIndex, filter);
+        changeFilter(RenderIndex.ResourceIndex, null, context -> new GLImageDynamicColorFilter(context, color));
     }
 
     /**
@@ -231,20 +458,112 @@ public final class RenderManager {
      * @param sticker
      */
     public synchronized void changeDynamicResource(DynamicSticker sticker) {
-        // 释放旧滤镜
-        if (mFilterArrays.get(RenderIndex.ResourceIndex) != null) {
-            mFilterArrays.get(RenderIndex.ResourceIndex).release();
-            mFilterArrays.put(RenderIndex.ResourceIndex, null);
-        }
         if (sticker == null) {
+            changeFilter(RenderIndex.ResourceIndex, null, null);
+            return;
+        }
+        changeFilter(RenderIndex.ResourceIndex, null, context -> new GLImageDynamicStickerFilter(context, sticker));
+    }
+
+    /**
+     * 切换滤镜。滤镜在工作线程中创建，完成之后在绘制下一帧之前替换，旧的滤镜在替换之前继续绘制。
+     * 预加载器不可用时直接在渲染线程中创建
+     * @param index     滤镜索引
+     * @param key       颜色滤镜的缓存key，其他滤镜为null
+     * @param factory   滤镜工厂，为null时移除滤镜
+     */
+    private void changeFilter(int index, String key, FilterPreparer.Factory factory) {
+        long requestTime = System.nanoTime();
+        cancelPendingFilter(index);
+        if (factory == null) {
+            swapFilter(index, null, null, requestTime, requestTime);
+            return;
+        }
+        if (mFilterPreparer != null && mFilterPreparer.prepare(index, factory)) {
+            mPendingFilters.put(index, new PendingFilter(index, key, factory, requestTime));
             return;
         }
-        GLImageDynamicStickerFilter filter = new GLImageDynamicStickerFilter(mContext, sticker);
-        // 设置输入输入大小，初始化fbo等
-        filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
-        filter.initFrameBuffer(mTextureWidth, mTextureHeight);
-        filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
-        mFilterArrays.put(RenderIndex.ResourceIndex, filter);
+        mFallbackCount++;
+        swapFilter(index, factory.create(mContext), key, requestTime, requestTime);
+    }
+
+    /**
+     * 取消等待中的滤镜
+     * @param index
+     */
+    private void cancelPendingFilter(int index) {
+        PendingFilter pending = mPendingFilters.get(index);
+        if (pending != null) {
+            mPendingFilters.remove(index);
+            if (mFilterPreparer != null) {
+                mFilterPreparer.cancel(pending.slot);
+            }
+        }
+    }
+
+    /**
+     * 在两帧之间替换已经创建完成的滤镜。工作线程创建失败或者超时时，在渲染线程中直接创建
+     */
+    private synchronized void applyPendingFilters() {
+        for (int i = mPendingFilters.size() - 1; i >= 0; i--) {
+            int index = mPendingFilters.keyAt(i);
+            PendingFilter pending = mPendingFilters.valueAt(i);
+            long startTime = System.nanoTime();
+            FilterPreparer.Result result = mFilterPreparer.poll(pending.slot);
+            GLImageFilter filter;
+            if (result != null && result.getFilter() != null) {
+                filter = result.getFilter();
+            } else if (result != null || !mFilterPreparer.isAvailable()
+                    || startTime - pending.requestTime > PREPARE_TIMEOUT_MS * 1000000L) {
+                Log.w(TAG, "applyPendingFilters: fallback to create filter " + index + " on render thread");
+                mFilterPreparer.cancel(pending.slot);
+                mFallbackCount++;
+                filter = pending.factory.create(mContext);
+            } else {
+                continue;
+            }
+            mPendingFilters.removeAt(i);
+            swapFilter(index, filter, pending.key, pending.requestTime, startTime);
+        }
+        // 预加载完成的相邻滤镜放入缓存
+        for (int i = mPrefetchKeys.size() - 1; i >= 0; i--) {
+            FilterPreparer.Result result = mFilterPreparer.poll(mPrefetchKeys.keyAt(i));
+            if (result != null) {
+                recycleColorFilter(mPrefetchKeys.valueAt(i), result.getFilter());
+                mPrefetchKeys.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * 替换滤镜，并统计渲染线程的耗时
+     * @param index         滤镜索引
+     * @param filter        新的滤镜
+     * @param key           颜色滤镜的缓存key
+     * @param requestTime   请求切换的时间(ns)
+     * @param startTime     渲染线程开始处理的时间(ns)，回退时包括创建滤镜的时间
+     */
+    private void swapFilter(int index, GLImageFilter filter, String key, long requestTime, long startTime) {
+        if (index == RenderIndex.FilterIndex) {
+            // 颜色滤镜放回缓存，切换回来时不需要重新加载
+            recycleColorFilter(mColorFilterKey, mFilterArrays.get(index));
+            mColorFilterKey = filter != null ? key : null;
+        } else if (mFilterArrays.get(index) != null) {
+            mFilterArrays.get(index).release();
+        }
+        if (filter != null) {
+            attachFrameBufferPool(filter);
+            filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
+            filter.initFrameBuffer(mTextureWidth, mTextureHeight);
+            filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
+        }
+        mFilterArrays.put(index, filter);
+        long endTime = System.nanoTime();
+        long swapTime = endTime - startTime;
+        mSwapCount++;
+        mTotalSwapTime += swapTime;
+        mMaxSwapTime = Math.max(mMaxSwapTime, swapTime);
+        mMaxSwapLatency = Math.max(mMaxSwapLatency, endTime - requestTime);
     }
 
     /**
@@ -259,62 +578,125 @@ public final class RenderManager {
                 || mFilterArrays.get(RenderIndex.DisplayIndex) == null) {
             return currentTexture;
         }
+        // 上一帧的输出纹理已经使用完毕
+        if (mFrameBufferPool != null) {
+            mFrameBufferPool.release(mOutputTexture);
+        }
+        // 关键点推算到当前时刻
+        LandmarkEngine.getInstance().updateLandmarks(System.nanoTime());
         if (mFilterArrays.get(RenderIndex.CameraIndex) instanceof GLImageOESInputFilter) {
             ((GLImageOESInputFilter)mFilterArrays.get(RenderIndex.CameraIndex)).setTextureTransformMatrix(mMatrix);
         }
-        currentTexture = mFilterArrays.get(RenderIndex.CameraIndex)
-                .drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-        // 如果处于对比状态，不做处理
-        if (!mCameraParam.showCompare) {
-            // 美颜滤镜
-            if (mFilterArrays.get(RenderIndex.BeautyIndex) != null) {
-                if (mFilterArrays.get(RenderIndex.BeautyIndex) instanceof IBeautify
-                        && mCameraParam.beauty != null) {
-                    ((IBeautify) mFilterArrays.get(RenderIndex.BeautyIndex)).onBeauty(mCameraParam.beauty);
-                }
-                currentTexture = mFilterArrays.get(RenderIndex.BeautyIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
-
-            // 彩妆滤镜
-            if (mFilterArrays.get(RenderIndex.MakeupIndex) != null) {
-                currentTexture = mFilterArrays.get(RenderIndex.MakeupIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
+        // 替换已经在工作线程中创建好的滤镜
+        if (mPendingFilters.size() > 0 || mPrefetchKeys.size() > 0) {
+            applyPendingFilters();
+        }
+        // 如果处于对比状态，只绘制相机输入
+        if (mCameraParam.showCompare) {
+            currentTexture = drawFrameBuffer(mFilterArrays.get(RenderIndex.CameraIndex), currentTexture);
+        } else {
+            updateRenderGraph();
+            currentTexture = drawRenderPlan(mRenderGraph.compile(), currentTexture);
+        }
 
-            // 美型滤镜
-            if (mFilterArrays.get(RenderIndex.FaceAdjustIndex) != null) {
-                if (mFilterArrays.get(RenderIndex.FaceAdjustIndex) instanceof IBeautify) {
-                    ((IBeautify) mFilterArrays.get(RenderIndex.FaceAdjustIndex)).onBeauty(mCameraParam.beauty);
-                }
-                currentTexture = mFilterArrays.get(RenderIndex.FaceAdjustIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
+        // 显示输出，需要调整视口大小
+        mFilterArrays.get(RenderIndex.DisplayIndex).drawFrame(currentTexture, mDisplayVertexBuffer, mDisplayTextureBuffer);
 
-            // 绘制颜色滤镜
-            if (mFilterArrays.get(RenderIndex.FilterIndex) != null) {
-                currentTexture = mFilterArrays.get(RenderIndex.FilterIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
+        // 模糊金字塔缓存的纹理只在当前帧内有效
+        if (mBlurPyramid != null) {
+            mBlurPyramid.nextFrame();
+        }
 
-            // 资源滤镜，可以是贴纸、滤镜甚至是彩妆类型
-            if (mFilterArrays.get(RenderIndex.ResourceIndex) != null) {
-                currentTexture = mFilterArrays.get(RenderIndex.ResourceIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
+        // 输出纹理还需要用于录制和拍照，保留到下一帧
+        mOutputTexture = currentTexture;
+        return currentTexture;
+    }
 
-            // 景深
-            if (mFilterArrays.get(RenderIndex.DepthBlurIndex) != null) {
-                mFilterArrays.get(RenderIndex.DepthBlurIndex).setFilterEnable(mCameraParam.enableDepthBlur);
-                currentTexture = mFilterArrays.get(RenderIndex.DepthBlurIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
+    /**
+     * 设置滤镜参数，并根据滤镜当前的状态更新渲染图
+     */
+    private void updateRenderGraph() {
+        // 美颜参数、景深和暗角开关会影响滤镜是否改变图像，需要在更新渲染图之前设置
+        GLImageFilter beautyFilter = mFilterArrays.get(RenderIndex.BeautyIndex);
+        if (beautyFilter instanceof IBeautify && mCameraParam.beauty != null) {
+            ((IBeautify) beautyFilter).onBeauty(mCameraParam.beauty);
+        }
+        GLImageFilter faceAdjustFilter = mFilterArrays.get(RenderIndex.FaceAdjustIndex);
+        if (faceAdjustFilter instanceof IBeautify) {
+            ((IBeautify) faceAdjustFilter).onBeauty(mCameraParam.beauty);
+        }
+        if (mFilterArrays.get(RenderIndex.DepthBlurIndex) != null) {
+            mFilterArrays.get(RenderIndex.DepthBlurIndex).setFilterEnable(mCameraParam.enableDepthBlur);
+        }
+        if (mFilterArrays.get(RenderIndex.VignetteIndex) != null) {
+            mFilterArrays.get(RenderIndex.VignetteIndex).setFilterEnable(mCameraParam.enableVignette);
+        }
+        for (int i = 0; i < RenderIndex.DisplayIndex; i++) {
+            GLImageFilter filter = mFilterArrays.get(i);
+            if (filter == null) {
+                mRenderGraph.removeNode(i);
+            } else {
+                // 相机输入需要把OES纹理转换成2D纹理，不能跳过
+                mRenderGraph.setNode(i, filter.getClass().getSimpleName(),
+                        i != RenderIndex.CameraIndex && filter.isIdentity());
             }
+        }
+    }
 
-            // 暗角
-            if (mFilterArrays.get(RenderIndex.VignetteIndex) != null) {
-                mFilterArrays.get(RenderIndex.VignetteIndex).setFilterEnable(mCameraParam.enableVignette);
-                currentTexture = mFilterArrays.get(RenderIndex.VignetteIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
+    /**
+     * 按照渲染计划绘制，并记录每个pass的耗时
+     * @param plan          渲染计划
+     * @param inputTexture  输入纹理
+     * @return 最后一个pass输出的纹理
+     */
+    private int drawRenderPlan(RenderGraph.RenderPlan plan, int inputTexture) {
+        int currentTexture = inputTexture;
+        for (int i = 0; i < plan.getPassCount(); i++) {
+            RenderGraph.Pass pass = plan.getPass(i);
+            long startTime = System.nanoTime();
+            currentTexture = drawFrameBuffer(mFilterArrays.get(pass.getNode()), currentTexture);
+            mRenderGraph.recordPassTime(pass, System.nanoTime() - startTime);
         }
+        return currentTexture;
+    }
 
-        // 显示输出，需要调整视口大小
-        mFilterArrays.get(RenderIndex.DisplayIndex).drawFrame(currentTexture, mDisplayVertexBuffer, mDisplayTextureBuffer);
+    /**
+     * 获取渲染计划中每个pass的平均耗时，统计的是提交绘制命令的CPU耗时
+     */
+    public String getFrameTimeReport() {
+        return mRenderGraph.getReport();
+    }
 
-        return currentTexture;
+    /**
+     * 滤镜替换的统计信息，渲染线程的耗时即切换滤镜时的卡顿时间
+     * @return
+     */
+    public synchronized String getFilterSwapReport() {
+        return String.format(Locale.US, "filter swaps = %d, fallbacks = %d, render thread avg = %.2fms"
+                        + ", max = %.2fms, max latency = %.2fms", mSwapCount, mFallbackCount,
+                mSwapCount > 0 ? mTotalSwapTime / 1000000.0 / mSwapCount : 0.0,
+                mMaxSwapTime / 1000000.0, mMaxSwapLatency / 1000000.0);
+    }
+
+    /**
+     * 绘制到FBO，输入纹理使用完毕之后归还缓冲池
+     * @param filter
+     * @param inputTexture
+     * @return 滤镜输出的纹理
+     */
+    private int drawFrameBuffer(GLImageFilter filter, int inputTexture) {
+        int texture = filter.drawFrameBuffer(inputTexture, mVertexBuffer, mTextureBuffer);
+        if (texture != inputTexture && mFrameBufferPool != null) {
+            mFrameBufferPool.release(inputTexture);
+        }
+        return texture;
+    }
+
+    /**
+     * 获取滤镜链共享的FBO缓冲池，可用于查看FBO分配次数和显存占用峰值
+     */
+    public FrameBufferPool getFrameBufferPool() {
+        return mFrameBufferPool;
     }
 
     /**
@@ -377,6 +759,10 @@ public final class RenderManager {
      * 调整滤镜
      */
     private void onFilterChanged() {
+        // 删除旧大小的空闲FBO
+        if (mFrameBufferPool != null) {
+            mFrameBufferPool.trim();
+        }
         for (int i = 0; i < RenderIndex.NumberIndex; i++) {
             if (mFilterArrays.get(i) != null) {
                 mFilterArrays.get(i).onInputSizeChanged(mTextureWidth, mTextureHeight);
@@ -469,4 +855,26 @@ public final class RenderManager {
         return null;
 
     }
+
+    /**
+     * 等待替换的滤镜
+     */
+    private static final class PendingFilter {
+
+        // 预加载器索引，等待预加载结果时与滤镜索引不同
+        final int slot;
+        // 颜色滤镜的缓存key
+        final String key;
+        // 滤镜工厂，回退时在渲染线程中使用
+        final FilterPreparer.Factory factory;
+        // 请求切换的时间(ns)
+        final long requestTime;
+
+        PendingFilter(int slot, String key, FilterPreparer.Factory factory, long requestTime) {
+            this.slot = slot;
+            this.key = key;
+            this.factory = factory;
+            this.requestTime = requestTime;
+        }
+    }
 }
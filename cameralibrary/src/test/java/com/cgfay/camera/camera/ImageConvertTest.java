@@ -0,0 +1,258 @@
+package com.cgfay.camera.camera;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * YUV_420_888转NV21/I420的单元测试，在JVM中构造几种常见的平面布局：
+ * 半平面布局中U、V平面共享一块VU交错的内存，像素跨度为2；
+ * 分离布局中U、V平面是两块独立的内存，像素跨度为1或者2。
+ */
+public class ImageConvertTest {
+
+    // 每行的填充字节
+    private static final int PADDING = 64;
+
+    @Test
+    public void detectsInterleavedLayout() {
+        Frame interleaved = Frame.interleaved(64, 48, PADDING, new Random(1));
+        assertTrue(isInterleavedVU(interleaved, interleaved.uPlane, interleaved.vPlane));
+        // 只读取，不修改相机的数据，只读的缓冲也能识别
+        assertTrue(isInterleavedVU(interleaved, interleaved.uPlane.asReadOnlyBuffer(),
+                interleaved.vPlane.asReadOnlyBuffer()));
+
+        Frame separate = Frame.separate(64, 48, 0, 2, new Random(1));
+        assertFalse(isInterleavedVU(separate, separate.uPlane, separate.vPlane));
+        Frame planar = Frame.separate(64, 48, 0, 1, new Random(1));
+        assertFalse(isInterleavedVU(planar, planar.uPlane, planar.vPlane));
+    }
+
+    private static boolean isInterleavedVU(Frame frame, ByteBuffer uPlane, ByteBuffer vPlane) {
+        return ImageConvert.isInterleavedVU(uPlane, vPlane, 0, frame.uvRowStride,
+                frame.uvPixelStride, frame.width / 2, frame.height / 2);
+    }
+
+    @Test
+    public void convertsInterleavedLayout() {
+        // 行跨度等于宽度时整个平面一次复制
+        assertConverted(Frame.interleaved(64, 48, 0, new Random(2)), 0, 0, 64, 48, 1);
+        assertConverted(Frame.interleaved(64, 48, PADDING, new Random(3)), 0, 0, 64, 48, 1);
+        assertConverted(Frame.interleaved(64, 48, PADDING, new Random(4)), 8, 4, 40, 32, 1);
+    }
+
+    @Test
+    public void convertsSeparateLayouts() {
+        assertConverted(Frame.separate(64, 48, PADDING, 2, new Random(5)), 0, 0, 64, 48, 1);
+        assertConverted(Frame.separate(64, 48, PADDING, 1, new Random(6)), 8, 4, 40, 32, 1);
+        assertConverted(Frame.separate(64, 48, 0, 1, new Random(7)), 0, 0, 64, 48, 1);
+    }
+
+    @Test
+    public void cropsAndDownscalesInOnePass() {
+        assertEquals(20, ImageConvert.getScaledSize(40, 2));
+        assertEquals(12, ImageConvert.getScaledSize(50, 4));
+        assertConverted(Frame.interleaved(64, 48, PADDING, new Random(8)), 0, 0, 64, 48, 2);
+        assertConverted(Frame.interleaved(64, 48, PADDING, new Random(9)), 8, 4, 50, 40, 4);
+        assertConverted(Frame.separate(64, 48, 0, 1, new Random(10)), 8, 4, 40, 32, 2);
+    }
+
+    @Test
+    public void scalesNV21() {
+        int width = 64;
+        int height = 48;
+        int scale = 2;
+        Random random = new Random(17);
+        byte[] src = new byte[width * height * 3 / 2];
+        random.nextBytes(src);
+        int outWidth = width / scale;
+        int outHeight = height / scale;
+        byte[] dst = new byte[outWidth * outHeight * 3 / 2];
+        ImageConvert.scaleNV21(src, width, height, scale, dst);
+        for (int y = 0; y < outHeight; y++) {
+            for (int x = 0; x < outWidth; x++) {
+                assertEquals(src[y * scale * width + x * scale], dst[y * outWidth + x]);
+            }
+        }
+        int ySize = width * height;
+        int outYSize = outWidth * outHeight;
+        for (int y = 0; y < outHeight / 2; y++) {
+            for (int x = 0; x < outWidth / 2; x++) {
+                int offset = ySize + y * scale * width + x * scale * 2;
+                int outOffset = outYSize + y * outWidth + x * 2;
+                assertEquals(src[offset], dst[outOffset]);
+                assertEquals(src[offset + 1], dst[outOffset + 1]);
+            }
+        }
+    }
+
+    /**
+     * 从缓冲池取出缓冲转换，稳定之后每一帧不分配内存
+     */
+    @Test
+    public void pooledConvertDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        int frameCount = 50;
+        Frame frame = Frame.separate(320, 240, PADDING, 2, new Random(18));
+        int frameSize = frame.width * frame.height * 3 / 2;
+        PreviewFramePool pool = new PreviewFramePool();
+        pool.setFrameSize(frameSize);
+        // 预热，分配缓冲和行缓冲
+        convertPooled(frame, pool);
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < frameCount; i++) {
+            convertPooled(frame, pool);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - start;
+        assertEquals(1, pool.getAllocateCount());
+        // 每帧分配一个输出数组时总量是帧大小的frameCount倍，剩余的是测量本身的固定开销
+        assertTrue("allocated " + allocated + " bytes", allocated < frameSize);
+    }
+
+    private static void convertPooled(Frame frame, PreviewFramePool pool) {
+        byte[] data = pool.acquire();
+        frame.convert(0, 0, frame.width, frame.height, 1, ImageConvert.COLOR_FORMAT_NV21, data);
+        pool.release(data);
+    }
+
+    /**
+     * 与逐个像素采样的结果比较NV21和I420
+     */
+    private static void assertConverted(Frame frame, int left, int top, int width, int height,
+                                        int scale) {
+        int outWidth = ImageConvert.getScaledSize(width, scale);
+        int outHeight = ImageConvert.getScaledSize(height, scale);
+        int ySize = outWidth * outHeight;
+        int uvSize = (outWidth / 2) * (outHeight / 2);
+        byte[] nv21 = new byte[ySize + uvSize * 2];
+        byte[] i420 = new byte[nv21.length];
+        byte[] expectedNV21 = new byte[nv21.length];
+        byte[] expectedI420 = new byte[nv21.length];
+        for (int y = 0; y < outHeight; y++) {
+            for (int x = 0; x < outWidth; x++) {
+                byte value = frame.y[(top + y * scale) * frame.width + left + x * scale];
+                expectedNV21[y * outWidth + x] = value;
+                expectedI420[y * outWidth + x] = value;
+            }
+        }
+        int index = 0;
+        for (int y = 0; y < outHeight / 2; y++) {
+            for (int x = 0; x < outWidth / 2; x++) {
+                int offset = (top / 2 + y * scale) * (frame.width / 2) + left / 2 + x * scale;
+                expectedNV21[ySize + 2 * index] = frame.v[offset];
+                expectedNV21[ySize + 2 * index + 1] = frame.u[offset];
+                expectedI420[ySize + index] = frame.u[offset];
+                expectedI420[ySize + uvSize + index] = frame.v[offset];
+                index++;
+            }
+        }
+        frame.convert(left, top, width, height, scale, ImageConvert.COLOR_FORMAT_NV21, nv21);
+        frame.convert(left, top, width, height, scale, ImageConvert.COLOR_FORMAT_I420, i420);
+        assertArrayEquals(expectedNV21, nv21);
+        assertArrayEquals(expectedI420, i420);
+    }
+
+    /**
+     * 模拟的YUV_420_888图像
+     */
+    private static final class Frame {
+
+        final int width;
+        final int height;
+        final int rowStride;
+        final int uvRowStride;
+        final int uvPixelStride;
+        // 原始的平面数据
+        final byte[] y;
+        final byte[] u;
+        final byte[] v;
+        // 带填充的平面内存
+        ByteBuffer yPlane;
+        ByteBuffer uPlane;
+        ByteBuffer vPlane;
+
+        private Frame(int width, int height, int padding, int uvRowStride, int uvPixelStride,
+                      Random random) {
+            this.width = width;
+            this.height = height;
+            this.rowStride = width + padding;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+            y = new byte[width * height];
+            u = new byte[width / 2 * height / 2];
+            v = new byte[u.length];
+            random.nextBytes(y);
+            random.nextBytes(u);
+            random.nextBytes(v);
+            yPlane = ByteBuffer.allocateDirect(rowStride * (height - 1) + width);
+            for (int row = 0; row < height; row++) {
+                yPlane.position(row * rowStride);
+                yPlane.put(y, row * width, width);
+            }
+            yPlane.clear();
+        }
+
+        /**
+         * 半平面布局，U平面从VU交错内存的第二个字节开始，最后一行没有填充
+         */
+        static Frame interleaved(int width, int height, int padding, Random random) {
+            Frame frame = new Frame(width, height, padding, width + padding, 2, random);
+            ByteBuffer vu = ByteBuffer.allocateDirect(frame.uvRowStride * (height / 2 - 1) + width);
+            for (int row = 0; row < height / 2; row++) {
+                for (int col = 0; col < width / 2; col++) {
+                    vu.put(row * frame.uvRowStride + col * 2, frame.v[row * width / 2 + col]);
+                    vu.put(row * frame.uvRowStride + col * 2 + 1, frame.u[row * width / 2 + col]);
+                }
+            }
+            vu.limit(vu.capacity() - 1);
+            frame.vPlane = vu.slice();
+            vu.limit(vu.capacity()).position(1);
+            frame.uPlane = vu.slice();
+            return frame;
+        }
+
+        /**
+         * 分离布局，U、V平面是两块独立的内存
+         */
+        static Frame separate(int width, int height, int padding, int pixelStride, Random random) {
+            int uvRowStride = width / 2 * pixelStride + padding / 2;
+            Frame frame = new Frame(width, height, padding, uvRowStride, pixelStride, random);
+            frame.uPlane = createPlane(frame.u, width / 2, height / 2, uvRowStride, pixelStride);
+            frame.vPlane = createPlane(frame.v, width / 2, height / 2, uvRowStride, pixelStride);
+            return frame;
+        }
+
+        private static ByteBuffer createPlane(byte[] values, int width, int height, int rowStride,
+                                              int pixelStride) {
+            ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * (height - 1)
+                    + (width - 1) * pixelStride + 1);
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    plane.put(row * rowStride + col * pixelStride, values[row * width + col]);
+                }
+            }
+            return plane;
+        }
+
+        void convert(int left, int top, int cropWidth, int cropHeight, int scale, int colorFormat,
+                     byte[] data) {
+            ImageConvert.convert(yPlane, rowStride, 1, uPlane, vPlane, uvRowStride, uvPixelStride,
+                    left, top, cropWidth, cropHeight, scale, colorFormat, data);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.cgfay.camera.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 预览帧缓冲池的单元测试
+ */
+public class PreviewFramePoolTest {
+
+    @Test
+    public void reusesReleasedBuffers() {
+        PreviewFramePool pool = new PreviewFramePool(2);
+        pool.setFrameSize(12);
+        byte[] first = pool.acquire();
+        byte[] second = pool.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(12, first.length);
+        // 缓冲全部被占用时丢弃这一帧
+        assertNull(pool.acquire());
+        assertEquals(1, pool.getExhaustedCount());
+
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        assertEquals(2, pool.getAllocateCount());
+    }
+
+    @Test
+    public void ignoresForeignAndDuplicateBuffers() {
+        PreviewFramePool pool = new PreviewFramePool(2);
+        pool.setFrameSize(12);
+        byte[] buffer = pool.acquire();
+        pool.release(new byte[8]);
+        pool.release(buffer);
+        pool.release(buffer);
+        assertEquals(1, pool.getFreeCount());
+        // 没有从缓冲池取出的缓冲不会让缓冲个数超过上限
+        pool.release(new byte[12]);
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void frameSizeChangeDropsOldBuffers() {
+        PreviewFramePool pool = new PreviewFramePool(1);
+        pool.setFrameSize(12);
+        byte[] old = pool.acquire();
+        pool.setFrameSize(24);
+        byte[] buffer = pool.acquire();
+        assertNotNull(buffer);
+        assertEquals(24, buffer.length);
+        pool.release(old);
+        assertEquals(0, pool.getFreeCount());
+
+        pool.clear();
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void reopenDropsBuffersFromEarlierSession() {
+        PreviewFramePool pool = new PreviewFramePool(2);
+        pool.setFrameSize(12);
+        byte[] stale = pool.acquire();
+        // 相机关闭之后用相同的预览尺寸重新打开
+        pool.clear();
+        pool.setFrameSize(12);
+        byte[] first = pool.acquire();
+        byte[] second = pool.acquire();
+        assertNotNull(second);
+        pool.release(first);
+        // 之前打开时分配的缓冲晚归还，不能进入缓冲池
+        pool.release(stale);
+        assertEquals(1, pool.getFreeCount());
+        assertSame(first, pool.acquire());
+        assertNull(pool.acquire());
+    }
+}
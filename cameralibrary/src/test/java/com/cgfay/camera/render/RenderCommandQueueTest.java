@@ -0,0 +1,113 @@
+package com.cgfay.camera.render;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 渲染命令队列的单元测试
+ */
+public class RenderCommandQueueTest {
+
+    private static final int KEY_FILTER = 1;
+    private static final int KEY_MAKEUP = 2;
+
+    private long mTime;
+    private final List<String> mExecuted = new ArrayList<>();
+
+    private RenderCommandQueue createQueue() {
+        return new RenderCommandQueue(() -> mTime);
+    }
+
+    private Runnable record(String name) {
+        return () -> mExecuted.add(name);
+    }
+
+    @Test
+    public void sameKeyKeepsLatestCommand() {
+        RenderCommandQueue queue = createQueue();
+        assertTrue(queue.post(KEY_FILTER, record("filter1")));
+        assertFalse(queue.post(KEY_FILTER, record("filter2")));
+        assertFalse(queue.post(KEY_MAKEUP, record("makeup")));
+        assertFalse(queue.post(KEY_FILTER, record("filter3")));
+        assertEquals(2, queue.size());
+        assertTrue(queue.contains(KEY_FILTER));
+
+        assertEquals(2, queue.drain());
+        // 合并之后保留第一次提交的位置
+        assertEquals("filter3", mExecuted.get(0));
+        assertEquals("makeup", mExecuted.get(1));
+        assertEquals(4, queue.getPostCount());
+        assertEquals(2, queue.getMergeCount());
+        assertEquals(2, queue.getExecuteCount());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.drain());
+    }
+
+    @Test
+    public void eventsAreNeverMerged() {
+        RenderCommandQueue queue = createQueue();
+        queue.post(record("event1"));
+        queue.post(KEY_FILTER, record("filter1"));
+        queue.post(KEY_FILTER, record("filter2"));
+        queue.post(record("event2"));
+        queue.post(record("event3"));
+        queue.drain();
+        assertEquals(4, mExecuted.size());
+        assertEquals("event1", mExecuted.get(0));
+        assertEquals("filter2", mExecuted.get(1));
+        assertEquals("event2", mExecuted.get(2));
+        assertEquals("event3", mExecuted.get(3));
+        assertEquals(1, queue.getMergeCount());
+    }
+
+    @Test
+    public void commandsAfterEventAreNotMergedAcrossIt() {
+        RenderCommandQueue queue = createQueue();
+        queue.post(KEY_FILTER, record("filter1"));
+        queue.post(record("event"));
+        queue.post(KEY_FILTER, record("filter2"));
+        queue.post(KEY_FILTER, record("filter3"));
+        assertEquals(3, queue.size());
+        queue.drain();
+        // 事件前后的命令都按照提交顺序执行，事件之后的命令之间仍然合并
+        assertEquals(3, mExecuted.size());
+        assertEquals("filter1", mExecuted.get(0));
+        assertEquals("event", mExecuted.get(1));
+        assertEquals("filter3", mExecuted.get(2));
+        assertEquals(1, queue.getMergeCount());
+        assertEquals(3, queue.getMaxDepth());
+    }
+
+    @Test
+    public void commandPostedWhileDrainingRunsNextTime() {
+        RenderCommandQueue queue = createQueue();
+        queue.post(KEY_FILTER, () -> {
+            mExecuted.add("filter");
+            // 执行中提交的命令需要重新唤醒渲染线程
+            assertTrue(queue.post(KEY_MAKEUP, record("makeup")));
+        });
+        assertEquals(1, queue.drain());
+        assertEquals(1, mExecuted.size());
+        assertEquals(1, queue.drain());
+        assertEquals("makeup", mExecuted.get(1));
+    }
+
+    @Test
+    public void latencyCountsFromFirstMergedPost() {
+        RenderCommandQueue queue = createQueue();
+        mTime = 1000000;
+        queue.post(KEY_FILTER, record("filter1"));
+        mTime = 5000000;
+        queue.post(KEY_FILTER, record("filter2"));
+        mTime = 9000000;
+        queue.drain();
+        assertEquals(8000000, queue.getMaxLatency());
+        assertTrue(queue.getReport().contains("max latency 8.00ms"));
+    }
+}
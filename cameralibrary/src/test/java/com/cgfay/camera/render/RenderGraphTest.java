@@ -0,0 +1,77 @@
+package com.cgfay.camera.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 渲染图编译的单元测试
+ */
+public class RenderGraphTest {
+
+    @Test
+    public void skipsIdentityNodes() {
+        RenderGraph graph = new RenderGraph(4);
+        graph.setNode(0, "Camera", false);
+        graph.setNode(1, "Beauty", true);
+        graph.setNode(3, "Sticker", false);
+        RenderGraph.RenderPlan plan = graph.compile();
+        assertEquals(2, plan.getPassCount());
+        assertEquals(0, plan.getPass(0).getNode());
+        assertEquals(3, plan.getPass(1).getNode());
+        assertEquals("Sticker", plan.getPass(1).getName());
+
+        // 节点重新改变图像时加回渲染计划
+        graph.setNode(1, "Beauty", false);
+        plan = graph.compile();
+        assertEquals(3, plan.getPassCount());
+        assertEquals(1, plan.getPass(1).getNode());
+    }
+
+    @Test
+    public void recompilesOnlyWhenChanged() {
+        RenderGraph graph = new RenderGraph(3);
+        graph.setNode(0, "Camera", false);
+        graph.setNode(1, "Vignette", false);
+        RenderGraph.RenderPlan plan = graph.compile();
+        for (int frame = 0; frame < 10; frame++) {
+            graph.setNode(0, "Camera", false);
+            graph.setNode(1, "Vignette", false);
+            assertFalse(graph.isDirty());
+            assertSame(plan, graph.compile());
+            graph.recordPassTime(plan.getPass(0), 2000000);
+        }
+        assertEquals(1, graph.getCompileCount());
+        assertEquals(2.0, plan.getPass(0).getAverageTimeMs(), 1e-9);
+        assertTrue(graph.getReport().contains("Camera: 2.000ms"));
+
+        graph.removeNode(1);
+        assertTrue(graph.isDirty());
+        assertEquals(1, graph.compile().getPassCount());
+        assertEquals(2, graph.getCompileCount());
+    }
+
+    @Test
+    public void recompileKeepsPassTimes() {
+        RenderGraph graph = new RenderGraph(3);
+        graph.setNode(0, "Camera", false);
+        graph.setNode(2, "Vignette", false);
+        RenderGraph.RenderPlan plan = graph.compile();
+        graph.recordPassTime(plan.getPass(0), 3000000);
+
+        // 其他节点变化之后，名称不变的节点继续使用原来的pass
+        graph.setNode(1, "Beauty", false);
+        plan = graph.compile();
+        assertEquals(3, plan.getPassCount());
+        assertEquals(3.0, plan.getPass(0).getAverageTimeMs(), 1e-9);
+
+        // 节点换成其他滤镜时重新统计
+        graph.setNode(0, "Mirror", false);
+        plan = graph.compile();
+        assertEquals("Mirror", plan.getPass(0).getName());
+        assertEquals(0.0, plan.getPass(0).getAverageTimeMs(), 1e-9);
+    }
+}
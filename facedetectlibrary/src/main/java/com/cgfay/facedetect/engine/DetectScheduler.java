@@ -0,0 +1,472 @@
+package com.cgfay.facedetect.engine;
+
+import com.cgfay.facedetect.listener.FrameReleaseListener;
+
+import java.util.Locale;
+
+/**
+ * 人脸检测调度器
+ * 预览帧的到达速度比检测快时，只保留最新的一帧，旧的帧直接丢弃并归还，检测结果不会越来越落后于预览。
+ * 同时进行的检测个数有上限，达到上限时最新的一帧放入单帧信箱，等到有检测结束之后再开始检测。
+ * 没有到下一次检测的时间时也放入信箱，由定时器在间隔到达时开始检测，检测帧率不会低于最小间隔对应的帧率。
+ * 同时进行多个检测时，两次开始检测的间隔根据平均检测耗时自适应调整，均匀错开，不会一次开始多个检测。
+ * 跟踪模式下每次检测之后跳过几帧，由渲染端推算关键点的位置，人脸丢失或者推算不准时调用{@link #requestDetect()}马上检测。
+ * 调用者可以在转换和缩小图像之前通过{@link #skipFrame()}判断这一帧是否跳过，跳过的帧不需要准备图像数据。
+ * {@link #clear()}之后还没有结束的检测属于上一轮调度，结束时只归还图像，不再计入检测个数和统计。
+ * 不依赖Android，可以在JVM中测试。
+ * @author CainHuang
+ * @date 2019/9/9
+ */
+public class DetectScheduler {
+
+    /**
+     * 时钟，测试时可以替换
+     */
+    public interface Clock {
+
+        long nanoTime();
+    }
+
+    /**
+     * 检测器，开始一次异步检测，检测结束之后需要调用{@link #onDetectFinished(Frame)}
+     */
+    public interface Detector {
+
+        void detect(Frame frame);
+    }
+
+    /**
+     * 定时器，信箱中的帧需要等到间隔到达时开始检测
+     */
+    public interface Timer {
+
+        /**
+         * 延时执行任务，之前安排的任务还没有执行时不会重复安排
+         * @param task      任务
+         * @param delayNs   延时(ns)
+         */
+        void schedule(Runnable task, long delayNs);
+    }
+
+    /**
+     * 等待检测的帧
+     */
+    public static final class Frame {
+
+        public final byte[] data;
+        public final int width;
+        public final int height;
+        // 预览图像的宽高，检测图像缩小时大于width、height
+        public final int previewWidth;
+        public final int previewHeight;
+        // 检测图像相对预览图像的缩小倍数
+        public final int scale;
+        public final FrameReleaseListener listener;
+        // 提交和开始检测的时间，提交时间即预览帧的采集时间
+        final long submitTime;
+        long startTime;
+        // 开始检测时的调度轮次
+        int generation;
+
+        Frame(byte[] data, int width, int height, int previewWidth, int previewHeight, int scale,
+              FrameReleaseListener listener, long submitTime) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+            this.scale = scale;
+            this.listener = listener;
+            this.submitTime = submitTime;
+        }
+
+        /**
+         * 提交时间(ns)
+         */
+        public long getSubmitTime() {
+            return submitTime;
+        }
+
+        /**
+         * 归还图像数据
+         */
+        public void release() {
+            if (listener != null) {
+                listener.onFrameReleased(data);
+            }
+        }
+    }
+
+    // 默认同时进行的检测个数
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+    // 平均检测耗时的平滑系数
+    private static final float DURATION_SMOOTHING = 0.2f;
+
+    private final Clock mClock;
+    private final Detector mDetector;
+    // 定时器，没有设置时信箱中的帧只在检测结束或者下一帧提交时处理
+    private Timer mTimer;
+    // 是否已经安排了定时任务
+    private boolean mTimerScheduled;
+    // 定时开始检测信箱中的帧
+    private final Runnable mStartPendingTask = this::startPending;
+
+    // 同时进行的检测个数上限
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    // 两次开始检测的最小间隔(ns)
+    private long mMinInterval;
+    // 每次检测之后跳过的帧数
+    private int mTrackFrames;
+
+    // 正在进行的检测个数
+    private int mInFlight;
+    // 调度轮次，clear之后加一
+    private int mGeneration;
+    // 单帧信箱，只保留最新的一帧
+    private Frame mPending;
+    // 上一次开始检测的时间
+    private long mLastStartTime;
+    private boolean mStarted;
+    // 还需要跳过的帧数
+    private int mSkipFrames;
+    // 平均检测耗时(ns)
+    private long mAverageDuration;
+
+    // 提交、检测、丢弃、跳过的帧数
+    private int mSubmitCount;
+    private int mDetectCount;
+    private int mDropCount;
+    private int mTrackCount;
+    // 检测结束的帧数
+    private int mFinishedCount;
+    // 检测总耗时(ns)，以及第一帧的提交时间
+    private long mTotalDuration;
+    private long mFirstSubmitTime;
+    // 帧在信箱中等待的总时间和最长时间(ns)
+    private long mTotalQueueAge;
+    private long mMaxQueueAge;
+    // 从提交到检测结束的总时间和最长时间(ns)
+    private long mTotalLatency;
+    private long mMaxLatency;
+
+    public DetectScheduler(Detector detector) {
+        this(detector, System::nanoTime);
+    }
+
+    public DetectScheduler(Detector detector, Clock clock) {
+        mDetector = detector;
+        mClock = clock;
+    }
+
+    /**
+     * 设置定时器，信箱中的帧在间隔到达时开始检测
+     * @param timer
+     */
+    public synchronized void setTimer(Timer timer) {
+        mTimer = timer;
+    }
+
+    /**
+     * 设置同时进行的检测个数上限
+     * @param maxInFlight
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        mMaxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * 设置两次开始检测的最小间隔，限制检测帧率
+     * @param intervalMs 毫秒，0表示不限制
+     */
+    public synchronized void setMinInterval(long intervalMs) {
+        mMinInterval = Math.max(0, intervalMs) * 1000000L;
+    }
+
+    /**
+     * 设置跟踪模式下每次检测之后跳过的帧数
+     * @param frames 0表示每一帧都检测
+     */
+    public synchronized void setTrackFrames(int frames) {
+        mTrackFrames = Math.max(0, frames);
+        mSkipFrames = Math.min(mSkipFrames, mTrackFrames);
+    }
+
+    /**
+     * 下一帧马上检测，用于人脸丢失或者推算位置不准的时候
+     */
+    public synchronized void requestDetect() {
+        mSkipFrames = 0;
+    }
+
+    /**
+     * 在准备图像数据之前判断这一帧是否跳过，跳过时记为一次提交
+     * @return true表示这一帧不检测，不需要再提交
+     */
+    public synchronized boolean skipFrame() {
+        if (mSkipFrames <= 0) {
+            return false;
+        }
+        mSubmitCount++;
+        mSkipFrames--;
+        mTrackCount++;
+        return true;
+    }
+
+    /**
+     * 提交一帧
+     * @param data      图像数据
+     * @param width     图像宽度
+     * @param height    图像高度
+     * @param listener  检测结束或者丢弃之后归还图像数据，可以为null
+     */
+    public void submit(byte[] data, int width, int height, FrameReleaseListener listener) {
+        submit(data, width, height, width, height, 1, listener);
+    }
+
+    /**
+     * 提交一帧缩小之后的图像
+     * @param data          图像数据
+     * @param width         图像宽度
+     * @param height        图像高度
+     * @param previewWidth  预览图像宽度
+     * @param previewHeight 预览图像高度
+     * @param scale         缩小图像时使用的倍数
+     * @param listener      检测结束或者丢弃之后归还图像数据，可以为null
+     */
+    public void submit(byte[] data, int width, int height, int previewWidth, int previewHeight,
+                       int scale, FrameReleaseListener listener) {
+        Frame frame = new Frame(data, width, height, previewWidth, previewHeight, scale, listener,
+                mClock.nanoTime());
+        Frame dropped = null;
+        Frame start = null;
+        long delay = -1;
+        synchronized (this) {
+            if (mSubmitCount == 0) {
+                mFirstSubmitTime = frame.submitTime;
+            }
+            mSubmitCount++;
+            if (mSkipFrames > 0) {
+                // 两次检测之间的帧不检测，关键点由渲染端推算
+                mSkipFrames--;
+                mTrackCount++;
+                dropped = frame;
+            } else {
+                // 信箱中的旧帧总是被替换
+                dropped = mPending;
+                mPending = null;
+                if (mInFlight < mMaxInFlight && canStart(frame.submitTime)) {
+                    start = begin(frame, frame.submitTime);
+                } else {
+                    // 检测个数已满或者还没有到下一次检测的时间，放入信箱等待
+                    mPending = frame;
+                    delay = scheduleLocked(frame.submitTime);
+                }
+                if (dropped != null) {
+                    mDropCount++;
+                }
+            }
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+        if (delay >= 0) {
+            mTimer.schedule(mStartPendingTask, delay);
+        }
+        if (start != null) {
+            mDetector.detect(start);
+        }
+    }
+
+    /**
+     * 检测结束，检测器需要自己归还图像数据
+     * @param frame
+     */
+    public void onDetectFinished(Frame frame) {
+        Frame start = null;
+        long delay = -1;
+        synchronized (this) {
+            if (frame.generation != mGeneration) {
+                // clear之前开始的检测，已经不计入检测个数
+                return;
+            }
+            long now = mClock.nanoTime();
+            mInFlight--;
+            mFinishedCount++;
+            long duration = now - frame.startTime;
+            mTotalDuration += duration;
+            mAverageDuration = mAverageDuration == 0 ? duration
+                    : (long) (mAverageDuration + (duration - mAverageDuration) * DURATION_SMOOTHING);
+            long latency = now - frame.submitTime;
+            mTotalLatency += latency;
+            mMaxLatency = Math.max(mMaxLatency, latency);
+            if (mPending != null && mInFlight < mMaxInFlight && canStart(now)) {
+                start = begin(mPending, now);
+                mPending = null;
+            } else if (mPending != null) {
+                delay = scheduleLocked(now);
+            }
+        }
+        if (delay >= 0) {
+            mTimer.schedule(mStartPendingTask, delay);
+        }
+        if (start != null) {
+            mDetector.detect(start);
+        }
+    }
+
+    /**
+     * 定时器到达时开始检测信箱中的帧
+     */
+    private void startPending() {
+        Frame start = null;
+        long delay = -1;
+        synchronized (this) {
+            mTimerScheduled = false;
+            long now = mClock.nanoTime();
+            if (mPending != null && mInFlight < mMaxInFlight && canStart(now)) {
+                start = begin(mPending, now);
+                mPending = null;
+            } else if (mPending != null) {
+                delay = scheduleLocked(now);
+            }
+        }
+        if (delay >= 0) {
+            mTimer.schedule(mStartPendingTask, delay);
+        }
+        if (start != null) {
+            mDetector.detect(start);
+        }
+    }
+
+    /**
+     * 信箱中的帧只受间隔限制时计算定时的延时，检测个数已满时由检测结束处理
+     * @return 不需要定时时返回-1
+     */
+    private long scheduleLocked(long now) {
+        if (mTimer == null || mTimerScheduled || mInFlight >= mMaxInFlight) {
+            return -1;
+        }
+        mTimerScheduled = true;
+        return Math.max(0, mLastStartTime + getInterval() - now);
+    }
+
+    /**
+     * 丢弃信箱中的帧，重新开始调度
+     */
+    public void clear() {
+        Frame dropped;
+        synchronized (this) {
+            dropped = mPending;
+            mPending = null;
+            if (dropped != null) {
+                mDropCount++;
+            }
+            // 正在进行的检测结束时按照轮次忽略
+            mGeneration++;
+            mInFlight = 0;
+            mStarted = false;
+            mSkipFrames = 0;
+            // 之前安排的定时任务可能已经被移除，执行时信箱为空也不会开始检测
+            mTimerScheduled = false;
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+    }
+
+    private boolean canStart(long now) {
+        return !mStarted || now - mLastStartTime >= getInterval();
+    }
+
+    private Frame begin(Frame frame, long now) {
+        frame.startTime = now;
+        frame.generation = mGeneration;
+        long queueAge = now - frame.submitTime;
+        mTotalQueueAge += queueAge;
+        mMaxQueueAge = Math.max(mMaxQueueAge, queueAge);
+        mInFlight++;
+        mDetectCount++;
+        mLastStartTime = now;
+        mStarted = true;
+        mSkipFrames = mTrackFrames;
+        return frame;
+    }
+
+    /**
+     * 当前两次开始检测的间隔，并发检测时按照平均检测耗时均匀错开，只有一个检测时就是最小间隔
+     * @return 纳秒
+     */
+    public synchronized long getInterval() {
+        return Math.max(mMinInterval, mMaxInFlight > 1 ? mAverageDuration / mMaxInFlight : 0);
+    }
+
+    public synchronized int getInFlight() {
+        return mInFlight;
+    }
+
+    public synchronized boolean hasPending() {
+        return mPending != null;
+    }
+
+    public synchronized int getSubmitCount() {
+        return mSubmitCount;
+    }
+
+    public synchronized int getDetectCount() {
+        return mDetectCount;
+    }
+
+    public synchronized int getDropCount() {
+        return mDropCount;
+    }
+
+    public synchronized int getTrackCount() {
+        return mTrackCount;
+    }
+
+    /**
+     * 每秒检测耗时，即检测占用的CPU时间比例
+     * @param now 当前时间(ns)
+     * @return 毫秒每秒
+     */
+    public synchronized float getDetectLoad(long now) {
+        long elapsed = now - mFirstSubmitTime;
+        return mSubmitCount > 0 && elapsed > 0 ? mTotalDuration / 1e6f / (elapsed / 1e9f) : 0;
+    }
+
+    public synchronized long getAverageDuration() {
+        return mAverageDuration;
+    }
+
+    public synchronized long getMaxQueueAge() {
+        return mMaxQueueAge;
+    }
+
+    public synchronized long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    /**
+     * 丢帧率
+     */
+    public synchronized float getDropRate() {
+        return mSubmitCount > 0 ? (float) mDropCount / mSubmitCount : 0;
+    }
+
+    /**
+     * 调度统计信息
+     */
+    public synchronized String getReport() {
+        int finished = mFinishedCount;
+        return String.format(Locale.US, "DetectScheduler: %d submitted, %d detected, %d dropped (%.1f%%)"
+                        + ", %d tracked, avg detect %.2fms, detect load %.1fms/s"
+                        + ", avg queue age %.2fms, max queue age %.2fms"
+                        + ", avg latency %.2fms, max latency %.2fms",
+                mSubmitCount, mDetectCount, mDropCount, getDropRate() * 100,
+                mTrackCount, mAverageDuration / 1e6, getDetectLoad(mClock.nanoTime()),
+                mDetectCount > 0 ? mTotalQueueAge / 1e6 / mDetectCount : 0.0,
+                mMaxQueueAge / 1e6,
+                finished > 0 ? mTotalLatency / 1e6 / finished : 0.0,
+                mMaxLatency / 1e6);
+    }
+}
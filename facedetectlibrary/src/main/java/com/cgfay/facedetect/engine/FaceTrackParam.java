@@ -33,6 +33,12 @@ public final class FaceTrackParam {
     public int detectInterval;
     // Detection mode
     public int trackMode;
+    // 同时进行的检测个数上限，大于1时两次开始检测的间隔按照平均检测耗时自适应错开，默认为1，不自适应
+    public int maxDetectInFlight;
+    // 两次开始检测的最小间隔(ms)，0表示只受检测耗时限制，默认只有一个检测时检测间隔只由这个值限制
+    public int minDetectInterval;
+    // 每次检测之后跳过的帧数，跳过的帧由渲染端推算关键点位置，0表示每一帧都检测
+    public int trackFrames;
     // detection callback
     public FaceTrackerCallback trackerCallback;
 
@@ -64,6 +70,9 @@ public final class FaceTrackParam {
         detectInterval = 25;
         trackMode = FaceMeshDetectorOptions.FACE_MESH;
                 //Facepp.FaceppConfig.DETECTION_MODE_TRACKING;
+        maxDetectInFlight = DetectScheduler.DEFAULT_MAX_IN_FLIGHT;
+        minDetectInterval = 0;
+        trackFrames = 0;
         trackerCallback = null;
     }
 
@@ -2,6 +2,7 @@ package com.cgfay.facedetect.engine;
 
 import android.content.Context;
 import com.cgfay.facedetect.listener.FaceTrackerCallback;
+import com.cgfay.facedetect.listener.FrameReleaseListener;
 
 //import com.megvii.facepp.sdk.Facepp;
 //import com.megvii.licensemanager.sdk.LicenseManager;
@@ -69,6 +70,16 @@ public final class FaceTracker {
         }
     }
 
+    /**
+     * 跟踪模式下这一帧是否跳过，在转换和缩小预览帧之前调用，跳过时不需要再调用trackFace
+     * @return true表示跳过这一帧
+     */
+    public boolean skipFrame() {
+        synchronized (mSyncFence) {
+            return mTrackerThread != null && mTrackerThread.skipFrame();
+        }
+    }
+
     /**
      * Detect faces
      * @param data
@@ -76,11 +87,42 @@ public final class FaceTracker {
      * @param height
      */
     public void trackFace(byte[] data, int width, int height) {
+        trackFace(data, width, height, null);
+    }
+
+    /**
+     * Detect faces
+     * @param data
+     * @param width
+     * @param height
+     * @param listener 检测结束之后归还图像数据，可以为null
+     */
+    public void trackFace(byte[] data, int width, int height, FrameReleaseListener listener) {
+        trackFace(data, width, height, width, height, 1, listener);
+    }
+
+    /**
+     * Detect faces on a downscaled image
+     * @param data          隔点采样缩小之后的图像数据
+     * @param width         图像宽度
+     * @param height        图像高度
+     * @param previewWidth  预览宽度，关键点映射回预览坐标
+     * @param previewHeight 预览高度
+     * @param scale         缩小图像时使用的倍数
+     * @param listener      检测结束之后归还图像数据，可以为null
+     */
+    public void trackFace(byte[] data, int width, int height, int previewWidth, int previewHeight,
+                          int scale, FrameReleaseListener listener) {
         synchronized (mSyncFence) {
             if (mTrackerThread != null) {
-                mTrackerThread.trackFace(data, width, height);
+                mTrackerThread.trackFace(data, width, height, previewWidth, previewHeight, scale,
+                        listener);
+                return;
             }
         }
+        if (listener != null) {
+            listener.onFrameReleased(data);
+        }
     }
 
     /**
@@ -33,4 +33,34 @@ public final class FaceTrackerBuilder {
         return this;
     }
 
+    /**
+     * 同时进行的检测个数上限
+     * @param maxInFlight
+     * @return
+     */
+    public FaceTrackerBuilder maxDetectInFlight(int maxInFlight) {
+        mFaceTrackParam.maxDetectInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * 两次开始检测的最小间隔
+     * @param intervalMs 毫秒
+     * @return
+     */
+    public FaceTrackerBuilder minDetectInterval(int intervalMs) {
+        mFaceTrackParam.minDetectInterval = intervalMs;
+        return this;
+    }
+
+    /**
+     * 每次检测之后跳过的帧数
+     * @param frames 0表示每一帧都检测
+     * @return
+     */
+    public FaceTrackerBuilder trackFrames(int frames) {
+        mFaceTrackParam.trackFrames = frames;
+        return this;
+    }
+
 }
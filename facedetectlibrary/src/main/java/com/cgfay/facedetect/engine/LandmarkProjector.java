@@ -0,0 +1,90 @@
+package com.cgfay.facedetect.engine;
+
+/**
+ * 关键点坐标投影
+ * 检测图像可以是预览图像按照整数倍隔点采样缩小之后的图像，检测得到的关键点先映射回预览图像的坐标，
+ * 再按照手机方向旋转、前置相机左右翻转，转换成[-1, 1]的顶点坐标。
+ * 不依赖Android，可以在JVM中测试。
+ * @author CainHuang
+ * @date 2019/9/10
+ */
+public class LandmarkProjector {
+
+    // 缩小倍数
+    private int mScale = 1;
+    // 旋转之后的预览宽高，关键点x坐标对应宽度，y坐标对应高度
+    private float mUprightWidth;
+    private float mUprightHeight;
+    // 手机方向，0表示竖屏，1、2表示横屏，3表示倒置
+    private int mOrientation;
+    // 是否后置相机，前置相机需要左右翻转
+    private boolean mBackCamera;
+
+    /**
+     * 设置投影参数
+     * @param previewWidth  预览图像宽度
+     * @param previewHeight 预览图像高度
+     * @param scale         缩小检测图像时使用的倍数，检测图像的宽高取偶数，不能用宽高反推
+     * @param orientation   手机方向
+     * @param backCamera    是否后置相机
+     */
+    public void setup(int previewWidth, int previewHeight, int scale,
+                      int orientation, boolean backCamera) {
+        mScale = Math.max(1, scale);
+        // 竖屏时检测图像旋转了90度，关键点x坐标对应预览图像的高度
+        if (orientation == 1 || orientation == 2) {
+            mUprightWidth = previewWidth;
+            mUprightHeight = previewHeight;
+        } else {
+            mUprightWidth = previewHeight;
+            mUprightHeight = previewWidth;
+        }
+        mOrientation = orientation;
+        mBackCamera = backCamera;
+    }
+
+    /**
+     * 缩小倍数
+     */
+    public int getScale() {
+        return mScale;
+    }
+
+    /**
+     * 投影一个关键点
+     * @param x         检测图像中的x坐标
+     * @param y         检测图像中的y坐标
+     * @param out       顶点坐标数组
+     * @param offset    写入的位置，依次写入x、y
+     */
+    public void project(float x, float y, float[] out, int offset) {
+        // 映射回预览图像，再归一化到[-1, 1]
+        float nx = (x * mScale / mUprightWidth) * 2 - 1;
+        float ny = (y * mScale / mUprightHeight) * 2 - 1;
+        float pointX = nx;
+        float pointY = -ny;
+        if (mOrientation == 1) {
+            if (mBackCamera) {
+                pointX = -ny;
+                pointY = -nx;
+            } else {
+                pointX = ny;
+                pointY = nx;
+            }
+        } else if (mOrientation == 2) {
+            if (mBackCamera) {
+                pointX = ny;
+                pointY = nx;
+            } else {
+                pointX = -ny;
+                pointY = -nx;
+            }
+        } else if (mOrientation == 3) {
+            pointX = -nx;
+            pointY = ny;
+        }
+        // 前置相机左右翻转
+        out[offset] = mBackCamera ? pointX : -pointX;
+        out[offset + 1] = pointY;
+    }
+}
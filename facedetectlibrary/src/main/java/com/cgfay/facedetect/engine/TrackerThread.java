@@ -4,10 +4,12 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.cgfay.facedetect.listener.FrameReleaseListener;
 import com.cgfay.facedetect.utils.ConUtil;
 import com.cgfay.facedetect.utils.SensorEventUtil;
 import com.cgfay.facedetectlibrary.R;
@@ -31,6 +33,8 @@ import java.util.concurrent.Executors;
  */
 public class TrackerThread extends Thread {
     private static final boolean VERBOSE = false;
+    // 检测结果与推算位置的偏差上限，超过时下一帧马上检测，约为预览宽度的1%
+    private static final float MAX_TRACK_ERROR = 0.02f;
 
     private final Object mStartLock = new Object();
     private boolean mReady = false;
@@ -47,6 +51,15 @@ public class TrackerThread extends Thread {
     private FaceMeshDetector detector;
     private Executor executor;
 
+    // 检测调度器，检测跟不上预览时只检测最新的一帧
+    private final DetectScheduler mScheduler = new DetectScheduler(this::internalTrackFace);
+    // 检测结果，只在检测回调线程中使用
+    private final SparseArray<OneFace> mDetectFaces = new SparseArray<>();
+    // 关键点坐标投影，只在检测回调线程中使用
+    private final LandmarkProjector mProjector = new LandmarkProjector();
+    // 上一次检测到的人脸个数，只在检测回调线程中使用
+    private int mLastFaceCount;
+
     public TrackerThread(String name) {
         super(name);
     }
@@ -59,6 +72,8 @@ public class TrackerThread extends Thread {
             notifyAll();
             mHandler = new Handler(mLooper);
         }
+        // 信箱中的帧在检测间隔到达时由检测线程开始检测
+        mScheduler.setTimer(this::postDelayed);
         synchronized (mStartLock) {
             mReady = true;
             mStartLock.notify();
@@ -139,6 +154,14 @@ public class TrackerThread extends Thread {
         });
     }
 
+    /**
+     * 跟踪模式下这一帧是否跳过，在转换和缩小预览帧之前调用，跳过时不需要再调用trackFace
+     * @return true表示跳过这一帧
+     */
+    public boolean skipFrame() {
+        return mScheduler.skipFrame();
+    }
+
     /**
      * Detect faces
      * @param data image data, NV21 or RGBA format
@@ -147,8 +170,36 @@ public class TrackerThread extends Thread {
      * @return whether the detection is successful
      */
     public void trackFace(final byte[] data, final int width, final int height) {
+        trackFace(data, width, height, null);
+    }
+
+    /**
+     * Detect faces
+     * @param data image data, NV21 or RGBA format
+     * @param width image width
+     * @param height image height
+     * @param listener 检测结束(成功、失败或者没有检测器)或者被丢弃之后归还图像数据，可以为null
+     */
+    public void trackFace(final byte[] data, final int width, final int height,
+                          final FrameReleaseListener listener) {
+        trackFace(data, width, height, width, height, 1, listener);
+    }
+
+    /**
+     * Detect faces on a downscaled image, landmarks are mapped back to preview coordinates
+     * @param data image data, NV21 format, point sampled from preview
+     * @param width image width
+     * @param height image height
+     * @param previewWidth preview width
+     * @param previewHeight preview height
+     * @param scale downscale factor used to sample the image from preview
+     * @param listener 检测结束(成功、失败或者没有检测器)或者被丢弃之后归还图像数据，可以为null
+     */
+    public void trackFace(final byte[] data, final int width, final int height,
+                          final int previewWidth, final int previewHeight, final int scale,
+                          final FrameReleaseListener listener) {
         waitUntilReady();
-        internalTrackFace(data, width, height);
+        mScheduler.submit(data, width, height, previewWidth, previewHeight, scale, listener);
 //        mHandler.post(new Runnable() {
 //            @Override
 //            public void run() {
@@ -158,10 +209,24 @@ public class TrackerThread extends Thread {
     }
 
 
+    /**
+     * 检测调度器的定时任务，在检测线程中执行
+     * @param task      任务
+     * @param delayNs   延时(ns)
+     */
+    private void postDelayed(Runnable task, long delayNs) {
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.postDelayed(task, (delayNs + 999999) / 1000000);
+        }
+    }
+
     /**
      * Release resource
      */
     private void release() {
+        Log.d("TrackerThread", mScheduler.getReport());
+        mScheduler.clear();
         ConUtil.releaseWakeLock();
         if (facepp != null) {
             //facepp.release();
@@ -226,18 +291,23 @@ public class TrackerThread extends Thread {
         faceppConfig.one_face_tracking = faceTrackParam.enableMultiFace ? 0 : 1;
         faceppConfig.detectionMode = faceTrackParam.trackMode;
         facepp.setFaceMLKitConfig(faceppConfig);
+
+        mScheduler.setMaxInFlight(faceTrackParam.maxDetectInFlight);
+        mScheduler.setMinInterval(faceTrackParam.minDetectInterval);
+        mScheduler.setTrackFrames(faceTrackParam.trackFrames);
     }
 
     /**
      * Detect faces
-     * @param data image data, NV21 for preview and RGBA for still images
-     * @param width image width
-     * @param height image height
-     * @return whether the detection is successful
+     * @param frame frame from scheduler, NV21 for preview and RGBA for still images
      */
-    private synchronized void internalTrackFace(byte[] data, int width, int height) {
+    private synchronized void internalTrackFace(DetectScheduler.Frame frame) {
+        final byte[] data = frame.data;
+        final int width = frame.width;
+        final int height = frame.height;
         FaceTrackParam faceTrackParam = FaceTrackParam.getInstance();
         if (facepp == null) {
+            finishFrame(frame);
             LandmarkEngine.getInstance().setFaceSize(0);
             if (faceTrackParam.trackerCallback != null) {
                 faceTrackParam.trackerCallback.onTrackingFinish();
@@ -287,9 +357,10 @@ public class TrackerThread extends Thread {
                     public void onSuccess(List<FaceMesh> faces) {
                         // Task completed successfully
                         postHandleFace(
-                                faces, width, height,
+                                faces, frame,
                                 faceDetectTime_action, orientation, faceTrackParam
                                 );
+                        finishFrame(frame);
 //                        image.close();
                     }
                 })
@@ -299,15 +370,25 @@ public class TrackerThread extends Thread {
                             @Override
                             public void onFailure(@NonNull Exception e) {
                                 // Task failed with an exception
-                                // ...
+                                mScheduler.requestDetect();
+                                finishFrame(frame);
                             }
                         });
 
 
     }
 
+    /**
+     * 检测结束，归还图像数据并且开始检测信箱中的帧
+     * @param frame
+     */
+    private void finishFrame(DetectScheduler.Frame frame) {
+        frame.release();
+        mScheduler.onDetectFinished(frame);
+    }
+
     private void postHandleFace(
-            List<FaceMesh> faces, int width, int height,
+            List<FaceMesh> faces, DetectScheduler.Frame frame,
             long faceDetectTime_action,
             int orientation,
             FaceTrackParam faceTrackParam
@@ -326,13 +407,19 @@ public class TrackerThread extends Thread {
 
         // Calculate face key points
         if (faces != null && faces.size() > 0) {
+            mProjector.setup(frame.previewWidth, frame.previewHeight, frame.scale,
+                    orientation, faceTrackParam.isBackCamera);
             for (int index = 0; index < faces.size(); index++) {
                 // number of key points
                 FaceMLKit.Face face = facepp.getLandmark(faces.get(index));
 
 
 
-                OneFace oneFace = LandmarkEngine.getInstance().getOneFace(index);
+                OneFace oneFace = mDetectFaces.get(index);
+                if (oneFace == null) {
+                    oneFace = new OneFace();
+                    mDetectFaces.put(index, oneFace);
+                }
 
 
                 // Attitude Angle and Confidence
@@ -358,63 +445,27 @@ public class TrackerThread extends Thread {
                     }
                 }
 
-                // In the preview state, the width and height are exchanged
-                if (true) { //faceTrackParam.previewTrack
-                    if (orientation == 1 || orientation == 2) {
-                        int temp = width;
-                        width = height;
-                        height = temp;
-                    }
-                }
-
                 // Get a person's keypoint coordinates
                 if (oneFace.vertexPoints == null || oneFace.vertexPoints.length != face.points.length * 2) {
                     oneFace.vertexPoints = new float[face.points.length * 2];
                 }
+                // Map back to preview coordinates, then rotate and flip to vertex coordinates
                 for (int i = 0; i < face.points.length; i++) {
-                    // orientation = 0, 3 for portrait, 1, 2 for landscape
-                    float x = (face.points[i].x / height) * 2 - 1;
-                    float y = (face.points[i].y / width) * 2 - 1;
-                    float[] point = new float[] {x, -y};
-                    if (orientation == 1) {
-                        if (true && faceTrackParam.isBackCamera) { //faceTrackParam.previewTrack
-                            point[0] = -y;
-                            point[1] = -x;
-                        } else {
-                            point[0] = y;
-                            point[1] = x;
-                        }
-                    } else if (orientation == 2) {
-                        if (true && faceTrackParam.isBackCamera) { //faceTrackParam.previewTrack
-                            point[0] = y;
-                            point[1] = x;
-                        } else {
-                            point[0] = -y;
-                            point[1] = -x;
-                        }
-                    } else if (orientation == 3) {
-                        point[0] = -x;
-                        point[1] = y;
-                    }
-                    // vertex coordinates
-                    if (true) { //faceTrackParam.previewTrack
-                        if (faceTrackParam.isBackCamera) {
-                            oneFace.vertexPoints[2 * i] = point[0];
-                        } else {
-                            oneFace.vertexPoints[2 * i] = -point[0];
-                        }
-                    } else {
-                        // In the non-preview state, the left and right do not need to be flipped
-                        oneFace.vertexPoints[2 * i] = point[0];
-                    }
-                    oneFace.vertexPoints[2 * i + 1] = point[1];
+                    mProjector.project(face.points[i].x, face.points[i].y, oneFace.vertexPoints, 2 * i);
                 }
-                // Insert face object
-                LandmarkEngine.getInstance().putOneFace(index, oneFace);
+                // Insert face object, tracking extrapolates from the capture time of the frame
+                LandmarkEngine.getInstance().putOneFace(index, oneFace, frame.getSubmitTime());
             }
         }
         // Set the number of faces
-        LandmarkEngine.getInstance().setFaceSize(faces!= null ? faces.size() : 0);
+        int faceCount = faces != null ? faces.size() : 0;
+        LandmarkEngine.getInstance().setFaceSize(faceCount);
+        // 没有人脸、人脸个数变化或者推算位置不准时，下一帧马上检测，不再跳帧
+        if (faceCount == 0 || faceCount != mLastFaceCount
+                || LandmarkEngine.getInstance().getTrackingError() > MAX_TRACK_ERROR) {
+            mScheduler.requestDetect();
+        }
+        mLastFaceCount = faceCount;
         // Detection completion callback
         if (faceTrackParam.trackerCallback != null) {
             faceTrackParam.trackerCallback.onTrackingFinish();
@@ -0,0 +1,15 @@
+package com.cgfay.facedetect.listener;
+
+/**
+ * 检测帧释放回调
+ * 人脸检测是异步的，检测结束之后才能把图像数据归还给调用者复用
+ * @author CainHuang
+ * @date 2019/9/8
+ */
+public interface FrameReleaseListener {
+    /**
+     * 图像数据不再使用
+     * @param data 传入检测的图像数据
+     */
+    void onFrameReleased(byte[] data);
+}
@@ -0,0 +1,278 @@
+package com.cgfay.facedetect.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 人脸检测调度器的单元测试，检测器只记录开始检测的帧，由测试控制检测结束的时间
+ */
+public class DetectSchedulerTest {
+
+    private static final long MS = 1000000L;
+
+    private long mTime;
+    private final List<DetectScheduler.Frame> mStarted = new ArrayList<>();
+    private final List<byte[]> mReleased = new ArrayList<>();
+    // 定时任务和执行时间
+    private Runnable mTimerTask;
+    private long mTimerTime;
+
+    private DetectScheduler createScheduler() {
+        return new DetectScheduler(mStarted::add, () -> mTime);
+    }
+
+    private DetectScheduler createTimedScheduler() {
+        DetectScheduler scheduler = createScheduler();
+        scheduler.setTimer((task, delayNs) -> {
+            assertNull(mTimerTask);
+            mTimerTask = task;
+            mTimerTime = mTime + delayNs;
+        });
+        return scheduler;
+    }
+
+    /**
+     * 时间前进到time，中间到达的定时任务在到达时执行
+     */
+    private void advance(long time) {
+        while (mTimerTask != null && mTimerTime <= time) {
+            Runnable task = mTimerTask;
+            mTimerTask = null;
+            mTime = mTimerTime;
+            task.run();
+        }
+        mTime = time;
+    }
+
+    private byte[] submit(DetectScheduler scheduler) {
+        byte[] data = new byte[1];
+        scheduler.submit(data, 1, 1, mReleased::add);
+        return data;
+    }
+
+    private void finish(DetectScheduler scheduler, DetectScheduler.Frame frame) {
+        frame.release();
+        scheduler.onDetectFinished(frame);
+    }
+
+    @Test
+    public void latestFrameWinsWhileDetecting() {
+        DetectScheduler scheduler = createScheduler();
+        byte[] first = submit(scheduler);
+        assertEquals(1, mStarted.size());
+        mTime = 33 * MS;
+        byte[] second = submit(scheduler);
+        mTime = 66 * MS;
+        byte[] third = submit(scheduler);
+        // 检测中只保留最新的一帧，旧的帧立即归还
+        assertEquals(1, mStarted.size());
+        assertTrue(scheduler.hasPending());
+        assertEquals(1, mReleased.size());
+        assertSame(second, mReleased.get(0));
+
+        mTime = 80 * MS;
+        finish(scheduler, mStarted.get(0));
+        assertSame(first, mReleased.get(1));
+        // 检测结束之后立即检测信箱中的帧
+        assertEquals(2, mStarted.size());
+        assertSame(third, mStarted.get(1).data);
+        assertFalse(scheduler.hasPending());
+        assertEquals(14 * MS, scheduler.getMaxQueueAge());
+        assertEquals(80 * MS, scheduler.getMaxLatency());
+
+        assertEquals(3, scheduler.getSubmitCount());
+        assertEquals(2, scheduler.getDetectCount());
+        assertEquals(1, scheduler.getDropCount());
+        assertEquals(1 / 3f, scheduler.getDropRate(), 1e-6);
+    }
+
+    @Test
+    public void inFlightLimitAndAdaptiveInterval() {
+        DetectScheduler scheduler = createScheduler();
+        scheduler.setMaxInFlight(2);
+        submit(scheduler);
+        mTime = 60 * MS;
+        finish(scheduler, mStarted.get(0));
+        assertEquals(60 * MS, scheduler.getAverageDuration());
+        // 两个检测并发时按照平均耗时的一半错开
+        assertEquals(30 * MS, scheduler.getInterval());
+
+        mTime = 70 * MS;
+        submit(scheduler);
+        assertEquals(2, mStarted.size());
+        mTime = 80 * MS;
+        submit(scheduler);
+        assertEquals(2, mStarted.size());
+        assertTrue(scheduler.hasPending());
+        mTime = 100 * MS;
+        submit(scheduler);
+        assertEquals(3, mStarted.size());
+        assertEquals(2, scheduler.getInFlight());
+        // 检测个数已满
+        mTime = 140 * MS;
+        submit(scheduler);
+        assertEquals(3, mStarted.size());
+        finish(scheduler, mStarted.get(1));
+        assertEquals(4, mStarted.size());
+        // 只有80ms的帧被100ms的帧替换
+        assertEquals(1, scheduler.getDropCount());
+    }
+
+    @Test
+    public void minIntervalLimitsDetectRate() {
+        DetectScheduler scheduler = createTimedScheduler();
+        scheduler.setMinInterval(100);
+        for (int i = 0; i < 10; i++) {
+            int started = mStarted.size();
+            advance(i * 33 * MS);
+            submit(scheduler);
+            // 检测立即结束，只受最小间隔限制
+            for (int j = started; j < mStarted.size(); j++) {
+                finish(scheduler, mStarted.get(j));
+            }
+        }
+        // 信箱中的帧在间隔到达时开始检测，0ms、100ms、200ms开始检测，297ms的帧在信箱中等待
+        assertEquals(3, mStarted.size());
+        assertEquals(100 * MS, mStarted.get(1).startTime);
+        assertEquals(99 * MS, mStarted.get(1).getSubmitTime());
+        assertEquals(200 * MS, mStarted.get(2).startTime);
+        assertTrue(scheduler.hasPending());
+        assertEquals(6, scheduler.getDropCount());
+        advance(300 * MS);
+        assertEquals(4, mStarted.size());
+        assertEquals(300 * MS, mStarted.get(3).startTime);
+        assertFalse(scheduler.hasPending());
+        finish(scheduler, mStarted.get(3));
+        scheduler.clear();
+        assertEquals(10, mReleased.size());
+    }
+
+    @Test
+    public void pendingFrameWaitsForNextSubmitWithoutTimer() {
+        DetectScheduler scheduler = createScheduler();
+        scheduler.setMinInterval(100);
+        submit(scheduler);
+        finish(scheduler, mStarted.get(0));
+        mTime = 33 * MS;
+        submit(scheduler);
+        assertTrue(scheduler.hasPending());
+        // 没有定时器时由下一帧开始检测，信箱中的旧帧被替换
+        mTime = 132 * MS;
+        byte[] next = submit(scheduler);
+        assertEquals(2, mStarted.size());
+        assertSame(next, mStarted.get(1).data);
+        assertFalse(scheduler.hasPending());
+    }
+
+    @Test
+    public void clearReleasesPendingFrame() {
+        DetectScheduler scheduler = createScheduler();
+        submit(scheduler);
+        byte[] pending = submit(scheduler);
+        scheduler.clear();
+        assertSame(pending, mReleased.get(0));
+        assertFalse(scheduler.hasPending());
+        assertTrue(scheduler.getReport().contains("2 submitted, 1 detected, 1 dropped"));
+    }
+
+    @Test
+    public void clearIgnoresDetectStartedBefore() {
+        DetectScheduler scheduler = createScheduler();
+        submit(scheduler);
+        DetectScheduler.Frame stale = mStarted.get(0);
+        scheduler.clear();
+        mTime = 33 * MS;
+        submit(scheduler);
+        assertEquals(2, mStarted.size());
+        assertEquals(1, scheduler.getInFlight());
+
+        // 上一轮的检测结束时不减少当前的检测个数
+        mTime = 40 * MS;
+        finish(scheduler, stale);
+        assertEquals(1, scheduler.getInFlight());
+        mTime = 43 * MS;
+        byte[] pending = submit(scheduler);
+        assertEquals(2, mStarted.size());
+        assertTrue(scheduler.hasPending());
+
+        mTime = 50 * MS;
+        finish(scheduler, mStarted.get(1));
+        assertEquals(3, mStarted.size());
+        assertSame(pending, mStarted.get(2).data);
+        assertEquals(1, scheduler.getInFlight());
+        assertEquals(17 * MS, scheduler.getAverageDuration());
+    }
+
+    @Test
+    public void skipsFramesBetweenDetections() {
+        DetectScheduler scheduler = createScheduler();
+        scheduler.setTrackFrames(2);
+        // 30帧每秒，每次检测10ms，检测之后跳过两帧
+        for (int i = 0; i < 30; i++) {
+            mTime = i * 33 * MS;
+            int started = mStarted.size();
+            submit(scheduler);
+            if (mStarted.size() > started) {
+                mTime += 10 * MS;
+                finish(scheduler, mStarted.get(started));
+            }
+        }
+        assertEquals(30, scheduler.getSubmitCount());
+        assertEquals(10, scheduler.getDetectCount());
+        assertEquals(20, scheduler.getTrackCount());
+        assertEquals(0, scheduler.getDropCount());
+        // 跳过的帧立即归还
+        assertEquals(30, mReleased.size());
+        // 每秒检测10次，每次10ms
+        assertEquals(100, scheduler.getDetectLoad(1000 * MS), 1);
+    }
+
+    @Test
+    public void skipFrameBeforeSubmit() {
+        DetectScheduler scheduler = createScheduler();
+        scheduler.setTrackFrames(2);
+        assertFalse(scheduler.skipFrame());
+        submit(scheduler);
+        finish(scheduler, mStarted.get(0));
+        // 检测之后的两帧在准备数据之前跳过，不需要提交
+        assertTrue(scheduler.skipFrame());
+        assertTrue(scheduler.skipFrame());
+        assertFalse(scheduler.skipFrame());
+        byte[] next = submit(scheduler);
+        assertSame(next, mStarted.get(1).data);
+        assertEquals(4, scheduler.getSubmitCount());
+        assertEquals(2, scheduler.getTrackCount());
+        assertEquals(2, scheduler.getDetectCount());
+    }
+
+    @Test
+    public void requestDetectStopsSkipping() {
+        DetectScheduler scheduler = createScheduler();
+        scheduler.setTrackFrames(3);
+        submit(scheduler);
+        mTime = 10 * MS;
+        // 检测结果不准，下一帧马上检测
+        scheduler.requestDetect();
+        finish(scheduler, mStarted.get(0));
+        mTime = 33 * MS;
+        byte[] next = submit(scheduler);
+        assertEquals(2, mStarted.size());
+        assertSame(next, mStarted.get(1).data);
+        assertEquals(0, scheduler.getTrackCount());
+        // 之后恢复跳帧
+        mTime = 43 * MS;
+        finish(scheduler, mStarted.get(1));
+        mTime = 66 * MS;
+        submit(scheduler);
+        assertEquals(2, mStarted.size());
+        assertEquals(1, scheduler.getTrackCount());
+    }
+}
@@ -0,0 +1,123 @@
+package com.cgfay.facedetect.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 关键点坐标投影的单元测试，与原来postHandleFace中的坐标转换逐点比较
+ */
+public class LandmarkProjectorTest {
+
+    private static final float EPSILON = 1e-6f;
+    private static final int PREVIEW_WIDTH = 1280;
+    private static final int PREVIEW_HEIGHT = 720;
+
+    @Test
+    public void matchesPreviewTransform() {
+        LandmarkProjector projector = new LandmarkProjector();
+        Random random = new Random(1);
+        float[] actual = new float[2];
+        float[] expected = new float[2];
+        for (int orientation = 0; orientation < 4; orientation++) {
+            for (int back = 0; back < 2; back++) {
+                boolean backCamera = back == 1;
+                projector.setup(PREVIEW_WIDTH, PREVIEW_HEIGHT, 1, orientation, backCamera);
+                assertEquals(1, projector.getScale());
+                for (int i = 0; i < 1000; i++) {
+                    float x = random.nextFloat() * PREVIEW_WIDTH;
+                    float y = random.nextFloat() * PREVIEW_WIDTH;
+                    projector.project(x, y, actual, 0);
+                    transform(x, y, PREVIEW_WIDTH, PREVIEW_HEIGHT, orientation, backCamera, expected);
+                    assertEquals(expected[0], actual[0], 0);
+                    assertEquals(expected[1], actual[1], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void projectsDownscaledLandmarksBack() {
+        LandmarkProjector projector = new LandmarkProjector();
+        Random random = new Random(2);
+        float[] actual = new float[2];
+        float[] expected = new float[2];
+        for (int scale = 2; scale <= 4; scale *= 2) {
+            for (int orientation = 0; orientation < 4; orientation++) {
+                projector.setup(PREVIEW_WIDTH, PREVIEW_HEIGHT, scale, orientation, false);
+                assertEquals(scale, projector.getScale());
+                for (int i = 0; i < 1000; i++) {
+                    // 检测图像中的坐标是预览图像中的坐标缩小scale倍
+                    float x = random.nextInt(PREVIEW_HEIGHT);
+                    float y = random.nextInt(PREVIEW_HEIGHT);
+                    projector.project(x / scale, y / scale, actual, 0);
+                    transform(x, y, PREVIEW_WIDTH, PREVIEW_HEIGHT, orientation, false, expected);
+                    assertEquals(expected[0], actual[0], EPSILON);
+                    assertEquals(expected[1], actual[1], EPSILON);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundedDownscaleUsesPreviewSize() {
+        LandmarkProjector projector = new LandmarkProjector();
+        // 1280 / 3 取偶数之后为426，检测图像只覆盖预览图像的前1278个像素
+        projector.setup(PREVIEW_WIDTH, PREVIEW_HEIGHT, 3, 1, true);
+        assertEquals(3, projector.getScale());
+        float[] actual = new float[2];
+        float[] expected = new float[2];
+        projector.project(426, 240, actual, 0);
+        transform(1278, 720, PREVIEW_WIDTH, PREVIEW_HEIGHT, 1, true, expected);
+        assertEquals(expected[0], actual[0], EPSILON);
+        assertEquals(expected[1], actual[1], EPSILON);
+
+        // 60 / 8 取偶数之后为6，用宽度反推会得到10倍，投影使用实际的缩小倍数
+        projector.setup(60, 40, 8, 0, true);
+        assertEquals(8, projector.getScale());
+        projector.project(3, 2, actual, 0);
+        transform(24, 16, 60, 40, 0, true, expected);
+        assertEquals(expected[0], actual[0], EPSILON);
+        assertEquals(expected[1], actual[1], EPSILON);
+    }
+
+    /**
+     * 原来postHandleFace中一个关键点的坐标转换
+     */
+    private static void transform(float pointX, float pointY, int width, int height,
+                                  int orientation, boolean isBackCamera, float[] out) {
+        // In the preview state, the width and height are exchanged
+        if (orientation == 1 || orientation == 2) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        float x = (pointX / height) * 2 - 1;
+        float y = (pointY / width) * 2 - 1;
+        float[] point = new float[] {x, -y};
+        if (orientation == 1) {
+            if (isBackCamera) {
+                point[0] = -y;
+                point[1] = -x;
+            } else {
+                point[0] = y;
+                point[1] = x;
+            }
+        } else if (orientation == 2) {
+            if (isBackCamera) {
+                point[0] = y;
+                point[1] = x;
+            } else {
+                point[0] = -y;
+                point[1] = -x;
+            }
+        } else if (orientation == 3) {
+            point[0] = -x;
+            point[1] = y;
+        }
+        out[0] = isBackCamera ? point[0] : -point[0];
+        out[1] = point[1];
+    }
+}
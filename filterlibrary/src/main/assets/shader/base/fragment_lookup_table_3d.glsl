@@ -0,0 +1,22 @@
+#version 300 es
+precision mediump float;
+precision mediump sampler3D;
+in highp vec2 textureCoordinate;
+out vec4 fragColor;
+
+uniform sampler2D inputTexture;         // 输入图像纹理
+uniform sampler3D lookupTableTexture;   // 3D lut纹理
+
+uniform lowp float strength;            // 滤镜强度值，0 ~ 1.0f
+uniform mediump float lookupTableSize;  // lut阶数
+
+void main() {
+    lowp vec4 textureColor = texture(inputTexture, textureCoordinate);
+
+    // 把0 ~ 1映射到首尾格点的中心，与2D查找表的采样位置一致，由硬件完成三线性插值
+    highp vec3 texPos = textureColor.rgb * ((lookupTableSize - 1.0) / lookupTableSize)
+            + 0.5 / lookupTableSize;
+    lowp vec4 newColor = texture(lookupTableTexture, texPos);
+
+    fragColor = mix(textureColor, vec4(newColor.rgb, textureColor.w), strength);
+}
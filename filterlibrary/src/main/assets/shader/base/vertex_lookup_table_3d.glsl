@@ -0,0 +1,9 @@
+#version 300 es
+in vec4 aPosition;
+in vec4 aTextureCoord;
+out vec2 textureCoordinate;
+
+void main() {
+    gl_Position = aPosition;
+    textureCoordinate = aTextureCoord.xy;
+}
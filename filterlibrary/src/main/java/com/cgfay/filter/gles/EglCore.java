@@ -26,6 +26,8 @@ import android.opengl.EGLSurface;
 import android.util.Log;
 import android.view.Surface;
 
+import com.cgfay.filter.glfilter.utils.GLProgramCache;
+
 /**
  * Core EGL state (display, context, config).
  * <p>
@@ -187,6 +189,8 @@ public final class EglCore {
             // every eglInitialize() we need an eglTerminate().
             EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
                     EGL14.EGL_NO_CONTEXT);
+            // Programs die with the context, so just drop the cached handles.
+            GLProgramCache.onContextDestroyed(mEGLContext);
             EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
             EGL14.eglReleaseThread();
             EGL14.eglTerminate(mEGLDisplay);
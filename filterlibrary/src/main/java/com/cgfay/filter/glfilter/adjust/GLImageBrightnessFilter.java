@@ -47,4 +47,9 @@ public class GLImageBrightnessFilter extends GLImageFilter {
         mBrightness = brightness;
         setFloat(mBrightnessHandle, mBrightness);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return super.isIdentity() || mBrightness == 0.0f;
+    }
 }
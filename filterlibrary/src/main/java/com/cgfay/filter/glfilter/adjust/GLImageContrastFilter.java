@@ -45,4 +45,9 @@ public class GLImageContrastFilter extends GLImageFilter {
         mContrast = contrast;
         setFloat(mContrastHandle, mContrast);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return super.isIdentity() || mContrast == 1.0f;
+    }
 }
@@ -45,4 +45,9 @@ public class GLImageExposureFilter extends GLImageFilter {
         mExposure = exposure;
         setFloat(mExposureHandle, mExposure);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return super.isIdentity() || mExposure == 0.0f;
+    }
 }
@@ -66,4 +66,9 @@ public class GLImageMirrorFilter extends GLImageFilter {
         mMirrorY = mirrorY;
         setFloat(mMirrorYHandle, mMirrorY);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return super.isIdentity() || (mAngle == 0.0f && mMirrorX <= 0.001f && mMirrorY <= 0.001f);
+    }
 }
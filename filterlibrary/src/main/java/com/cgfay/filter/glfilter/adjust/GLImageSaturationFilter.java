@@ -69,4 +69,9 @@ public class GLImageSaturationFilter extends GLImageFilter {
     public void setSaturationMax(float[] matrix) {
         setFloatVec3(mRangeMaxHandle, matrix);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return super.isIdentity() || mSaturation == 1.0f;
+    }
 }
@@ -0,0 +1,173 @@
+package com.cgfay.filter.glfilter.base;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 滤镜LRU缓存
+ * 缓存已经创建好、暂时不用的滤镜，按照滤镜持有的纹理大小限制总的显存占用，超出时释放最久没有使用的滤镜。
+ * 取出的滤镜从缓存中移除，由调用者持有，不再使用时再放回缓存。
+ * 只能在GL线程中使用。
+ * @author CainHuang
+ * @date 2019/9/5
+ */
+public class FilterLruCache<T> {
+
+    /**
+     * 释放被淘汰的滤镜
+     */
+    public interface Releaser<T> {
+
+        void release(T filter);
+    }
+
+    /**
+     * 缓存项
+     */
+    private static final class Entry<T> {
+
+        final T filter;
+        final long bytes;
+
+        Entry(T filter, long bytes) {
+            this.filter = filter;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Releaser<T> mReleaser;
+    // 显存预算(字节)
+    private final long mMaxBytes;
+    // 按照访问顺序排列，最久没有使用的在前面
+    private final LinkedHashMap<String, Entry<T>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 当前占用和峰值占用的显存(字节)
+    private long mBytes;
+    private long mPeakBytes;
+    // 命中、未命中和淘汰次数
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxBytes  显存预算(字节)
+     * @param releaser  释放被淘汰的滤镜
+     */
+    public FilterLruCache(long maxBytes, Releaser<T> releaser) {
+        mMaxBytes = maxBytes;
+        mReleaser = releaser;
+    }
+
+    /**
+     * 取出滤镜，取出之后从缓存中移除
+     * @param key
+     * @return 没有缓存时返回null
+     */
+    public T take(String key) {
+        Entry<T> entry = key != null ? mEntries.remove(key) : null;
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        mBytes -= entry.bytes;
+        return entry.filter;
+    }
+
+    /**
+     * 是否缓存了滤镜，不影响淘汰顺序和统计
+     * @param key
+     */
+    public boolean contains(String key) {
+        return key != null && mEntries.containsKey(key);
+    }
+
+    /**
+     * 放入滤镜，超出预算时淘汰最久没有使用的滤镜。单个滤镜超出预算时直接释放
+     * @param key
+     * @param filter
+     * @param bytes     滤镜持有的纹理大小(字节)
+     */
+    public void put(String key, T filter, long bytes) {
+        if (filter == null) {
+            return;
+        }
+        if (key == null || bytes > mMaxBytes) {
+            mReleaser.release(filter);
+            return;
+        }
+        Entry<T> old = mEntries.put(key, new Entry<>(filter, bytes));
+        if (old != null) {
+            mBytes -= old.bytes;
+            if (old.filter != filter) {
+                mReleaser.release(old.filter);
+            }
+        }
+        mBytes += bytes;
+        trimToSize(mMaxBytes);
+        mPeakBytes = Math.max(mPeakBytes, mBytes);
+    }
+
+    /**
+     * 淘汰滤镜直到占用不超过指定大小
+     * @param maxBytes
+     */
+    public void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<String, Entry<T>>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && iterator.hasNext()) {
+            Entry<T> entry = iterator.next().getValue();
+            iterator.remove();
+            mBytes -= entry.bytes;
+            mEvictionCount++;
+            mReleaser.release(entry.filter);
+        }
+    }
+
+    /**
+     * 释放全部滤镜
+     */
+    public void clear() {
+        for (Entry<T> entry : mEntries.values()) {
+            mReleaser.release(entry.filter);
+        }
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public String getReport() {
+        int count = mHitCount + mMissCount;
+        return String.format(Locale.US, "FilterLruCache: %d hits, %d misses (%.1f%% hit rate), %d evictions"
+                        + ", %d filters, %.2fMB used, %.2fMB peak, %.2fMB budget",
+                mHitCount, mMissCount, count > 0 ? mHitCount * 100.0 / count : 0.0, mEvictionCount,
+                mEntries.size(), mBytes / 1048576.0, mPeakBytes / 1048576.0, mMaxBytes / 1048576.0);
+    }
+}
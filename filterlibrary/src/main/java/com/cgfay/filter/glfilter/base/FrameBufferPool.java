@@ -0,0 +1,333 @@
+package com.cgfay.filter.glfilter.base;
+
+import android.opengl.GLES30;
+
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 共享的FBO缓冲池
+ * 按照宽高和像素格式复用FBO及其绑定的纹理，滤镜在绘制时借出FBO，下一个滤镜使用完纹理之后归还，
+ * 整条滤镜链只需要在相邻的两个FBO之间交替绘制，不再每个滤镜各自持有一个FBO。
+ * 只能在GL线程中使用。
+ * @author CainHuang
+ * @date 2019/8/24
+ */
+public class FrameBufferPool {
+
+    /**
+     * FBO分配器
+     */
+    public interface Allocator {
+
+        /**
+         * 创建FBO及其绑定的纹理
+         * @param width     宽度
+         * @param height    高度
+         * @param format    像素格式
+         * @param ids       输出FBO和纹理的id
+         */
+        void createFrameBuffer(int width, int height, int format, int[] ids);
+
+        /**
+         * 删除FBO及其绑定的纹理
+         * @param frameBuffer   FBO的id
+         * @param texture       纹理的id
+         */
+        void deleteFrameBuffer(int frameBuffer, int texture);
+    }
+
+    /**
+     * 使用OpenGLES创建FBO的分配器
+     */
+    public static class GLAllocator implements Allocator {
+
+        private final int[] mFrameBuffers = new int[1];
+        private final int[] mTextures = new int[1];
+
+        @Override
+        public void createFrameBuffer(int width, int height, int format, int[] ids) {
+            OpenGLUtils.createFrameBuffer(mFrameBuffers, mTextures, width, height, format);
+            ids[0] = mFrameBuffers[0];
+            ids[1] = mTextures[0];
+        }
+
+        @Override
+        public void deleteFrameBuffer(int frameBuffer, int texture) {
+            mTextures[0] = texture;
+            mFrameBuffers[0] = frameBuffer;
+            GLES30.glDeleteTextures(1, mTextures, 0);
+            GLES30.glDeleteFramebuffers(1, mFrameBuffers, 0);
+        }
+    }
+
+    /**
+     * 缓冲池中的FBO
+     */
+    public static final class FrameBuffer {
+
+        private final int mWidth;
+        private final int mHeight;
+        private final int mFormat;
+        private final int mFrameBufferId;
+        private final int mTextureId;
+        // 引用计数，为0时回到空闲列表
+        private int mRefCount;
+        // 借出时的序号，每次借出都会重新写入内容，可以用来判断纹理内容是否变化
+        private int mGeneration;
+
+        FrameBuffer(int width, int height, int format, int frameBufferId, int textureId) {
+            mWidth = width;
+            mHeight = height;
+            mFormat = format;
+            mFrameBufferId = frameBufferId;
+            mTextureId = textureId;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getFormat() {
+            return mFormat;
+        }
+
+        public int getFrameBufferId() {
+            return mFrameBufferId;
+        }
+
+        public int getTextureId() {
+            return mTextureId;
+        }
+
+        int getRefCount() {
+            return mRefCount;
+        }
+
+        /**
+         * 占用的字节数
+         */
+        long getByteCount() {
+            return (long) mWidth * mHeight * getBytesPerPixel(mFormat);
+        }
+    }
+
+    // FBO分配器
+    private final Allocator mAllocator;
+    // 空闲的FBO
+    private final List<FrameBuffer> mFreeList = new ArrayList<>();
+    // 正在使用的FBO
+    private final List<FrameBuffer> mUsedList = new ArrayList<>();
+    // 临时存放分配结果
+    private final int[] mIds = new int[2];
+
+    // 累计借出次数
+    private int mGenerationCount;
+    // 累计分配次数
+    private int mAllocationCount;
+    // 当前占用的字节数
+    private long mLiveBytes;
+    // 占用字节数的峰值
+    private long mPeakBytes;
+    // FBO个数的峰值
+    private int mPeakCount;
+
+    public FrameBufferPool() {
+        this(new GLAllocator());
+    }
+
+    public FrameBufferPool(Allocator allocator) {
+        mAllocator = allocator;
+    }
+
+    /**
+     * 借出一个RGBA格式的FBO
+     * @param width
+     * @param height
+     * @return 引用计数为1的FBO
+     */
+    public FrameBuffer obtain(int width, int height) {
+        return obtain(width, height, GLES30.GL_RGBA);
+    }
+
+    /**
+     * 借出一个FBO，优先复用空闲列表中大小和格式相同的FBO
+     * @param width
+     * @param height
+     * @param format    像素格式
+     * @return 引用计数为1的FBO
+     */
+    public FrameBuffer obtain(int width, int height, int format) {
+        FrameBuffer frameBuffer = null;
+        for (int i = mFreeList.size() - 1; i >= 0; i--) {
+            FrameBuffer item = mFreeList.get(i);
+            if (item.mWidth == width && item.mHeight == height && item.mFormat == format) {
+                frameBuffer = mFreeList.remove(i);
+                break;
+            }
+        }
+        if (frameBuffer == null) {
+            mAllocator.createFrameBuffer(width, height, format, mIds);
+            frameBuffer = new FrameBuffer(width, height, format, mIds[0], mIds[1]);
+            mAllocationCount++;
+            mLiveBytes += frameBuffer.getByteCount();
+            mPeakBytes = Math.max(mPeakBytes, mLiveBytes);
+            mPeakCount = Math.max(mPeakCount, getLiveCount() + 1);
+        }
+        frameBuffer.mRefCount = 1;
+        frameBuffer.mGeneration = ++mGenerationCount;
+        mUsedList.add(frameBuffer);
+        return frameBuffer;
+    }
+
+    /**
+     * 增加纹理所在FBO的引用计数
+     * @param textureId
+     * @return 纹理不属于缓冲池或者已经归还时返回false
+     */
+    public boolean retain(int textureId) {
+        FrameBuffer frameBuffer = findUsed(textureId);
+        if (frameBuffer == null) {
+            return false;
+        }
+        frameBuffer.mRefCount++;
+        return true;
+    }
+
+    /**
+     * 减少纹理所在FBO的引用计数，计数为0时回到空闲列表等待复用。
+     * 不属于缓冲池的纹理(例如相机的OES纹理、滤镜自己持有的FBO纹理)直接忽略。
+     * @param textureId
+     * @return 纹理不属于缓冲池或者已经归还时返回false
+     */
+    public boolean release(int textureId) {
+        FrameBuffer frameBuffer = findUsed(textureId);
+        if (frameBuffer == null) {
+            return false;
+        }
+        if (--frameBuffer.mRefCount == 0) {
+            mUsedList.remove(frameBuffer);
+            mFreeList.add(frameBuffer);
+        }
+        return true;
+    }
+
+    /**
+     * 判断纹理是否是缓冲池中正在使用的FBO纹理
+     * @param textureId
+     */
+    public boolean isInUse(int textureId) {
+        return findUsed(textureId) != null;
+    }
+
+    /**
+     * 获取纹理所在FBO的借出序号，同一个纹理归还之后再次借出时序号不同
+     * @param textureId
+     * @return 纹理不属于缓冲池或者已经归还时返回0
+     */
+    public int getGeneration(int textureId) {
+        FrameBuffer frameBuffer = findUsed(textureId);
+        return frameBuffer != null ? frameBuffer.mGeneration : 0;
+    }
+
+    /**
+     * 删除所有空闲的FBO，大小变化之后调用，防止旧大小的FBO一直占用显存
+     */
+    public void trim() {
+        for (int i = 0; i < mFreeList.size(); i++) {
+            delete(mFreeList.get(i));
+        }
+        mFreeList.clear();
+    }
+
+    /**
+     * 删除缓冲池中的所有FBO
+     */
+    public void release() {
+        trim();
+        for (int i = 0; i < mUsedList.size(); i++) {
+            delete(mUsedList.get(i));
+        }
+        mUsedList.clear();
+    }
+
+    /**
+     * 累计分配次数
+     */
+    public int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * 当前存在的FBO个数
+     */
+    public int getLiveCount() {
+        return mFreeList.size() + mUsedList.size();
+    }
+
+    /**
+     * 正在使用的FBO个数
+     */
+    public int getInUseCount() {
+        return mUsedList.size();
+    }
+
+    /**
+     * FBO个数的峰值
+     */
+    public int getPeakCount() {
+        return mPeakCount;
+    }
+
+    /**
+     * 当前占用的显存字节数
+     */
+    public long getLiveBytes() {
+        return mLiveBytes;
+    }
+
+    /**
+     * 占用显存字节数的峰值
+     */
+    public long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    private FrameBuffer findUsed(int textureId) {
+        for (int i = 0; i < mUsedList.size(); i++) {
+            if (mUsedList.get(i).mTextureId == textureId) {
+                return mUsedList.get(i);
+            }
+        }
+        return null;
+    }
+
+    private void delete(FrameBuffer frameBuffer) {
+        mAllocator.deleteFrameBuffer(frameBuffer.mFrameBufferId, frameBuffer.mTextureId);
+        frameBuffer.mRefCount = 0;
+        mLiveBytes -= frameBuffer.getByteCount();
+    }
+
+    /**
+     * 像素格式对应的字节数
+     */
+    static int getBytesPerPixel(int format) {
+        switch (format) {
+            case GLES30.GL_RGB:
+                return 3;
+            case GLES30.GL_LUMINANCE_ALPHA:
+                return 2;
+            case GLES30.GL_LUMINANCE:
+            case GLES30.GL_ALPHA:
+                return 1;
+            default:
+                return 4;
+        }
+    }
+}
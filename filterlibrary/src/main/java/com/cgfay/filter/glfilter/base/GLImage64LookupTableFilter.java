@@ -3,10 +3,12 @@ package com.cgfay.filter.glfilter.base;
 import android.content.Context;
 import android.opengl.GLES30;
 
+import com.cgfay.filter.glfilter.lut.LutTexture;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 
 /**
  * 应用查找表(3D LUT)滤镜(64 x 64)
+ * OpenGLES 3.0下查找表转换成3D纹理，一次三线性采样完成查找，OpenGLES 2.0下保持2D查找表
  * Created by cain.huang on 2018/3/8.
  */
 public class GLImage64LookupTableFilter extends GLImageFilter {
@@ -14,12 +16,19 @@ public class GLImage64LookupTableFilter extends GLImageFilter {
     private float mStrength;
     private int mStrengthHandle;
     private int mLookupTableTextureHandle;
+    private int mLookupTableSizeHandle;
 
-    private int mCurveTexture = OpenGLUtils.GL_NOT_INIT;
+    // 查找表纹理
+    private LutTexture mLookupTable;
+    // 是否使用3D查找表的shader
+    private boolean mUse3D;
+    // 是否使用默认的shader，自定义shader只能使用2D查找表
+    private boolean mDefaultShader;
 
     public GLImage64LookupTableFilter(Context context) {
         this(context, VERTEX_SHADER, OpenGLUtils.getShaderFromAssets(context,
                 "shader/base/fragment_lookup_table_64.glsl"));
+        mDefaultShader = true;
     }
 
     public GLImage64LookupTableFilter(Context context, String vertexShader, String fragmentShader) {
@@ -31,22 +40,55 @@ public class GLImage64LookupTableFilter extends GLImageFilter {
         super.initProgramHandle();
         mStrengthHandle = GLES30.glGetUniformLocation(mProgramHandle, "strength");
         mLookupTableTextureHandle = GLES30.glGetUniformLocation(mProgramHandle, "lookupTableTexture");
+        mLookupTableSizeHandle = GLES30.glGetUniformLocation(mProgramHandle, "lookupTableSize");
         setStrength(1.0f);
     }
 
     @Override
     public void onDrawFrameBegin() {
         super.onDrawFrameBegin();
-        OpenGLUtils.bindTexture(mLookupTableTextureHandle, mCurveTexture, 1);
+        if (mLookupTable != null) {
+            mLookupTable.bind(mLookupTableTextureHandle, 1);
+            if (mUse3D) {
+                GLES30.glUniform1f(mLookupTableSizeHandle, mLookupTable.getSize());
+            }
+        }
         GLES30.glUniform1f(mStrengthHandle, mStrength);
     }
 
     @Override
     public void release() {
-        GLES30.glDeleteTextures(1, new int[]{ mCurveTexture }, 0);
+        if (mLookupTable != null) {
+            mLookupTable.release();
+            mLookupTable = null;
+        }
         super.release();
     }
 
+    /**
+     * 加载查找表，需要在GL线程中调用
+     * 查找表转换成3D纹理时切换到3D采样的shader
+     * @param path 64 x 64的平铺查找表图片路径
+     */
+    public void setLookupTable(String path) {
+        LutTexture lookupTable = LutTexture.load(path, mDefaultShader);
+        if (mLookupTable != null) {
+            mLookupTable.release();
+        }
+        mLookupTable = lookupTable;
+        boolean use3D = lookupTable != null && lookupTable.is3D();
+        if (use3D != mUse3D) {
+            mUse3D = use3D;
+            mVertexShader = use3D ? OpenGLUtils.getShaderFromAssets(mContext,
+                    "shader/base/vertex_lookup_table_3d.glsl") : VERTEX_SHADER;
+            mFragmentShader = OpenGLUtils.getShaderFromAssets(mContext, use3D
+                    ? "shader/base/fragment_lookup_table_3d.glsl" : "shader/base/fragment_lookup_table_64.glsl");
+            float strength = mStrength;
+            initProgramHandle();
+            setStrength(strength);
+        }
+    }
+
     /**
      *  设置lut滤镜强度，0.0f ~ 1.0f
      * @param value
@@ -64,4 +106,8 @@ public class GLImage64LookupTableFilter extends GLImageFilter {
         setFloat(mStrengthHandle, mStrength);
     }
 
+    @Override
+    public boolean isIdentity() {
+        return super.isIdentity() || mStrength <= 0.0f;
+    }
 }
@@ -0,0 +1,304 @@
+package com.cgfay.filter.glfilter.base;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.filter.glfilter.utils.TextureRotationUtils;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 模糊金字塔
+ * 把输入纹理逐级缩小为1/2、1/4大小，并在缩小后的层级上做线性采样的高斯模糊。
+ * 同一帧内对同一个纹理的缩小和模糊结果会被缓存，美颜、景深、边框模糊等滤镜共享一个金字塔时，
+ * 相同输入只需要缩小和模糊一次。缓存的纹理由金字塔持有，调用者不需要归还，在nextFrame时统一释放。
+ * 纹理来自FBO缓冲池时按照借出序号判断内容是否变化，其他纹理的缓存只在当前帧内有效。
+ * 只能在GL线程中使用。
+ * @author CainHuang
+ * @date 2019/9/2
+ */
+public class GLImageBlurPyramid {
+
+    // 最大层级，第1层为1/2大小，第2层为1/4大小
+    public static final int MAX_LEVEL = 2;
+
+    // 缓存的初始容量
+    private static final int INITIAL_CACHE_CAPACITY = 8;
+
+    private final Context mContext;
+    // 默认的顶点和纹理坐标
+    private final FloatBuffer mVertexBuffer;
+    private final FloatBuffer mTextureBuffer;
+
+    // FBO缓冲池
+    private FrameBufferPool mFrameBufferPool;
+    // 是否是自己创建的缓冲池
+    private boolean mOwnPool;
+
+    // 每一层的缩小滤镜
+    private final GLImageFilter[] mDownSampleFilters = new GLImageFilter[MAX_LEVEL + 1];
+    // 模糊滤镜，key为层级和半径
+    private final SparseArray<GLImageGaussianBlurFilter> mBlurFilters = new SparseArray<>();
+
+    // 原图大小
+    private int mWidth;
+    private int mHeight;
+
+    // 缓存的输入纹理、输入纹理的借出序号、层级和半径组成的key以及结果纹理
+    private int[] mCacheInputs = new int[INITIAL_CACHE_CAPACITY];
+    private int[] mCacheGenerations = new int[INITIAL_CACHE_CAPACITY];
+    private int[] mCacheKeys = new int[INITIAL_CACHE_CAPACITY];
+    private int[] mCacheTextures = new int[INITIAL_CACHE_CAPACITY];
+    private int mCacheSize;
+
+    // 累计命中和未命中次数
+    private int mHitCount;
+    private int mMissCount;
+
+    public GLImageBlurPyramid(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * @param context
+     * @param pool      FBO缓冲池，为null时使用自己的缓冲池
+     */
+    public GLImageBlurPyramid(Context context, FrameBufferPool pool) {
+        mContext = context;
+        mVertexBuffer = OpenGLUtils.createFloatBuffer(TextureRotationUtils.CubeVertices);
+        mTextureBuffer = OpenGLUtils.createFloatBuffer(TextureRotationUtils.TextureVertices);
+        setFrameBufferPool(pool);
+    }
+
+    /**
+     * 设置FBO缓冲池
+     * @param pool  为null时使用自己的缓冲池
+     */
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        if (pool != null && pool == mFrameBufferPool) {
+            return;
+        }
+        nextFrame();
+        if (mOwnPool && mFrameBufferPool != null) {
+            mFrameBufferPool.release();
+        }
+        mOwnPool = pool == null;
+        mFrameBufferPool = pool != null ? pool : new FrameBufferPool();
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            if (mDownSampleFilters[i] != null) {
+                mDownSampleFilters[i].setFrameBufferPool(mFrameBufferPool);
+            }
+        }
+        for (int i = 0; i < mBlurFilters.size(); i++) {
+            mBlurFilters.valueAt(i).setFrameBufferPool(mFrameBufferPool);
+        }
+    }
+
+    /**
+     * 原图大小变化
+     * @param width
+     * @param height
+     */
+    public void onInputSizeChanged(int width, int height) {
+        if (mWidth == width && mHeight == height) {
+            return;
+        }
+        nextFrame();
+        mWidth = width;
+        mHeight = height;
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            if (mDownSampleFilters[i] != null) {
+                resize(mDownSampleFilters[i], i);
+            }
+        }
+        for (int i = 0; i < mBlurFilters.size(); i++) {
+            resize(mBlurFilters.valueAt(i), getLevel(mBlurFilters.keyAt(i)));
+        }
+        if (mOwnPool) {
+            mFrameBufferPool.trim();
+        }
+    }
+
+    /**
+     * 获取缩小后的纹理
+     * @param inputTexture  原图大小的输入纹理
+     * @param level         层级，0为原图
+     * @return 缩小后的纹理，由金字塔持有
+     */
+    public int getLevelTexture(int inputTexture, int level) {
+        if (level <= 0 || inputTexture == OpenGLUtils.GL_NOT_TEXTURE) {
+            return inputTexture;
+        }
+        level = Math.min(level, MAX_LEVEL);
+        int key = createKey(level, 0);
+        int texture = findCache(inputTexture, key);
+        if (texture != OpenGLUtils.GL_NOT_TEXTURE) {
+            return texture;
+        }
+        int upperTexture = getLevelTexture(inputTexture, level - 1);
+        GLImageFilter filter = mDownSampleFilters[level];
+        if (filter == null) {
+            filter = new GLImageFilter(mContext);
+            filter.setFrameBufferPool(mFrameBufferPool);
+            resize(filter, level);
+            mDownSampleFilters[level] = filter;
+        }
+        // 大小减半时双线性采样正好是2x2像素的平均值
+        texture = filter.drawFrameBuffer(upperTexture, mVertexBuffer, mTextureBuffer);
+        return putCache(inputTexture, key, texture, upperTexture);
+    }
+
+    /**
+     * 获取缩小并模糊之后的纹理
+     * @param inputTexture  原图大小的输入纹理
+     * @param level         层级，0为原图
+     * @param radius        缩小后图像上的模糊半径
+     * @return 模糊后的纹理，由金字塔持有
+     */
+    public int getBlurTexture(int inputTexture, int level, int radius) {
+        level = Math.max(0, Math.min(level, MAX_LEVEL));
+        return blurLevelTexture(getLevelTexture(inputTexture, level), level, radius);
+    }
+
+    /**
+     * 对已经是某个层级大小的纹理做模糊
+     * @param levelTexture  层级大小的纹理
+     * @param level         纹理所在的层级
+     * @param radius        模糊半径
+     * @return 模糊后的纹理，由金字塔持有
+     */
+    public int blurLevelTexture(int levelTexture, int level, int radius) {
+        if (radius <= 0 || levelTexture == OpenGLUtils.GL_NOT_TEXTURE) {
+            return levelTexture;
+        }
+        level = Math.max(0, Math.min(level, MAX_LEVEL));
+        radius = Math.min(radius, GaussianKernel.MAX_RADIUS);
+        int key = createKey(level, radius);
+        int texture = findCache(levelTexture, key);
+        if (texture != OpenGLUtils.GL_NOT_TEXTURE) {
+            return texture;
+        }
+        GLImageGaussianBlurFilter filter = mBlurFilters.get(key);
+        if (filter == null) {
+            filter = new GLImageGaussianBlurFilter(mContext, new GaussianKernel(radius));
+            filter.setFrameBufferPool(mFrameBufferPool);
+            resize(filter, level);
+            mBlurFilters.put(key, filter);
+        }
+        texture = filter.drawFrameBuffer(levelTexture, mVertexBuffer, mTextureBuffer);
+        return putCache(levelTexture, key, texture, levelTexture);
+    }
+
+    /**
+     * 当前帧结束，释放缓存的纹理
+     */
+    public void nextFrame() {
+        for (int i = 0; i < mCacheSize; i++) {
+            mFrameBufferPool.release(mCacheTextures[i]);
+        }
+        mCacheSize = 0;
+    }
+
+    /**
+     * 累计缓存命中次数
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 累计缓存未命中次数，即实际绘制的次数
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * 释放资源
+     */
+    public void release() {
+        nextFrame();
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            if (mDownSampleFilters[i] != null) {
+                mDownSampleFilters[i].release();
+                mDownSampleFilters[i] = null;
+            }
+        }
+        for (int i = 0; i < mBlurFilters.size(); i++) {
+            mBlurFilters.valueAt(i).release();
+        }
+        mBlurFilters.clear();
+        if (mOwnPool) {
+            mFrameBufferPool.release();
+        }
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    /**
+     * 层级对应的大小
+     * @param size  原图的宽度或高度
+     * @param level 层级
+     */
+    public static int getLevelSize(int size, int level) {
+        return Math.max(1, size >> level);
+    }
+
+    private void resize(GLImageFilter filter, int level) {
+        int width = getLevelSize(mWidth, level);
+        int height = getLevelSize(mHeight, level);
+        filter.onInputSizeChanged(width, height);
+        filter.initFrameBuffer(width, height);
+        filter.onDisplaySizeChanged(width, height);
+    }
+
+    private static int createKey(int level, int radius) {
+        return radius * (MAX_LEVEL + 1) + level;
+    }
+
+    private static int getLevel(int key) {
+        return key % (MAX_LEVEL + 1);
+    }
+
+    private int findCache(int inputTexture, int key) {
+        int generation = mFrameBufferPool.getGeneration(inputTexture);
+        for (int i = 0; i < mCacheSize; i++) {
+            if (mCacheInputs[i] == inputTexture && mCacheKeys[i] == key
+                    && mCacheGenerations[i] == generation) {
+                mHitCount++;
+                return mCacheTextures[i];
+            }
+        }
+        return OpenGLUtils.GL_NOT_TEXTURE;
+    }
+
+    /**
+     * 缓存绘制结果，绘制失败时返回原纹理，不缓存
+     */
+    private int putCache(int inputTexture, int key, int texture, int sourceTexture) {
+        if (texture == OpenGLUtils.GL_NOT_TEXTURE || texture == sourceTexture) {
+            return sourceTexture;
+        }
+        mMissCount++;
+        if (mCacheSize == mCacheInputs.length) {
+            int capacity = mCacheSize * 2;
+            mCacheInputs = copyOf(mCacheInputs, capacity);
+            mCacheGenerations = copyOf(mCacheGenerations, capacity);
+            mCacheKeys = copyOf(mCacheKeys, capacity);
+            mCacheTextures = copyOf(mCacheTextures, capacity);
+        }
+        mCacheInputs[mCacheSize] = inputTexture;
+        mCacheGenerations[mCacheSize] = mFrameBufferPool.getGeneration(inputTexture);
+        mCacheKeys[mCacheSize] = key;
+        mCacheTextures[mCacheSize] = texture;
+        mCacheSize++;
+        return texture;
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+}
@@ -11,7 +11,7 @@ import java.nio.FloatBuffer;
 /**
  * 景深滤镜
  */
-public class GLImageDepthBlurFilter extends GLImageFilter {
+public class GLImageDepthBlurFilter extends GLImageFilter implements IBlurPyramidFilter {
 
     private int mBlurImageHandle;
     private int mInnerHandle;
@@ -23,12 +23,16 @@ public class GLImageDepthBlurFilter extends GLImageFilter {
     private int mLine2Handle;
     private int mIntensityHandle;
 
-    // 高斯模糊滤镜
-    private GLImageGaussianBlurFilter mGaussianBlurFilter;
+    // 模糊所在的金字塔层级，1/2大小
+    private static final int BLUR_LEVEL = 1;
+    // 模糊半径
+    private static final int BLUR_RADIUS = 2;
 
-    // 高斯模糊图像缩放半径
-    private float mBlurScale = 0.5f;
-    // 存储经过高斯模糊处理的纹理id
+    // 模糊金字塔
+    private GLImageBlurPyramid mBlurPyramid;
+    // 是否是共享的模糊金字塔
+    private boolean mSharedPyramid;
+    // 存储经过高斯模糊处理的纹理id，由模糊金字塔持有
     private int mBlurTexture;
 
     public GLImageDepthBlurFilter(Context context) {
@@ -38,7 +42,7 @@ public class GLImageDepthBlurFilter extends GLImageFilter {
 
     public GLImageDepthBlurFilter(Context context, String vertexShader, String fragmentShader) {
         super(context, vertexShader, fragmentShader);
-        mGaussianBlurFilter = new GLImageGaussianBlurFilter(context);
+        mBlurPyramid = new GLImageBlurPyramid(context);
         mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
     }
 
@@ -84,60 +88,68 @@ public class GLImageDepthBlurFilter extends GLImageFilter {
         super.onInputSizeChanged(width, height);
         setFloat(mWidthHandle, width);
         setFloat(mHeightHandle, height);
-        if (mGaussianBlurFilter != null) {
-            mGaussianBlurFilter.onInputSizeChanged((int) (width * mBlurScale), (int) (height * mBlurScale));
+        if (mBlurPyramid != null) {
+            mBlurPyramid.onInputSizeChanged(width, height);
         }
     }
 
     @Override
-    public void onDisplaySizeChanged(int width, int height) {
-        super.onDisplaySizeChanged(width, height);
-        if (mGaussianBlurFilter != null) {
-            mGaussianBlurFilter.onDisplaySizeChanged(width, height);
+    public boolean drawFrame(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (mBlurPyramid != null && mFilterEnable) {
+            mBlurTexture = mBlurPyramid.getBlurTexture(textureId, BLUR_LEVEL, BLUR_RADIUS);
         }
+        boolean result = super.drawFrame(textureId, vertexBuffer, textureBuffer);
+        onFrameFinish();
+        return result;
     }
 
     @Override
-    public boolean drawFrame(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
-        if (mGaussianBlurFilter != null) {
-            mBlurTexture = mGaussianBlurFilter.drawFrameBuffer(textureId, vertexBuffer, textureBuffer);
+    public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (mBlurPyramid != null && mFilterEnable) {
+            mBlurTexture = mBlurPyramid.getBlurTexture(textureId, BLUR_LEVEL, BLUR_RADIUS);
         }
-        return super.drawFrame(textureId, vertexBuffer, textureBuffer);
+        int result = super.drawFrameBuffer(textureId, vertexBuffer, textureBuffer);
+        onFrameFinish();
+        return result;
     }
 
-    @Override
-    public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
-        if (mGaussianBlurFilter != null) {
-            mBlurTexture = mGaussianBlurFilter.drawFrameBuffer(textureId, vertexBuffer, textureBuffer);
+    /**
+     * 一帧绘制完成，模糊纹理交还给金字塔，使用自己的金字塔时释放缓存的纹理
+     */
+    private void onFrameFinish() {
+        mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
+        if (!mSharedPyramid && mBlurPyramid != null) {
+            mBlurPyramid.nextFrame();
         }
-        return super.drawFrameBuffer(textureId, vertexBuffer, textureBuffer);
     }
 
     @Override
-    public void initFrameBuffer(int width, int height) {
-        super.initFrameBuffer(width, height);
-        if (mGaussianBlurFilter != null) {
-            mGaussianBlurFilter.initFrameBuffer((int)(width * mBlurScale), (int)(height * mBlurScale));
+    public void setBlurPyramid(GLImageBlurPyramid pyramid) {
+        if (!mSharedPyramid && mBlurPyramid != null) {
+            mBlurPyramid.release();
         }
+        mSharedPyramid = pyramid != null;
+        mBlurPyramid = pyramid != null ? pyramid : new GLImageBlurPyramid(mContext, mFrameBufferPool);
+        mBlurPyramid.onInputSizeChanged(mImageWidth, mImageHeight);
     }
 
     @Override
-    public void destroyFrameBuffer() {
-        super.destroyFrameBuffer();
-        if (mGaussianBlurFilter != null) {
-            mGaussianBlurFilter.destroyFrameBuffer();
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        super.setFrameBufferPool(pool);
+        if (!mSharedPyramid && mBlurPyramid != null) {
+            mBlurPyramid.setFrameBufferPool(pool);
         }
     }
 
     @Override
     public void release() {
         super.release();
-        if (mGaussianBlurFilter != null) {
-            mGaussianBlurFilter.release();
-            mGaussianBlurFilter = null;
-        }
-        if (mBlurTexture != OpenGLUtils.GL_NOT_TEXTURE) {
-            GLES30.glDeleteTextures(1, new int[]{mBlurTexture}, 0);
+        if (mBlurPyramid != null) {
+            if (!mSharedPyramid) {
+                mBlurPyramid.release();
+            }
+            mBlurPyramid = null;
         }
+        mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
     }
 }
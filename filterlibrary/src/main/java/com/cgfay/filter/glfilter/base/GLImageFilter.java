@@ -5,6 +5,7 @@ import android.graphics.PointF;
 import android.opengl.GLES30;
 import android.text.TextUtils;
 
+import com.cgfay.filter.glfilter.utils.GLProgramCache;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 import com.cgfay.filter.glfilter.utils.TextureRotationUtils;
 
@@ -41,6 +42,8 @@ public class GLImageFilter {
     protected Context mContext;
 
     private final LinkedList<Runnable> mRunOnDraw;
+    // uniform状态，设置时只记录数值，绘制时统一上传
+    private final UniformState mUniformState = new UniformState();
 
     // 纹理字符串
     protected String mVertexShader;
@@ -61,6 +64,8 @@ public class GLImageFilter {
     protected int mPositionHandle;
     protected int mTextureCoordinateHandle;
     protected int mInputTextureHandle;
+    // program缓存中的program，没有缓存时为null
+    private GLProgramCache.Program mProgram;
 
     // 渲染的Image的宽高
     protected int mImageWidth;
@@ -78,6 +83,11 @@ public class GLImageFilter {
     protected int[] mFrameBuffers;
     protected int[] mFrameBufferTextures;
 
+    // 共享的FBO缓冲池，设置之后不再持有自己的FBO，绘制时从缓冲池中借出
+    protected FrameBufferPool mFrameBufferPool;
+    // 当前绑定的缓冲池FBO
+    private FrameBufferPool.FrameBuffer mPooledFrameBuffer;
+
     public GLImageFilter(Context context) {
         this(context, VERTEX_SHADER, FRAGMENT_SHADER);
     }
@@ -98,7 +108,7 @@ public class GLImageFilter {
     public void initProgramHandle() {
         // 只有在shader都不为空的情况下才初始化程序句柄
         if (!TextUtils.isEmpty(mVertexShader) && !TextUtils.isEmpty(mFragmentShader)) {
-            mProgramHandle = OpenGLUtils.createProgram(mVertexShader, mFragmentShader);
+            mProgramHandle = createProgramHandle();
             mPositionHandle = GLES30.glGetAttribLocation(mProgramHandle, "aPosition");
             mTextureCoordinateHandle = GLES30.glGetAttribLocation(mProgramHandle, "aTextureCoord");
             mInputTextureHandle = GLES30.glGetUniformLocation(mProgramHandle, "inputTexture");
@@ -111,6 +121,38 @@ public class GLImageFilter {
         }
     }
 
+    /**
+     * 创建program，当前EGL上下文有program缓存时，相同shader的滤镜共享同一个program
+     * @return program句柄
+     */
+    protected int createProgramHandle() {
+        GLProgramCache cache = GLProgramCache.getCurrent();
+        if (cache == null) {
+            releaseProgramHandle();
+            return OpenGLUtils.createProgram(mVertexShader, mFragmentShader);
+        }
+        // 先获取新的program再释放旧的，shader没有变化时不会被删除
+        GLProgramCache.Program program = cache.acquire(mVertexShader, mFragmentShader);
+        releaseProgramHandle();
+        mProgram = program;
+        return program != null ? program.getHandle() : 0;
+    }
+
+    /**
+     * 释放program，来自缓存时归还给缓存
+     */
+    private void releaseProgramHandle() {
+        if (mProgram != null) {
+            GLProgramCache cache = GLProgramCache.getCurrent();
+            if (cache != null) {
+                cache.release(mProgram);
+            }
+            mProgram = null;
+        } else if (mIsInitialized && mProgramHandle != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glDeleteProgram(mProgramHandle);
+        }
+    }
+
     /**
      * Surface发生变化时调用
      * @param width
@@ -171,7 +213,7 @@ public class GLImageFilter {
      */
     public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
         // 没有FBO、没初始化、输入纹理不合法、滤镜不可用时，直接返回
-        if (textureId == OpenGLUtils.GL_NOT_TEXTURE || mFrameBuffers == null
+        if (textureId == OpenGLUtils.GL_NOT_TEXTURE || !hasFrameBuffer()
                 || !mIsInitialized || !mFilterEnable) {
             return textureId;
         }
@@ -189,7 +231,7 @@ public class GLImageFilter {
     public void bindFrameBuffer() {
         // 绑定FBO
         GLES30.glViewport(0, 0, mFrameWidth, mFrameHeight);
-        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFrameBuffers[0]);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, obtainFrameBuffer());
         // 使用当前的program
         GLES30.glUseProgram(mProgramHandle);
         // 运行延时任务，这个要放在glUseProgram之后，要不然某些设置项会不生效
@@ -199,19 +241,44 @@ public class GLImageFilter {
     public int unBindFrameBuffer() {
         GLES30.glUseProgram(0);
         GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+        if (mPooledFrameBuffer != null) {
+            // 缓冲池中的纹理交给调用者，使用完成后由调用者归还
+            int texture = mPooledFrameBuffer.getTextureId();
+            mPooledFrameBuffer = null;
+            return texture;
+        }
         return mFrameBufferTextures[0];
     }
 
+    /**
+     * 获取需要绑定的FBO，使用缓冲池时每次绘制借出一个新的FBO
+     */
+    private int obtainFrameBuffer() {
+        if (mFrameBufferPool != null) {
+            mPooledFrameBuffer = mFrameBufferPool.obtain(mFrameWidth, mFrameHeight);
+            return mPooledFrameBuffer.getFrameBufferId();
+        }
+        return mFrameBuffers[0];
+    }
+
+    /**
+     * 是否可以绘制到FBO
+     */
+    protected boolean hasFrameBuffer() {
+        return mFrameBuffers != null
+                || (mFrameBufferPool != null && mFrameWidth > 0 && mFrameHeight > 0);
+    }
+
     public int drawFrameBufferClear(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
         // 没有FBO、没初始化、输入纹理不合法、滤镜不可用时，直接返回
-        if (textureId == OpenGLUtils.GL_NOT_TEXTURE || mFrameBuffers == null
+        if (textureId == OpenGLUtils.GL_NOT_TEXTURE || !hasFrameBuffer()
                 || !mIsInitialized || !mFilterEnable) {
             return textureId;
         }
 
         // 绑定FBO
         GLES30.glViewport(0, 0, mFrameWidth, mFrameHeight);
-        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFrameBuffers[0]);
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, obtainFrameBuffer());
         GLES30.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
         GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT);
         // 使用当前的program
@@ -295,7 +362,7 @@ public class GLImageFilter {
      */
     public void release() {
         if (mIsInitialized) {
-            GLES30.glDeleteProgram(mProgramHandle);
+            releaseProgramHandle();
             mProgramHandle = OpenGLUtils.GL_NOT_INIT;
         }
         destroyFrameBuffer();
@@ -310,6 +377,12 @@ public class GLImageFilter {
         if (!isInitialized()) {
             return;
         }
+        // 使用缓冲池时只记录大小，绘制时再借出FBO
+        if (mFrameBufferPool != null) {
+            mFrameWidth = width;
+            mFrameHeight = height;
+            return;
+        }
         if (mFrameBuffers != null && (mFrameWidth != width || mFrameHeight != height)) {
             destroyFrameBuffer();
         }
@@ -339,7 +412,37 @@ public class GLImageFilter {
             mFrameBuffers = null;
         }
         mFrameWidth = -1;
-        mFrameWidth = -1;
+        mFrameHeight = -1;
+    }
+
+    /**
+     * 设置共享的FBO缓冲池，设置之后释放自己持有的FBO，drawFrameBuffer返回的纹理由调用者使用完后归还缓冲池。
+     * 需要多次绘制到同一个FBO的滤镜应当重写该方法并忽略缓冲池
+     * @param pool  缓冲池，为null时恢复使用自己持有的FBO
+     */
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        if (mFrameBufferPool == pool) {
+            return;
+        }
+        int width = mFrameWidth;
+        int height = mFrameHeight;
+        destroyFrameBuffer();
+        mFrameBufferPool = pool;
+        if (width > 0 && height > 0) {
+            initFrameBuffer(width, height);
+        }
+    }
+
+    /**
+     * 归还绘制过程中使用完毕的中间纹理，输入纹理和输出纹理由调用者管理
+     * @param texture       中间纹理
+     * @param inputTexture  输入纹理
+     * @param outputTexture 输出纹理
+     */
+    protected void recycleTexture(int texture, int inputTexture, int outputTexture) {
+        if (mFrameBufferPool != null && texture != inputTexture && texture != outputTexture) {
+            mFrameBufferPool.release(texture);
+        }
     }
 
     /**
@@ -358,6 +461,14 @@ public class GLImageFilter {
         mFilterEnable = enable;
     }
 
+    /**
+     * 当前参数下滤镜是否不改变输入图像，渲染图可以跳过不改变图像的滤镜
+     * 子类可以根据自身参数重写，例如亮度为0时的亮度滤镜
+     */
+    public boolean isIdentity() {
+        return !mIsInitialized || !mFilterEnable;
+    }
+
     /**
      * 获取输出宽度
      * @return
@@ -376,90 +487,39 @@ public class GLImageFilter {
 
     ///------------------ 统一变量(uniform)设置 ------------------------///
     protected void setInteger(final int location, final int intValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1i(location, intValue);
-            }
-        });
+        mUniformState.setInt(location, intValue);
     }
 
     protected void setFloat(final int location, final float floatValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1f(location, floatValue);
-            }
-        });
+        mUniformState.setFloat(location, floatValue);
     }
 
     protected void setFloatVec2(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform2fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniformState.setFloats(location, UniformState.TYPE_VEC2, arrayValue);
     }
 
     protected void setFloatVec3(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform3fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniformState.setFloats(location, UniformState.TYPE_VEC3, arrayValue);
     }
 
     protected void setFloatVec4(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform4fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniformState.setFloats(location, UniformState.TYPE_VEC4, arrayValue);
     }
 
     protected void setFloatArray(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1fv(location, arrayValue.length, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniformState.setFloats(location, UniformState.TYPE_FLOAT, arrayValue);
     }
 
     protected void setPoint(final int location, final PointF point) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                float[] vec2 = new float[2];
-                vec2[0] = point.x;
-                vec2[1] = point.y;
-                GLES30.glUniform2fv(location, 1, vec2, 0);
-            }
-        });
+        mUniformState.setVec2(location, point.x, point.y);
     }
 
     protected void setUniformMatrix3f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES30.glUniformMatrix3fv(location, 1, false, matrix, 0);
-            }
-        });
+        mUniformState.setFloats(location, UniformState.TYPE_MAT3, matrix);
     }
 
     protected void setUniformMatrix4f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES30.glUniformMatrix4fv(location, 1, false, matrix, 0);
-            }
-        });
+        mUniformState.setFloats(location, UniformState.TYPE_MAT4, matrix);
     }
 
     /**
@@ -473,9 +533,21 @@ public class GLImageFilter {
     }
 
     /**
-     * 运行延时任务
+     * 运行延时任务，先上传修改过的uniform
      */
     protected void runPendingOnDrawTasks() {
+        // 共享的program上一次由其他滤镜使用，uniform的值已经被覆盖，
+        // 上一个滤镜设置过、这个滤镜没有设置的uniform恢复成默认值
+        if (mProgram != null) {
+            Object previous = mProgram.getOwner();
+            if (mProgram.setOwner(this)) {
+                if (previous instanceof GLImageFilter) {
+                    ((GLImageFilter) previous).mUniformState.resetMissing(mUniformState);
+                }
+                mUniformState.invalidate();
+            }
+        }
+        mUniformState.flush();
         while (!mRunOnDraw.isEmpty()) {
             mRunOnDraw.removeFirst().run();
         }
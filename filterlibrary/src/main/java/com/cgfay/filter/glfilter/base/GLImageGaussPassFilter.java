@@ -5,6 +5,8 @@ import android.opengl.GLES20;
 
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 
+import java.util.Locale;
+
 /**
  * 某个通道的高斯模糊
  */
@@ -23,10 +25,69 @@ class GLImageGaussPassFilter extends GLImageFilter {
                 OpenGLUtils.getShaderFromAssets(context, "shader/base/fragment_gaussian_pass.glsl"));
     }
 
+    /**
+     * 使用线性采样的高斯核
+     * @param context
+     * @param kernel    高斯核
+     */
+    public GLImageGaussPassFilter(Context context, GaussianKernel kernel) {
+        this(context, createVertexShader(kernel), createFragmentShader(kernel));
+    }
+
     public GLImageGaussPassFilter(Context context, String vertexShader, String fragmentShader) {
         super(context, vertexShader, fragmentShader);
     }
 
+    /**
+     * 生成线性采样的vertex shader，采样坐标在顶点着色器中计算，避免片元着色器中的依赖纹理读取
+     * @param kernel 高斯核
+     */
+    static String createVertexShader(GaussianKernel kernel) {
+        int shiftSize = Math.max(1, kernel.getSampleCount() - 1);
+        StringBuilder builder = new StringBuilder()
+                .append("attribute vec4 aPosition;\n")
+                .append("attribute vec4 aTextureCoord;\n")
+                .append("uniform highp float texelWidthOffset;\n")
+                .append("uniform highp float texelHeightOffset;\n")
+                .append("varying vec2 textureCoordinate;\n")
+                .append("varying vec4 blurShiftCoordinates[").append(shiftSize).append("];\n")
+                .append("void main() {\n")
+                .append("    gl_Position = aPosition;\n")
+                .append("    textureCoordinate = aTextureCoord.xy;\n")
+                .append("    vec2 singleStepOffset = vec2(texelWidthOffset, texelHeightOffset);\n");
+        for (int i = 1; i < kernel.getSampleCount(); i++) {
+            String offset = String.format(Locale.US, "%.6f", kernel.getSampleOffset(i));
+            builder.append("    blurShiftCoordinates[").append(i - 1).append("] = vec4(")
+                    .append("textureCoordinate - ").append(offset).append(" * singleStepOffset, ")
+                    .append("textureCoordinate + ").append(offset).append(" * singleStepOffset);\n");
+        }
+        return builder.append("}\n").toString();
+    }
+
+    /**
+     * 生成线性采样的fragment shader，权重作为常量展开
+     * @param kernel 高斯核
+     */
+    static String createFragmentShader(GaussianKernel kernel) {
+        int shiftSize = Math.max(1, kernel.getSampleCount() - 1);
+        StringBuilder builder = new StringBuilder()
+                .append("precision mediump float;\n")
+                .append("varying vec2 textureCoordinate;\n")
+                .append("varying vec4 blurShiftCoordinates[").append(shiftSize).append("];\n")
+                .append("uniform sampler2D inputTexture;\n")
+                .append("void main() {\n")
+                .append("    vec4 currentColor = texture2D(inputTexture, textureCoordinate);\n")
+                .append(String.format(Locale.US, "    mediump vec3 sum = currentColor.rgb * %.8f;\n",
+                        kernel.getSampleWeight(0)));
+        for (int i = 1; i < kernel.getSampleCount(); i++) {
+            builder.append("    sum += (texture2D(inputTexture, blurShiftCoordinates[").append(i - 1)
+                    .append("].xy).rgb + texture2D(inputTexture, blurShiftCoordinates[").append(i - 1)
+                    .append(String.format(Locale.US, "].zw).rgb) * %.8f;\n", kernel.getSampleWeight(i)));
+        }
+        return builder.append("    gl_FragColor = vec4(sum, currentColor.a);\n")
+                .append("}\n").toString();
+    }
+
     @Override
     public void initProgramHandle() {
         super.initProgramHandle();
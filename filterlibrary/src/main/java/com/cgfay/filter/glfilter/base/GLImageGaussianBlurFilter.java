@@ -21,6 +21,17 @@ public class GLImageGaussianBlurFilter extends GLImageFilter {
         initFilters();
     }
 
+    /**
+     * 使用线性采样的高斯核，采样次数约为逐像素采样的一半
+     * @param context
+     * @param kernel    高斯核
+     */
+    public GLImageGaussianBlurFilter(Context context, GaussianKernel kernel) {
+        super(context, null, null);
+        mVerticalPassFilter = new GLImageGaussPassFilter(mContext, kernel);
+        mHorizontalPassFilter = new GLImageGaussPassFilter(mContext, kernel);
+    }
+
     public GLImageGaussianBlurFilter(Context context, String vertexShader, String fragmentShader) {
         super(context, vertexShader, fragmentShader);
         initFilters(vertexShader, fragmentShader);
@@ -80,10 +91,12 @@ public class GLImageGaussianBlurFilter extends GLImageFilter {
         if (mVerticalPassFilter != null) {
             mCurrentTexture = mVerticalPassFilter.drawFrameBuffer(mCurrentTexture, vertexBuffer, textureBuffer);
         }
+        boolean result = false;
         if (mHorizontalPassFilter != null) {
-            return mHorizontalPassFilter.drawFrame(mCurrentTexture, vertexBuffer, textureBuffer);
+            result = mHorizontalPassFilter.drawFrame(mCurrentTexture, vertexBuffer, textureBuffer);
         }
-        return false;
+        recycleTexture(mCurrentTexture, textureId, OpenGLUtils.GL_NOT_TEXTURE);
+        return result;
     }
 
     @Override
@@ -97,7 +110,10 @@ public class GLImageGaussianBlurFilter extends GLImageFilter {
             mCurrentTexture = mVerticalPassFilter.drawFrameBuffer(mCurrentTexture, vertexBuffer, textureBuffer);
         }
         if (mHorizontalPassFilter != null) {
+            int verticalTexture = mCurrentTexture;
             mCurrentTexture = mHorizontalPassFilter.drawFrameBuffer(mCurrentTexture, vertexBuffer, textureBuffer);
+            // 竖直方向的结果已经使用完毕
+            recycleTexture(verticalTexture, textureId, mCurrentTexture);
         }
         return mCurrentTexture;
     }
@@ -113,6 +129,17 @@ public class GLImageGaussianBlurFilter extends GLImageFilter {
         }
     }
 
+    @Override
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        super.setFrameBufferPool(pool);
+        if (mVerticalPassFilter != null) {
+            mVerticalPassFilter.setFrameBufferPool(pool);
+        }
+        if (mHorizontalPassFilter != null) {
+            mHorizontalPassFilter.setFrameBufferPool(pool);
+        }
+    }
+
     @Override
     public void destroyFrameBuffer() {
         super.destroyFrameBuffer();
@@ -3,6 +3,8 @@ package com.cgfay.filter.glfilter.base;
 import android.content.Context;
 import android.opengl.GLES30;
 
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -81,11 +83,14 @@ public abstract class GLImageGroupFilter extends GLImageFilter {
                 }
             } else {
                 if (mFilters.get(i) != null) {
+                    int inputTexture = currentTexture;
                     currentTexture = mFilters.get(i)
                             .drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
+                    recycleTexture(inputTexture, textureId, currentTexture);
                 }
             }
         }
+        recycleTexture(currentTexture, textureId, OpenGLUtils.GL_NOT_TEXTURE);
         return result;
     }
 
@@ -105,8 +110,11 @@ public abstract class GLImageGroupFilter extends GLImageFilter {
         int currentTexture = textureId;
         for (int i = 0; i < size; i++) {
             if (mFilters.get(i) != null) {
+                int inputTexture = currentTexture;
                 currentTexture = mFilters.get(i)
                         .drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
+                // 上一个子滤镜的结果已经使用完毕
+                recycleTexture(inputTexture, textureId, currentTexture);
             }
         }
         return currentTexture;
@@ -131,6 +139,20 @@ public abstract class GLImageGroupFilter extends GLImageFilter {
         }
     }
 
+    /**
+     * 重载设置FBO缓冲池方法，各个子滤镜共用同一个缓冲池
+     * @param pool
+     */
+    @Override
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        super.setFrameBufferPool(pool);
+        for (int i = 0; i < mFilters.size(); i++) {
+            if (mFilters.get(i) != null) {
+                mFilters.get(i).setFrameBufferPool(pool);
+            }
+        }
+    }
+
     /**
      * 重载释放方法，用于释放各个子滤镜
      */
@@ -0,0 +1,135 @@
+package com.cgfay.filter.glfilter.base;
+
+/**
+ * 一维高斯核
+ * 计算半径为radius的离散高斯权重，并利用纹理的双线性过滤把相邻的两个采样点合并成一次采样：
+ * 在两个像素之间按权重比例取一个偏移，一次采样得到的就是两个像素的加权和，
+ * 每一侧的采样次数从radius减少到(radius + 1) / 2，结果与逐像素采样完全一致。
+ * 只做数值计算，不依赖OpenGLES，可以直接在JVM中测试。
+ * @author CainHuang
+ * @date 2019/9/2
+ */
+public final class GaussianKernel {
+
+    // 最大半径，每一侧最多7次采样，加上中心点一共8个varying，不超过OpenGLES 2.0保证的个数
+    public static final int MAX_RADIUS = 14;
+
+    // 半径
+    private final int mRadius;
+    // 标准差
+    private final float mSigma;
+    // 离散权重，下标为到中心的距离
+    private final float[] mWeights;
+    // 线性采样的偏移，下标0为中心点
+    private final float[] mSampleOffsets;
+    // 线性采样的权重
+    private final float[] mSampleWeights;
+
+    /**
+     * 使用默认的标准差，半径取两倍标准差
+     * @param radius 半径，0 ~ MAX_RADIUS
+     */
+    public GaussianKernel(int radius) {
+        this(radius, Math.max(radius / 2.0f, 0.5f));
+    }
+
+    /**
+     * @param radius 半径，0 ~ MAX_RADIUS
+     * @param sigma  标准差
+     */
+    public GaussianKernel(int radius, float sigma) {
+        if (radius < 0 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("radius must be in [0, " + MAX_RADIUS + "]: " + radius);
+        }
+        if (sigma <= 0) {
+            throw new IllegalArgumentException("sigma must be positive: " + sigma);
+        }
+        mRadius = radius;
+        mSigma = sigma;
+        mWeights = computeWeights(radius, sigma);
+
+        int count = (radius + 1) / 2 + 1;
+        mSampleOffsets = new float[count];
+        mSampleWeights = new float[count];
+        mSampleWeights[0] = mWeights[0];
+        for (int i = 1, distance = 1; i < count; i++, distance += 2) {
+            float weight1 = mWeights[distance];
+            float weight2 = distance + 1 <= radius ? mWeights[distance + 1] : 0;
+            float weight = weight1 + weight2;
+            mSampleWeights[i] = weight;
+            mSampleOffsets[i] = (distance * weight1 + (distance + 1) * weight2) / weight;
+        }
+    }
+
+    /**
+     * 计算归一化的离散高斯权重
+     * @return 下标为到中心的距离，中心权重加上两侧权重之和为1
+     */
+    private static float[] computeWeights(int radius, float sigma) {
+        double[] weights = new double[radius + 1];
+        double sum = 0;
+        for (int i = 0; i <= radius; i++) {
+            weights[i] = Math.exp(-(double) (i * i) / (2.0 * sigma * sigma));
+            sum += i == 0 ? weights[i] : 2 * weights[i];
+        }
+        float[] result = new float[radius + 1];
+        for (int i = 0; i <= radius; i++) {
+            result[i] = (float) (weights[i] / sum);
+        }
+        return result;
+    }
+
+    public int getRadius() {
+        return mRadius;
+    }
+
+    public float getSigma() {
+        return mSigma;
+    }
+
+    /**
+     * 离散权重
+     * @param distance 到中心的距离，0 ~ radius
+     */
+    public float getWeight(int distance) {
+        return mWeights[distance];
+    }
+
+    /**
+     * 线性采样每一侧的采样点个数，包括中心点
+     */
+    public int getSampleCount() {
+        return mSampleOffsets.length;
+    }
+
+    /**
+     * 线性采样的偏移，单位为像素
+     * @param index 0为中心点
+     */
+    public float getSampleOffset(int index) {
+        return mSampleOffsets[index];
+    }
+
+    /**
+     * 线性采样的权重
+     * @param index 0为中心点
+     */
+    public float getSampleWeight(int index) {
+        return mSampleWeights[index];
+    }
+
+    /**
+     * 线性采样时一个方向上每个像素的纹理采样次数
+     */
+    public int getTexelFetches() {
+        return 2 * mSampleOffsets.length - 1;
+    }
+
+    /**
+     * 逐像素采样时一个方向上每个像素的纹理采样次数
+     * @param radius 半径
+     */
+    public static int getDiscreteTexelFetches(int radius) {
+        return 2 * radius + 1;
+    }
+}
@@ -0,0 +1,15 @@
+package com.cgfay.filter.glfilter.base;
+
+/**
+ * 使用模糊金字塔的滤镜
+ * @author CainHuang
+ * @date 2019/9/2
+ */
+public interface IBlurPyramidFilter {
+
+    /**
+     * 设置共享的模糊金字塔，由调用者负责在每帧结束时调用nextFrame和最后的release
+     * @param pyramid 为null时使用滤镜自己的金字塔
+     */
+    void setBlurPyramid(GLImageBlurPyramid pyramid);
+}
@@ -0,0 +1,333 @@
+package com.cgfay.filter.glfilter.base;
+
+import android.opengl.GLES30;
+
+/**
+ * 滤镜的uniform状态
+ * 按照uniform句柄保存最新的值，数值存放在预先分配的数组中，修改时只标记为脏，
+ * 绘制时在当前program下上传所有脏的uniform。同一个uniform多次设置只上传最后一次的值，
+ * 稳定状态下设置和上传都不会分配内存。可以在任意线程中设置，只能在GL线程中上传。
+ * @author CainHuang
+ * @date 2019/9/1
+ */
+public final class UniformState {
+
+    public static final int TYPE_INT = 0;
+    public static final int TYPE_FLOAT = 1;
+    public static final int TYPE_VEC2 = 2;
+    public static final int TYPE_VEC3 = 3;
+    public static final int TYPE_VEC4 = 4;
+    public static final int TYPE_MAT3 = 5;
+    public static final int TYPE_MAT4 = 6;
+
+    // 初始容量
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * uniform上传器
+     */
+    public interface Uploader {
+
+        void uniform1i(int location, int value);
+
+        /**
+         * 上传浮点类型的uniform
+         * @param location  句柄
+         * @param type      类型，TYPE_FLOAT ~ TYPE_MAT4
+         * @param count     元素个数，uniform数组时大于1
+         * @param values    数值
+         * @param offset    数值的起始位置
+         */
+        void uniformfv(int location, int type, int count, float[] values, int offset);
+    }
+
+    /**
+     * 使用OpenGLES上传uniform
+     */
+    public static class GLUploader implements Uploader {
+
+        @Override
+        public void uniform1i(int location, int value) {
+            GLES30.glUniform1i(location, value);
+        }
+
+        @Override
+        public void uniformfv(int location, int type, int count, float[] values, int offset) {
+            switch (type) {
+                case TYPE_VEC2:
+                    GLES30.glUniform2fv(location, count, values, offset);
+                    break;
+                case TYPE_VEC3:
+                    GLES30.glUniform3fv(location, count, values, offset);
+                    break;
+                case TYPE_VEC4:
+                    GLES30.glUniform4fv(location, count, values, offset);
+                    break;
+                case TYPE_MAT3:
+                    GLES30.glUniformMatrix3fv(location, count, false, values, offset);
+                    break;
+                case TYPE_MAT4:
+                    GLES30.glUniformMatrix4fv(location, count, false, values, offset);
+                    break;
+                default:
+                    GLES30.glUniform1fv(location, count, values, offset);
+                    break;
+            }
+        }
+    }
+
+    // 共享的OpenGLES上传器
+    private static final Uploader GL_UPLOADER = new GLUploader();
+    // 恢复默认值时上传的0，长度不够时换成更长的数组
+    private static volatile float[] sZeros = new float[16];
+
+    // uniform个数
+    private int mCount;
+    // 句柄
+    private int[] mLocations = new int[INITIAL_CAPACITY];
+    // 类型
+    private int[] mTypes = new int[INITIAL_CAPACITY];
+    // 整型数值
+    private int[] mIntValues = new int[INITIAL_CAPACITY];
+    // 浮点数值在mFloatValues中的起始位置、长度和可用长度
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
+    private int[] mLengths = new int[INITIAL_CAPACITY];
+    private int[] mCapacities = new int[INITIAL_CAPACITY];
+    // 是否需要上传
+    private boolean[] mDirty = new boolean[INITIAL_CAPACITY];
+    // 浮点数值
+    private float[] mFloatValues = new float[INITIAL_CAPACITY * 4];
+    private int mFloatSize;
+    // 是否存在需要上传的uniform
+    private boolean mHasDirty;
+
+    public synchronized void setInt(int location, int value) {
+        // 句柄为-1时glUniform不做任何处理，不需要记录
+        if (location < 0) {
+            return;
+        }
+        int index = obtain(location, TYPE_INT, 0);
+        mIntValues[index] = value;
+        markDirty(index);
+    }
+
+    public synchronized void setFloat(int location, float value) {
+        if (location < 0) {
+            return;
+        }
+        int index = obtain(location, TYPE_FLOAT, 1);
+        mFloatValues[mOffsets[index]] = value;
+        markDirty(index);
+    }
+
+    public synchronized void setVec2(int location, float x, float y) {
+        if (location < 0) {
+            return;
+        }
+        int index = obtain(location, TYPE_VEC2, 2);
+        int offset = mOffsets[index];
+        mFloatValues[offset] = x;
+        mFloatValues[offset + 1] = y;
+        markDirty(index);
+    }
+
+    /**
+     * 设置浮点类型的uniform
+     * @param location  句柄
+     * @param type      类型，TYPE_FLOAT ~ TYPE_MAT4
+     * @param values    数值，长度必须是类型分量个数的整数倍
+     */
+    public synchronized void setFloats(int location, int type, float[] values) {
+        if (location < 0) {
+            return;
+        }
+        int index = obtain(location, type, values.length);
+        System.arraycopy(values, 0, mFloatValues, mOffsets[index], values.length);
+        markDirty(index);
+    }
+
+    /**
+     * 上传需要更新的uniform，需要在对应的program下调用
+     */
+    public void flush() {
+        flush(GL_UPLOADER);
+    }
+
+    /**
+     * 上传需要更新的uniform
+     * @param uploader 上传器
+     */
+    public synchronized void flush(Uploader uploader) {
+        if (!mHasDirty) {
+            return;
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (!mDirty[i]) {
+                continue;
+            }
+            mDirty[i] = false;
+            if (mTypes[i] == TYPE_INT) {
+                uploader.uniform1i(mLocations[i], mIntValues[i]);
+            } else {
+                uploader.uniformfv(mLocations[i], mTypes[i],
+                        mLengths[i] / getComponentCount(mTypes[i]), mFloatValues, mOffsets[i]);
+            }
+        }
+        mHasDirty = false;
+    }
+
+    /**
+     * 标记所有uniform需要重新上传，program重新创建之后调用
+     */
+    public synchronized void invalidate() {
+        for (int i = 0; i < mCount; i++) {
+            mDirty[i] = true;
+        }
+        mHasDirty = mCount > 0;
+    }
+
+    /**
+     * 共享的program换了使用者时，把这里设置过、当前使用者没有设置的uniform恢复成0，
+     * 与program刚链接时的默认值一致，需要在对应的program下调用
+     * @param current 当前使用者的uniform状态
+     */
+    public void resetMissing(UniformState current) {
+        resetMissing(current, GL_UPLOADER);
+    }
+
+    /**
+     * 恢复当前使用者没有设置的uniform
+     * @param current   当前使用者的uniform状态
+     * @param uploader  上传器
+     */
+    public synchronized void resetMissing(UniformState current, Uploader uploader) {
+        for (int i = 0; i < mCount; i++) {
+            if (current == this || current.contains(mLocations[i])) {
+                continue;
+            }
+            if (mTypes[i] == TYPE_INT) {
+                uploader.uniform1i(mLocations[i], 0);
+            } else {
+                uploader.uniformfv(mLocations[i], mTypes[i],
+                        mLengths[i] / getComponentCount(mTypes[i]), getZeros(mLengths[i]), 0);
+            }
+        }
+    }
+
+    /**
+     * 是否设置过uniform
+     * @param location 句柄
+     */
+    public synchronized boolean contains(int location) {
+        for (int i = 0; i < mCount; i++) {
+            if (mLocations[i] == location) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 清空所有uniform
+     */
+    public synchronized void clear() {
+        mCount = 0;
+        mFloatSize = 0;
+        mHasDirty = false;
+    }
+
+    /**
+     * uniform个数
+     */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    private void markDirty(int index) {
+        mDirty[index] = true;
+        mHasDirty = true;
+    }
+
+    /**
+     * 查找或者添加uniform，浮点数值的长度超过原来的可用长度时重新分配存放位置
+     */
+    private int obtain(int location, int type, int length) {
+        int index = -1;
+        for (int i = 0; i < mCount; i++) {
+            if (mLocations[i] == location) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            if (mCount == mLocations.length) {
+                grow();
+            }
+            index = mCount++;
+            mLocations[index] = location;
+            mCapacities[index] = -1;
+        }
+        mTypes[index] = type;
+        if (mCapacities[index] < length) {
+            // 旧的位置不再复用，只有长度变大时才会发生
+            if (mFloatSize + length > mFloatValues.length) {
+                float[] values = new float[Math.max(mFloatValues.length * 2, mFloatSize + length)];
+                System.arraycopy(mFloatValues, 0, values, 0, mFloatSize);
+                mFloatValues = values;
+            }
+            mOffsets[index] = mFloatSize;
+            mCapacities[index] = length;
+            mFloatSize += length;
+        }
+        mLengths[index] = length;
+        return index;
+    }
+
+    private void grow() {
+        int capacity = mLocations.length * 2;
+        mLocations = copyOf(mLocations, capacity);
+        mTypes = copyOf(mTypes, capacity);
+        mIntValues = copyOf(mIntValues, capacity);
+        mOffsets = copyOf(mOffsets, capacity);
+        mLengths = copyOf(mLengths, capacity);
+        mCapacities = copyOf(mCapacities, capacity);
+        boolean[] dirty = new boolean[capacity];
+        System.arraycopy(mDirty, 0, dirty, 0, mCount);
+        mDirty = dirty;
+    }
+
+    private static float[] getZeros(int length) {
+        float[] zeros = sZeros;
+        if (zeros.length < length) {
+            zeros = new float[length];
+            sZeros = zeros;
+        }
+        return zeros;
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * 类型对应的分量个数
+     */
+    static int getComponentCount(int type) {
+        switch (type) {
+            case TYPE_VEC2:
+                return 2;
+            case TYPE_VEC3:
+                return 3;
+            case TYPE_VEC4:
+                return 4;
+            case TYPE_MAT3:
+                return 9;
+            case TYPE_MAT4:
+                return 16;
+            default:
+                return 1;
+        }
+    }
+}
@@ -54,6 +54,13 @@ class GLImageBeautyAdjustFilter extends GLImageFilter {
         mIntensity = intensity;
     }
 
+    /**
+     * 获取磨皮程度，为0时混合结果就是原图
+     */
+    public float getSkinBeautyIntensity() {
+        return mIntensity;
+    }
+
     /**
      * 设置另外两个Texture
      * @param blurTexture
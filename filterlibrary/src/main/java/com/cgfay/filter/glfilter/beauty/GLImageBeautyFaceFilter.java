@@ -3,6 +3,7 @@ package com.cgfay.filter.glfilter.beauty;
 import android.content.Context;
 import android.opengl.GLES30;
 
+import com.cgfay.filter.glfilter.base.FrameBufferPool;
 import com.cgfay.filter.glfilter.base.GLImageDrawElementsFilter;
 import com.cgfay.filter.glfilter.base.GLImageGaussianBlurFilter;
 import com.cgfay.filter.glfilter.beauty.bean.BeautyParam;
@@ -154,6 +155,15 @@ public class GLImageBeautyFaceFilter extends GLImageDrawElementsFilter implement
     }
 
 
+    /**
+     * 需要多次绘制到同一个FBO，不使用共享的FBO缓冲池
+     * @param pool
+     */
+    @Override
+    public void setFrameBufferPool(FrameBufferPool pool) {
+
+    }
+
     @Override
     public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
         // 先将原图图像绘制到FBO中
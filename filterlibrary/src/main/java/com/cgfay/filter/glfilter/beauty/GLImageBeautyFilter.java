@@ -2,8 +2,10 @@ package com.cgfay.filter.glfilter.beauty;
 
 import android.content.Context;
 
-import com.cgfay.filter.glfilter.base.GLImageGaussianBlurFilter;
+import com.cgfay.filter.glfilter.base.FrameBufferPool;
+import com.cgfay.filter.glfilter.base.GLImageBlurPyramid;
 import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.base.IBlurPyramidFilter;
 import com.cgfay.filter.glfilter.beauty.bean.BeautyParam;
 import com.cgfay.filter.glfilter.beauty.bean.IBeautify;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
@@ -13,24 +15,28 @@ import java.nio.FloatBuffer;
 /**
  * 实时美颜，这里用的是高反差保留磨皮法
  */
-public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
+public class GLImageBeautyFilter extends GLImageFilter implements IBeautify, IBlurPyramidFilter {
+
+    // 模糊所在的金字塔层级，1/2大小
+    private static final int BLUR_LEVEL = 1;
+    // 磨皮的模糊半径，和原来11 x 11均值模糊的范围一致
+    private static final int BLUR_RADIUS = 5;
+    // 高反差保留结果的模糊半径
+    private static final int HIGH_PASS_BLUR_RADIUS = 2;
 
     // 美肤滤镜
     private GLImageBeautyComplexionFilter mComplexionFilter;
-    // 高斯模糊
-    private GLImageBeautyBlurFilter mBeautyBlurFilter;
+    // 模糊金字塔，提供高斯模糊和高通滤波结果的高斯模糊
+    private GLImageBlurPyramid mBlurPyramid;
+    // 是否是共享的模糊金字塔
+    private boolean mSharedPyramid;
     // 高通滤波
     private GLImageBeautyHighPassFilter mHighPassFilter;
-    // 高通滤波做高斯模糊处理，保留边沿细节
-    private GLImageGaussianBlurFilter mHighPassBlurFilter;
     // 磨皮程度调节滤镜
     private GLImageBeautyAdjustFilter mBeautyAdjustFilter;
     // 人脸美化处理
     private GLImageBeautyFaceFilter mBeautyFaceFilter;
 
-    // 缩放
-    private float mBlurScale = 0.5f;
-
     public GLImageBeautyFilter(Context context) {
         this(context, null, null);
     }
@@ -42,9 +48,8 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
 
     private void initFilters() {
         mComplexionFilter = new GLImageBeautyComplexionFilter(mContext);
-        mBeautyBlurFilter = new GLImageBeautyBlurFilter(mContext);
+        mBlurPyramid = new GLImageBlurPyramid(mContext);
         mHighPassFilter = new GLImageBeautyHighPassFilter(mContext);
-        mHighPassBlurFilter = new GLImageGaussianBlurFilter(mContext);
         mBeautyAdjustFilter = new GLImageBeautyAdjustFilter(mContext);
         mBeautyFaceFilter = new GLImageBeautyFaceFilter(mContext);
     }
@@ -55,14 +60,12 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         if (mComplexionFilter != null) {
             mComplexionFilter.onInputSizeChanged(width, height);
         }
-        if (mBeautyBlurFilter != null) {
-            mBeautyBlurFilter.onInputSizeChanged((int) (width * mBlurScale), (int) (height * mBlurScale));
+        if (mBlurPyramid != null) {
+            mBlurPyramid.onInputSizeChanged(width, height);
         }
         if (mHighPassFilter != null) {
-            mHighPassFilter.onInputSizeChanged((int) (width * mBlurScale), (int) (height * mBlurScale));
-        }
-        if (mHighPassBlurFilter != null) {
-            mHighPassBlurFilter.onInputSizeChanged((int) (width * mBlurScale), (int) (height * mBlurScale));
+            mHighPassFilter.onInputSizeChanged(GLImageBlurPyramid.getLevelSize(width, BLUR_LEVEL),
+                    GLImageBlurPyramid.getLevelSize(height, BLUR_LEVEL));
         }
         if (mBeautyAdjustFilter != null) {
             mBeautyAdjustFilter.onInputSizeChanged(width, height);
@@ -78,15 +81,9 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         if (mComplexionFilter != null) {
             mComplexionFilter.onDisplaySizeChanged(width, height);
         }
-        if (mBeautyBlurFilter != null) {
-            mBeautyBlurFilter.onDisplaySizeChanged(width, height);
-        }
         if (mHighPassFilter != null) {
             mHighPassFilter.onDisplaySizeChanged(width, height);
         }
-        if (mHighPassBlurFilter != null) {
-            mHighPassBlurFilter.onDisplaySizeChanged(width, height);
-        }
         if (mBeautyAdjustFilter != null) {
             mBeautyAdjustFilter.onDisplaySizeChanged(width, height);
         }
@@ -100,36 +97,15 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         if (textureId == OpenGLUtils.GL_NOT_TEXTURE) {
             return false;
         }
-        int currentTexture = textureId;
-        int sourceTexture = mComplexionFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
-        currentTexture = sourceTexture;
-
-        int blurTexture = currentTexture;
-        int highPassBlurTexture = currentTexture;
-        // 1、输入纹理做高斯模糊处理
-        if (mBeautyBlurFilter != null) {
-            blurTexture = mBeautyBlurFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
-            currentTexture = blurTexture;
-        }
-        // 2、计算高通滤波，做高反差保留处理
-        if (mHighPassFilter != null) {
-            mHighPassFilter.setBlurTexture(currentTexture);
-            currentTexture = mHighPassFilter.drawFrameBuffer(sourceTexture, vertexBuffer, textureBuffer);
-        }
-        // 3、高通滤波纹理做高斯模糊处理，去掉边沿细节
-        if (mHighPassBlurFilter != null) {
-            highPassBlurTexture = mHighPassBlurFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
-        }
-        // 调节
-        if (mBeautyAdjustFilter != null) {
-            mBeautyAdjustFilter.setBlurTexture(blurTexture, highPassBlurTexture);
-            currentTexture = mBeautyAdjustFilter.drawFrameBuffer(sourceTexture, vertexBuffer, textureBuffer);
-        }
+        int currentTexture = drawSkinBeauty(textureId, vertexBuffer, textureBuffer);
         // 锐化
+        boolean result = false;
         if (mBeautyFaceFilter != null) {
-            return mBeautyFaceFilter.drawFrame(currentTexture, vertexBuffer, textureBuffer);
+            result = mBeautyFaceFilter.drawFrame(currentTexture, vertexBuffer, textureBuffer);
         }
-        return false;
+        recycleTexture(currentTexture, textureId, OpenGLUtils.GL_NOT_TEXTURE);
+        onFrameFinish();
+        return result;
     }
 
     @Override
@@ -137,54 +113,76 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         if (textureId == OpenGLUtils.GL_NOT_TEXTURE) {
             return textureId;
         }
-        int currentTexture = textureId;
-        int sourceTexture = mComplexionFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
-        currentTexture = sourceTexture;
-
-        int blurTexture = currentTexture;
-        int highPassBlurTexture = currentTexture;
-        // 高斯模糊
-        if (mBeautyBlurFilter != null) {
-            blurTexture = mBeautyBlurFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
-            currentTexture = blurTexture;
-        }
-        // 高通滤波，做高反差保留
-        if (mHighPassFilter != null) {
-            mHighPassFilter.setBlurTexture(currentTexture);
-            currentTexture = mHighPassFilter.drawFrameBuffer(sourceTexture, vertexBuffer, textureBuffer);
-        }
-        // 对高反差保留的结果进行高斯模糊，过滤边沿数值
-        if (mHighPassBlurFilter != null) {
-            highPassBlurTexture = mHighPassBlurFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
-            currentTexture = highPassBlurTexture;
-        }
-        // 混合处理
-        if (mBeautyAdjustFilter != null) {
-            currentTexture = sourceTexture;
-            mBeautyAdjustFilter.setBlurTexture(blurTexture, highPassBlurTexture);
-            currentTexture = mBeautyAdjustFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
-        }
+        int currentTexture = drawSkinBeauty(textureId, vertexBuffer, textureBuffer);
+        int adjustTexture = currentTexture;
         // 锐度变换
         if (mBeautyFaceFilter != null) {
             currentTexture = mBeautyFaceFilter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
         }
+        recycleTexture(adjustTexture, textureId, currentTexture);
+        onFrameFinish();
         return currentTexture;
     }
 
+    /**
+     * 美肤和磨皮处理
+     * 模糊和高反差保留都在1/2大小上进行，缩小和模糊的结果来自模糊金字塔
+     * @return 磨皮之后的纹理
+     */
+    private int drawSkinBeauty(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        int sourceTexture = mComplexionFilter.drawFrameBuffer(textureId, vertexBuffer, textureBuffer);
+        // 磨皮程度为0时混合结果就是原图，跳过模糊、高反差保留和混合
+        if (mBeautyAdjustFilter == null || mBeautyAdjustFilter.getSkinBeautyIntensity() <= 0) {
+            return sourceTexture;
+        }
+        // 1、高斯模糊
+        int levelTexture = mBlurPyramid.getLevelTexture(sourceTexture, BLUR_LEVEL);
+        int blurTexture = mBlurPyramid.blurLevelTexture(levelTexture, BLUR_LEVEL, BLUR_RADIUS);
+        // 2、高通滤波，做高反差保留
+        mHighPassFilter.setBlurTexture(blurTexture);
+        int highPassTexture = mHighPassFilter.drawFrameBuffer(levelTexture, vertexBuffer, textureBuffer);
+        // 3、对高反差保留的结果进行高斯模糊，过滤边沿数值
+        int highPassBlurTexture = mBlurPyramid.blurLevelTexture(highPassTexture, BLUR_LEVEL,
+                HIGH_PASS_BLUR_RADIUS);
+        // 4、混合处理
+        mBeautyAdjustFilter.setBlurTexture(blurTexture, highPassBlurTexture);
+        int currentTexture = mBeautyAdjustFilter.drawFrameBuffer(sourceTexture, vertexBuffer, textureBuffer);
+        // 金字塔中的纹理由金字塔持有，只归还自己绘制的中间结果
+        if (highPassTexture != levelTexture) {
+            recycleTexture(highPassTexture, textureId, currentTexture);
+        }
+        recycleTexture(sourceTexture, textureId, currentTexture);
+        return currentTexture;
+    }
+
+    /**
+     * 一帧绘制完成，使用自己的模糊金字塔时释放缓存的纹理
+     */
+    private void onFrameFinish() {
+        if (!mSharedPyramid) {
+            mBlurPyramid.nextFrame();
+        }
+    }
+
+    @Override
+    public void setBlurPyramid(GLImageBlurPyramid pyramid) {
+        if (!mSharedPyramid) {
+            mBlurPyramid.release();
+        }
+        mSharedPyramid = pyramid != null;
+        mBlurPyramid = pyramid != null ? pyramid : new GLImageBlurPyramid(mContext, mFrameBufferPool);
+        mBlurPyramid.onInputSizeChanged(mImageWidth, mImageHeight);
+    }
+
     @Override
     public void initFrameBuffer(int width, int height) {
         super.initFrameBuffer(width, height);
         if (mComplexionFilter != null) {
             mComplexionFilter.initFrameBuffer(width, height);
         }
-        if (mBeautyBlurFilter != null) {
-            mBeautyBlurFilter.initFrameBuffer((int) (width * mBlurScale), (int) (height * mBlurScale));
-        }
         if (mHighPassFilter != null) {
-            mHighPassFilter.initFrameBuffer((int) (width * mBlurScale), (int) (height * mBlurScale));
-        }
-        if (mHighPassBlurFilter != null) {
-            mHighPassBlurFilter.initFrameBuffer((int) (width * mBlurScale), (int) (height * mBlurScale));
+            mHighPassFilter.initFrameBuffer(GLImageBlurPyramid.getLevelSize(width, BLUR_LEVEL),
+                    GLImageBlurPyramid.getLevelSize(height, BLUR_LEVEL));
         }
         if (mBeautyAdjustFilter != null) {
             mBeautyAdjustFilter.initFrameBuffer(width, height);
@@ -194,21 +192,35 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         }
     }
 
+    @Override
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        super.setFrameBufferPool(pool);
+        if (mComplexionFilter != null) {
+            mComplexionFilter.setFrameBufferPool(pool);
+        }
+        if (mBlurPyramid != null && !mSharedPyramid) {
+            mBlurPyramid.setFrameBufferPool(pool);
+        }
+        if (mHighPassFilter != null) {
+            mHighPassFilter.setFrameBufferPool(pool);
+        }
+        if (mBeautyAdjustFilter != null) {
+            mBeautyAdjustFilter.setFrameBufferPool(pool);
+        }
+        if (mBeautyFaceFilter != null) {
+            mBeautyFaceFilter.setFrameBufferPool(pool);
+        }
+    }
+
     @Override
     public void destroyFrameBuffer() {
         super.destroyFrameBuffer();
         if (mComplexionFilter != null) {
             mComplexionFilter.destroyFrameBuffer();
         }
-        if (mBeautyBlurFilter != null) {
-            mBeautyBlurFilter.destroyFrameBuffer();
-        }
         if (mHighPassFilter != null) {
             mHighPassFilter.destroyFrameBuffer();
         }
-        if (mHighPassBlurFilter != null) {
-            mHighPassBlurFilter.destroyFrameBuffer();
-        }
         if (mBeautyAdjustFilter != null) {
             mBeautyAdjustFilter.destroyFrameBuffer();
         }
@@ -224,18 +236,16 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
             mComplexionFilter.release();
             mComplexionFilter = null;
         }
-        if (mBeautyBlurFilter != null) {
-            mBeautyBlurFilter.release();
-            mBeautyBlurFilter = null;
+        if (mBlurPyramid != null) {
+            if (!mSharedPyramid) {
+                mBlurPyramid.release();
+            }
+            mBlurPyramid = null;
         }
         if (mHighPassFilter != null) {
             mHighPassFilter.release();
             mHighPassFilter = null;
         }
-        if (mHighPassBlurFilter != null) {
-            mHighPassBlurFilter.release();
-            mHighPassBlurFilter = null;
-        }
         if (mBeautyAdjustFilter != null) {
             mBeautyAdjustFilter.release();
             mBeautyAdjustFilter = null;
@@ -23,6 +23,12 @@ public class DynamicColorBaseFilter extends GLImageAudioFilter {
                         : getShaderString(context, unzipPath, dynamicColorData.fragmentShader));
         mDynamicColorData = dynamicColorData;
         mDynamicColorLoader = new DynamicColorLoader(this, mDynamicColorData, unzipPath);
+        // 查找表转换成3D纹理时，滤镜自带的2D查找shader换成3D查找表的shader
+        if (mDynamicColorLoader.isLookupTable3D()) {
+            mVertexShader = OpenGLUtils.getShaderFromAssets(context, "shader/base/vertex_lookup_table_3d.glsl");
+            mFragmentShader = OpenGLUtils.getShaderFromAssets(context, "shader/base/fragment_lookup_table_3d.glsl");
+            initProgramHandle();
+        }
         mDynamicColorLoader.onBindUniformHandle(mProgramHandle);
     }
 
@@ -60,6 +66,14 @@ public class DynamicColorBaseFilter extends GLImageAudioFilter {
         }
     }
 
+    /**
+     * 滤镜纹理占用的显存
+     * @return 字节数
+     */
+    public long getTextureBytes() {
+        return mDynamicColorLoader != null ? mDynamicColorLoader.getTextureBytes() : 0;
+    }
+
     /**
      * 根据解压路径和shader名称读取shader的字符串内容
      * @param unzipPath
@@ -8,11 +8,13 @@ import android.util.Log;
 import android.util.Pair;
 
 import com.cgfay.filter.glfilter.color.bean.DynamicColorData;
+import com.cgfay.filter.glfilter.lut.LutTexture;
 import com.cgfay.filter.glfilter.resource.ResourceCodec;
 import com.cgfay.filter.glfilter.resource.ResourceDataCodec;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 import com.cgfay.uitls.utils.BitmapUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
@@ -36,6 +38,12 @@ public class DynamicColorLoader {
     private HashMap<String, Integer> mUniformHandleList = new HashMap<>();
     // 纹理列表
     private int[] mTextureList;
+    // 纹理占用的显存(字节)
+    private long mTextureBytes;
+    // 查找表纹理，对应uniformDataList中的第mLookupTableIndex个
+    private LutTexture mLookupTable;
+    private int mLookupTableIndex = -1;
+    private int mLookupTableSizeHandle = OpenGLUtils.GL_NOT_INIT;
 
     // 句柄
     private int mTexelWidthOffsetHandle = OpenGLUtils.GL_NOT_INIT;
@@ -80,6 +88,10 @@ public class DynamicColorLoader {
         }
         mTextureList = new int[mColorData.uniformDataList.size()];
         for (int dataIndex = 0; dataIndex < mColorData.uniformDataList.size(); dataIndex++) {
+            if (loadLookupTable(dataIndex)) {
+                mTextureList[dataIndex] = OpenGLUtils.GL_NOT_TEXTURE;
+                continue;
+            }
             Bitmap bitmap = null;
             if (mResourceCodec != null) {
                 bitmap = mResourceCodec.loadBitmap(mColorData.uniformDataList.get(dataIndex).value);
@@ -89,6 +101,7 @@ public class DynamicColorLoader {
             }
             if (bitmap != null) {
                 mTextureList[dataIndex] = OpenGLUtils.createTexture(bitmap);
+                mTextureBytes += (long) bitmap.getWidth() * bitmap.getHeight() * 4;
                 bitmap.recycle();
             } else {
                 mTextureList[dataIndex] = OpenGLUtils.GL_NOT_TEXTURE;
@@ -96,6 +109,36 @@ public class DynamicColorLoader {
         }
     }
 
+    /**
+     * 加载查找表，只处理json中声明为查找表并且以文件形式存放的图片
+     * @param dataIndex 统一变量数据的索引
+     * @return 是否加载成功
+     */
+    private boolean loadLookupTable(int dataIndex) {
+        String uniform = mColorData.uniformDataList.get(dataIndex).uniform;
+        if (mLookupTable != null || TextUtils.isEmpty(mColorData.lookupTable)
+                || !mColorData.lookupTable.equals(uniform)) {
+            return false;
+        }
+        File file = new File(mFolderPath, mColorData.uniformDataList.get(dataIndex).value);
+        if (!file.exists()) {
+            return false;
+        }
+        mLookupTable = LutTexture.load(file.getAbsolutePath(), true);
+        if (mLookupTable == null) {
+            return false;
+        }
+        mLookupTableIndex = dataIndex;
+        mTextureBytes += mLookupTable.getTextureBytes();
+        return true;
+    }
+
+    /**
+     * 查找表是否已经转换成3D纹理，是的话滤镜需要换成3D查找表的shader
+     */
+    public boolean isLookupTable3D() {
+        return mLookupTable != null && mLookupTable.is3D();
+    }
 
     /**
      * 绑定统一变量句柄
@@ -115,9 +158,14 @@ public class DynamicColorLoader {
         }
         for (int uniformIndex = 0; uniformIndex < mColorData.uniformList.size(); uniformIndex++) {
             String uniformString = mColorData.uniformList.get(uniformIndex);
-            int handle = GLES30.glGetUniformLocation(programHandle, uniformString);
+            // 3D查找表的shader使用固定的统一变量名
+            int handle = GLES30.glGetUniformLocation(programHandle,
+                    isLookupTable3D() && uniformString.equals(mColorData.lookupTable)
+                            ? "lookupTableTexture" : uniformString);
             mUniformHandleList.put(uniformString, handle);
         }
+        mLookupTableSizeHandle = isLookupTable3D()
+                ? GLES30.glGetUniformLocation(programHandle, "lookupTableSize") : OpenGLUtils.GL_NOT_INIT;
     }
 
     /**
@@ -144,6 +192,10 @@ public class DynamicColorLoader {
             GLES30.glUniform1f(mTexelHeightOffsetHandle, mTexelHeightOffset);
         }
 
+        if (mLookupTableSizeHandle != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glUniform1f(mLookupTableSizeHandle, mLookupTable.getSize());
+        }
+
         if (mTextureList == null || mColorData == null) {
             return;
         }
@@ -152,7 +204,9 @@ public class DynamicColorLoader {
             for (int uniformIndex = 0; uniformIndex < mUniformHandleList.size(); uniformIndex++) {
                 // 如果统一变量存在，则直接绑定纹理
                 Integer handle = mUniformHandleList.get(mColorData.uniformDataList.get(dataIndex).uniform);
-                if (handle != null && mTextureList[dataIndex] != OpenGLUtils.GL_NOT_TEXTURE) {
+                if (handle != null && dataIndex == mLookupTableIndex) {
+                    mLookupTable.bind(handle, dataIndex + 1);
+                } else if (handle != null && mTextureList[dataIndex] != OpenGLUtils.GL_NOT_TEXTURE) {
                     OpenGLUtils.bindTexture(handle, mTextureList[dataIndex], dataIndex + 1);
                 }
             }
@@ -166,6 +220,12 @@ public class DynamicColorLoader {
         if (mTextureList != null && mTextureList.length > 0) {
             GLES30.glDeleteTextures(mTextureList.length, mTextureList, 0);
             mTextureList = null;
+            mTextureBytes = 0;
+        }
+        if (mLookupTable != null) {
+            mLookupTable.release();
+            mLookupTable = null;
+            mLookupTableIndex = -1;
         }
         if (mWeakFilter.get() != null) {
             mWeakFilter.clear();
@@ -180,4 +240,12 @@ public class DynamicColorLoader {
         mStrength = strength;
     }
 
+    /**
+     * 纹理占用的显存，按照RGBA计算
+     * @return 字节数
+     */
+    public long getTextureBytes() {
+        return mTextureBytes;
+    }
+
 }
@@ -35,4 +35,18 @@ public class GLImageDynamicColorFilter extends GLImageGroupFilter {
             }
         }
     }
+
+    /**
+     * 滤镜纹理占用的显存
+     * @return 字节数
+     */
+    public long getTextureBytes() {
+        long bytes = 0;
+        for (int i = 0; i < mFilters.size(); i++) {
+            if (mFilters.get(i) instanceof DynamicColorBaseFilter) {
+                bytes += ((DynamicColorBaseFilter) mFilters.get(i)).getTextureBytes();
+            }
+        }
+        return bytes;
+    }
 }
@@ -10,6 +10,7 @@ public class DynamicColorBaseData {
     public String fragmentShader;               // fragment shader名称
     public List<String> uniformList;            // 统一变量字段列表
     public List<UniformData> uniformDataList;   // 统一变量数据列表，目前主要用于存放滤镜的png文件
+    public String lookupTable;                  // 平铺查找表对应的统一变量，滤镜只做查找表映射时可以换成3D查找表
     public float strength;                      // 默认强度
     public boolean texelOffset;                 // 是否存在宽高偏移量的统一变量
     public String audioPath;                    // 滤镜音乐滤镜
@@ -29,6 +30,7 @@ public class DynamicColorBaseData {
                 ", fragmentShader='" + fragmentShader + '\'' +
                 ", uniformList=" + uniformList +
                 ", uniformDataList=" + uniformDataList +
+                ", lookupTable='" + lookupTable + '\'' +
                 ", strength=" + strength +
                 ", texelOffset=" + texelOffset +
                 ", audioPath='" + audioPath + '\'' +
@@ -54,7 +54,7 @@ public class GLImageFacePointsFilter extends GLImageFilter {
     public void initProgramHandle() {
         // 只有在shader都不为空的情况下才初始化程序句柄
         if (!TextUtils.isEmpty(mVertexShader) && !TextUtils.isEmpty(mFragmentShader)) {
-            mProgramHandle = OpenGLUtils.createProgram(mVertexShader, mFragmentShader);
+            mProgramHandle = createProgramHandle();
             mPositionHandle = GLES30.glGetAttribLocation(mProgramHandle, "aPosition");
             mColorHandle = GLES30.glGetUniformLocation(mProgramHandle, "color");
             mIsInitialized = true;
@@ -109,6 +109,12 @@ public class GLImageFaceReshapeFilter extends GLImageDrawElementsFilter implemen
         }
     }
 
+    @Override
+    public boolean isIdentity() {
+        // 没有人脸时只是复制输入图像
+        return super.isIdentity() || !LandmarkEngine.getInstance().hasFace();
+    }
+
     @Override
     public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
         updateFaceVertices();
@@ -0,0 +1,81 @@
+package com.cgfay.filter.glfilter.lut;
+
+/**
+ * 查找表转换器
+ * 平铺的2D查找表把3D查找表按照蓝色分量切成N张N x N的切片，从左到右、从上到下排列，
+ * 切片内部x方向为红色分量，y方向为绿色分量。512 x 512的查找表为64阶(8 x 8个切片)，
+ * 64 x 64的查找表为16阶(4 x 4个切片)。
+ * 转换后的数据按照红、绿、蓝的顺序紧密排列，每个格点3个字节，可以直接上传为GL_TEXTURE_3D。
+ * 只做数据转换，不依赖OpenGLES。
+ * @author CainHuang
+ * @date 2019/9/6
+ */
+public final class LutConverter {
+
+    // 每个格点的字节数(RGB)
+    public static final int BYTES_PER_TEXEL = 3;
+
+    private LutConverter() {
+
+    }
+
+    /**
+     * 获取平铺查找表对应的3D查找表阶数
+     * @param width     平铺查找表宽度
+     * @param height    平铺查找表高度
+     * @return 不是平铺查找表时返回0
+     */
+    public static int getCubeSize(int width, int height) {
+        if (width <= 0 || width != height) {
+            return 0;
+        }
+        long texels = (long) width * height;
+        int size = (int) Math.round(Math.cbrt(texels));
+        if ((long) size * size * size != texels || width % size != 0) {
+            return 0;
+        }
+        return size;
+    }
+
+    /**
+     * 3D查找表数据的字节数
+     * @param size 查找表阶数
+     */
+    public static int getCubeBytes(int size) {
+        return size * size * size * BYTES_PER_TEXEL;
+    }
+
+    /**
+     * 把平铺的2D查找表转换成3D查找表
+     * @param pixels    ARGB像素，按行排列，与Bitmap.getPixels的格式一致
+     * @param width     平铺查找表宽度
+     * @param height    平铺查找表高度
+     * @return 紧密排列的RGB数据，第(r, g, b)个格点位于((b * size + g) * size + r) * 3
+     */
+    public static byte[] convert(int[] pixels, int width, int height) {
+        int size = getCubeSize(width, height);
+        if (size == 0) {
+            throw new IllegalArgumentException("not a tiled lookup table: " + width + "x" + height);
+        }
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixels too short: " + pixels.length);
+        }
+        int tilesPerRow = width / size;
+        byte[] cube = new byte[getCubeBytes(size)];
+        int offset = 0;
+        for (int b = 0; b < size; b++) {
+            int tileX = (b % tilesPerRow) * size;
+            int tileY = (b / tilesPerRow) * size;
+            for (int g = 0; g < size; g++) {
+                int row = (tileY + g) * width + tileX;
+                for (int r = 0; r < size; r++) {
+                    int pixel = pixels[row + r];
+                    cube[offset++] = (byte) (pixel >> 16);
+                    cube[offset++] = (byte) (pixel >> 8);
+                    cube[offset++] = (byte) pixel;
+                }
+            }
+        }
+        return cube;
+    }
+}
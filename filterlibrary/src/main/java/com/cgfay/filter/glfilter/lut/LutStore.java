@@ -0,0 +1,140 @@
+package com.cgfay.filter.glfilter.lut;
+
+import com.cgfay.filter.glfilter.utils.DigestUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 3D查找表的磁盘缓存
+ * 每个查找表保存为一个文件，只保存紧密排列的RGB数据，加载时不需要解码图片和重新排列。
+ * 文件头记录源图片的大小和修改时间，源图片变化之后旧的缓存读取时会被删除。
+ * 写入时先写临时文件再重命名，进程中途退出也不会留下不完整的文件。
+ * 只做文件读写，不依赖OpenGLES。
+ * @author CainHuang
+ * @date 2019/9/6
+ */
+public class LutStore {
+
+    // 文件头标记
+    private static final int MAGIC = 0x434C5554;
+    // 文件后缀
+    private static final String SUFFIX = ".lut";
+    // 查找表的最大阶数，超过时认为文件损坏
+    private static final int MAX_CUBE_SIZE = 256;
+
+    /**
+     * 3D查找表数据
+     */
+    public static final class Cube {
+
+        // 查找表阶数
+        private final int mSize;
+        // RGB数据，direct buffer
+        private final ByteBuffer mData;
+
+        public Cube(int size, ByteBuffer data) {
+            mSize = size;
+            mData = data;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public ByteBuffer getData() {
+            return mData;
+        }
+    }
+
+    // 存放目录
+    private final File mDirectory;
+
+    public LutStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * 读取源图片对应的3D查找表
+     * @param source 源图片
+     * @return 不存在、源图片变化或者文件损坏时返回null
+     */
+    public Cube load(File source) {
+        File file = getFile(source);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            if (input.readInt() != MAGIC || input.readLong() != source.length()
+                    || input.readLong() != source.lastModified()) {
+                file.delete();
+                return null;
+            }
+            int size = input.readInt();
+            if (size <= 1 || size > MAX_CUBE_SIZE) {
+                file.delete();
+                return null;
+            }
+            byte[] bytes = new byte[LutConverter.getCubeBytes(size)];
+            input.readFully(bytes);
+            return new Cube(size, wrap(bytes));
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * 保存3D查找表
+     * @param source    源图片
+     * @param size      查找表阶数
+     * @param cube      紧密排列的RGB数据
+     * @return 是否保存成功
+     */
+    public boolean save(File source, int size, byte[] cube) {
+        if (cube.length != LutConverter.getCubeBytes(size)) {
+            return false;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return false;
+        }
+        File file = getFile(source);
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(tempFile))) {
+            output.writeInt(MAGIC);
+            output.writeLong(source.length());
+            output.writeLong(source.lastModified());
+            output.writeInt(size);
+            output.write(cube);
+        } catch (IOException e) {
+            tempFile.delete();
+            return false;
+        }
+        return tempFile.renameTo(file);
+    }
+
+    /**
+     * 把RGB数据包装成上传纹理用的direct buffer
+     * @param cube 紧密排列的RGB数据
+     */
+    public static ByteBuffer wrap(byte[] cube) {
+        ByteBuffer data = ByteBuffer.allocateDirect(cube.length).order(ByteOrder.nativeOrder());
+        data.put(cube);
+        data.flip();
+        return data;
+    }
+
+    /**
+     * 缓存文件名为源图片绝对路径的SHA-1
+     */
+    private File getFile(File source) {
+        String name = DigestUtils.sha1Hex(DigestUtils.utf8(source.getAbsolutePath()));
+        return new File(mDirectory, name + SUFFIX);
+    }
+}
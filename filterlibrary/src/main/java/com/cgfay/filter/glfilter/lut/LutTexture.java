@@ -0,0 +1,144 @@
+package com.cgfay.filter.glfilter.lut;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.uitls.utils.BitmapUtils;
+
+import java.io.File;
+
+/**
+ * 查找表纹理
+ * OpenGLES 3.0下把平铺的2D查找表转换成GL_TEXTURE_3D，一次硬件三线性采样代替两次2D采样和蓝色切片插值，
+ * 转换结果保存到磁盘缓存，下次直接上传，不需要再解码图片。
+ * OpenGLES 2.0或者图片不是平铺查找表时保持原来的2D纹理。
+ * 只能在GL线程中创建和释放。
+ * @author CainHuang
+ * @date 2019/9/6
+ */
+public class LutTexture {
+
+    private static final String TAG = "LutTexture";
+
+    // 3D查找表的磁盘缓存目录，没有设置时不缓存
+    private static File sCacheDirectory;
+
+    // 纹理id
+    private int mTexture;
+    // 是否为3D纹理
+    private final boolean mIs3D;
+    // 查找表阶数
+    private final int mSize;
+    // 纹理占用的显存(字节)
+    private final long mTextureBytes;
+
+    private LutTexture(int texture, boolean is3D, int size, long textureBytes) {
+        mTexture = texture;
+        mIs3D = is3D;
+        mSize = size;
+        mTextureBytes = textureBytes;
+    }
+
+    /**
+     * 设置3D查找表的磁盘缓存目录
+     * @param directory
+     */
+    public static synchronized void setCacheDirectory(File directory) {
+        sCacheDirectory = directory;
+    }
+
+    private static synchronized File getCacheDirectory() {
+        return sCacheDirectory;
+    }
+
+    /**
+     * 当前上下文是否支持3D查找表
+     */
+    public static boolean is3DSupported() {
+        return OpenGLUtils.getGLESMajorVersion() >= 3;
+    }
+
+    /**
+     * 加载查找表
+     * @param path      平铺查找表图片路径
+     * @param allow3D   是否允许转换成3D纹理，滤镜使用自定义shader时只能用2D纹理
+     * @return 加载失败时返回null
+     */
+    public static LutTexture load(String path, boolean allow3D) {
+        File source = new File(path);
+        boolean use3D = allow3D && is3DSupported();
+        File cacheDirectory = getCacheDirectory();
+        LutStore store = cacheDirectory != null ? new LutStore(cacheDirectory) : null;
+        if (use3D && store != null) {
+            LutStore.Cube cube = store.load(source);
+            if (cube != null) {
+                return create3D(cube.getSize(), cube.getData().capacity(),
+                        OpenGLUtils.createTexture3D(cube.getData(), cube.getSize()));
+            }
+        }
+        Bitmap bitmap = BitmapUtils.getBitmapFromFile(path);
+        if (bitmap == null) {
+            Log.e(TAG, "load: failed to decode " + path);
+            return null;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int size = LutConverter.getCubeSize(width, height);
+        LutTexture texture;
+        if (use3D && size > 0) {
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            byte[] cube = LutConverter.convert(pixels, width, height);
+            if (store != null && !store.save(source, size, cube)) {
+                Log.w(TAG, "load: failed to cache " + path);
+            }
+            texture = create3D(size, cube.length, OpenGLUtils.createTexture3D(LutStore.wrap(cube), size));
+        } else {
+            texture = new LutTexture(OpenGLUtils.createTexture(bitmap), false, size,
+                    (long) width * height * 4);
+        }
+        bitmap.recycle();
+        return texture;
+    }
+
+    private static LutTexture create3D(int size, long bytes, int texture) {
+        return new LutTexture(texture, true, size, bytes);
+    }
+
+    /**
+     * 绑定纹理
+     * @param location  sampler句柄
+     * @param index     纹理单元
+     */
+    public void bind(int location, int index) {
+        OpenGLUtils.bindTexture(location, mTexture, index,
+                mIs3D ? GLES30.GL_TEXTURE_3D : GLES30.GL_TEXTURE_2D);
+    }
+
+    /**
+     * 释放纹理
+     */
+    public void release() {
+        if (mTexture != OpenGLUtils.GL_NOT_TEXTURE) {
+            OpenGLUtils.deleteTexture(mTexture);
+            mTexture = OpenGLUtils.GL_NOT_TEXTURE;
+        }
+    }
+
+    public boolean is3D() {
+        return mIs3D;
+    }
+
+    /**
+     * 查找表阶数，2D纹理不是平铺查找表时为0
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    public long getTextureBytes() {
+        return mTextureBytes;
+    }
+}
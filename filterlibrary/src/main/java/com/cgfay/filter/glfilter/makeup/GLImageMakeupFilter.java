@@ -4,6 +4,7 @@ import android.content.Context;
 import android.opengl.GLES30;
 import android.util.SparseArray;
 
+import com.cgfay.filter.glfilter.base.FrameBufferPool;
 import com.cgfay.filter.glfilter.base.GLImageFilter;
 import com.cgfay.filter.glfilter.makeup.bean.DynamicMakeup;
 import com.cgfay.filter.glfilter.makeup.bean.MakeupBaseData;
@@ -74,6 +75,28 @@ public class GLImageMakeupFilter extends GLImageFilter {
         GLES30.glUniform1i(mMakeupTypeHandle, 0);
     }
 
+    /**
+     * 需要多次绘制到同一个FBO，不使用共享的FBO缓冲池
+     * @param pool
+     */
+    @Override
+    public void setFrameBufferPool(FrameBufferPool pool) {
+
+    }
+
+    @Override
+    public boolean isIdentity() {
+        if (super.isIdentity() || mLoaderArrays == null || !LandmarkEngine.getInstance().hasFace()) {
+            return true;
+        }
+        for (int i = 0; i < mLoaderArrays.size(); i++) {
+            if (mLoaderArrays.valueAt(i) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
         // 1、绘制原图到FBO
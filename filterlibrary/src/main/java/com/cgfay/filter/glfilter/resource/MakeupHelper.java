@@ -58,16 +58,8 @@ public final class MakeupHelper extends ResourceBaseHelper {
         }
 
         String filterPath = getMakeupDirectory(context);
-        // 解码列表中的所有资源
-        for (ResourceData item : resourceList) {
-            if (item.type.getIndex() >= 0) {
-                if (item.zipPath.startsWith("assets://")) {
-                    decompressAsset(context, item.zipPath.substring("assets://".length()), item.unzipFolder, filterPath);
-                } else if (item.zipPath.startsWith("file://")) {    // 绝对目录中的资源
-                    decompressFile(item.zipPath.substring("file://".length()), item.unzipFolder, filterPath);
-                }
-            }
-        }
+        // 并行解压列表中的所有资源
+        extractResources(context, resourceList, filterPath);
     }
 
     /**
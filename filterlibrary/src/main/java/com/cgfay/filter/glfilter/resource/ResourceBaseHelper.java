@@ -1,15 +1,15 @@
 package com.cgfay.filter.glfilter.resource;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
 import android.util.Log;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import com.cgfay.filter.glfilter.resource.bean.ResourceData;
+
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.List;
 
 /**
  * 资源助手基类
@@ -19,129 +19,53 @@ public class ResourceBaseHelper {
     private static String TAG = "ResourceBaseHelper";
 
     /**
-     * 解压Asset文件夹目录下的资源
+     * 并行解压资源列表，版本没有变化的资源包直接跳过
      * @param context
-     * @param assetName     assets文件夹路径
-     * @param unzipFolder   解压的文件夹名称
+     * @param resourceList  资源列表
      * @param parentFolder  解压目录
      */
-    protected static void decompressAsset(Context context, String assetName, String unzipFolder, String parentFolder) {
-
-        // 如果路径已经存在，则直接返回
-        if (new File(parentFolder + "/" + unzipFolder).exists()) {
-            Log.d(TAG, "decompressAsset: directory " + unzipFolder + " is existed!");
-            return;
-        }
-
-        // 打开输入流
-        AssetManager manager = context.getAssets();
-        InputStream inputStream;
-        try {
-            inputStream = manager.open(assetName);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressAsset: ", e);
-            return;
-        }
-
-        // 获取所有zip包
-        Map<String, ArrayList<ResourceCodec.FileDescription>> dirList = null;
-        try {
-            dirList = ResourceCodec.getFileFromZip(inputStream);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressAsset: ", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+    protected static void extractResources(Context context, List<ResourceData> resourceList, String parentFolder) {
+        final AssetManager manager = context.getAssets();
+        String assetVersion = getAssetVersion(context);
+        List<ResourceExtractor.Pack> packs = new ArrayList<>();
+        for (ResourceData item : resourceList) {
+            if (item.type.getIndex() < 0) {
+                continue;
             }
-        }
-
-        // 如果zip包不存在，则不做处理
-        if (dirList == null) {
-            return;
-        }
-
-        // 将zip包解压到目录中
-        try {
-            inputStream = manager.open(assetName);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressAsset: ", e);
-            return;
-        }
-        try {
-            if (inputStream != null) {
-                ResourceCodec.unzipToFolder(inputStream, new File(parentFolder), dirList);
+            if (item.zipPath.startsWith("assets://")) {
+                final String assetName = item.zipPath.substring("assets://".length());
+                packs.add(new ResourceExtractor.Pack(item.zipPath, () -> manager.open(assetName),
+                        assetVersion, item.unzipFolder, parentFolder));
+            } else if (item.zipPath.startsWith("file://")) {    // 绝对目录中的资源
+                packs.add(ResourceExtractor.Pack.fromFile(item.zipPath.substring("file://".length()),
+                        item.unzipFolder, parentFolder));
             }
-        } catch (IOException e) {
-            Log.e(TAG, "decompressAsset: ", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        }
+        long startTime = System.currentTimeMillis();
+        List<ResourceExtractor.PackResult> results = ResourceExtractor.getInstance().extract(packs);
+        for (ResourceExtractor.PackResult result : results) {
+            if (result.error != null) {
+                Log.e(TAG, "extractResources: failed to extract " + result.name, result.error);
+            } else {
+                Log.d(TAG, "extractResources: " + result);
             }
         }
+        Log.d(TAG, "extractResources: " + packs.size() + " packs in "
+                + (System.currentTimeMillis() - startTime) + "ms");
     }
 
     /**
-     * 解压绝对路径目录下的资源
-     * @param zipPath       zip绝对路径
-     * @param unzipPath     解压的目录
-     * @param parentFolder  解压目录
+     * assets中的资源包只会随安装包更新，以版本号和更新时间作为版本标识
+     * @param context
+     * @return 版本标识，获取失败时返回null，此时只要解压目录存在就跳过
      */
-    protected static void decompressFile(String zipPath, String unzipPath, String parentFolder) {
-        // 如果资源路径已经存在，则直接返回
-        if (new File(parentFolder + "/" + unzipPath).exists()) {
-            Log.d(TAG, "decompressFile: directory " + unzipPath + "is existed!");
-            return;
-        }
-
-        // 打开文件输入流
-        InputStream inputStream;
-        try {
-            inputStream = new FileInputStream(zipPath);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressFile: ", e);
-            return;
-        }
-
-        // 获取所有zip包
-        Map<String, ArrayList<ResourceCodec.FileDescription>> dirList = null;
-        try {
-            dirList = ResourceCodec.getFileFromZip(inputStream);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressFile: ", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        // 如果zip包不存在，则不做处理
-        if (dirList == null) {
-            return;
-        }
-
-        // 将zip包解压到目录中
-        try {
-            inputStream = new FileInputStream(zipPath);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressFile: ", e);
-            return;
-        }
+    private static String getAssetVersion(Context context) {
         try {
-            ResourceCodec.unzipToFolder(inputStream, new File(parentFolder), dirList);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressFile: ", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionCode + "-" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "getAssetVersion: ", e);
+            return null;
         }
     }
 
@@ -0,0 +1,366 @@
+package com.cgfay.filter.glfilter.resource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 二进制资源索引，可以直接内存映射，加载时不需要解析字符串和装箱
+ * 文件格式(小端序)：
+ * <pre>
+ * header   magic, version, entryCount, frameCount,
+ *          hashOffset, entryOffset, nameOffset, frameOffset
+ * hashes   int[entryCount]         文件名哈希值，升序排列
+ * entries  int[entryCount * 2]     与哈希值一一对应的数据偏移和大小
+ * names    int[entryCount * 2]     文件名在字符区中的偏移和长度，后面跟随UTF-8字符区
+ * frames   int[frameCount]         帧序号对应的条目下标，不存在时为-1
+ * </pre>
+ */
+public final class ResourceBinaryIndex {
+
+    // 二进制索引文件名
+    public static final String INDEX_FILE = "index.bin";
+
+    private static final int MAGIC = 0x58495243;   // "CRIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mEntryCount;
+    private final int mFrameCount;
+    private final int mHashOffset;
+    private final int mEntryOffset;
+    private final int mNameOffset;
+    private final int mFrameOffset;
+
+    private ResourceBinaryIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary resource index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported binary resource index version: " + buffer.getInt(4));
+        }
+        mEntryCount = buffer.getInt(8);
+        mFrameCount = buffer.getInt(12);
+        mHashOffset = buffer.getInt(16);
+        mEntryOffset = buffer.getInt(20);
+        mNameOffset = buffer.getInt(24);
+        mFrameOffset = buffer.getInt(28);
+        if (mEntryCount < 0 || mFrameCount < 0
+                || mFrameOffset + mFrameCount * 4 > buffer.capacity()) {
+            throw new IOException("Corrupted binary resource index");
+        }
+    }
+
+    /**
+     * 以内存映射的方式打开二进制索引文件
+     * @param file 索引文件
+     * @return 二进制索引
+     * @throws IOException
+     */
+    public static ResourceBinaryIndex open(File file) throws IOException {
+        RandomAccessFile accessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = accessFile.getChannel();
+            return new ResourceBinaryIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            accessFile.close();
+        }
+    }
+
+    /**
+     * 包装已经编码好的二进制索引
+     * @param buffer 二进制索引数据
+     * @return 二进制索引
+     * @throws IOException
+     */
+    public static ResourceBinaryIndex wrap(ByteBuffer buffer) throws IOException {
+        return new ResourceBinaryIndex(buffer.duplicate());
+    }
+
+    /**
+     * 条目个数
+     */
+    public int size() {
+        return mEntryCount;
+    }
+
+    /**
+     * 帧表长度，即最大帧序号 + 1
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * 根据文件名查找条目
+     * @param name 文件名
+     * @return 条目下标，不存在时返回-1
+     */
+    public int find(String name) {
+        int hash = name.hashCode();
+        int low = 0;
+        int high = mEntryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = mBuffer.getInt(mHashOffset + mid * 4);
+            if (value < hash) {
+                low = mid + 1;
+            } else if (value > hash) {
+                high = mid - 1;
+            } else {
+                // 回退到相同哈希值的第一个条目，逐个比较文件名
+                while (mid > 0 && mBuffer.getInt(mHashOffset + (mid - 1) * 4) == hash) {
+                    mid--;
+                }
+                byte[] bytes = name.getBytes(UTF_8);
+                for (; mid < mEntryCount && mBuffer.getInt(mHashOffset + mid * 4) == hash; mid++) {
+                    if (nameEquals(mid, bytes)) {
+                        return mid;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 根据帧序号查找条目
+     * @param frame 帧序号
+     * @return 条目下标，不存在时返回-1
+     */
+    public int findFrame(int frame) {
+        if (frame < 0 || frame >= mFrameCount) {
+            return -1;
+        }
+        return mBuffer.getInt(mFrameOffset + frame * 4);
+    }
+
+    /**
+     * 条目数据在数据文件中的偏移
+     */
+    public int getOffset(int entry) {
+        return mBuffer.getInt(mEntryOffset + entry * 8);
+    }
+
+    /**
+     * 条目数据大小
+     */
+    public int getLength(int entry) {
+        return mBuffer.getInt(mEntryOffset + entry * 8 + 4);
+    }
+
+    /**
+     * 条目文件名
+     */
+    public String getName(int entry) {
+        int base = mNameOffset + entry * 8;
+        int offset = mBuffer.getInt(base);
+        int length = mBuffer.getInt(base + 4);
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mNameOffset + mEntryCount * 8 + offset);
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private boolean nameEquals(int entry, byte[] bytes) {
+        int base = mNameOffset + entry * 8;
+        int offset = mBuffer.getInt(base);
+        int length = mBuffer.getInt(base + 4);
+        if (length != bytes.length) {
+            return false;
+        }
+        int start = mNameOffset + mEntryCount * 8 + offset;
+        for (int i = 0; i < length; i++) {
+            if (mBuffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 编码二进制索引
+     * @param names     文件名
+     * @param offsets   数据偏移
+     * @param lengths   数据大小
+     * @return 编码后的二进制索引数据
+     */
+    public static ByteBuffer encode(final String[] names, int[] offsets, int[] lengths) {
+        final int count = names.length;
+        // 按照文件名哈希值排序
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int h1 = names[o1].hashCode();
+                int h2 = names[o2].hashCode();
+                if (h1 != h2) {
+                    return h1 < h2 ? -1 : 1;
+                }
+                return names[o1].compareTo(names[o2]);
+            }
+        });
+
+        // 计算帧表
+        int frameCount = 0;
+        int[] frames = new int[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = parseFrameNumber(names[order[i]]);
+            frameCount = Math.max(frameCount, frames[i] + 1);
+        }
+
+        byte[][] nameBytes = new byte[count][];
+        int nameSize = 0;
+        for (int i = 0; i < count; i++) {
+            nameBytes[i] = names[order[i]].getBytes(UTF_8);
+            nameSize += nameBytes[i].length;
+        }
+
+        int hashOffset = HEADER_SIZE;
+        int entryOffset = hashOffset + count * 4;
+        int nameOffset = entryOffset + count * 8;
+        int frameOffset = align(nameOffset + count * 8 + nameSize);
+        ByteBuffer buffer = ByteBuffer.allocate(frameOffset + frameCount * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(frameCount)
+                .putInt(hashOffset).putInt(entryOffset).putInt(nameOffset).putInt(frameOffset);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(names[order[i]].hashCode());
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(offsets[order[i]]).putInt(lengths[order[i]]);
+        }
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(position).putInt(nameBytes[i].length);
+            position += nameBytes[i].length;
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.put(nameBytes[i]);
+        }
+        buffer.position(frameOffset);
+        for (int i = 0; i < frameCount; i++) {
+            buffer.putInt(-1);
+        }
+        for (int i = 0; i < count; i++) {
+            if (frames[i] >= 0) {
+                buffer.putInt(frameOffset + frames[i] * 4, i);
+            }
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * 解析文本索引，格式为 name:offset:length; 的序列
+     * @param text 文本索引内容
+     * @return 编码后的二进制索引数据
+     * @throws IOException
+     */
+    public static ByteBuffer encodeText(String text) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<int[]> values = new ArrayList<>();
+        for (String item : text.split(";")) {
+            if (item.isEmpty()) {
+                continue;
+            }
+            // ":" 分成3个，第一个是贴纸名，第二是文件起始位置，第三个是贴纸大小
+            String[] fields = item.split(":");
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                values.add(new int[] {Integer.parseInt(fields[1]), Integer.parseInt(fields[2])});
+                names.add(fields[0]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Failed to parse offset or length for " + item);
+            }
+        }
+        int[] offsets = new int[names.size()];
+        int[] lengths = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            offsets[i] = values.get(i)[0];
+            lengths[i] = values.get(i)[1];
+        }
+        return encode(names.toArray(new String[0]), offsets, lengths);
+    }
+
+    /**
+     * 将二进制索引写入文件
+     * @param buffer 二进制索引数据
+     * @param file   输出文件
+     * @throws IOException
+     */
+    public static void write(ByteBuffer buffer, File file) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            ByteBuffer data = buffer.duplicate();
+            data.rewind();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * 将文本索引文件转换为二进制索引文件
+     * @param textIndex     文本索引文件
+     * @param binaryIndex   二进制索引文件
+     * @throws IOException
+     */
+    public static void convert(File textIndex, File binaryIndex) throws IOException {
+        byte[] bytes = new byte[(int) textIndex.length()];
+        RandomAccessFile accessFile = new RandomAccessFile(textIndex, "r");
+        try {
+            accessFile.readFully(bytes);
+        } finally {
+            accessFile.close();
+        }
+        write(encodeText(new String(bytes, UTF_8)), binaryIndex);
+    }
+
+    /**
+     * 提取文件名中的帧序号，文件名类似：xxx_001.png
+     * @param name 文件名
+     * @return 帧序号，不符合格式时返回-1
+     */
+    static int parseFrameNumber(String name) {
+        if (name.length() < 7) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = name.length() - 7; i < name.length() - 4; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int align(int value) {
+        return (value + 3) & ~3;
+    }
+}
@@ -1,5 +1,7 @@
 package com.cgfay.filter.glfilter.resource;
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
@@ -7,22 +9,17 @@ import android.util.Pair;
 import com.cgfay.uitls.utils.FileUtils;
 
 import java.io.BufferedInputStream;
-import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -38,10 +35,12 @@ public class ResourceCodec {
     // 数据文件路径
     private String mDataPath;
 
-    // 索引绑定
-    protected Map<String, Pair<Integer, Integer>> mIndexMap;
-    // 数据缓冲
+    // 资源索引
+    protected ResourceBinaryIndex mIndex;
+    // 数据缓冲，只读的内存映射
     protected ByteBuffer mDataBuffer;
+    // 解码时的临时缓冲，映射内存没有底层数组时使用
+    private byte[] mDecodeBuffer;
 
     public ResourceCodec(String indexPath, String dataPath) {
         mIndexPath = indexPath;
@@ -53,71 +52,89 @@ public class ResourceCodec {
      * @throws Exception
      */
     public void init() throws IOException {
-        mIndexMap = parseIndexFile(mIndexPath);
-        File file = new File(mDataPath);
-        // 将资源数据读入缓存中
-        mDataBuffer = ByteBuffer.allocateDirect((int)file.length());
-        FileInputStream inputStream = new FileInputStream(file);
-        byte[] buffer = new byte[2048];
-        boolean result = false;
         try {
-            int length;
-            while ((length = inputStream.read(buffer)) != -1) {
-                mDataBuffer.put(buffer, 0, length);
-            }
-            result = true;
+            mIndex = loadIndex(mIndexPath);
+        } catch (IOException e) {
+            // 索引缺失或者损坏时不再解析文本索引，清除版本标识，下次启动时重新解压资源包
+            ResourceExtractor.invalidate(new File(mIndexPath).getParentFile());
+            throw e;
+        }
+        // 将资源数据映射到内存中，只有在解码时才会按需读入对应的页
+        RandomAccessFile file = new RandomAccessFile(mDataPath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            mDataBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         } catch (IOException e) {
             Log.e(TAG, "init: ", e);
+            throw new IOException("Failed to map data file!", e);
         } finally {
-            FileUtils.safetyClose(inputStream);
+            FileUtils.safetyClose(file);
         }
-        if (!result) {
-            throw new IOException("Failed to parse data file!");
+    }
+
+    /**
+     * 获取资源数据的只读切片，不会复制数据
+     * @param offset    资源在数据文件中的偏移
+     * @param length    资源大小
+     * @return 资源数据，越界时返回null
+     */
+    protected ByteBuffer sliceResource(int offset, int length) {
+        if (mDataBuffer == null || offset < 0 || length <= 0
+                || offset + length > mDataBuffer.capacity()) {
+            return null;
         }
+        ByteBuffer buffer = mDataBuffer.duplicate();
+        buffer.position(offset);
+        buffer.limit(offset + length);
+        return buffer.slice();
     }
 
     /**
-     * 解码Index索引文件
-     * @param indexPath
-     * @return
-     * @throws IOException
+     * 从映射内存中解码图片
+     * @param offset    资源在数据文件中的偏移
+     * @param length    资源大小
+     * @return 解码得到的图片，失败时返回null
      */
-    private static Map<String, Pair<Integer, Integer>> parseIndexFile(String indexPath) throws IOException {
-        String indexString = FileUtils.convertToString(new FileInputStream(new File(indexPath)));
-        HashMap<String, Pair<Integer, Integer>> map = new HashMap<>();
-        // 拆分得到贴纸索引
-        String[] indexArray = indexString.split(";");
-        for (int i = 0; i < indexArray.length; ++i) {
-            if (!TextUtils.isEmpty(indexArray[i])) {
-                // ":" 分成3个，第一个是贴纸名，第二是文件起始位置，第三个是贴纸大小
-                String[] subIndexArray = indexArray[i].split(":");
-                if (subIndexArray.length == 3) {
-                    int offset = parseInt(subIndexArray[1], -1);
-                    int length = parseInt(subIndexArray[2], -1);
-                    if (-1 == offset || -1 == length) {
-                        throw new IOException("Failed to parse offset or length for " + indexArray[i]);
-                    }
-                    map.put(subIndexArray[0], new Pair<>(offset, length));
-                }
-            }
+    protected Bitmap decodeBitmap(int offset, int length) {
+        return decodeBitmap(offset, length, null);
+    }
+
+    /**
+     * 从映射内存中解码图片
+     * @param offset    资源在数据文件中的偏移
+     * @param length    资源大小
+     * @param options   解码参数，可以通过inBitmap复用已有的图片
+     * @return 解码得到的图片，失败时返回null
+     */
+    protected synchronized Bitmap decodeBitmap(int offset, int length, BitmapFactory.Options options) {
+        ByteBuffer buffer = sliceResource(offset, length);
+        if (buffer == null) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            return BitmapFactory.decodeByteArray(buffer.array(), buffer.arrayOffset(), length, options);
         }
-        return map;
+        if (mDecodeBuffer == null || mDecodeBuffer.length < length) {
+            mDecodeBuffer = new byte[length];
+        }
+        buffer.get(mDecodeBuffer, 0, length);
+        return BitmapFactory.decodeByteArray(mDecodeBuffer, 0, length, options);
     }
 
     /**
-     * 将字符串转成整型数
-     * @param str
-     * @param defaultValue
+     * 内存映射同目录下的二进制索引
+     * @param indexPath
      * @return
+     * @throws IOException 二进制索引不存在或者损坏
      */
-    private static int parseInt(String str, int defaultValue) {
-        int result = defaultValue;
-        try {
-            result = Integer.parseInt(str);
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "parseInt: ", e);
+    private static ResourceBinaryIndex loadIndex(String indexPath) throws IOException {
+        File indexFile = new File(indexPath);
+        File binaryFile = indexFile.getName().equals(ResourceBinaryIndex.INDEX_FILE)
+                ? indexFile : new File(indexFile.getParentFile(), ResourceBinaryIndex.INDEX_FILE);
+        if (!binaryFile.exists()) {
+            throw new FileNotFoundException("Binary index not found: " + binaryFile.getAbsolutePath());
         }
-        return result;
+        return ResourceBinaryIndex.open(binaryFile);
     }
 
     /**
@@ -134,7 +151,8 @@ public class ResourceCodec {
             return null;
         }
         for (int i = 0; i < list.length; ++i) {
-            if (list[i].equals("index.idx")) {
+            if (list[i].equals("index.idx")
+                    || (index == null && list[i].equals(ResourceBinaryIndex.INDEX_FILE))) {
                 index = list[i];
             } else if (list[i].equals("resource.res")) {
                 data = list[i];
@@ -148,133 +166,20 @@ public class ResourceCodec {
     }
 
     /**
-     * 从zip包中读入png文件列表
-     * @param stream
-     * @return
-     */
-    public static Map<String, ArrayList<FileDescription>> getFileFromZip(InputStream stream)
-            throws IOException {
-        HashMap<String, ArrayList<FileDescription>> map = new HashMap<>();
-        ZipInputStream inputStream = new ZipInputStream(new BufferedInputStream(stream));
-        try {
-            byte[] buffer = new byte[8192];
-            ZipEntry entry;
-            while ((entry = inputStream.getNextEntry()) != null) {
-                // 找到png文件
-                if (!entry.isDirectory()
-                        && !entry.getName().endsWith(".DS_Store")
-                        && !entry.getName().contains("__MACOSX")
-                        && !FileUtils.extractFileName(entry.getName()).startsWith(".")
-                        && entry.getName().endsWith(".png")) {
-                    String folder = FileUtils.extractFileFolder(entry.getName());
-                    ArrayList<FileDescription> folderList = map.get(folder);
-                    if (folderList == null) {
-                        folderList = new ArrayList<>();
-                        map.put(folder, folderList);
-                    }
-                    int offset;
-                    int length;
-                    for (offset = 0; (length = inputStream.read(buffer)) != -1; offset += length) {
-                        ;
-                    }
-                    folderList.add(new FileDescription(entry.getName(), (long) offset));
-                }
-            }
-        } finally {
-            inputStream.close();
-        }
-        return map;
-    }
-
-    /**
-     * 将压缩包资源解码到文件中
-     * @param inputStream       输入流
-     * @param folder            需要写入的文件夹
-     * @param dirList           文件夹列表
+     * 单次遍历解压资源包，png文件按照读取顺序直接追加写入数据文件，不需要预先遍历计算文件大小
+     * @param inputStream   输入流，由调用者负责关闭
+     * @param folder        需要写入的文件夹
+     * @param buffer        复用的读写缓冲
+     * @return 解压得到的字节数
      * @throws IOException
      */
-    public static void unzipToFolder(InputStream inputStream, File folder, Map<String, ArrayList<FileDescription>> dirList)
-            throws IOException {
-        HashMap<String, Object> offsetMap = new HashMap<>();
-        HashMap<String, Object> sizeMap = new HashMap<>();
-
-        Iterator iterator = dirList.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry entry = (Map.Entry) iterator.next();
-            // 做一次文件名的排序
-            Collections.sort((List) entry.getValue(), new Comparator<FileDescription>() {
-                @Override
-                public int compare(FileDescription item1, FileDescription item2) {
-                    return item1.fileName.compareTo(item2.fileName);
-                }
-            });
-
-            // 创建文件或文件夹
-            FileUtils.makeDirectory(folder + "/" + (String)entry.getKey());
-            int offset = 16;
-            HashMap<String, Integer> offsetHashMap = new HashMap<>();
-            HashMap<String, Integer> sizeHashMap = new HashMap<>();
-
-            // 记录文件偏移和大小
-            FileDescription fileDescription;
-            for (Iterator fileDesIterator = ((ArrayList)entry.getValue()).iterator(); fileDesIterator.hasNext(); offset += (int)fileDescription.size) {
-                fileDescription = (FileDescription)fileDesIterator.next();
-                String fileName = FileUtils.extractFileName(fileDescription.fileName);
-                offsetHashMap.put(fileName, offset);
-                sizeHashMap.put(fileName, (int)fileDescription.size);
-            }
-
-            // 创建索引字符串
-            sizeMap.put((String) entry.getKey(), offsetHashMap);
-            StringBuilder builder = new StringBuilder();
-            Iterator indexIterator = offsetHashMap.entrySet().iterator();
-            while (indexIterator.hasNext()) {
-                Map.Entry indexEntry = (Map.Entry)indexIterator.next();
-                builder.append((String)indexEntry.getKey())
-                        .append(':')
-                        .append(indexEntry.getValue())
-                        .append(':')
-                        .append(sizeHashMap.get(indexEntry.getKey()))
-                        .append(';');
-            }
-
-            // 写入索引文件
-            boolean success = false;
-            FileOutputStream outputStream = null;
-            File file;
-            try {
-                file = new File(folder + "/" + (String)entry.getKey(), "index.idx");
-                outputStream = new FileOutputStream(file);
-                outputStream.write(builder.toString().getBytes("UTF-8"));
-                success = true;
-            } catch (Exception e) {
-                Log.e(TAG, "writeLinesToFile failed!", e);
-            } finally {
-                FileUtils.safetyClose(outputStream);
-            }
-            if(!success) {
-                throw new IOException("write index file failed!");
-            }
-
-            // 创建AccessFile用于写入data数据
-            file = new File(folder + "/" + (String)entry.getKey(), "resource.res");
-            RandomAccessFile accessFile = new RandomAccessFile(file, "rw");
-            // 文件头有16个0作为开头
-            for (int i = 0; i < 16; ++i) {
-                accessFile.write(0);
-            }
-            offsetMap.put((String) entry.getKey(), accessFile);
-        }
-
-        // 从zip包中读入数据并写入到folder所在的文件夹中
-        ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(inputStream));
+    public static long extractZip(InputStream inputStream, File folder, byte[] buffer) throws IOException {
+        HashMap<String, PackWriter> writerMap = new HashMap<>();
+        ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(inputStream, buffer.length));
+        long totalSize = 0;
         try {
-            byte[] buffer = new byte[8192];
-            while (true) {
-                ZipEntry zipEntry = zipStream.getNextEntry();
-                if (zipEntry == null) {
-                    break;
-                }
+            ZipEntry zipEntry;
+            while ((zipEntry = zipStream.getNextEntry()) != null) {
                 // 跳过目录、隐藏文件
                 if (zipEntry.isDirectory()
                         || zipEntry.getName().endsWith(".DS_Store")
@@ -282,65 +187,122 @@ public class ResourceCodec {
                         || FileUtils.extractFileName(zipEntry.getName()).startsWith(".")) {
                     continue;
                 }
-
-                // 如果文件是png图片，则需要从png中读入数据再写入到输出文件中
                 if (zipEntry.getName().endsWith(".png")) {
+                    // png图片追加写入所在文件夹的数据文件中
                     String folderName = FileUtils.extractFileFolder(zipEntry.getName());
-                    RandomAccessFile accessFile = (RandomAccessFile) offsetMap.get(folderName);
-                    // 找到起始位置
-                    int pos = (Integer) ((Map) sizeMap.get(folderName)).get(FileUtils.extractFileName(zipEntry.getName()));
-                    accessFile.seek((long) pos);
-                    // 将png数据写入文件中
-                    int length;
-                    while ((length = zipStream.read(buffer)) != -1) {
-                        accessFile.write(buffer, 0, length);
+                    PackWriter writer = writerMap.get(folderName);
+                    if (writer == null) {
+                        writer = new PackWriter(new File(folder, folderName));
+                        writerMap.put(folderName, writer);
                     }
-                } else { // 如果此时已经是索引和data文件的形式，则直接写入
+                    totalSize += writer.append(FileUtils.extractFileName(zipEntry.getName()), zipStream, buffer);
+                } else { // 其他文件直接写入
                     File file = new File(folder, zipEntry.getName());
-                    File folderFile = zipEntry.isDirectory() ? file : file.getParentFile();
+                    File folderFile = file.getParentFile();
                     if (!folderFile.isDirectory() && !folderFile.mkdirs()) {
                         throw new FileNotFoundException("Failed to find directory: " +
                                 folderFile.getAbsolutePath());
                     }
-
                     FileOutputStream outputStream = new FileOutputStream(file);
                     try {
                         int length;
                         while ((length = zipStream.read(buffer)) != -1) {
                             outputStream.write(buffer, 0, length);
+                            totalSize += length;
                         }
                     } finally {
                         outputStream.close();
                     }
-
+                    // 压缩包中自带文本索引时，同时生成二进制索引
+                    // 转换失败只跳过这个索引，加载时找不到二进制索引会重新解压
+                    if (file.getName().equals("index.idx")) {
+                        try {
+                            ResourceBinaryIndex.convert(file,
+                                    new File(file.getParentFile(), ResourceBinaryIndex.INDEX_FILE));
+                        } catch (IOException e) {
+                            Log.e(TAG, "extractZip: failed to convert index file " + zipEntry.getName(), e);
+                        }
+                    }
                 }
-
             }
-
-        } finally { // 关闭输入流
-            zipStream.close();
-            Iterator entryIterator = offsetMap.entrySet().iterator();
-            while (entryIterator.hasNext()) {
-                Map.Entry entry = (Map.Entry) entryIterator.next();
-                FileUtils.safetyClose((Closeable) entry.getValue());
+            for (PackWriter writer : writerMap.values()) {
+                writer.finish();
+            }
+        } finally {
+            for (PackWriter writer : writerMap.values()) {
+                FileUtils.safetyClose(writer.mOutputStream);
             }
         }
+        return totalSize;
     }
 
     /**
-     * 资源文件描述
+     * 资源数据文件写入器，记录每个文件的偏移和大小，写入完成后生成索引文件
      */
-    public static class FileDescription {
+    private static final class PackWriter {
 
-        // 文件名
-        public String fileName;
+        // 所在文件夹
+        private final File mFolder;
+        // 数据文件输出流
+        private final FileOutputStream mOutputStream;
+        // 当前写入位置，数据文件开头有16个0
+        private int mOffset = 16;
+        // 文件名、偏移和大小
+        private final List<String> mNames = new ArrayList<>();
+        private final List<Integer> mOffsets = new ArrayList<>();
+        private final List<Integer> mLengths = new ArrayList<>();
 
-        // 文件大小
-        public long size;
+        PackWriter(File folder) throws IOException {
+            mFolder = folder;
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new FileNotFoundException("Failed to create directory: " + folder.getAbsolutePath());
+            }
+            mOutputStream = new FileOutputStream(new File(folder, "resource.res"));
+            mOutputStream.write(new byte[16]);
+        }
 
-        public FileDescription(String fileName, long size) {
-            this.fileName = fileName;
-            this.size = size;
+        /**
+         * 追加写入文件
+         * @return 写入的字节数
+         */
+        int append(String name, InputStream inputStream, byte[] buffer) throws IOException {
+            int size = 0;
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                mOutputStream.write(buffer, 0, length);
+                size += length;
+            }
+            mNames.add(name);
+            mOffsets.add(mOffset);
+            mLengths.add(size);
+            mOffset += size;
+            return size;
+        }
+
+        /**
+         * 关闭数据文件并写入文本索引和二进制索引
+         */
+        void finish() throws IOException {
+            mOutputStream.close();
+            int count = mNames.size();
+            String[] names = mNames.toArray(new String[count]);
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                offsets[i] = mOffsets.get(i);
+                lengths[i] = mLengths.get(i);
+                builder.append(names[i]).append(':').append(offsets[i])
+                        .append(':').append(lengths[i]).append(';');
+            }
+            FileOutputStream outputStream = new FileOutputStream(new File(mFolder, "index.idx"));
+            try {
+                outputStream.write(builder.toString().getBytes("UTF-8"));
+            } finally {
+                outputStream.close();
+            }
+            ResourceBinaryIndex.write(ResourceBinaryIndex.encode(names, offsets, lengths),
+                    new File(mFolder, ResourceBinaryIndex.INDEX_FILE));
         }
     }
 }
@@ -1,9 +1,10 @@
 package com.cgfay.filter.glfilter.resource;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Pair;
 
+import java.nio.ByteBuffer;
+
 /**
  * 数据解码器
  */
@@ -19,20 +20,24 @@ public class ResourceDataCodec extends ResourceCodec {
      * @return
      */
     public Bitmap loadBitmap(String name) {
-        Pair pair = mIndexMap.get(name);
-        if (pair == null) {
+        int entry = findEntry(name);
+        if (entry < 0) {
             return null;
         }
-        return BitmapFactory.decodeByteArray(mDataBuffer.array(),
-                mDataBuffer.arrayOffset() + (Integer) pair.first, (Integer) pair.second);
+        return decodeBitmap(mIndex.getOffset(entry), mIndex.getLength(entry));
     }
 
     /**
-     * 获取文件缓冲
+     * 获取资源数据，返回映射内存的只读切片，不会复制数据
+     * @param name
      * @return
      */
-    public byte[] getBufferArray() {
-        return mDataBuffer.array();
+    public ByteBuffer getResourceBuffer(String name) {
+        int entry = findEntry(name);
+        if (entry < 0) {
+            return null;
+        }
+        return sliceResource(mIndex.getOffset(entry), mIndex.getLength(entry));
     }
 
     /**
@@ -41,11 +46,22 @@ public class ResourceDataCodec extends ResourceCodec {
      * @return
      */
     public Pair<Integer, Integer> getResourcePair(String path) {
-        Pair pair = (Pair) mIndexMap.get(path);
-        if (pair == null) {
+        int entry = findEntry(path);
+        if (entry < 0) {
             return null;
         }
-        return new Pair<>(((Integer) pair.first) + mDataBuffer.arrayOffset(),
-                (Integer) pair.second);
+        return new Pair<>(mIndex.getOffset(entry), mIndex.getLength(entry));
+    }
+
+    /**
+     * 查找资源所在的索引条目
+     * @param name
+     * @return
+     */
+    private int findEntry(String name) {
+        if (mIndex == null || name == null) {
+            return -1;
+        }
+        return mIndex.find(name);
     }
 }
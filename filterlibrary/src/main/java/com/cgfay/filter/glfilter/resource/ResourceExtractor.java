@@ -0,0 +1,285 @@
+package com.cgfay.filter.glfilter.resource;
+
+import com.cgfay.uitls.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 资源包解压引擎
+ * 在有限大小的线程池中并行解压资源包，解压过程单次遍历、复用读写缓冲直接写入磁盘，
+ * 并记录资源包的版本标识，版本没有变化的资源包不再打开，直接跳过。
+ * @author CainHuang
+ * @date 2019/8/17
+ */
+public final class ResourceExtractor {
+
+    // 读写缓冲大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 线程空闲后的存活时长(秒)
+    private static final int KEEP_ALIVE_SECONDS = 5;
+
+    /**
+     * 资源包来源
+     */
+    public interface PackSource {
+
+        /**
+         * 打开资源包输入流
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * 资源包解压任务
+     */
+    public static final class Pack {
+
+        // 资源包名称
+        public final String name;
+        // 资源包来源
+        public final PackSource source;
+        // 版本标识，与上次解压时记录的一致则跳过解压，为null时只要解压目录存在就跳过
+        public final String version;
+        // 解压后的文件夹名称
+        public final String unzipFolder;
+        // 解压目录
+        public final String parentFolder;
+
+        public Pack(String name, PackSource source, String version, String unzipFolder, String parentFolder) {
+            this.name = name;
+            this.source = source;
+            this.version = version;
+            this.unzipFolder = unzipFolder;
+            this.parentFolder = parentFolder;
+        }
+
+        /**
+         * 绝对路径下的资源包，以文件大小和修改时间作为版本标识
+         */
+        public static Pack fromFile(final String zipPath, String unzipFolder, String parentFolder) {
+            File file = new File(zipPath);
+            String version = file.length() + "-" + file.lastModified();
+            return new Pack(zipPath, () -> new FileInputStream(zipPath), version, unzipFolder, parentFolder);
+        }
+    }
+
+    /**
+     * 资源包解压结果
+     */
+    public static final class PackResult {
+
+        // 资源包名称
+        public final String name;
+        // 版本没有变化，跳过解压
+        public final boolean skipped;
+        // 解压耗时(ms)
+        public final long extractTimeMs;
+        // 解压得到的字节数
+        public final long extractedBytes;
+        // 解压失败的原因，成功时为null
+        public final Exception error;
+
+        PackResult(String name, boolean skipped, long extractTimeMs, long extractedBytes, Exception error) {
+            this.name = name;
+            this.skipped = skipped;
+            this.extractTimeMs = extractTimeMs;
+            this.extractedBytes = extractedBytes;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return "PackResult{" +
+                    "name='" + name + '\'' +
+                    ", skipped=" + skipped +
+                    ", extractTimeMs=" + extractTimeMs +
+                    ", extractedBytes=" + extractedBytes +
+                    ", error=" + error +
+                    '}';
+        }
+    }
+
+    private static volatile ResourceExtractor sInstance;
+
+    // 每个线程复用的读写缓冲
+    private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    // 解压线程池
+    private final ExecutorService mExecutor;
+    // 是否跳过版本没有变化的资源包
+    private boolean mSkipUnchanged = true;
+
+    /**
+     * 获取共享的解压引擎，线程数不超过CPU核数并且最多4个
+     */
+    public static ResourceExtractor getInstance() {
+        if (sInstance == null) {
+            synchronized (ResourceExtractor.class) {
+                if (sInstance == null) {
+                    int threadCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+                    sInstance = new ResourceExtractor(threadCount);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    public ResourceExtractor(int threadCount) {
+        final AtomicInteger index = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "ResourceExtractor-" + index.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        // 解压只在启动时集中发生，空闲后回收线程
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * 设置是否跳过版本没有变化的资源包
+     * @param skip
+     */
+    public void setSkipUnchanged(boolean skip) {
+        mSkipUnchanged = skip;
+    }
+
+    /**
+     * 并行解压资源包，阻塞直到全部完成
+     * @param packs 资源包列表
+     * @return 与资源包列表一一对应的解压结果
+     */
+    public List<PackResult> extract(List<Pack> packs) {
+        List<Future<PackResult>> futures = new ArrayList<>(packs.size());
+        for (final Pack pack : packs) {
+            futures.add(mExecutor.submit(new Callable<PackResult>() {
+                @Override
+                public PackResult call() {
+                    return extractPack(pack);
+                }
+            }));
+        }
+        List<PackResult> results = new ArrayList<>(packs.size());
+        for (int i = 0; i < futures.size(); i++) {
+            PackResult result;
+            try {
+                result = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = new PackResult(packs.get(i).name, false, 0, 0, e);
+            } catch (ExecutionException e) {
+                result = new PackResult(packs.get(i).name, false, 0, 0, e);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * 解压单个资源包
+     * @param pack 资源包
+     * @return 解压结果
+     */
+    PackResult extractPack(Pack pack) {
+        File target = new File(pack.parentFolder, pack.unzipFolder);
+        File versionFile = new File(pack.parentFolder, "." + pack.unzipFolder + ".version");
+        // 已经解压过并且版本没有变化时，不需要打开资源包；没有版本标识时只判断文件夹是否存在
+        if (mSkipUnchanged && target.isDirectory()
+                && (pack.version == null || pack.version.equals(readVersion(versionFile)))) {
+            return new PackResult(pack.name, true, 0, 0, null);
+        }
+
+        // 解压前删除旧的文件，全部写入成功后才记录版本标识
+        long startTime = System.nanoTime();
+        versionFile.delete();
+        if (target.exists()) {
+            FileUtils.deleteDir(target);
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = pack.source.open();
+            long size = ResourceCodec.extractZip(inputStream, new File(pack.parentFolder), sBuffer.get());
+            if (pack.version != null) {
+                writeVersion(versionFile, pack.version);
+            }
+            long extractTime = (System.nanoTime() - startTime) / 1000000;
+            return new PackResult(pack.name, false, extractTime, size, null);
+        } catch (IOException e) {
+            versionFile.delete();
+            long extractTime = (System.nanoTime() - startTime) / 1000000;
+            return new PackResult(pack.name, false, extractTime, 0, e);
+        } finally {
+            FileUtils.safetyClose(inputStream);
+        }
+    }
+
+    /**
+     * 资源文件夹中的文件损坏时清除所在资源包的版本标识，下次解压时不再跳过
+     * 从资源文件夹开始逐级向上查找解压目录下的版本标识文件。
+     * @param folder 资源文件夹
+     * @return 是否找到并删除了版本标识
+     */
+    public static boolean invalidate(File folder) {
+        for (File dir = folder; dir != null && dir.getParentFile() != null; dir = dir.getParentFile()) {
+            File versionFile = new File(dir.getParentFile(), "." + dir.getName() + ".version");
+            if (versionFile.isFile()) {
+                return versionFile.delete();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取记录的版本标识
+     */
+    private static String readVersion(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            byte[] bytes = new byte[(int) Math.min(file.length(), 64)];
+            int length = inputStream.read(bytes);
+            return length > 0 ? new String(bytes, 0, length, "UTF-8") : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            FileUtils.safetyClose(inputStream);
+        }
+    }
+
+    /**
+     * 记录版本标识
+     */
+    private static void writeVersion(File file, String version) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(version.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -143,6 +143,8 @@ public class ResourceJsonCodec {
                         filterData.uniformDataList.add(new DynamicColorBaseData.UniformData(key, value));
                     }
                 }
+                // 可选字段，旧的滤镜没有
+                filterData.lookupTable = jsonData.optString("lookupTable");
                 filterData.strength = (float) jsonData.getDouble("strength");
                 filterData.texelOffset = (jsonData.getInt("texelOffset") == 1);
                 filterData.audioPath = jsonData.getString("audioPath");
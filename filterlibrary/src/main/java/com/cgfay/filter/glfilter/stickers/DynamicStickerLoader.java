@@ -1,6 +1,7 @@
 package com.cgfay.filter.glfilter.stickers;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
@@ -11,8 +12,8 @@ import com.cgfay.filter.glfilter.resource.ResourceIndexCodec;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicStickerData;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 import com.cgfay.landmark.LandmarkEngine;
-import com.cgfay.uitls.utils.BitmapUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 
@@ -24,6 +25,11 @@ public class DynamicStickerLoader {
     public boolean isStaticSticker=false;
     private static final String TAG = "DynamicStickerLoader";
 
+    // 图集中帧之间的间隔像素
+    private static final int ATLAS_PADDING = 2;
+    // 单个贴纸图集占用内存的上限
+    private static final long ATLAS_MAX_BYTES = 16 * 1024 * 1024;
+
     // 贴纸纹理
     private int mStickerTexture;
     // 暂存纹理id，用于复用
@@ -34,6 +40,30 @@ public class DynamicStickerLoader {
     private DynamicStickerData mStickerData;
     // 索引索引加载器
     private ResourceIndexCodec mResourceIndexCodec;
+    // 帧预取器，在后台线程中提前解码后续帧
+    private StickerFramePrefetcher mFramePrefetcher;
+    // 是否开启图集模式，需要绘制时使用图集纹理坐标
+    private boolean mAtlasEnabled;
+    // 图集排布，为null时逐帧上传纹理
+    private StickerAtlasPlanner.Plan mAtlasPlan;
+    // 图集纹理
+    private int[] mAtlasTextures;
+    // 已经写入图集的帧
+    private boolean[] mAtlasFrames;
+    // 已经写入图集的帧数
+    private int mAtlasFrameCount;
+    // 计算纹理坐标的临时数组
+    private final float[] mAtlasRect = new float[4];
+
+    // 纹理上传字节数
+    private long mUploadBytes;
+    // 第一次更新纹理的时间
+    private long mFirstUpdateTime = -1L;
+    // 更新纹理的总耗时
+    private long mUpdateTimeNs;
+    // 更新纹理的次数
+    private long mUpdateCount;
+
     // 当前索引
     private int mFrameIndex = -1;
     // 当前时间
@@ -59,6 +89,11 @@ public class DynamicStickerLoader {
                 mResourceIndexCodec = null;
             }
         }
+        // 多帧贴纸在后台预取，渲染线程只负责上传纹理
+        if (mStickerData.frames > 1) {
+            mFramePrefetcher = new StickerFramePrefetcher(this::decodeFrame, mStickerData.frames,
+                    StickerFramePrefetcher.DEFAULT_PREFETCH_COUNT);
+        }
         mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
         mRestoreTexture = OpenGLUtils.GL_NOT_TEXTURE;
         // 如果存在的音乐路径，则播放需要初始化路径
@@ -79,10 +114,35 @@ public class DynamicStickerLoader {
        this(false,filter,stickerData,folderPath);
     }
 
+    /**
+     * 开启图集模式，所有帧只上传一次到图集纹理中，帧切换时只更新纹理坐标。
+     * 需要在第一次更新纹理之前调用，并且绘制时通过{@link #getTextureCoordinates(float[], float[])}获取纹理坐标
+     * @param enable
+     */
+    public void setAtlasEnabled(boolean enable) {
+        mAtlasEnabled = enable;
+    }
+
     /**
      * 更新贴纸纹理
      */
     public void updateStickerTexture() {
+        long startTime = System.nanoTime();
+        if (mFirstUpdateTime == -1L) {
+            mFirstUpdateTime = startTime;
+        }
+        if (mAtlasEnabled && mAtlasPlan == null) {
+            initAtlas();
+        }
+        updateFrame();
+        mUpdateTimeNs += System.nanoTime() - startTime;
+        mUpdateCount++;
+    }
+
+    /**
+     * 根据时间更新当前帧
+     */
+    private void updateFrame() {
         // 判断人脸是否存在
         if (!LandmarkEngine.getInstance().hasFace()&&!isStaticSticker) {
             mCurrentTime = -1L;
@@ -128,16 +188,28 @@ public class DynamicStickerLoader {
                 mWeakFilter.get().restartPlayer();
             }
         }
+        // 图集中已经存在该帧，只需要切换纹理坐标
+        if (mAtlasPlan != null && mAtlasFrames[frameIndex]) {
+            mStickerTexture = mAtlasTextures[mAtlasPlan.getPage(frameIndex)];
+            mFrameIndex = frameIndex;
+            return;
+        }
         // 根据帧索引读取贴纸
-        Bitmap bitmap = null;
-        if (mResourceIndexCodec != null) {
-            bitmap = mResourceIndexCodec.loadResource(frameIndex);
+        Bitmap bitmap;
+        if (mFramePrefetcher != null) {
+            bitmap = mFramePrefetcher.acquireFrame(frameIndex);
+        } else {
+            bitmap = decodeFrame(frameIndex, null);
         }
-        if (bitmap == null) {
-            String path = String.format(mStickerData.stickerName + "_%03d.png", new Object[]{frameIndex});
-            bitmap = BitmapUtils.getBitmapFromFile(mFolderPath + "/" + path);
+        if (null != bitmap && mAtlasPlan != null) {
+            if (uploadAtlasFrame(frameIndex, bitmap)) {
+                return;
+            }
+            // 帧大小与贴纸参数不一致，回退到逐帧上传
+            releaseAtlas();
         }
         if (null != bitmap) {
+            mUploadBytes += bitmap.getByteCount();
             // 如果此时暂存的纹理ID存在，则复用该ID
             if (mStickerTexture == OpenGLUtils.GL_NOT_TEXTURE
                     && mRestoreTexture != OpenGLUtils.GL_NOT_TEXTURE) {
@@ -150,7 +222,12 @@ public class DynamicStickerLoader {
             }
             mRestoreTexture = mStickerTexture;
             mFrameIndex = frameIndex;
-            bitmap.recycle();
+            // 预取的图片归还给预取器复用
+            if (mFramePrefetcher != null) {
+                mFramePrefetcher.releaseFrame(bitmap);
+            } else {
+                bitmap.recycle();
+            }
         } else {
             mRestoreTexture = mStickerTexture;
             mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
@@ -158,10 +235,173 @@ public class DynamicStickerLoader {
         }
     }
 
+    /**
+     * 初始化图集，只在渲染线程中调用
+     */
+    private void initAtlas() {
+        // 只尝试一次，失败时使用逐帧上传
+        mAtlasEnabled = false;
+        if (mStickerData.frames <= 1 || mStickerData.duration <= 0) {
+            return;
+        }
+        StickerAtlasPlanner.Plan plan = StickerAtlasPlanner.plan(mStickerData.width, mStickerData.height,
+                mStickerData.frames, OpenGLUtils.getMaxTextureSize(), ATLAS_PADDING, ATLAS_MAX_BYTES);
+        if (plan == null) {
+            Log.d(TAG, "initAtlas: sticker is too large for atlas, " + mStickerData.stickerName);
+            return;
+        }
+        mAtlasTextures = new int[plan.getPageCount()];
+        for (int i = 0; i < mAtlasTextures.length; i++) {
+            mAtlasTextures[i] = OpenGLUtils.createTexture(plan.getPageWidth(), plan.getPageHeight());
+        }
+        mAtlasFrames = new boolean[plan.getFrameCount()];
+        mAtlasFrameCount = 0;
+        mAtlasPlan = plan;
+        // 原来逐帧上传的纹理不再需要
+        if (mStickerTexture == OpenGLUtils.GL_NOT_TEXTURE) {
+            mStickerTexture = mRestoreTexture;
+        }
+        if (mStickerTexture != OpenGLUtils.GL_NOT_TEXTURE) {
+            OpenGLUtils.deleteTexture(mStickerTexture);
+        }
+        mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
+        mRestoreTexture = OpenGLUtils.GL_NOT_TEXTURE;
+        mFrameIndex = -1;
+    }
+
+    /**
+     * 将帧写入图集，所有帧写入完成后不再需要解码
+     * @param frameIndex
+     * @param bitmap
+     * @return 帧大小与图集不匹配时返回false
+     */
+    private boolean uploadAtlasFrame(int frameIndex, Bitmap bitmap) {
+        if (bitmap.getWidth() != mAtlasPlan.getFrameWidth()
+                || bitmap.getHeight() != mAtlasPlan.getFrameHeight()) {
+            return false;
+        }
+        int texture = mAtlasTextures[mAtlasPlan.getPage(frameIndex)];
+        OpenGLUtils.updateTexture(texture, bitmap, mAtlasPlan.getFrameX(frameIndex), mAtlasPlan.getFrameY(frameIndex));
+        mUploadBytes += bitmap.getByteCount();
+        if (mFramePrefetcher != null) {
+            mFramePrefetcher.releaseFrame(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+        mAtlasFrames[frameIndex] = true;
+        mAtlasFrameCount++;
+        mStickerTexture = texture;
+        mFrameIndex = frameIndex;
+        // 所有帧都已经在图集中，停止后台解码
+        if (mAtlasFrameCount == mAtlasFrames.length && mFramePrefetcher != null) {
+            mFramePrefetcher.release();
+            mFramePrefetcher = null;
+        }
+        return true;
+    }
+
+    /**
+     * 释放图集，回退到逐帧上传
+     */
+    private void releaseAtlas() {
+        if (mAtlasTextures != null) {
+            for (int texture : mAtlasTextures) {
+                OpenGLUtils.deleteTexture(texture);
+            }
+            mAtlasTextures = null;
+        }
+        mAtlasPlan = null;
+        mAtlasFrames = null;
+        mAtlasFrameCount = 0;
+        mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
+        mRestoreTexture = OpenGLUtils.GL_NOT_TEXTURE;
+    }
+
+    /**
+     * 获取当前帧的纹理坐标，只在图集模式下有效
+     * @param source    整张纹理的纹理坐标
+     * @param output    当前帧在图集中的纹理坐标
+     * @return 不处于图集模式或者没有当前帧时返回false，此时应使用原来的纹理坐标
+     */
+    public boolean getTextureCoordinates(float[] source, float[] output) {
+        if (mAtlasPlan == null || mFrameIndex < 0 || mStickerTexture == OpenGLUtils.GL_NOT_TEXTURE) {
+            return false;
+        }
+        mAtlasPlan.mapTextureCoordinates(mFrameIndex, source, mAtlasRect, output);
+        return true;
+    }
+
+    /**
+     * 获取纹理上传速率(字节/秒)
+     * @return
+     */
+    public float getUploadBytesPerSecond() {
+        if (mFirstUpdateTime == -1L) {
+            return 0;
+        }
+        long elapsed = System.nanoTime() - mFirstUpdateTime;
+        return elapsed <= 0 ? 0 : mUploadBytes * 1000000000f / elapsed;
+    }
+
+    /**
+     * 获取每次更新纹理的平均耗时(ms)
+     * @return
+     */
+    public float getAverageUpdateTimeMs() {
+        return mUpdateCount == 0 ? 0 : mUpdateTimeNs / 1000000f / mUpdateCount;
+    }
+
+    /**
+     * 解码贴纸帧，优先从资源包中读取
+     * @param frameIndex    帧索引
+     * @param options       解码参数，可以为null
+     * @return
+     */
+    private Bitmap decodeFrame(int frameIndex, BitmapFactory.Options options) {
+        Bitmap bitmap = null;
+        if (mResourceIndexCodec != null) {
+            bitmap = mResourceIndexCodec.loadResource(frameIndex, options);
+        }
+        if (bitmap == null) {
+            String path = String.format(mStickerData.stickerName + "_%03d.png", new Object[]{frameIndex});
+            File file = new File(mFolderPath, path);
+            if (file.exists()) {
+                bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * 获取帧预取命中率
+     * @return
+     */
+    public float getPrefetchHitRate() {
+        return mFramePrefetcher == null ? 0 : mFramePrefetcher.getHitRate();
+    }
+
+    /**
+     * 获取帧平均解码耗时(ms)
+     * @return
+     */
+    public float getAverageDecodeTimeMs() {
+        return mFramePrefetcher == null ? 0 : mFramePrefetcher.getAverageDecodeTimeMs();
+    }
+
     /**
      * 释放资源
      */
     public void release() {
+        Log.d(TAG, "release: " + mStickerData.stickerName + (mAtlasPlan != null ? " atlas" : " per-frame")
+                + " upload = " + getUploadBytesPerSecond() + " bytes/s"
+                + ", update time = " + getAverageUpdateTimeMs() + "ms");
+        if (mFramePrefetcher != null) {
+            mFramePrefetcher.release();
+            mFramePrefetcher = null;
+        }
+        if (mAtlasPlan != null) {
+            releaseAtlas();
+        }
         if (mStickerTexture == OpenGLUtils.GL_NOT_TEXTURE) {
             mStickerTexture = mRestoreTexture;
         }
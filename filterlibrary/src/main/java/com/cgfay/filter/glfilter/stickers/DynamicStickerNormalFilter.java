@@ -4,6 +4,7 @@ import android.content.Context;
 import android.opengl.GLES30;
 import android.opengl.Matrix;
 
+import com.cgfay.filter.glfilter.base.FrameBufferPool;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicSticker;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicStickerNormalData;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
@@ -41,6 +42,8 @@ public class DynamicStickerNormalFilter extends DynamicStickerBaseFilter {
 
     // 贴纸顶点
     private float[] mStickerVertices = new float[8];
+    // 贴纸纹理坐标，图集模式下为当前帧在图集中的位置
+    private float[] mStickerTextureCoords = new float[8];
 
     public DynamicStickerNormalFilter(Context context, DynamicSticker sticker) {
         super(context, sticker, OpenGLUtils.getShaderFromAssets(context, "shader/sticker/vertex_sticker_normal.glsl"),
@@ -50,7 +53,10 @@ public class DynamicStickerNormalFilter extends DynamicStickerBaseFilter {
             for (int i = 0; i < mDynamicSticker.dataList.size(); i++) {
                 if (mDynamicSticker.dataList.get(i) instanceof DynamicStickerNormalData) {
                     String path = mDynamicSticker.unzipPath + "/" + mDynamicSticker.dataList.get(i).stickerName;
-                    mStickerLoaderList.add(new DynamicStickerLoader(this, mDynamicSticker.dataList.get(i), path));
+                    DynamicStickerLoader loader = new DynamicStickerLoader(this, mDynamicSticker.dataList.get(i), path);
+                    // 帧切换时只更新纹理坐标，不再重复上传纹理
+                    loader.setAtlasEnabled(true);
+                    mStickerLoaderList.add(loader);
                 }
             }
         }
@@ -124,6 +130,15 @@ public class DynamicStickerNormalFilter extends DynamicStickerBaseFilter {
         return super.drawFrame(stickerTexture, vertexBuffer, textureBuffer);
     }
 
+    /**
+     * 需要多次绘制到同一个FBO，不使用共享的FBO缓冲池
+     * @param pool
+     */
+    @Override
+    public void setFrameBufferPool(FrameBufferPool pool) {
+
+    }
+
     @Override
     public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
         // 1、先将图像绘制到FBO中
@@ -140,6 +155,7 @@ public class DynamicStickerNormalFilter extends DynamicStickerBaseFilter {
                     for (int stickerIndex = 0; stickerIndex < mStickerLoaderList.size(); stickerIndex++) {
                         synchronized (this) {
                             mStickerLoaderList.get(stickerIndex).updateStickerTexture();
+                            updateTextureCoordinates(mStickerLoaderList.get(stickerIndex));
                             calculateStickerVertices((DynamicStickerNormalData) mStickerLoaderList.get(stickerIndex).getStickerData(),
                                     oneFace);
                             super.drawFrameBuffer(mStickerLoaderList.get(stickerIndex).getStickerTexture(), mVertexBuffer, mTextureBuffer);
@@ -170,6 +186,20 @@ public class DynamicStickerNormalFilter extends DynamicStickerBaseFilter {
         GLES30.glDisable(GLES30.GL_BLEND);
     }
 
+    /**
+     * 更新贴纸纹理坐标
+     * @param loader
+     */
+    private void updateTextureCoordinates(DynamicStickerLoader loader) {
+        float[] coordinates = TextureRotationUtils.TextureVertices_flipx;
+        if (loader.getTextureCoordinates(coordinates, mStickerTextureCoords)) {
+            coordinates = mStickerTextureCoords;
+        }
+        mTextureBuffer.clear();
+        mTextureBuffer.position(0);
+        mTextureBuffer.put(coordinates);
+    }
+
     /**
      * 更新贴纸顶点
      * TODO 待优化的点：消除姿态角误差、姿态角给贴纸偏移量造成的误差
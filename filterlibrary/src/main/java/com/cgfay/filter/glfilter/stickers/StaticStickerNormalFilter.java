@@ -8,6 +8,7 @@ import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.OrthographicCamera;
 import com.badlogic.gdx.math.Vector3;
+import com.cgfay.filter.glfilter.base.FrameBufferPool;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicSticker;
 import com.cgfay.filter.glfilter.stickers.bean.StaticStickerNormalData;
 
@@ -126,6 +127,15 @@ public class StaticStickerNormalFilter extends DynamicStickerBaseFilter {
     }
 
 
+    /**
+     * 需要多次绘制到同一个FBO，不使用共享的FBO缓冲池
+     * @param pool
+     */
+    @Override
+    public void setFrameBufferPool(FrameBufferPool pool) {
+
+    }
+
     @Override
     public int drawFrameBuffer(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
         // 1、先将图像绘制到FBO中
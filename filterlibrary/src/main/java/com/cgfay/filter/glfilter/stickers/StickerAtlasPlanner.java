@@ -0,0 +1,205 @@
+package com.cgfay.filter.glfilter.stickers;
+
+/**
+ * 贴纸图集排布规划器
+ * 将贴纸的所有帧排布到一张或多张图集纹理中，帧切换时只需要更新纹理坐标，不需要重新上传纹理。
+ * 只做纯计算，不依赖OpenGL环境。
+ * @author CainHuang
+ * @date 2019/8/10
+ */
+public final class StickerAtlasPlanner {
+
+    // 每个像素的字节数(RGBA)
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private StickerAtlasPlanner() {
+
+    }
+
+    /**
+     * 规划图集排布
+     * @param frameWidth        帧宽度
+     * @param frameHeight       帧高度
+     * @param frameCount        帧数
+     * @param maxTextureSize    纹理的最大边长
+     * @param padding           帧之间的间隔像素，防止线性采样时混入相邻帧
+     * @param maxBytes          所有图集占用内存的上限
+     * @return 排布结果，无法排布或者超出内存上限时返回null
+     */
+    public static Plan plan(int frameWidth, int frameHeight, int frameCount,
+                            int maxTextureSize, int padding, long maxBytes) {
+        if (frameWidth <= 0 || frameHeight <= 0 || frameCount <= 0 || padding < 0) {
+            return null;
+        }
+        int cellWidth = frameWidth + padding;
+        int cellHeight = frameHeight + padding;
+        int maxColumns = (maxTextureSize + padding) / cellWidth;
+        int maxRows = (maxTextureSize + padding) / cellHeight;
+        if (maxColumns <= 0 || maxRows <= 0) {
+            return null;
+        }
+        // 单页最多容纳的帧数，帧数较多时需要分页
+        int framesPerPage = Math.min(frameCount, maxColumns * maxRows);
+        int pageCount = (frameCount + framesPerPage - 1) / framesPerPage;
+
+        // 选择面积最小、形状最接近正方形的行列数
+        int bestColumns = -1;
+        int bestRows = -1;
+        long bestArea = Long.MAX_VALUE;
+        int bestDiff = Integer.MAX_VALUE;
+        for (int columns = 1; columns <= Math.min(maxColumns, framesPerPage); columns++) {
+            int rows = (framesPerPage + columns - 1) / columns;
+            if (rows > maxRows) {
+                continue;
+            }
+            int width = columns * cellWidth - padding;
+            int height = rows * cellHeight - padding;
+            long area = (long) width * height;
+            int diff = Math.abs(width - height);
+            if (area < bestArea || (area == bestArea && diff < bestDiff)) {
+                bestArea = area;
+                bestDiff = diff;
+                bestColumns = columns;
+                bestRows = rows;
+            }
+        }
+        if (bestColumns < 0) {
+            return null;
+        }
+        Plan plan = new Plan(frameWidth, frameHeight, frameCount, padding,
+                bestColumns, bestRows, pageCount);
+        if (plan.getTotalBytes() > maxBytes) {
+            return null;
+        }
+        return plan;
+    }
+
+    /**
+     * 图集排布结果
+     */
+    public static final class Plan {
+
+        // 帧宽高
+        private final int mFrameWidth;
+        private final int mFrameHeight;
+        // 帧数
+        private final int mFrameCount;
+        // 帧间隔
+        private final int mPadding;
+        // 每页的行列数
+        private final int mColumns;
+        private final int mRows;
+        // 页数
+        private final int mPageCount;
+
+        Plan(int frameWidth, int frameHeight, int frameCount, int padding,
+             int columns, int rows, int pageCount) {
+            mFrameWidth = frameWidth;
+            mFrameHeight = frameHeight;
+            mFrameCount = frameCount;
+            mPadding = padding;
+            mColumns = columns;
+            mRows = rows;
+            mPageCount = pageCount;
+        }
+
+        public int getFrameWidth() {
+            return mFrameWidth;
+        }
+
+        public int getFrameHeight() {
+            return mFrameHeight;
+        }
+
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        public int getColumns() {
+            return mColumns;
+        }
+
+        public int getRows() {
+            return mRows;
+        }
+
+        public int getPageCount() {
+            return mPageCount;
+        }
+
+        /**
+         * 图集页宽度
+         */
+        public int getPageWidth() {
+            return mColumns * (mFrameWidth + mPadding) - mPadding;
+        }
+
+        /**
+         * 图集页高度
+         */
+        public int getPageHeight() {
+            return mRows * (mFrameHeight + mPadding) - mPadding;
+        }
+
+        /**
+         * 所有图集页占用的字节数
+         */
+        public long getTotalBytes() {
+            return (long) getPageWidth() * getPageHeight() * BYTES_PER_PIXEL * mPageCount;
+        }
+
+        /**
+         * 帧所在的图集页
+         */
+        public int getPage(int frameIndex) {
+            return frameIndex / (mColumns * mRows);
+        }
+
+        /**
+         * 帧在图集页中的x坐标(像素)
+         */
+        public int getFrameX(int frameIndex) {
+            int index = frameIndex % (mColumns * mRows);
+            return (index % mColumns) * (mFrameWidth + mPadding);
+        }
+
+        /**
+         * 帧在图集页中的y坐标(像素)
+         */
+        public int getFrameY(int frameIndex) {
+            int index = frameIndex % (mColumns * mRows);
+            return (index / mColumns) * (mFrameHeight + mPadding);
+        }
+
+        /**
+         * 计算帧在图集页中的纹理坐标范围，边缘向内收缩半个像素，避免采样到相邻帧
+         * @param frameIndex    帧索引
+         * @param rect          输出left, top, right, bottom
+         */
+        public void getTextureRect(int frameIndex, float[] rect) {
+            float pageWidth = getPageWidth();
+            float pageHeight = getPageHeight();
+            float x = getFrameX(frameIndex);
+            float y = getFrameY(frameIndex);
+            rect[0] = (x + 0.5f) / pageWidth;
+            rect[1] = (y + 0.5f) / pageHeight;
+            rect[2] = (x + mFrameWidth - 0.5f) / pageWidth;
+            rect[3] = (y + mFrameHeight - 0.5f) / pageHeight;
+        }
+
+        /**
+         * 将整张纹理的纹理坐标映射到帧所在的区域
+         * @param frameIndex    帧索引
+         * @param source        整张纹理的纹理坐标，取值0 ~ 1
+         * @param rect          临时数组，长度至少为4
+         * @param output        输出的纹理坐标
+         */
+        public void mapTextureCoordinates(int frameIndex, float[] source, float[] rect, float[] output) {
+            getTextureRect(frameIndex, rect);
+            for (int i = 0; i + 1 < source.length; i += 2) {
+                output[i] = rect[0] + source[i] * (rect[2] - rect[0]);
+                output[i + 1] = rect[1] + source[i + 1] * (rect[3] - rect[1]);
+            }
+        }
+    }
+}
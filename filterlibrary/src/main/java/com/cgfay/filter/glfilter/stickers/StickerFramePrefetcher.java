@@ -0,0 +1,400 @@
+package com.cgfay.filter.glfilter.stickers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * 贴纸帧预取器
+ * 在后台线程中预测接下来要显示的帧并提前解码到固定数量的可复用图片中，
+ * 渲染线程只需要取出已经解码好的图片上传纹理。
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+class StickerFramePrefetcher {
+
+    private static final String TAG = "StickerFramePrefetcher";
+
+    /**
+     * 帧解码器
+     */
+    interface FrameDecoder {
+
+        /**
+         * 解码帧图片
+         * @param frameIndex    帧索引
+         * @param options       解码参数，inBitmap为可复用的图片
+         * @return 解码得到的图片，失败时返回null
+         */
+        Bitmap decode(int frameIndex, BitmapFactory.Options options);
+    }
+
+    // 默认预取帧数
+    static final int DEFAULT_PREFETCH_COUNT = 2;
+
+    // 缓存槽状态
+    private static final int STATE_FREE = 0;
+    private static final int STATE_DECODING = 1;
+    private static final int STATE_READY = 2;
+    private static final int STATE_IN_USE = 3;
+
+    /**
+     * 缓存槽
+     */
+    private static final class Slot {
+        int frameIndex = -1;
+        int state = STATE_FREE;
+        // 是否解码成功，解码失败时保留原有图片用于复用
+        boolean decoded;
+        Bitmap bitmap;
+    }
+
+    private final Object mLock = new Object();
+    // 帧解码器
+    private final FrameDecoder mDecoder;
+    // 总帧数
+    private final int mFrameCount;
+    // 预取帧数
+    private final int mPrefetchCount;
+    // 缓存槽，个数为预取帧数加上正在上传的一帧
+    private final Slot[] mSlots;
+    // 解码线程
+    private final Thread mDecodeThread;
+
+    // 渲染线程最近请求的帧
+    private int mCurrentFrame = -1;
+    // 相邻两次请求之间的帧间隔
+    private int mFrameStep = 1;
+    // 是否已经释放
+    private boolean mReleased;
+
+    // 预取命中次数
+    private long mHitCount;
+    // 预取未命中次数
+    private long mMissCount;
+    // 解码次数
+    private long mDecodeCount;
+    // 解码总耗时
+    private long mDecodeTimeNs;
+
+    StickerFramePrefetcher(FrameDecoder decoder, int frameCount, int prefetchCount) {
+        mDecoder = decoder;
+        mFrameCount = frameCount;
+        mPrefetchCount = Math.max(1, Math.min(prefetchCount, frameCount - 1));
+        mSlots = new Slot[mPrefetchCount + 1];
+        for (int i = 0; i < mSlots.length; i++) {
+            mSlots[i] = new Slot();
+        }
+        mDecodeThread = new Thread(this::decodeLoop, "StickerPrefetchThread");
+        mDecodeThread.start();
+    }
+
+    /**
+     * 获取帧图片，仅渲染线程调用。
+     * 命中预取时直接返回，否则在当前线程中解码。使用完成后需要调用{@link #releaseFrame(Bitmap)}归还。
+     * @param frameIndex 帧索引
+     * @return 帧图片，解码失败时返回null
+     */
+    Bitmap acquireFrame(int frameIndex) {
+        Slot slot;
+        synchronized (mLock) {
+            if (mCurrentFrame >= 0 && frameIndex != mCurrentFrame) {
+                int step = (frameIndex - mCurrentFrame + mFrameCount) % mFrameCount;
+                mFrameStep = Math.max(1, Math.min(step, mPrefetchCount));
+            }
+            mCurrentFrame = frameIndex;
+            slot = findSlot(frameIndex);
+            // 正在后台解码，等待解码完成
+            while (slot != null && slot.state == STATE_DECODING && !mReleased) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                slot = findSlot(frameIndex);
+            }
+            if (slot != null && slot.state == STATE_READY) {
+                mHitCount++;
+                mLock.notifyAll();
+                if (!slot.decoded) {
+                    // 预取时已经解码失败，不再重复解码
+                    slot.state = STATE_FREE;
+                    slot.frameIndex = -1;
+                    return null;
+                }
+                slot.state = STATE_IN_USE;
+                return slot.bitmap;
+            }
+            mMissCount++;
+            slot = obtainSlot(frameIndex);
+            mLock.notifyAll();
+        }
+        if (slot == null) {
+            // 缓存槽全部被占用，直接解码且不复用
+            return decode(frameIndex, null);
+        }
+        Bitmap bitmap = decode(frameIndex, slot.bitmap);
+        synchronized (mLock) {
+            finishDecode(slot, bitmap, STATE_IN_USE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 归还帧图片，图片会被复用于后续帧的解码
+     * @param bitmap 通过{@link #acquireFrame(int)}得到的图片
+     */
+    void releaseFrame(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mLock) {
+            for (Slot slot : mSlots) {
+                if (slot.bitmap == bitmap && slot.state == STATE_IN_USE) {
+                    slot.state = STATE_FREE;
+                    slot.frameIndex = -1;
+                    if (mReleased) {
+                        bitmap.recycle();
+                        slot.bitmap = null;
+                    }
+                    mLock.notifyAll();
+                    return;
+                }
+            }
+        }
+        // 不属于缓存槽的图片直接回收
+        bitmap.recycle();
+    }
+
+    /**
+     * 释放预取器，等待正在进行的解码结束并回收所有图片
+     */
+    void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mLock.notifyAll();
+        }
+        try {
+            mDecodeThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mLock) {
+            for (Slot slot : mSlots) {
+                if (slot.state != STATE_IN_USE && slot.bitmap != null) {
+                    slot.bitmap.recycle();
+                    slot.bitmap = null;
+                }
+                if (slot.state != STATE_IN_USE) {
+                    slot.state = STATE_FREE;
+                    slot.frameIndex = -1;
+                }
+            }
+        }
+        Log.d(TAG, "release: hit rate = " + getHitRate()
+                + ", average decode time = " + getAverageDecodeTimeMs() + "ms");
+    }
+
+    /**
+     * 获取预取命中率
+     */
+    float getHitRate() {
+        synchronized (mLock) {
+            long total = mHitCount + mMissCount;
+            return total == 0 ? 0 : (float) mHitCount / total;
+        }
+    }
+
+    /**
+     * 获取预取命中次数
+     */
+    long getHitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    /**
+     * 获取预取未命中次数
+     */
+    long getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    /**
+     * 获取平均解码耗时(ms)
+     */
+    float getAverageDecodeTimeMs() {
+        synchronized (mLock) {
+            return mDecodeCount == 0 ? 0 : mDecodeTimeNs / 1000000f / mDecodeCount;
+        }
+    }
+
+    /**
+     * 解码线程循环，按照预测的帧顺序填充缓存槽
+     */
+    private void decodeLoop() {
+        while (true) {
+            int frameIndex = -1;
+            Slot slot;
+            synchronized (mLock) {
+                while (!mReleased && (frameIndex = nextPrefetchFrame()) < 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mReleased) {
+                    return;
+                }
+                slot = obtainSlot(frameIndex);
+            }
+            Bitmap bitmap = decode(frameIndex, slot.bitmap);
+            synchronized (mLock) {
+                finishDecode(slot, bitmap, STATE_READY);
+            }
+        }
+    }
+
+    /**
+     * 计算下一个需要预取的帧，需要持有锁
+     * @return 帧索引，没有需要预取的帧或者没有空闲缓存槽时返回-1
+     */
+    private int nextPrefetchFrame() {
+        if (mCurrentFrame < 0) {
+            // 尚未开始播放时，先准备第0帧
+            return findSlot(0) == null && hasReusableSlot() ? 0 : -1;
+        }
+        for (int i = 1; i <= mPrefetchCount; i++) {
+            // 非循环贴纸播放结束后同样会从第0帧重新开始
+            int frameIndex = (mCurrentFrame + i * mFrameStep) % mFrameCount;
+            if (findSlot(frameIndex) == null) {
+                return hasReusableSlot() ? frameIndex : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 是否存在可用的缓存槽，需要持有锁
+     */
+    private boolean hasReusableSlot() {
+        for (Slot slot : mSlots) {
+            if (slot.state == STATE_FREE
+                    || (slot.state == STATE_READY && !isPredicted(slot.frameIndex))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断帧是否位于预测窗口内，需要持有锁
+     */
+    private boolean isPredicted(int frameIndex) {
+        if (mCurrentFrame < 0) {
+            return frameIndex == 0;
+        }
+        for (int i = 0; i <= mPrefetchCount; i++) {
+            if ((mCurrentFrame + i * mFrameStep) % mFrameCount == frameIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 查找缓存了指定帧的缓存槽，需要持有锁
+     */
+    private Slot findSlot(int frameIndex) {
+        for (Slot slot : mSlots) {
+            if (slot.frameIndex == frameIndex && slot.state != STATE_FREE) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 取出一个缓存槽用于解码，优先使用空闲的缓存槽，其次淘汰不在预测窗口内的已解码帧，需要持有锁
+     */
+    private Slot obtainSlot(int frameIndex) {
+        Slot target = null;
+        for (Slot slot : mSlots) {
+            if (slot.state == STATE_FREE) {
+                target = slot;
+                break;
+            }
+            if (target == null && slot.state == STATE_READY && !isPredicted(slot.frameIndex)) {
+                target = slot;
+            }
+        }
+        if (target != null) {
+            target.frameIndex = frameIndex;
+            target.state = STATE_DECODING;
+        }
+        return target;
+    }
+
+    /**
+     * 解码完成，更新缓存槽状态，需要持有锁
+     */
+    private void finishDecode(Slot slot, Bitmap bitmap, int state) {
+        slot.decoded = bitmap != null;
+        if (bitmap != null) {
+            if (slot.bitmap != null && slot.bitmap != bitmap) {
+                slot.bitmap.recycle();
+            }
+            slot.bitmap = bitmap;
+        }
+        if (bitmap == null && state == STATE_IN_USE) {
+            slot.frameIndex = -1;
+            slot.state = STATE_FREE;
+        } else {
+            slot.state = state;
+        }
+        if (mReleased && slot.state == STATE_READY) {
+            // 释放后解码完成的图片不再需要，交给release统一回收
+            slot.state = STATE_FREE;
+            slot.frameIndex = -1;
+        }
+        mLock.notifyAll();
+    }
+
+    /**
+     * 解码帧图片，优先复用已有的图片
+     */
+    private Bitmap decode(int frameIndex, Bitmap reuse) {
+        long startTime = System.nanoTime();
+        Bitmap bitmap = null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        if (reuse != null && !reuse.isRecycled()) {
+            options.inBitmap = reuse;
+            try {
+                bitmap = mDecoder.decode(frameIndex, options);
+            } catch (IllegalArgumentException e) {
+                // 尺寸不匹配等原因无法复用时，重新分配
+                options.inBitmap = null;
+            }
+        }
+        if (bitmap == null) {
+            options.inBitmap = null;
+            try {
+                bitmap = mDecoder.decode(frameIndex, options);
+            } catch (Exception e) {
+                Log.e(TAG, "decode: ", e);
+            }
+        }
+        long decodeTime = System.nanoTime() - startTime;
+        synchronized (mLock) {
+            mDecodeCount++;
+            mDecodeTimeNs += decodeTime;
+        }
+        return bitmap;
+    }
+}
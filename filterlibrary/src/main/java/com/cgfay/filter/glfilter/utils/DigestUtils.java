@@ -0,0 +1,51 @@
+package com.cgfay.filter.glfilter.utils;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 摘要工具，program缓存和查找表缓存用来生成文件名
+ * 只做摘要计算，不依赖OpenGLES。
+ * @author CainHuang
+ * @date 2019/9/6
+ */
+public final class DigestUtils {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DigestUtils() {
+
+    }
+
+    /**
+     * 计算多段数据依次拼接之后的SHA-1
+     * @param parts 数据
+     * @return 小写十六进制字符串
+     */
+    public static String sha1Hex(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (byte[] part : parts) {
+                digest.update(part);
+            }
+            byte[] bytes = digest.digest();
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // 不会发生，SHA-1是必须支持的
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 字符串按UTF-8编码
+     */
+    public static byte[] utf8(String value) {
+        return value.getBytes(UTF_8);
+    }
+}
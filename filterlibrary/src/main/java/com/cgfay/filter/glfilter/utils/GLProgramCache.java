@@ -0,0 +1,419 @@
+package com.cgfay.filter.glfilter.utils;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * program缓存
+ * 按照shader源码的摘要共享链接好的program，使用引用计数管理，引用计数为0的program保留在空闲列表中，
+ * 切换滤镜时再次使用相同的shader可以直接复用。program属于EGL上下文，每个上下文有自己的缓存。
+ * 设置二进制缓存目录并且支持OpenGLES 3.0时，链接好的program会通过glGetProgramBinary保存到磁盘，
+ * 下次启动时通过glProgramBinary加载，跳过编译和链接。二进制在后台线程中写入磁盘，不占用GL线程。
+ * 共享EGL上下文的线程通过shareCache使用同一个缓存，缓存的方法都是同步的。
+ * @author CainHuang
+ * @date 2019/9/3
+ */
+public final class GLProgramCache {
+
+    private static final String TAG = "GLProgramCache";
+
+    // 最多保留的空闲program个数
+    private static final int MAX_IDLE_COUNT = 16;
+    // 写入线程空闲后的存活时长(秒)
+    private static final int WRITER_KEEP_ALIVE_SECONDS = 5;
+
+    // 写入program二进制的后台线程，所有缓存共用，只在集中创建program时存在
+    private static final ExecutorService sBinaryWriter = createBinaryWriter();
+
+    /**
+     * program编译器
+     */
+    public interface Compiler {
+
+        /**
+         * 创建program
+         * @param vertexShader      vertex shader源码
+         * @param fragmentShader    fragment shader源码
+         * @param key               shader源码的摘要
+         * @return program句柄，失败时返回0
+         */
+        int createProgram(String vertexShader, String fragmentShader, String key);
+
+        /**
+         * 删除program
+         * @param program
+         */
+        void deleteProgram(int program);
+    }
+
+    /**
+     * 使用OpenGLES编译链接，并在磁盘上缓存program二进制
+     */
+    public static class GLCompiler implements Compiler {
+
+        private final int[] mValues = new int[2];
+        // 二进制缓存，不支持时为null
+        private ProgramBinaryStore mBinaryStore;
+        // 从二进制加载成功的次数
+        private int mBinaryLoadCount;
+        // 从源码编译的次数
+        private int mSourceCompileCount;
+
+        public GLCompiler(File binaryDirectory) {
+            if (binaryDirectory != null && isBinarySupported()) {
+                mBinaryStore = new ProgramBinaryStore(binaryDirectory,
+                        GLES30.glGetString(GLES30.GL_RENDERER) + "/" + GLES30.glGetString(GLES30.GL_VERSION));
+            }
+        }
+
+        /**
+         * 当前上下文是否支持program二进制
+         */
+        private boolean isBinarySupported() {
+            String version = GLES30.glGetString(GLES30.GL_VERSION);
+            if (version == null || !version.startsWith("OpenGL ES ") || version.length() <= 10
+                    || version.charAt(10) < '3') {
+                return false;
+            }
+            GLES30.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, mValues, 0);
+            return mValues[0] > 0;
+        }
+
+        @Override
+        public int createProgram(String vertexShader, String fragmentShader, String key) {
+            if (mBinaryStore != null) {
+                int program = loadBinary(key);
+                if (program != 0) {
+                    mBinaryLoadCount++;
+                    return program;
+                }
+            }
+            int program = OpenGLUtils.createProgram(vertexShader, fragmentShader, mBinaryStore != null);
+            if (program != 0) {
+                mSourceCompileCount++;
+                if (mBinaryStore != null) {
+                    saveBinary(program, key);
+                }
+            }
+            return program;
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+            GLES30.glDeleteProgram(program);
+        }
+
+        public int getBinaryLoadCount() {
+            return mBinaryLoadCount;
+        }
+
+        public int getSourceCompileCount() {
+            return mSourceCompileCount;
+        }
+
+        /**
+         * 从二进制加载program，驱动拒绝时删除二进制并返回0
+         */
+        private int loadBinary(String key) {
+            ProgramBinaryStore.Binary binary = mBinaryStore.load(key);
+            if (binary == null) {
+                return 0;
+            }
+            int program = GLES30.glCreateProgram();
+            GLES30.glProgramBinary(program, binary.getFormat(), binary.getData(), binary.getLength());
+            GLES30.glGetProgramiv(program, GLES30.GL_LINK_STATUS, mValues, 0);
+            if (mValues[0] != GLES30.GL_TRUE) {
+                Log.w(TAG, "loadBinary: program binary rejected, recompile " + key);
+                GLES30.glDeleteProgram(program);
+                mBinaryStore.delete(key);
+                return 0;
+            }
+            return program;
+        }
+
+        /**
+         * 读出program二进制，交给后台线程写入磁盘
+         */
+        private void saveBinary(int program, final String key) {
+            GLES30.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, mValues, 0);
+            int length = mValues[0];
+            if (length <= 0) {
+                return;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            final int[] format = new int[1];
+            GLES30.glGetProgramBinary(program, length, mValues, 0, format, 0, buffer);
+            buffer.limit(mValues[0]);
+            final ProgramBinaryStore store = mBinaryStore;
+            sBinaryWriter.execute(() -> {
+                if (!store.save(key, format[0], buffer)) {
+                    Log.w(TAG, "saveBinary: failed to save program binary " + key);
+                }
+            });
+        }
+    }
+
+    /**
+     * 缓存中的program
+     */
+    public static final class Program {
+
+        private final String mKey;
+        private final int mHandle;
+        // 引用计数，为0时进入空闲列表
+        private int mRefCount;
+        // 最后一次使用program绘制的对象
+        private Object mOwner;
+
+        Program(String key, int handle) {
+            mKey = key;
+            mHandle = handle;
+        }
+
+        public int getHandle() {
+            return mHandle;
+        }
+
+        int getRefCount() {
+            return mRefCount;
+        }
+
+        /**
+         * 最后一次使用program绘制的对象
+         */
+        public Object getOwner() {
+            return mOwner;
+        }
+
+        /**
+         * 记录使用program绘制的对象。uniform的值属于program，多个滤镜共享同一个program时，
+         * 使用者发生变化需要重新上传全部uniform，并把上一个使用者设置过、新使用者没有设置的uniform恢复成0。
+         * 不经过uniform状态、直接调用glUniform设置的uniform不会被恢复，需要每一帧都设置。
+         * @param owner 使用者
+         * @return 使用者是否发生变化
+         */
+        public boolean setOwner(Object owner) {
+            if (mOwner == owner) {
+                return false;
+            }
+            mOwner = owner;
+            return true;
+        }
+    }
+
+    // 每个EGL上下文的缓存
+    private static final Map<EGLContext, GLProgramCache> sCaches = new HashMap<>();
+    // 二进制缓存目录
+    private static File sBinaryDirectory;
+
+    private final Compiler mCompiler;
+    // 所有program
+    private final Map<String, Program> mPrograms = new HashMap<>();
+    // 空闲的program，按照最近使用的顺序排列，最早的在前面
+    private final List<Program> mIdlePrograms = new ArrayList<>();
+
+    // 命中次数
+    private int mHitCount;
+    // 未命中次数
+    private int mMissCount;
+    // 创建program的累计耗时(ns)
+    private long mCreateTime;
+
+    public GLProgramCache(Compiler compiler) {
+        mCompiler = compiler;
+    }
+
+    /**
+     * 设置program二进制的缓存目录，之后创建的缓存生效
+     * @param directory 为null时不缓存二进制
+     */
+    public static synchronized void setBinaryDirectory(File directory) {
+        sBinaryDirectory = directory;
+    }
+
+    /**
+     * 获取当前EGL上下文的缓存
+     * @return 当前线程没有EGL上下文时返回null
+     */
+    public static synchronized GLProgramCache getCurrent() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        if (context == null || context.equals(EGL14.EGL_NO_CONTEXT)) {
+            return null;
+        }
+        GLProgramCache cache = sCaches.get(context);
+        if (cache == null) {
+            cache = new GLProgramCache(new GLCompiler(sBinaryDirectory));
+            sCaches.put(context, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * 共享EGL上下文时使用同一个缓存，program在共享的上下文之间可以直接使用
+     * @param sharedContext 被共享的上下文
+     * @param context       新创建的上下文
+     */
+    public static synchronized void shareCache(EGLContext sharedContext, EGLContext context) {
+        GLProgramCache cache = sCaches.get(sharedContext);
+        if (cache == null) {
+            cache = new GLProgramCache(new GLCompiler(sBinaryDirectory));
+            sCaches.put(sharedContext, cache);
+        }
+        sCaches.put(context, cache);
+    }
+
+    /**
+     * EGL上下文销毁时调用，上下文中的program随之销毁，只需要丢弃缓存
+     * @param context
+     */
+    public static synchronized void onContextDestroyed(EGLContext context) {
+        GLProgramCache cache = sCaches.remove(context);
+        if (cache != null && !sCaches.containsValue(cache)) {
+            Log.d(TAG, cache.getReport());
+        }
+    }
+
+    /**
+     * 获取program，引用计数加1
+     * @param vertexShader
+     * @param fragmentShader
+     * @return 创建失败时返回null
+     */
+    public synchronized Program acquire(String vertexShader, String fragmentShader) {
+        String key = createKey(vertexShader, fragmentShader);
+        Program program = mPrograms.get(key);
+        if (program != null) {
+            mHitCount++;
+            if (program.mRefCount == 0) {
+                mIdlePrograms.remove(program);
+            }
+            program.mRefCount++;
+            return program;
+        }
+        mMissCount++;
+        long startTime = System.nanoTime();
+        int handle = mCompiler.createProgram(vertexShader, fragmentShader, key);
+        mCreateTime += System.nanoTime() - startTime;
+        if (handle == 0) {
+            return null;
+        }
+        program = new Program(key, handle);
+        program.mRefCount = 1;
+        mPrograms.put(key, program);
+        return program;
+    }
+
+    /**
+     * 释放program，引用计数为0时进入空闲列表，空闲列表满时删除最早的program
+     * @param program
+     */
+    public synchronized void release(Program program) {
+        if (program == null || program.mRefCount <= 0 || mPrograms.get(program.mKey) != program) {
+            return;
+        }
+        if (--program.mRefCount > 0) {
+            return;
+        }
+        program.mOwner = null;
+        mIdlePrograms.add(program);
+        while (mIdlePrograms.size() > MAX_IDLE_COUNT) {
+            delete(mIdlePrograms.remove(0));
+        }
+    }
+
+    /**
+     * 删除所有空闲的program
+     */
+    public synchronized void trim() {
+        for (int i = 0; i < mIdlePrograms.size(); i++) {
+            delete(mIdlePrograms.get(i));
+        }
+        mIdlePrograms.clear();
+    }
+
+    /**
+     * 缓存中的program个数，包括空闲的program
+     */
+    public synchronized int size() {
+        return mPrograms.size();
+    }
+
+    /**
+     * 空闲的program个数
+     */
+    public synchronized int getIdleCount() {
+        return mIdlePrograms.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * 创建program的累计耗时(ms)
+     */
+    public synchronized double getCreateTimeMs() {
+        return mCreateTime / 1000000.0;
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public synchronized String getReport() {
+        StringBuilder builder = new StringBuilder("GLProgramCache: ")
+                .append(mHitCount).append(" hits, ")
+                .append(mMissCount).append(" misses, ")
+                .append(String.format(Locale.US, "%.3fms creating, ", getCreateTimeMs()))
+                .append(mPrograms.size()).append(" programs");
+        if (mCompiler instanceof GLCompiler) {
+            GLCompiler compiler = (GLCompiler) mCompiler;
+            builder.append(", ").append(compiler.getBinaryLoadCount()).append(" loaded from binary, ")
+                    .append(compiler.getSourceCompileCount()).append(" compiled from source");
+        }
+        return builder.toString();
+    }
+
+    private void delete(Program program) {
+        mPrograms.remove(program.mKey);
+        mCompiler.deleteProgram(program.mHandle);
+    }
+
+    private static ExecutorService createBinaryWriter() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, WRITER_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "GLProgramBinaryWriter");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * shader源码的摘要
+     */
+    static String createKey(String vertexShader, String fragmentShader) {
+        // 分隔两段源码，避免拼接之后相同
+        return DigestUtils.sha1Hex(DigestUtils.utf8(vertexShader), new byte[] {0},
+                DigestUtils.utf8(fragmentShader));
+    }
+}
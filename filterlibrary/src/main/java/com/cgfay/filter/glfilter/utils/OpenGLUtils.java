@@ -120,6 +120,18 @@ public class OpenGLUtils {
      * @return
      */
     public static synchronized int createProgram(String vertexSource, String fragmentSource) {
+        return createProgram(vertexSource, fragmentSource, false);
+    }
+
+    /**
+     * 创建program
+     * @param vertexSource
+     * @param fragmentSource
+     * @param binaryRetrievable 链接之后是否需要通过glGetProgramBinary读取二进制，需要OpenGLES 3.0
+     * @return
+     */
+    public static synchronized int createProgram(String vertexSource, String fragmentSource,
+                                                 boolean binaryRetrievable) {
         int vertexShader = loadShader(GLES30.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
@@ -138,6 +150,9 @@ public class OpenGLUtils {
         checkGlError("glAttachShader");
         GLES30.glAttachShader(program, fragmentShader);
         checkGlError("glAttachShader");
+        if (binaryRetrievable) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES30.GL_TRUE);
+        }
         GLES30.glLinkProgram(program);
         int[] linkStatus = new int[1];
         GLES30.glGetProgramiv(program, GLES30.GL_LINK_STATUS, linkStatus, 0);
@@ -256,12 +271,25 @@ public class OpenGLUtils {
      */
     public static void createFrameBuffer(int[] frameBuffer, int[] frameBufferTexture,
                                          int width, int height) {
+        createFrameBuffer(frameBuffer, frameBufferTexture, width, height, GLES30.GL_RGBA);
+    }
+
+    /**
+     * 创建指定像素格式的Sampler2D的Framebuffer 和 Texture
+     * @param frameBuffer
+     * @param frameBufferTexture
+     * @param width
+     * @param height
+     * @param format    像素格式，GL_RGBA/GL_RGB等
+     */
+    public static void createFrameBuffer(int[] frameBuffer, int[] frameBufferTexture,
+                                         int width, int height, int format) {
         GLES30.glGenFramebuffers(frameBuffer.length, frameBuffer, 0);
         GLES30.glGenTextures(frameBufferTexture.length, frameBufferTexture, 0);
         for (int i = 0; i < frameBufferTexture.length; i++) {
             GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, frameBufferTexture[i]);
-            GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height, 0,
-                    GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
+            GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, format, width, height, 0,
+                    format, GLES30.GL_UNSIGNED_BYTE, null);
             GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
                     GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
             GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
@@ -518,6 +546,83 @@ public class OpenGLUtils {
         return createTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
     }
 
+    /**
+     * 创建指定大小的空白RGBA纹理，内容通过{@link #updateTexture(int, Bitmap, int, int)}分块写入
+     * @param width
+     * @param height
+     * @return
+     */
+    public static int createTexture(int width, int height) {
+        int texture = createTexture(GLES30.GL_TEXTURE_2D);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height, 0,
+                GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
+        checkGlError("glTexImage2D");
+        return texture;
+    }
+
+    /**
+     * 将图片写入纹理的指定位置
+     * @param texture   纹理id
+     * @param bitmap    图片
+     * @param x         写入的x坐标
+     * @param y         写入的y坐标
+     */
+    public static void updateTexture(int texture, Bitmap bitmap, int x, int y) {
+        if (bitmap != null && !bitmap.isRecycled()) {
+            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture);
+            GLUtils.texSubImage2D(GLES30.GL_TEXTURE_2D, 0, x, y, bitmap);
+        }
+    }
+
+    /**
+     * 获取纹理的最大边长
+     * @return
+     */
+    public static int getMaxTextureSize() {
+        int[] size = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_MAX_TEXTURE_SIZE, size, 0);
+        return size[0];
+    }
+
+    /**
+     * 获取当前上下文的OpenGLES主版本号
+     * @return 无法解析时返回0
+     */
+    public static int getGLESMajorVersion() {
+        String version = GLES30.glGetString(GLES30.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES ") || version.length() <= 10
+                || !Character.isDigit(version.charAt(10))) {
+            return 0;
+        }
+        return version.charAt(10) - '0';
+    }
+
+    /**
+     * 创建3D纹理，需要OpenGLES 3.0
+     * @param data  紧密排列的RGB数据，按照x、y、z的顺序
+     * @param size  纹理边长
+     * @return
+     */
+    public static int createTexture3D(ByteBuffer data, int size) {
+        int[] texture = new int[1];
+        GLES30.glGenTextures(1, texture, 0);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, texture[0]);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_R, GLES30.GL_CLAMP_TO_EDGE);
+        // RGB每行不是4字节对齐，需要按照1字节对齐上传
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 1);
+        GLES30.glTexImage3D(GLES30.GL_TEXTURE_3D, 0, GLES30.GL_RGB8, size, size, size, 0,
+                GLES30.GL_RGB, GLES30.GL_UNSIGNED_BYTE, data);
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 4);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+        checkGlError("createTexture3D");
+        return texture[0];
+    }
+
     /**
      * 删除纹理
      * @param texture
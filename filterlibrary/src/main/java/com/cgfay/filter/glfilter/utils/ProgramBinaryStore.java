@@ -0,0 +1,228 @@
+package com.cgfay.filter.glfilter.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * program二进制的磁盘缓存
+ * 每个program保存为一个文件，按驱动标识(GPU型号和驱动版本)分目录存放，驱动变化之后旧目录整个删除。
+ * 文件头同样记录驱动标识，目录名冲突时读取会删除不匹配的文件。
+ * 目录总大小超过上限时按最近使用时间删除最旧的文件，读取时会更新文件的修改时间。
+ * 写入时先写临时文件再重命名，进程中途退出也不会留下不完整的文件。
+ * 只做文件读写，不依赖OpenGLES。
+ * @author CainHuang
+ * @date 2019/9/3
+ */
+public class ProgramBinaryStore {
+
+    // 文件头标记
+    private static final int MAGIC = 0x43504231;
+    // 文件后缀
+    private static final String SUFFIX = ".bin";
+    // 单个二进制的最大长度，超过时认为文件损坏
+    private static final int MAX_BINARY_LENGTH = 4 * 1024 * 1024;
+    // 默认的目录大小上限
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    // 驱动目录前缀
+    private static final String DRIVER_PREFIX = "driver_";
+
+    /**
+     * program二进制
+     */
+    public static final class Binary {
+
+        // 二进制格式
+        private final int mFormat;
+        // 二进制数据，direct buffer
+        private final ByteBuffer mData;
+
+        public Binary(int format, ByteBuffer data) {
+            mFormat = format;
+            mData = data;
+        }
+
+        public int getFormat() {
+            return mFormat;
+        }
+
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        public int getLength() {
+            return mData.remaining();
+        }
+    }
+
+    // 当前驱动的存放目录
+    private final File mDirectory;
+    // 驱动标识
+    private final String mDriverTag;
+    // 目录大小上限
+    private final long mMaxBytes;
+
+    /**
+     * @param directory 存放目录
+     * @param driverTag 驱动标识，一般为GL_RENDERER和GL_VERSION
+     */
+    public ProgramBinaryStore(File directory, String driverTag) {
+        this(directory, driverTag, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param directory 存放目录，删除其他驱动的二进制
+     * @param driverTag 驱动标识，一般为GL_RENDERER和GL_VERSION
+     * @param maxBytes  当前驱动的二进制总大小上限
+     */
+    public ProgramBinaryStore(File directory, String driverTag, long maxBytes) {
+        mDriverTag = driverTag != null ? driverTag : "";
+        mDirectory = new File(directory, DRIVER_PREFIX + Integer.toHexString(mDriverTag.hashCode()));
+        mMaxBytes = maxBytes;
+        removeOtherDrivers(directory);
+    }
+
+    /**
+     * 读取二进制
+     * @param key program的key
+     * @return 不存在、驱动不匹配或者文件损坏时返回null
+     */
+    public Binary load(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            if (input.readInt() != MAGIC || !mDriverTag.equals(input.readUTF())) {
+                delete(key);
+                return null;
+            }
+            int format = input.readInt();
+            int length = input.readInt();
+            if (length <= 0 || length > MAX_BINARY_LENGTH) {
+                delete(key);
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            ByteBuffer data = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            data.put(bytes);
+            data.flip();
+            file.setLastModified(System.currentTimeMillis());
+            return new Binary(format, data);
+        } catch (IOException e) {
+            delete(key);
+            return null;
+        }
+    }
+
+    /**
+     * 保存二进制
+     * @param key       program的key
+     * @param format    二进制格式
+     * @param data      二进制数据，从position到limit
+     * @return 是否保存成功
+     */
+    public boolean save(String key, int format, ByteBuffer data) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return false;
+        }
+        ByteBuffer buffer = data.duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        File file = getFile(key);
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(tempFile))) {
+            output.writeInt(MAGIC);
+            output.writeUTF(mDriverTag);
+            output.writeInt(format);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        } catch (IOException e) {
+            tempFile.delete();
+            return false;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            return false;
+        }
+        trim();
+        return true;
+    }
+
+    /**
+     * 删除二进制，二进制加载失败时调用
+     * @param key program的key
+     */
+    public void delete(String key) {
+        getFile(key).delete();
+    }
+
+    /**
+     * 目录总大小超过上限时，从最久没有使用的文件开始删除
+     */
+    void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * 删除其他驱动的目录以及旧版本直接放在根目录下的文件
+     */
+    private void removeOtherDrivers(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.equals(mDirectory)) {
+                deleteRecursive(file);
+            }
+        }
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, key + SUFFIX);
+    }
+}
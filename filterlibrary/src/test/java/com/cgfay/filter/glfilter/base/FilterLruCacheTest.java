@@ -0,0 +1,88 @@
+package com.cgfay.filter.glfilter.base;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 滤镜LRU缓存的单元测试，使用字符串代替滤镜
+ */
+public class FilterLruCacheTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private final List<String> mReleased = new ArrayList<>();
+
+    private FilterLruCache<String> createCache(long maxBytes) {
+        return new FilterLruCache<>(maxBytes, mReleased::add);
+    }
+
+    @Test
+    public void takeRemovesFilterAndCountsHits() {
+        FilterLruCache<String> cache = createCache(8 * MB);
+        cache.put("a", "filterA", MB);
+        assertTrue(cache.contains("a"));
+        assertEquals("filterA", cache.take("a"));
+        assertFalse(cache.contains("a"));
+        assertNull(cache.take("a"));
+        assertNull(cache.take(null));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getBytes());
+        assertTrue(mReleased.isEmpty());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() {
+        FilterLruCache<String> cache = createCache(3 * MB);
+        cache.put("a", "filterA", MB);
+        cache.put("b", "filterB", MB);
+        cache.put("c", "filterC", MB);
+        // 取出再放回之后a变成最近使用的
+        cache.put("a", cache.take("a"), MB);
+        cache.put("d", "filterD", MB);
+        assertEquals(3, cache.size());
+        assertEquals(3 * MB, cache.getBytes());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals("filterB", mReleased.get(0));
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+
+        // 一个大滤镜可以淘汰多个小滤镜
+        cache.put("e", "filterE", 2 * MB + MB / 2);
+        assertEquals(1, cache.size());
+        assertTrue(cache.contains("e"));
+        // 峰值按照淘汰之后的占用统计
+        assertEquals(3 * MB, cache.getPeakBytes());
+    }
+
+    @Test
+    public void tooLargeOrUnnamedFilterIsReleased() {
+        FilterLruCache<String> cache = createCache(2 * MB);
+        cache.put("a", "filterA", 3 * MB);
+        cache.put(null, "filterB", MB);
+        assertEquals(0, cache.size());
+        assertEquals(2, mReleased.size());
+    }
+
+    @Test
+    public void replacingKeyReleasesOldFilter() {
+        FilterLruCache<String> cache = createCache(8 * MB);
+        cache.put("a", "filterA", MB);
+        cache.put("a", "filterA2", 2 * MB);
+        assertEquals(1, cache.size());
+        assertEquals(2 * MB, cache.getBytes());
+        assertEquals("filterA", mReleased.get(0));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertEquals("filterA2", mReleased.get(1));
+    }
+}
@@ -0,0 +1,130 @@
+package com.cgfay.filter.glfilter.base;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FBO缓冲池的单元测试，使用不依赖OpenGL环境的分配器
+ */
+public class FrameBufferPoolTest {
+
+    private static final int RGBA = 0x1908;
+    private static final int RGB = 0x1907;
+
+    /**
+     * 只记录id的分配器
+     */
+    private static class FakeAllocator implements FrameBufferPool.Allocator {
+
+        private int mNextId = 1;
+        final Set<Integer> mLiveTextures = new HashSet<>();
+        int mCreateCount;
+        int mDeleteCount;
+
+        @Override
+        public void createFrameBuffer(int width, int height, int format, int[] ids) {
+            ids[0] = mNextId++;
+            ids[1] = mNextId++;
+            mLiveTextures.add(ids[1]);
+            mCreateCount++;
+        }
+
+        @Override
+        public void deleteFrameBuffer(int frameBuffer, int texture) {
+            assertTrue(mLiveTextures.remove(texture));
+            mDeleteCount++;
+        }
+    }
+
+    @Test
+    public void chainPingPongsBetweenTwoFrameBuffers() {
+        FakeAllocator allocator = new FakeAllocator();
+        FrameBufferPool pool = new FrameBufferPool(allocator);
+        int inputTexture = 1000;
+        int outputTexture = -1;
+        // 模拟多帧经过8个滤镜的滤镜链，每个滤镜使用完输入纹理后归还，输出纹理保留到下一帧
+        for (int frame = 0; frame < 10; frame++) {
+            pool.release(outputTexture);
+            int current = inputTexture;
+            for (int stage = 0; stage < 8; stage++) {
+                int next = pool.obtain(720, 1280, RGBA).getTextureId();
+                assertNotEquals(current, next);
+                pool.release(current);
+                current = next;
+            }
+            outputTexture = current;
+            assertEquals(1, pool.getInUseCount());
+        }
+        assertEquals(2, allocator.mCreateCount);
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(2, pool.getPeakCount());
+        assertEquals(2L * 720 * 1280 * 4, pool.getPeakBytes());
+    }
+
+    @Test
+    public void framebuffersAreKeyedBySizeAndFormat() {
+        FakeAllocator allocator = new FakeAllocator();
+        FrameBufferPool pool = new FrameBufferPool(allocator);
+        FrameBufferPool.FrameBuffer full = pool.obtain(100, 100, RGBA);
+        FrameBufferPool.FrameBuffer small = pool.obtain(50, 50, RGBA);
+        FrameBufferPool.FrameBuffer rgb = pool.obtain(100, 100, RGB);
+        pool.release(full.getTextureId());
+        pool.release(small.getTextureId());
+        pool.release(rgb.getTextureId());
+
+        assertEquals(small, pool.obtain(50, 50, RGBA));
+        assertEquals(rgb, pool.obtain(100, 100, RGB));
+        assertEquals(full, pool.obtain(100, 100, RGBA));
+        assertEquals(3, allocator.mCreateCount);
+        assertEquals(100 * 100 * 4 + 50 * 50 * 4 + 100 * 100 * 3, pool.getLiveBytes());
+    }
+
+    @Test
+    public void referenceCounting() {
+        FrameBufferPool pool = new FrameBufferPool(new FakeAllocator());
+        int texture = pool.obtain(10, 10).getTextureId();
+        int generation = pool.getGeneration(texture);
+        assertTrue(pool.retain(texture));
+        assertTrue(pool.release(texture));
+        // 仍然被引用，不能被借出
+        assertNotEquals(texture, pool.obtain(10, 10).getTextureId());
+        assertTrue(pool.release(texture));
+        assertFalse(pool.isInUse(texture));
+        // 重复归还和不属于缓冲池的纹理都被忽略
+        assertFalse(pool.release(texture));
+        assertFalse(pool.release(12345));
+        assertFalse(pool.retain(texture));
+        assertEquals(0, pool.getGeneration(texture));
+        assertEquals(texture, pool.obtain(10, 10).getTextureId());
+        // 再次借出之后内容会被重写，序号发生变化
+        assertNotEquals(generation, pool.getGeneration(texture));
+    }
+
+    @Test
+    public void trimAndRelease() {
+        FakeAllocator allocator = new FakeAllocator();
+        FrameBufferPool pool = new FrameBufferPool(allocator);
+        int used = pool.obtain(10, 10).getTextureId();
+        int free = pool.obtain(20, 20).getTextureId();
+        pool.release(free);
+
+        pool.trim();
+        assertEquals(1, allocator.mDeleteCount);
+        assertEquals(1, pool.getLiveCount());
+        assertTrue(pool.isInUse(used));
+        assertEquals(10 * 10 * 4, pool.getLiveBytes());
+
+        pool.release();
+        assertEquals(0, pool.getLiveCount());
+        assertEquals(0, pool.getLiveBytes());
+        assertTrue(allocator.mLiveTextures.isEmpty());
+        assertFalse(pool.release(used));
+    }
+}
@@ -0,0 +1,126 @@
+package com.cgfay.filter.glfilter.base;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 高斯核权重计算的单元测试，并检查模糊金字塔每帧的纹理采样次数
+ */
+public class GaussianKernelTest {
+
+    @Test
+    public void weightsAreNormalizedAndDecreasing() {
+        for (int radius = 0; radius <= GaussianKernel.MAX_RADIUS; radius++) {
+            GaussianKernel kernel = new GaussianKernel(radius);
+            double sum = kernel.getWeight(0);
+            for (int i = 1; i <= radius; i++) {
+                sum += 2 * kernel.getWeight(i);
+                assertTrue(kernel.getWeight(i) < kernel.getWeight(i - 1));
+            }
+            assertEquals(1.0, sum, 1e-5);
+
+            double sampleSum = kernel.getSampleWeight(0);
+            for (int i = 1; i < kernel.getSampleCount(); i++) {
+                sampleSum += 2 * kernel.getSampleWeight(i);
+            }
+            assertEquals(1.0, sampleSum, 1e-5);
+            assertEquals(0.0f, kernel.getSampleOffset(0), 0.0f);
+        }
+    }
+
+    @Test
+    public void linearSamplingReducesFetches() {
+        assertEquals(1, new GaussianKernel(0).getTexelFetches());
+        assertEquals(3, new GaussianKernel(1).getTexelFetches());
+        assertEquals(3, new GaussianKernel(2).getTexelFetches());
+        assertEquals(7, new GaussianKernel(5).getTexelFetches());
+        assertEquals(15, new GaussianKernel(GaussianKernel.MAX_RADIUS).getTexelFetches());
+        assertEquals(11, GaussianKernel.getDiscreteTexelFetches(5));
+
+        // 两个像素合并成一次采样，偏移落在两个像素之间，并偏向权重更大的一侧
+        GaussianKernel kernel = new GaussianKernel(4);
+        assertEquals(3, kernel.getSampleCount());
+        assertTrue(kernel.getSampleOffset(1) > 1.0f && kernel.getSampleOffset(1) < 1.5f);
+        assertTrue(kernel.getSampleOffset(2) > 3.0f && kernel.getSampleOffset(2) < 3.5f);
+    }
+
+    @Test
+    public void linearSamplingMatchesDiscreteConvolution() {
+        Random random = new Random(7);
+        float[] signal = new float[64];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = random.nextFloat();
+        }
+        for (int radius = 1; radius <= GaussianKernel.MAX_RADIUS; radius++) {
+            GaussianKernel kernel = new GaussianKernel(radius);
+            for (int center = radius + 1; center < signal.length - radius - 1; center++) {
+                // 逐像素采样
+                double expected = kernel.getWeight(0) * signal[center];
+                for (int i = 1; i <= radius; i++) {
+                    expected += kernel.getWeight(i) * (signal[center - i] + signal[center + i]);
+                }
+                // 模拟双线性过滤的线性采样
+                double actual = kernel.getSampleWeight(0) * signal[center];
+                for (int i = 1; i < kernel.getSampleCount(); i++) {
+                    float offset = kernel.getSampleOffset(i);
+                    actual += kernel.getSampleWeight(i)
+                            * (sampleLinear(signal, center - offset) + sampleLinear(signal, center + offset));
+                }
+                assertEquals("radius " + radius, expected, actual, 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsTooLargeRadius() {
+        try {
+            new GaussianKernel(GaussianKernel.MAX_RADIUS + 1);
+            fail("radius larger than MAX_RADIUS should be rejected");
+        } catch (IllegalArgumentException e) {
+            // 超过varying个数限制
+        }
+    }
+
+    /**
+     * 对比720p输入下美颜、景深和边框模糊每帧的纹理采样次数
+     */
+    @Test
+    public void pyramidFetchesPerFrame() {
+        int width = 720;
+        int height = 1280;
+        long half = (long) GLImageBlurPyramid.getLevelSize(width, 1) * GLImageBlurPyramid.getLevelSize(height, 1);
+        long quarter = (long) GLImageBlurPyramid.getLevelSize(width, 2) * GLImageBlurPyramid.getLevelSize(height, 2);
+
+        // 原来的实现：1/2大小上两个方向的均值模糊，美颜11次采样，其余5次采样
+        long before = 2 * 11 * half     // 美颜模糊
+                + 2 * 5 * half          // 高反差保留的模糊
+                + 2 * 5 * half          // 景深
+                + 2 * 5 * half;         // 边框模糊
+        // 模糊金字塔：缩小一次采样，线性采样的高斯模糊
+        long after = half + 2 * new GaussianKernel(5).getTexelFetches() * half
+                + 2 * new GaussianKernel(2).getTexelFetches() * half
+                + half + 2 * new GaussianKernel(2).getTexelFetches() * half
+                + half + quarter + 2 * new GaussianKernel(2).getTexelFetches() * quarter;
+        assertEquals(52 * half, before);
+        // 缩小3次、1/2大小上共29次采样，1/4大小上7次采样
+        assertEquals(29 * half + 7 * quarter, after);
+        assertEquals(11980800, before);
+        assertEquals(7084800, after);
+        // 采样次数减少40%以上
+        assertTrue(after * 10 < before * 6);
+    }
+
+    /**
+     * 一维的线性插值采样
+     */
+    private static double sampleLinear(float[] signal, float position) {
+        int index = (int) Math.floor(position);
+        float fraction = position - index;
+        return signal[index] * (1 - fraction) + signal[index + 1] * fraction;
+    }
+}
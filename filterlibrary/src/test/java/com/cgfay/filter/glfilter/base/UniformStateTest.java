@@ -0,0 +1,184 @@
+package com.cgfay.filter.glfilter.base;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * uniform状态的单元测试，包括稳定状态下每帧不分配内存的检查
+ */
+public class UniformStateTest {
+
+    // 模拟的帧数
+    private static final int FRAME_COUNT = 10000;
+
+    /**
+     * 记录上传结果的上传器
+     */
+    private static class RecordUploader implements UniformState.Uploader {
+
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void uniform1i(int location, int value) {
+            calls.add(location + ":i=" + value);
+        }
+
+        @Override
+        public void uniformfv(int location, int type, int count, float[] values, int offset) {
+            StringBuilder builder = new StringBuilder().append(location).append(":t").append(type)
+                    .append("x").append(count).append("=");
+            int length = count * UniformState.getComponentCount(type);
+            for (int i = 0; i < length; i++) {
+                builder.append(i > 0 ? "," : "").append(values[offset + i]);
+            }
+            calls.add(builder.toString());
+        }
+    }
+
+    /**
+     * 只统计上传次数的上传器，不分配内存
+     */
+    private static class CountUploader implements UniformState.Uploader {
+
+        int count;
+        float sum;
+
+        @Override
+        public void uniform1i(int location, int value) {
+            count++;
+            sum += value;
+        }
+
+        @Override
+        public void uniformfv(int location, int type, int count, float[] values, int offset) {
+            this.count++;
+            sum += values[offset];
+        }
+    }
+
+    @Test
+    public void uploadsLatestDirtyValues() {
+        UniformState state = new UniformState();
+        RecordUploader uploader = new RecordUploader();
+        state.setFloat(1, 0.5f);
+        state.setFloat(1, 0.75f);
+        state.setInt(2, 3);
+        state.setVec2(3, 0.25f, 0.5f);
+        state.setFloats(4, UniformState.TYPE_FLOAT, new float[] {1, 2, 3});
+        state.setFloats(5, UniformState.TYPE_MAT3, new float[9]);
+        // 句柄为-1时忽略
+        state.setFloat(-1, 1.0f);
+        state.flush(uploader);
+        assertEquals(5, uploader.calls.size());
+        assertEquals("1:t1x1=0.75", uploader.calls.get(0));
+        assertEquals("2:i=3", uploader.calls.get(1));
+        assertEquals("3:t2x1=0.25,0.5", uploader.calls.get(2));
+        assertEquals("4:t1x3=1.0,2.0,3.0", uploader.calls.get(3));
+        assertTrue(uploader.calls.get(4).startsWith("5:t5x1="));
+
+        // 没有修改时不再上传
+        uploader.calls.clear();
+        state.flush(uploader);
+        assertTrue(uploader.calls.isEmpty());
+
+        // 只上传修改过的uniform，数组变长之后重新分配位置
+        state.setFloats(4, UniformState.TYPE_FLOAT, new float[] {4, 5, 6, 7});
+        state.flush(uploader);
+        assertEquals(1, uploader.calls.size());
+        assertEquals("4:t1x4=4.0,5.0,6.0,7.0", uploader.calls.get(0));
+        assertEquals(5, state.size());
+
+        uploader.calls.clear();
+        state.invalidate();
+        state.flush(uploader);
+        assertEquals(5, uploader.calls.size());
+    }
+
+    @Test
+    public void resetsUniformsMissingFromNewOwner() {
+        UniformState previous = new UniformState();
+        previous.setFloat(1, 0.5f);
+        previous.setInt(2, 3);
+        previous.setFloats(3, UniformState.TYPE_VEC3, new float[] {1, 2, 3, 4, 5, 6});
+        UniformState current = new UniformState();
+        current.setFloat(1, 0.25f);
+
+        // 新使用者设置过的uniform由它自己上传，其余的恢复成0
+        RecordUploader uploader = new RecordUploader();
+        previous.resetMissing(current, uploader);
+        assertEquals(2, uploader.calls.size());
+        assertEquals("2:i=0", uploader.calls.get(0));
+        assertEquals("3:t3x2=0.0,0.0,0.0,0.0,0.0,0.0", uploader.calls.get(1));
+
+        uploader.calls.clear();
+        previous.resetMissing(previous, uploader);
+        assertTrue(uploader.calls.isEmpty());
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        UniformState state = new UniformState();
+        RecordUploader uploader = new RecordUploader();
+        for (int i = 0; i < 40; i++) {
+            state.setFloats(i, UniformState.TYPE_VEC4, new float[] {i, i, i, i});
+        }
+        state.flush(uploader);
+        assertEquals(40, uploader.calls.size());
+        assertEquals("39:t4x1=39.0,39.0,39.0,39.0", uploader.calls.get(39));
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        UniformState state = new UniformState();
+        CountUploader uploader = new CountUploader();
+        float[] matrix = new float[16];
+        float[] color = new float[3];
+        // 预热，完成uniform的添加和JIT编译
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            drawFrame(state, uploader, matrix, color, i);
+        }
+        // 测量接口本身的开销
+        long overhead = threadBean.getThreadAllocatedBytes(threadId);
+        overhead = threadBean.getThreadAllocatedBytes(threadId) - overhead;
+
+        uploader.count = 0;
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            drawFrame(state, uploader, matrix, color, i);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+        assertEquals(FRAME_COUNT * 5, uploader.count);
+        // 每帧分配一个对象至少需要16字节，总量小于帧数说明稳定状态下每帧没有分配，剩余的是测量本身的固定开销
+        assertTrue("allocated " + allocated + " bytes", allocated < FRAME_COUNT);
+    }
+
+    /**
+     * 模拟美颜和美型滤镜每帧设置uniform并绘制
+     */
+    private static void drawFrame(UniformState state, CountUploader uploader,
+                                  float[] matrix, float[] color, int frame) {
+        matrix[0] = frame;
+        color[0] = frame;
+        state.setFloat(1, frame * 0.01f);
+        state.setInt(2, frame & 1);
+        state.setVec2(3, frame, frame);
+        state.setFloats(4, UniformState.TYPE_MAT4, matrix);
+        state.setFloats(5, UniformState.TYPE_VEC3, color);
+        state.flush(uploader);
+    }
+}
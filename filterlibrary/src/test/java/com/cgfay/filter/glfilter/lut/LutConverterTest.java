@@ -0,0 +1,235 @@
+package com.cgfay.filter.glfilter.lut;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 查找表转换的单元测试，在CPU上模拟2D查找表shader和3D纹理的三线性采样，验证两者结果一致
+ */
+public class LutConverterTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void detectsTiledLookupTable() {
+        assertEquals(64, LutConverter.getCubeSize(512, 512));
+        assertEquals(16, LutConverter.getCubeSize(64, 64));
+        assertEquals(0, LutConverter.getCubeSize(512, 256));
+        assertEquals(0, LutConverter.getCubeSize(100, 100));
+        assertEquals(0, LutConverter.getCubeSize(0, 0));
+        try {
+            LutConverter.convert(new int[100 * 100], 100, 100);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 不是平铺查找表
+        }
+    }
+
+    @Test
+    public void convertedTexelsMatchTiles512() {
+        assertTexelsMatch(512, 8);
+    }
+
+    @Test
+    public void convertedTexelsMatchTiles64() {
+        assertTexelsMatch(64, 4);
+    }
+
+    @Test
+    public void trilinearSampleMatchesTiledShader512() {
+        assertSamplesMatch(512, 63.0, 8.0, 7.999);
+    }
+
+    @Test
+    public void trilinearSampleMatchesTiledShader64() {
+        assertSamplesMatch(64, 15.0, 4.0, 4.0);
+    }
+
+    @Test
+    public void storeRoundTrip() throws Exception {
+        File directory = File.createTempFile("lut", "");
+        assertTrue(directory.delete());
+        File source = File.createTempFile("lookup", ".png");
+        try {
+            int[] pixels = createRandomTable(64, 1);
+            byte[] cube = LutConverter.convert(pixels, 64, 64);
+            LutStore store = new LutStore(directory);
+            assertNull(store.load(source));
+            assertTrue(store.save(source, 16, cube));
+            assertFalse(store.save(source, 15, cube));
+
+            LutStore.Cube loaded = store.load(source);
+            assertNotNull(loaded);
+            assertEquals(16, loaded.getSize());
+            assertTrue(loaded.getData().isDirect());
+            byte[] bytes = new byte[loaded.getData().remaining()];
+            loaded.getData().get(bytes);
+            assertEquals(cube.length, bytes.length);
+            for (int i = 0; i < cube.length; i++) {
+                assertEquals(cube[i], bytes[i]);
+            }
+
+            // 源图片变化之后缓存失效
+            assertTrue(source.setLastModified(source.lastModified() + 2000));
+            assertNull(store.load(source));
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+            source.delete();
+        }
+    }
+
+    /**
+     * 每个格点的数值与平铺查找表中对应的像素完全一致
+     */
+    private static void assertTexelsMatch(int width, int tilesPerRow) {
+        int[] pixels = createRandomTable(width, width);
+        byte[] cube = LutConverter.convert(pixels, width, width);
+        int size = width / tilesPerRow;
+        assertEquals(size * size * size * 3, cube.length);
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    int x = (b % tilesPerRow) * size + r;
+                    int y = (b / tilesPerRow) * size + g;
+                    int pixel = pixels[y * width + x];
+                    int offset = ((b * size + g) * size + r) * 3;
+                    assertEquals((pixel >> 16) & 0xff, cube[offset] & 0xff);
+                    assertEquals((pixel >> 8) & 0xff, cube[offset + 1] & 0xff);
+                    assertEquals(pixel & 0xff, cube[offset + 2] & 0xff);
+                }
+            }
+        }
+    }
+
+    /**
+     * 任意颜色在2D查找表shader和3D纹理上的采样结果一致
+     */
+    private static void assertSamplesMatch(int width, double blueScale, double tiles, double quadDivisor) {
+        int[] pixels = createRandomTable(width, width + 1);
+        byte[] cube = LutConverter.convert(pixels, width, width);
+        int size = LutConverter.getCubeSize(width, width);
+        Random random = new Random(width);
+        double[] expected = new double[3];
+        double[] actual = new double[3];
+        for (int i = 0; i < 20000; i++) {
+            double r = random.nextDouble();
+            double g = random.nextDouble();
+            double b = random.nextDouble();
+            // 格点和边界上的颜色
+            if (i < 1000) {
+                r = random.nextInt(size) / (size - 1.0);
+                g = random.nextInt(size) / (size - 1.0);
+                b = (i % 3 == 0) ? 1.0 : random.nextInt(size) / (size - 1.0);
+            }
+            sampleTiled(pixels, width, blueScale, tiles, quadDivisor, r, g, b, expected);
+            sampleCube(cube, size, r, g, b, actual);
+            for (int c = 0; c < 3; c++) {
+                assertEquals(expected[c], actual[c], EPSILON);
+            }
+        }
+    }
+
+    /**
+     * 按照fragment_lookup_table_512/64.glsl计算，2D纹理为双线性过滤
+     */
+    private static void sampleTiled(int[] pixels, int width, double blueScale, double tiles,
+                                    double quadDivisor, double r, double g, double b, double[] out) {
+        double blueColor = b * blueScale;
+        double quad1y = Math.floor(blueColor / tiles);
+        double quad1x = Math.floor(blueColor) - quad1y * tiles;
+        double quad2y = Math.floor(Math.ceil(blueColor) / quadDivisor);
+        double quad2x = Math.ceil(blueColor) - quad2y * tiles;
+        double tile = 1.0 / tiles;
+        double[] color1 = new double[3];
+        double[] color2 = new double[3];
+        sampleBilinear(pixels, width,
+                quad1x * tile + 0.5 / width + (tile - 1.0 / width) * r,
+                quad1y * tile + 0.5 / width + (tile - 1.0 / width) * g, color1);
+        sampleBilinear(pixels, width,
+                quad2x * tile + 0.5 / width + (tile - 1.0 / width) * r,
+                quad2y * tile + 0.5 / width + (tile - 1.0 / width) * g, color2);
+        double fract = blueColor - Math.floor(blueColor);
+        for (int c = 0; c < 3; c++) {
+            out[c] = color1[c] + (color2[c] - color1[c]) * fract;
+        }
+    }
+
+    private static void sampleBilinear(int[] pixels, int width, double s, double t, double[] out) {
+        double u = s * width - 0.5;
+        double v = t * width - 0.5;
+        int x0 = clamp((int) Math.floor(u), width);
+        int y0 = clamp((int) Math.floor(v), width);
+        int x1 = clamp(x0 + 1, width);
+        int y1 = clamp(y0 + 1, width);
+        double fx = u - Math.floor(u);
+        double fy = v - Math.floor(v);
+        for (int c = 0; c < 3; c++) {
+            int shift = 16 - c * 8;
+            double c00 = (pixels[y0 * width + x0] >> shift) & 0xff;
+            double c10 = (pixels[y0 * width + x1] >> shift) & 0xff;
+            double c01 = (pixels[y1 * width + x0] >> shift) & 0xff;
+            double c11 = (pixels[y1 * width + x1] >> shift) & 0xff;
+            double top = c00 + (c10 - c00) * fx;
+            double bottom = c01 + (c11 - c01) * fx;
+            out[c] = top + (bottom - top) * fy;
+        }
+    }
+
+    /**
+     * 按照fragment_lookup_table_3d.glsl计算，3D纹理为三线性过滤
+     */
+    private static void sampleCube(byte[] cube, int size, double r, double g, double b, double[] out) {
+        double[] position = new double[3];
+        int[] lower = new int[3];
+        int[] upper = new int[3];
+        double[] fract = new double[3];
+        double[] color = { r, g, b };
+        for (int i = 0; i < 3; i++) {
+            position[i] = (color[i] * ((size - 1.0) / size) + 0.5 / size) * size - 0.5;
+            lower[i] = clamp((int) Math.floor(position[i]), size);
+            upper[i] = clamp(lower[i] + 1, size);
+            fract[i] = position[i] - Math.floor(position[i]);
+        }
+        for (int c = 0; c < 3; c++) {
+            double value = 0;
+            for (int corner = 0; corner < 8; corner++) {
+                int x = (corner & 1) != 0 ? upper[0] : lower[0];
+                int y = (corner & 2) != 0 ? upper[1] : lower[1];
+                int z = (corner & 4) != 0 ? upper[2] : lower[2];
+                double weight = ((corner & 1) != 0 ? fract[0] : 1 - fract[0])
+                        * ((corner & 2) != 0 ? fract[1] : 1 - fract[1])
+                        * ((corner & 4) != 0 ? fract[2] : 1 - fract[2]);
+                value += weight * (cube[((z * size + y) * size + x) * 3 + c] & 0xff);
+            }
+            out[c] = value;
+        }
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    private static int[] createRandomTable(int width, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * width];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,84 @@
+package com.cgfay.filter.glfilter.resource;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 二进制资源索引的单元测试
+ */
+public class ResourceBinaryIndexTest {
+
+    @Test
+    public void encodeAndFind() throws IOException {
+        // "Aa"和"BB"的哈希值相同，用于验证哈希冲突时的文件名比较
+        String[] names = {"sticker_002.png", "Aa_001.png", "BB_001.png", "lut.png", "sticker_000.png"};
+        int[] offsets = {16, 100, 200, 300, 400};
+        int[] lengths = {84, 100, 100, 100, 50};
+        ResourceBinaryIndex index = ResourceBinaryIndex.wrap(
+                ResourceBinaryIndex.encode(names, offsets, lengths));
+
+        assertEquals(names.length, index.size());
+        for (int i = 0; i < names.length; i++) {
+            int entry = index.find(names[i]);
+            assertEquals(names[i], index.getName(entry));
+            assertEquals(offsets[i], index.getOffset(entry));
+            assertEquals(lengths[i], index.getLength(entry));
+        }
+        assertEquals(-1, index.find("missing.png"));
+        assertEquals(-1, index.find("Ab_001.png"));
+    }
+
+    @Test
+    public void frameTable() throws IOException {
+        ResourceBinaryIndex index = ResourceBinaryIndex.wrap(ResourceBinaryIndex.encodeText(
+                "face_000.png:16:10;face_002.png:26:20;mask.png:46:5;"));
+
+        assertEquals(3, index.getFrameCount());
+        assertEquals(16, index.getOffset(index.findFrame(0)));
+        assertEquals(-1, index.findFrame(1));
+        assertEquals(20, index.getLength(index.findFrame(2)));
+        assertEquals(-1, index.findFrame(3));
+        assertEquals(-1, index.findFrame(-1));
+    }
+
+    @Test
+    public void convertTextIndex() throws IOException {
+        File textFile = File.createTempFile("index", ".idx");
+        File binaryFile = File.createTempFile("index", ".bin");
+        try {
+            FileOutputStream outputStream = new FileOutputStream(textFile);
+            try {
+                outputStream.write("a_001.png:16:7;b_000.png:23:9;".getBytes("UTF-8"));
+            } finally {
+                outputStream.close();
+            }
+            ResourceBinaryIndex.convert(textFile, binaryFile);
+
+            ResourceBinaryIndex index = ResourceBinaryIndex.open(binaryFile);
+            assertEquals(2, index.size());
+            assertEquals(23, index.getOffset(index.find("b_000.png")));
+            assertEquals(7, index.getLength(index.findFrame(1)));
+        } finally {
+            textFile.delete();
+            binaryFile.delete();
+        }
+    }
+
+    @Test
+    public void rejectTextAsBinary() throws IOException {
+        try {
+            ResourceBinaryIndex.wrap(ByteBuffer.wrap(
+                    "a_001.png:16:7;b_000.png:23:9;xxxxxxxxxxxxxxxx".getBytes("UTF-8")));
+            fail("text index should not be accepted as binary index");
+        } catch (IOException e) {
+            // 期望的结果
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.cgfay.filter.glfilter.resource;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 资源包解压的单元测试，使用测试中生成的小资源包
+ */
+public class ResourceExtractorTest {
+
+    // 生成的资源包数量
+    private static final int PACK_COUNT = 3;
+
+    @Test
+    public void extractMatchesZip() throws IOException {
+        File root = createTempDir("extract");
+        try {
+            List<ResourceExtractor.Pack> packs = createPacks(root);
+            for (int threadCount : new int[] {1, 4}) {
+                List<ResourceExtractor.PackResult> results =
+                        new ResourceExtractor(threadCount).extract(packs);
+                assertEquals(packs.size(), results.size());
+                for (ResourceExtractor.PackResult result : results) {
+                    assertNull(result.name, result.error);
+                    assertFalse(result.name, result.skipped);
+                    assertTrue(result.extractedBytes > 0);
+                }
+                for (ResourceExtractor.Pack pack : packs) {
+                    verifyPack(new File(pack.name), new File(pack.parentFolder));
+                }
+                // 强制下一轮重新解压
+                for (ResourceExtractor.Pack pack : packs) {
+                    new File(pack.parentFolder, "." + pack.unzipFolder + ".version").delete();
+                }
+            }
+        } finally {
+            deleteDir(root);
+        }
+    }
+
+    @Test
+    public void unchangedPackIsSkippedWithoutOpening() throws IOException {
+        File root = createTempDir("skip");
+        try {
+            File zip = createZip(new File(root, "pack.zip"), 1);
+            final AtomicInteger openCount = new AtomicInteger();
+            ResourceExtractor.Pack pack = new ResourceExtractor.Pack(zip.getAbsolutePath(), () -> {
+                openCount.incrementAndGet();
+                return new FileInputStream(zip);
+            }, "1-1000", "pack", root.getAbsolutePath());
+            ResourceExtractor extractor = new ResourceExtractor(1);
+
+            assertFalse(extractor.extractPack(pack).skipped);
+            assertEquals(1, openCount.get());
+            ResourceExtractor.PackResult result = extractor.extractPack(pack);
+            assertNull(result.error);
+            assertTrue(result.skipped);
+            assertEquals(1, openCount.get());
+
+            // 版本变化时重新解压
+            ResourceExtractor.Pack updated = new ResourceExtractor.Pack(pack.name, pack.source,
+                    "2-2000", pack.unzipFolder, pack.parentFolder);
+            assertFalse(extractor.extractPack(updated).skipped);
+            assertEquals(2, openCount.get());
+            assertTrue(extractor.extractPack(updated).skipped);
+
+            // 关闭跳过时重新解压
+            extractor.setSkipUnchanged(false);
+            assertFalse(extractor.extractPack(updated).skipped);
+            assertEquals(3, openCount.get());
+        } finally {
+            deleteDir(root);
+        }
+    }
+
+    @Test
+    public void modifiedFilePackIsExtractedAgain() throws IOException {
+        File root = createTempDir("modified");
+        try {
+            File zip = createZip(new File(root, "pack.zip"), 1);
+            ResourceExtractor extractor = new ResourceExtractor(1);
+            ResourceExtractor.Pack pack = ResourceExtractor.Pack.fromFile(zip.getAbsolutePath(),
+                    "pack", root.getAbsolutePath());
+            assertFalse(extractor.extractPack(pack).skipped);
+            assertEquals(pack.version, ResourceExtractor.Pack.fromFile(zip.getAbsolutePath(), "pack",
+                    root.getAbsolutePath()).version);
+            assertTrue(extractor.extractPack(pack).skipped);
+
+            createZip(zip, 2);
+            assertTrue(zip.setLastModified(zip.lastModified() + 2000));
+            ResourceExtractor.Pack modified = ResourceExtractor.Pack.fromFile(zip.getAbsolutePath(),
+                    "pack", root.getAbsolutePath());
+            assertFalse(modified.version.equals(pack.version));
+            assertFalse(extractor.extractPack(modified).skipped);
+            verifyPack(zip, root);
+        } finally {
+            deleteDir(root);
+        }
+    }
+
+    @Test
+    public void invalidatedPackIsExtractedAgain() throws IOException {
+        File root = createTempDir("invalidate");
+        try {
+            File zip = createZip(new File(root, "pack.zip"), 1);
+            ResourceExtractor extractor = new ResourceExtractor(1);
+            ResourceExtractor.Pack pack = ResourceExtractor.Pack.fromFile(zip.getAbsolutePath(),
+                    "pack", root.getAbsolutePath());
+            assertFalse(extractor.extractPack(pack).skipped);
+            assertTrue(extractor.extractPack(pack).skipped);
+
+            // 资源文件夹中的索引损坏时，从资源文件夹找到版本标识并清除
+            File indexFile = new File(root, "pack/" + ResourceBinaryIndex.INDEX_FILE);
+            assertTrue(indexFile.delete());
+            assertTrue(ResourceExtractor.invalidate(new File(root, "pack")));
+            assertFalse(ResourceExtractor.invalidate(new File(root, "pack")));
+            assertFalse(extractor.extractPack(pack).skipped);
+            assertTrue(indexFile.isFile());
+            verifyPack(zip, root);
+        } finally {
+            deleteDir(root);
+        }
+    }
+
+    @Test
+    public void missingPackReportsError() throws IOException {
+        File root = createTempDir("missing");
+        try {
+            ResourceExtractor.Pack pack = ResourceExtractor.Pack.fromFile(
+                    new File(root, "missing.zip").getAbsolutePath(), "missing", root.getAbsolutePath());
+            ResourceExtractor.PackResult result = new ResourceExtractor(1).extractPack(pack);
+            assertTrue(result.error instanceof IOException);
+            assertFalse(new File(root, ".missing.version").exists());
+        } finally {
+            deleteDir(root);
+        }
+    }
+
+    /**
+     * 在root下生成资源包，每个资源包解压到各自的目录
+     */
+    private static List<ResourceExtractor.Pack> createPacks(File root) throws IOException {
+        List<ResourceExtractor.Pack> packs = new ArrayList<>();
+        for (int i = 0; i < PACK_COUNT; i++) {
+            File parent = new File(root, "out" + i);
+            parent.mkdirs();
+            File zip = createZip(new File(root, "pack" + i + ".zip"), i);
+            packs.add(ResourceExtractor.Pack.fromFile(zip.getAbsolutePath(), "pack", parent.getAbsolutePath()));
+        }
+        return packs;
+    }
+
+    /**
+     * 生成资源包，包含png帧、json配置以及需要跳过的隐藏文件
+     */
+    private static File createZip(File file, long seed) throws IOException {
+        Random random = new Random(seed);
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            outputStream.putNextEntry(new ZipEntry("pack/"));
+            outputStream.closeEntry();
+            for (int i = 0; i < 8; i++) {
+                byte[] data = new byte[1000 + random.nextInt(4000)];
+                random.nextBytes(data);
+                outputStream.putNextEntry(new ZipEntry("pack/frame_" + i + ".png"));
+                outputStream.write(data);
+                outputStream.closeEntry();
+            }
+            outputStream.putNextEntry(new ZipEntry("pack/json"));
+            outputStream.write(("{\"seed\":" + seed + "}").getBytes("UTF-8"));
+            outputStream.closeEntry();
+            outputStream.putNextEntry(new ZipEntry("pack/.DS_Store"));
+            outputStream.write(new byte[16]);
+            outputStream.closeEntry();
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * 校验解压后的索引和数据与压缩包中的png文件一致
+     */
+    private static void verifyPack(File zip, File root) throws IOException {
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || name.contains("__MACOSX") || name.endsWith(".DS_Store")) {
+                    continue;
+                }
+                int index = name.lastIndexOf('/');
+                String fileName = name.substring(index + 1);
+                if (fileName.startsWith(".")) {
+                    continue;
+                }
+                byte[] expected = readAll(zipFile.getInputStream(entry));
+                if (!name.endsWith(".png")) {
+                    assertTrue(Arrays.equals(expected, readFile(new File(root, name))));
+                    continue;
+                }
+                File folder = new File(root, name.substring(0, index));
+                ResourceBinaryIndex binaryIndex = ResourceBinaryIndex.open(
+                        new File(folder, ResourceBinaryIndex.INDEX_FILE));
+                int position = binaryIndex.find(fileName);
+                assertTrue(name, position >= 0);
+                assertEquals(name, expected.length, binaryIndex.getLength(position));
+                byte[] actual = new byte[expected.length];
+                RandomAccessFile data = new RandomAccessFile(new File(folder, "resource.res"), "r");
+                try {
+                    data.seek(binaryIndex.getOffset(position));
+                    data.readFully(actual);
+                } finally {
+                    data.close();
+                }
+                assertTrue(name, Arrays.equals(expected, actual));
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static File createTempDir(String name) throws IOException {
+        File file = File.createTempFile("extractor_" + name, "");
+        file.delete();
+        file.mkdirs();
+        return file;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        return readAll(new FileInputStream(file));
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.cgfay.filter.glfilter.stickers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 贴纸图集排布规划的单元测试
+ */
+public class StickerAtlasPlannerTest {
+
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+
+    @Test
+    public void framesDoNotOverlap() {
+        StickerAtlasPlanner.Plan plan = StickerAtlasPlanner.plan(120, 90, 17, 2048, 2, MAX_BYTES);
+        assertNotNull(plan);
+        assertEquals(1, plan.getPageCount());
+        assertTrue(plan.getColumns() * plan.getRows() >= 17);
+
+        for (int i = 0; i < 17; i++) {
+            int x = plan.getFrameX(i);
+            int y = plan.getFrameY(i);
+            assertTrue(x + plan.getFrameWidth() <= plan.getPageWidth());
+            assertTrue(y + plan.getFrameHeight() <= plan.getPageHeight());
+            for (int j = 0; j < i; j++) {
+                boolean separated = x >= plan.getFrameX(j) + plan.getFrameWidth() + 2
+                        || plan.getFrameX(j) >= x + plan.getFrameWidth() + 2
+                        || y >= plan.getFrameY(j) + plan.getFrameHeight() + 2
+                        || plan.getFrameY(j) >= y + plan.getFrameHeight() + 2;
+                assertTrue("frame " + i + " overlaps frame " + j, separated);
+            }
+        }
+    }
+
+    @Test
+    public void prefersSmallSquarePages() {
+        StickerAtlasPlanner.Plan plan = StickerAtlasPlanner.plan(100, 100, 16, 4096, 0, MAX_BYTES);
+        assertNotNull(plan);
+        assertEquals(4, plan.getColumns());
+        assertEquals(4, plan.getRows());
+        assertEquals(400, plan.getPageWidth());
+        assertEquals(400, plan.getPageHeight());
+    }
+
+    @Test
+    public void splitsIntoPagesWhenTextureIsTooSmall() {
+        StickerAtlasPlanner.Plan plan = StickerAtlasPlanner.plan(300, 300, 10, 1024, 2, MAX_BYTES);
+        assertNotNull(plan);
+        // 单页最多3 x 3帧
+        assertEquals(2, plan.getPageCount());
+        assertTrue(plan.getPageWidth() <= 1024);
+        assertTrue(plan.getPageHeight() <= 1024);
+        assertEquals(0, plan.getPage(8));
+        assertEquals(1, plan.getPage(9));
+        assertEquals(0, plan.getFrameX(9));
+        assertEquals(0, plan.getFrameY(9));
+    }
+
+    @Test
+    public void rejectsOversizedStickers() {
+        assertNull(StickerAtlasPlanner.plan(3000, 100, 4, 2048, 2, MAX_BYTES));
+        assertNull(StickerAtlasPlanner.plan(512, 512, 100, 4096, 2, MAX_BYTES));
+        assertNull(StickerAtlasPlanner.plan(0, 100, 4, 2048, 2, MAX_BYTES));
+    }
+
+    @Test
+    public void mapsTextureCoordinatesIntoFrame() {
+        StickerAtlasPlanner.Plan plan = StickerAtlasPlanner.plan(100, 50, 4, 2048, 0, MAX_BYTES);
+        assertNotNull(plan);
+        float[] source = {0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f};
+        float[] output = new float[8];
+        float[] rect = new float[4];
+        int frame = 3;
+        plan.mapTextureCoordinates(frame, source, rect, output);
+
+        float left = (plan.getFrameX(frame) + 0.5f) / plan.getPageWidth();
+        float top = (plan.getFrameY(frame) + 0.5f) / plan.getPageHeight();
+        float right = (plan.getFrameX(frame) + 100 - 0.5f) / plan.getPageWidth();
+        float bottom = (plan.getFrameY(frame) + 50 - 0.5f) / plan.getPageHeight();
+        assertEquals(left, output[0], 1e-6f);
+        assertEquals(top, output[1], 1e-6f);
+        assertEquals(right, output[6], 1e-6f);
+        assertEquals(bottom, output[7], 1e-6f);
+        assertFalse(output[6] > 1.0f || output[7] > 1.0f);
+    }
+}
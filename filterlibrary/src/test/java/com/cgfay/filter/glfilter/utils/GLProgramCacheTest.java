@@ -0,0 +1,210 @@
+package com.cgfay.filter.glfilter.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * program缓存和program二进制磁盘缓存的单元测试，使用不依赖OpenGL环境的编译器
+ */
+public class GLProgramCacheTest {
+
+    /**
+     * 只记录句柄的编译器
+     */
+    private static class FakeCompiler implements GLProgramCache.Compiler {
+
+        private int mNextHandle = 1;
+        final Set<Integer> mLivePrograms = new HashSet<>();
+        int mCreateCount;
+
+        @Override
+        public int createProgram(String vertexShader, String fragmentShader, String key) {
+            mCreateCount++;
+            if (fragmentShader.contains("error")) {
+                return 0;
+            }
+            mLivePrograms.add(mNextHandle);
+            return mNextHandle++;
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+            assertTrue(mLivePrograms.remove(program));
+        }
+    }
+
+    @Test
+    public void sameShaderSharesProgram() {
+        FakeCompiler compiler = new FakeCompiler();
+        GLProgramCache cache = new GLProgramCache(compiler);
+        GLProgramCache.Program first = cache.acquire("vs", "fs");
+        GLProgramCache.Program second = cache.acquire("vs", "fs");
+        GLProgramCache.Program other = cache.acquire("vs", "fs2");
+        assertSame(first, second);
+        assertNotEquals(first.getHandle(), other.getHandle());
+        assertEquals(2, compiler.mCreateCount);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // 拼接后相同的源码不能得到同一个program
+        assertNotEquals(GLProgramCache.createKey("ab", "c"), GLProgramCache.createKey("a", "bc"));
+    }
+
+    @Test
+    public void releasedProgramIsReusedFromIdleList() {
+        FakeCompiler compiler = new FakeCompiler();
+        GLProgramCache cache = new GLProgramCache(compiler);
+        GLProgramCache.Program first = cache.acquire("vs", "fs");
+        GLProgramCache.Program second = cache.acquire("vs", "fs");
+        cache.release(first);
+        assertEquals(0, cache.getIdleCount());
+        cache.release(second);
+        assertEquals(1, cache.getIdleCount());
+        // 重复释放不会影响引用计数
+        cache.release(second);
+        assertEquals(0, first.getRefCount());
+
+        // 切换回同一个滤镜时直接命中
+        GLProgramCache.Program again = cache.acquire("vs", "fs");
+        assertSame(first, again);
+        assertEquals(0, cache.getIdleCount());
+        assertEquals(1, compiler.mCreateCount);
+        assertTrue(compiler.mLivePrograms.contains(again.getHandle()));
+    }
+
+    @Test
+    public void idleListEvictsOldestPrograms() {
+        FakeCompiler compiler = new FakeCompiler();
+        GLProgramCache cache = new GLProgramCache(compiler);
+        GLProgramCache.Program[] programs = new GLProgramCache.Program[20];
+        for (int i = 0; i < programs.length; i++) {
+            programs[i] = cache.acquire("vs", "fs" + i);
+        }
+        for (GLProgramCache.Program program : programs) {
+            cache.release(program);
+        }
+        assertEquals(16, cache.getIdleCount());
+        assertEquals(16, cache.size());
+        assertEquals(16, compiler.mLivePrograms.size());
+        // 最早释放的program被删除，再次使用时重新编译
+        assertFalse(compiler.mLivePrograms.contains(programs[0].getHandle()));
+        assertTrue(compiler.mLivePrograms.contains(programs[19].getHandle()));
+        assertNotEquals(programs[0].getHandle(), cache.acquire("vs", "fs0").getHandle());
+
+        cache.trim();
+        assertEquals(0, cache.getIdleCount());
+        assertEquals(1, compiler.mLivePrograms.size());
+    }
+
+    @Test
+    public void failedProgramIsNotCached() {
+        FakeCompiler compiler = new FakeCompiler();
+        GLProgramCache cache = new GLProgramCache(compiler);
+        assertNull(cache.acquire("vs", "error"));
+        assertNull(cache.acquire("vs", "error"));
+        assertEquals(2, compiler.mCreateCount);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void ownerChangeIsReported() {
+        GLProgramCache cache = new GLProgramCache(new FakeCompiler());
+        GLProgramCache.Program program = cache.acquire("vs", "fs");
+        Object first = new Object();
+        Object second = new Object();
+        assertTrue(program.setOwner(first));
+        assertFalse(program.setOwner(first));
+        assertTrue(program.setOwner(second));
+        assertTrue(program.setOwner(first));
+    }
+
+    @Test
+    public void binaryStoreRoundTrip() throws Exception {
+        File directory = createTempDirectory();
+        try {
+            ProgramBinaryStore store = new ProgramBinaryStore(directory, "Adreno 630/OpenGL ES 3.2 V@1");
+            byte[] bytes = new byte[1000];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (i * 31);
+            }
+            assertNull(store.load("key"));
+            assertTrue(store.save("key", 0x8741, ByteBuffer.wrap(bytes)));
+
+            ProgramBinaryStore.Binary binary = store.load("key");
+            assertNotNull(binary);
+            assertEquals(0x8741, binary.getFormat());
+            assertEquals(bytes.length, binary.getLength());
+            assertTrue(binary.getData().isDirect());
+            byte[] loaded = new byte[binary.getLength()];
+            binary.getData().get(loaded);
+            for (int i = 0; i < bytes.length; i++) {
+                assertEquals(bytes[i], loaded[i]);
+            }
+
+            // 驱动升级之后旧驱动的目录被删除
+            ProgramBinaryStore upgraded = new ProgramBinaryStore(directory, "Adreno 630/OpenGL ES 3.2 V@2");
+            assertNull(upgraded.load("key"));
+            assertNull(store.load("key"));
+            assertTrue(upgraded.save("key", 0x8741, ByteBuffer.wrap(bytes)));
+            File[] drivers = directory.listFiles();
+            assertNotNull(drivers);
+            assertEquals(1, drivers.length);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void binaryStoreTrimsLeastRecentlyUsed() throws Exception {
+        File directory = createTempDirectory();
+        try {
+            byte[] bytes = new byte[1000];
+            // 每个文件加上文件头略大于1000字节，上限只能放下两个
+            ProgramBinaryStore store = new ProgramBinaryStore(directory, "Mali-G76", 2500);
+            assertTrue(store.save("a", 1, ByteBuffer.wrap(bytes)));
+            assertTrue(store.save("b", 1, ByteBuffer.wrap(bytes)));
+            File[] files = new File(directory, directory.list()[0]).listFiles();
+            assertNotNull(files);
+            // 文件时间的精度可能只有秒，直接设置修改时间，b比a更久没有使用
+            for (File file : files) {
+                file.setLastModified(file.getName().startsWith("a") ? 2000000000000L : 1000000000000L);
+            }
+            assertTrue(store.save("c", 1, ByteBuffer.wrap(bytes)));
+
+            assertNotNull(store.load("a"));
+            assertNull(store.load("b"));
+            assertNotNull(store.load("c"));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static File createTempDirectory() throws Exception {
+        File file = File.createTempFile("program_binary", "");
+        assertTrue(file.delete());
+        assertTrue(file.mkdirs());
+        return file;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
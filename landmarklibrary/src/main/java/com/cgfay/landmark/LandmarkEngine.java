@@ -35,6 +35,31 @@ public final class LandmarkEngine {
     private float mOrientation;
     private boolean mNeedFlip;
 
+    // 关键点直接显示检测结果
+    public static final int SMOOTH_NONE = 0;
+    // 渲染时按照匀速运动推算两次检测之间的位置，并且滤波去抖
+    public static final int SMOOTH_TRACK = 1;
+
+    // 关键点平滑方式，开启之后检测结果不直接显示，由updateLandmarks更新显示的位置
+    private int mSmoothMode = SMOOTH_NONE;
+    // 每个人脸的跟踪器
+    private final SparseArray<FaceMotion> mFaceMotions = new SparseArray<>();
+
+    /**
+     * 一个人脸的关键点和姿态角跟踪器
+     */
+    private static final class FaceMotion {
+        final LandmarkTracker trackPoints = new LandmarkTracker();
+        final LandmarkTracker trackAngles = new LandmarkTracker();
+        final float[] currentAngles = new float[3];
+        final float[] targetAngles = new float[3];
+
+        void reset() {
+            trackPoints.reset();
+            trackAngles.reset();
+        }
+    }
+
     /**
      * Set the rotation angle
      * @param orientation
@@ -61,6 +86,12 @@ public final class LandmarkEngine {
             if (mFaceArrays.size() > size) {
                 mFaceArrays.removeAtRange(size, mFaceArrays.size() - size);
             }
+            // 消失的人脸重新出现时直接显示
+            for (int i = mFaceMotions.size() - 1; i >= 0; i--) {
+                if (mFaceMotions.keyAt(i) >= size) {
+                    mFaceMotions.valueAt(i).reset();
+                }
+            }
         }
     }
 
@@ -96,9 +127,102 @@ public final class LandmarkEngine {
      * @param index
      */
     public void putOneFace(int index, OneFace oneFace) {
+        putOneFace(index, oneFace, System.nanoTime());
+    }
+
+    /**
+     * 插入一个人脸的检测结果
+     * @param index
+     * @param oneFace
+     * @param timestamp 预览帧的采集时间(ns)，与System.nanoTime()一致，跟踪时从这个时刻推算到渲染时刻
+     */
+    public void putOneFace(int index, OneFace oneFace, long timestamp) {
+        synchronized (mSyncFence) {
+            if (mSmoothMode == SMOOTH_NONE || oneFace.vertexPoints == null) {
+                mFaceArrays.put(index, oneFace);
+                return;
+            }
+            // 显示的对象由引擎持有，检测结果只作为跟踪的输入
+            OneFace face = mFaceArrays.get(index);
+            if (face == null || face == oneFace) {
+                face = oneFace.clone();
+                mFaceArrays.put(index, face);
+            }
+            FaceMotion motion = mFaceMotions.get(index);
+            if (motion == null) {
+                motion = new FaceMotion();
+                mFaceMotions.put(index, motion);
+            }
+            motion.targetAngles[0] = oneFace.pitch;
+            motion.targetAngles[1] = oneFace.yaw;
+            motion.targetAngles[2] = oneFace.roll;
+            motion.trackPoints.update(oneFace.vertexPoints, timestamp);
+            motion.trackAngles.update(motion.targetAngles, timestamp);
+            if (face.vertexPoints == null || face.vertexPoints.length != oneFace.vertexPoints.length) {
+                face.vertexPoints = oneFace.vertexPoints.clone();
+            }
+        }
+    }
+
+    /**
+     * 设置关键点平滑方式
+     * @param mode {@link #SMOOTH_NONE}或者{@link #SMOOTH_TRACK}
+     */
+    public void setSmoothMode(int mode) {
+        synchronized (mSyncFence) {
+            if (mSmoothMode != mode) {
+                mSmoothMode = mode;
+                mFaceMotions.clear();
+            }
+        }
+    }
+
+    /**
+     * 跟踪时最近一次检测结果与推算位置的最大偏差，偏差大时需要马上重新检测
+     * @return 顶点坐标的平均偏差，没有跟踪时为0
+     */
+    public float getTrackingError() {
+        float error = 0;
         synchronized (mSyncFence) {
-            mFaceArrays.put(index, oneFace);
+            if (mSmoothMode != SMOOTH_TRACK) {
+                return 0;
+            }
+            for (int i = 0; i < mFaceArrays.size(); i++) {
+                FaceMotion motion = mFaceMotions.get(mFaceArrays.keyAt(i));
+                if (motion != null) {
+                    error = Math.max(error, motion.trackPoints.getError());
+                }
+            }
+        }
+        return error;
+    }
+
+    /**
+     * 渲染之前更新关键点，推算到当前时刻
+     * @param time 渲染时间(ns)，与System.nanoTime()一致
+     * @return 关键点还会继续变化时返回true
+     */
+    public boolean updateLandmarks(long time) {
+        boolean animating = false;
+        synchronized (mSyncFence) {
+            if (mSmoothMode == SMOOTH_NONE) {
+                return false;
+            }
+            for (int i = 0; i < mFaceArrays.size(); i++) {
+                FaceMotion motion = mFaceMotions.get(mFaceArrays.keyAt(i));
+                OneFace face = mFaceArrays.valueAt(i);
+                if (motion == null || face == null) {
+                    continue;
+                }
+                // 跟踪时每一帧都在推算和滤波
+                animating |= motion.trackPoints.predict(time, face.vertexPoints);
+                motion.trackAngles.predict(time, motion.currentAngles);
+                face.pitch = motion.currentAngles[0];
+                face.yaw = motion.currentAngles[1];
+                face.roll = motion.currentAngles[2];
+            }
         }
+        return animating;
     }
 
     /**
@@ -123,6 +247,7 @@ public final class LandmarkEngine {
     public void clearAll() {
         synchronized (mSyncFence) {
             mFaceArrays.clear();
+            mFaceMotions.clear();
         }
     }
 
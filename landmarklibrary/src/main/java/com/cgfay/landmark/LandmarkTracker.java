@@ -0,0 +1,132 @@
+package com.cgfay.landmark;
+
+import java.util.Arrays;
+
+/**
+ * 关键点跟踪器
+ * 两次检测之间用匀速运动模型推算关键点的位置：速度由相邻两次检测结果估算，检测结果的时间是预览帧的采集时间，
+ * 渲染时推算到当前时刻，同时补偿了检测耗时带来的延迟。推算结果再经过每个坐标一个的One Euro滤波器，
+ * 静止时压住检测抖动，运动时保持跟手。
+ * 每次检测结果到达时记录推算位置与检测结果的平均偏差，偏差大说明运动模型不可信，需要尽快重新检测。
+ * 不依赖Android，可以在JVM中测试。
+ * @author CainHuang
+ * @date 2019/9/10
+ */
+public class LandmarkTracker {
+
+    // 默认滤波参数，坐标为[-1, 1]的顶点坐标，速度单位为每秒
+    public static final float DEFAULT_MIN_CUTOFF = 1.0f;
+    public static final float DEFAULT_BETA = 8.0f;
+    public static final float DEFAULT_DERIVATE_CUTOFF = 1.0f;
+    // 最长推算时长(ns)，检测中断之后停在最后的位置，不会一直漂移
+    public static final long MAX_PREDICTION = 100000000L;
+    // 速度的平滑系数
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    // 滤波参数
+    private final float mMinCutoff;
+    private final float mBeta;
+    private final float mDerivateCutoff;
+
+    // 最近一次检测结果及其采集时间(ns)
+    private float[] mMeasured;
+    private long mMeasureTime;
+    // 每个坐标的速度(每秒)
+    private float[] mVelocity;
+    // 每个坐标的滤波器
+    private OneEuroFilter[] mFilters;
+    // 检测结果个数
+    private int mMeasureCount;
+    // 最近一次检测结果与推算位置的平均偏差
+    private float mError;
+
+    public LandmarkTracker() {
+        this(DEFAULT_MIN_CUTOFF, DEFAULT_BETA, DEFAULT_DERIVATE_CUTOFF);
+    }
+
+    public LandmarkTracker(float minCutoff, float beta, float derivateCutoff) {
+        mMinCutoff = minCutoff;
+        mBeta = beta;
+        mDerivateCutoff = derivateCutoff;
+    }
+
+    /**
+     * 输入新的检测结果
+     * @param points    检测结果，依次为x、y
+     * @param time      预览帧的采集时间(ns)
+     * @return 推算位置与检测结果的平均偏差，第一次检测或者长度不一致时为0
+     */
+    public float update(float[] points, long time) {
+        if (mMeasured == null || mMeasured.length != points.length) {
+            mMeasured = new float[points.length];
+            mVelocity = new float[points.length];
+            mFilters = new OneEuroFilter[points.length];
+            for (int i = 0; i < points.length; i++) {
+                mFilters[i] = new OneEuroFilter(mMinCutoff, mBeta, mDerivateCutoff);
+            }
+            mMeasureCount = 0;
+        }
+        long interval = time - mMeasureTime;
+        if (mMeasureCount == 0 || interval <= 0 || interval > MAX_PREDICTION * 2) {
+            // 第一次检测或者中断太久，从检测结果重新开始
+            System.arraycopy(points, 0, mMeasured, 0, points.length);
+            Arrays.fill(mVelocity, 0);
+            for (OneEuroFilter filter : mFilters) {
+                filter.reset();
+            }
+            mError = 0;
+        } else {
+            float dt = interval / 1e9f;
+            float horizon = Math.min(interval, MAX_PREDICTION) / 1e9f;
+            float error = 0;
+            for (int i = 0; i + 1 < points.length; i += 2) {
+                float dx = mMeasured[i] + mVelocity[i] * horizon - points[i];
+                float dy = mMeasured[i + 1] + mVelocity[i + 1] * horizon - points[i + 1];
+                error += (float) Math.sqrt(dx * dx + dy * dy);
+            }
+            mError = points.length > 1 ? error / (points.length / 2) : 0;
+            for (int i = 0; i < points.length; i++) {
+                float velocity = (points[i] - mMeasured[i]) / dt;
+                // 第二次检测时还没有速度，直接使用
+                mVelocity[i] = mMeasureCount == 1 ? velocity
+                        : mVelocity[i] + (velocity - mVelocity[i]) * VELOCITY_SMOOTHING;
+                mMeasured[i] = points[i];
+            }
+        }
+        mMeasureTime = time;
+        mMeasureCount++;
+        return mError;
+    }
+
+    /**
+     * 推算某一时刻的位置并滤波
+     * @param time  渲染时间(ns)，需要单调递增
+     * @param out   输出数组，长度需要与检测结果一致
+     * @return 没有检测结果或者长度不一致时返回false
+     */
+    public boolean predict(long time, float[] out) {
+        if (mMeasureCount == 0 || out == null || out.length != mMeasured.length) {
+            return false;
+        }
+        float horizon = Math.max(0, Math.min(time - mMeasureTime, MAX_PREDICTION)) / 1e9f;
+        for (int i = 0; i < out.length; i++) {
+            out[i] = mFilters[i].filter(mMeasured[i] + mVelocity[i] * horizon, time);
+        }
+        return true;
+    }
+
+    /**
+     * 最近一次检测结果与推算位置的平均偏差
+     */
+    public float getError() {
+        return mError;
+    }
+
+    /**
+     * 重置，下一次检测结果直接显示
+     */
+    public void reset() {
+        mMeasureCount = 0;
+        mError = 0;
+    }
+}
@@ -0,0 +1,70 @@
+package com.cgfay.landmark;
+
+/**
+ * One Euro滤波器
+ * 低通滤波的截止频率随信号变化速度调整：静止时截止频率低，抖动被压下去；运动快时截止频率高，延迟小。
+ * 参考 Casiez et al. "1€ Filter: A Simple Speed-based Low-pass Filter for Noisy Input in Interactive Systems"
+ * 不依赖Android，可以在JVM中测试。
+ * @author CainHuang
+ * @date 2019/9/10
+ */
+public class OneEuroFilter {
+
+    // 最小截止频率(Hz)，越小静止时越稳定
+    private final float mMinCutoff;
+    // 速度系数，越大运动时延迟越小
+    private final float mBeta;
+    // 速度的截止频率(Hz)
+    private final float mDerivateCutoff;
+
+    // 上一次的滤波结果和速度
+    private float mValue;
+    private float mDerivate;
+    // 上一次的时间(ns)
+    private long mLastTime;
+    private boolean mInitialized;
+
+    public OneEuroFilter(float minCutoff, float beta, float derivateCutoff) {
+        mMinCutoff = minCutoff;
+        mBeta = beta;
+        mDerivateCutoff = derivateCutoff;
+    }
+
+    /**
+     * 滤波
+     * @param value 输入值
+     * @param time  时间(ns)
+     * @return 滤波结果
+     */
+    public float filter(float value, long time) {
+        if (!mInitialized) {
+            mInitialized = true;
+            mValue = value;
+            mDerivate = 0;
+            mLastTime = time;
+            return value;
+        }
+        float dt = (time - mLastTime) / 1e9f;
+        if (dt <= 0) {
+            return mValue;
+        }
+        mLastTime = time;
+        float derivate = (value - mValue) / dt;
+        mDerivate += alpha(mDerivateCutoff, dt) * (derivate - mDerivate);
+        float cutoff = mMinCutoff + mBeta * Math.abs(mDerivate);
+        mValue += alpha(cutoff, dt) * (value - mValue);
+        return mValue;
+    }
+
+    private static float alpha(float cutoff, float dt) {
+        float tau = 1.0f / (2 * (float) Math.PI * cutoff);
+        return 1.0f / (1.0f + tau / dt);
+    }
+
+    /**
+     * 重置，下一次输入直接输出
+     */
+    public void reset() {
+        mInitialized = false;
+    }
+}
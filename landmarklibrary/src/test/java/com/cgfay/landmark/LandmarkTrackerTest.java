@@ -0,0 +1,252 @@
+package com.cgfay.landmark;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 关键点跟踪器的单元测试
+ * 用合成的关键点序列模拟检测：预览30帧每秒，每隔几帧检测一次，检测结果带噪声并且晚到一段时间，
+ * 渲染60帧每秒，比较直接显示最近一次检测结果和跟踪器输出的抖动和误差。
+ */
+public class LandmarkTrackerTest {
+
+    private static final long MS = 1000000L;
+    private static final float EPSILON = 1e-4f;
+
+    // 预览帧间隔、渲染间隔和检测延迟
+    private static final long FRAME_INTERVAL = 33 * MS;
+    private static final long RENDER_INTERVAL = 16 * MS;
+    private static final long DETECT_LATENCY = 30 * MS;
+    // 检测噪声的标准差，约为720p图像中的一个半像素
+    private static final float NOISE = 0.004f;
+
+    /**
+     * 真实的运动轨迹：静止1秒，匀速运动1秒，之后来回摆动
+     */
+    private static float truth(long time) {
+        float t = time / 1e9f;
+        if (t < 1) {
+            return 0;
+        } else if (t < 2) {
+            return (t - 1) * 0.5f;
+        }
+        return 0.5f + 0.2f * (float) Math.sin((t - 2) * Math.PI * 2);
+    }
+
+    /**
+     * 模拟结果
+     */
+    private static final class Result {
+        // 静止阶段渲染帧之间的位移均方根
+        float jitter;
+        // 匀速运动阶段与真实位置的平均偏差
+        float rampError;
+        // 摆动阶段与真实位置的平均偏差
+        float swingError;
+        // 匀速运动阶段输出落后于真实轨迹的时间(ms)
+        float rampLag;
+        // 每秒检测次数
+        float detectRate;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "jitter %.5f, ramp error %.4f, ramp lag %.0fms"
+                            + ", swing error %.4f, %.1f detections/s",
+                    jitter, rampError, rampLag, swingError, detectRate);
+        }
+    }
+
+    /**
+     * 跑一遍合成序列
+     * @param trackFrames   两次检测之间跳过的帧数
+     * @param maxError      检测结果与推算位置的偏差超过这个值时下一帧马上检测，0表示不检查
+     * @param track         true使用跟踪器，false直接显示最近一次检测结果
+     */
+    private static Result simulate(int trackFrames, float maxError, boolean track) {
+        Random random = new Random(1);
+        LandmarkTracker tracker = new LandmarkTracker();
+        long duration = 4000 * MS;
+        // 正在检测的帧的采集时间和检测结果，同一时刻只有一个检测
+        long detectTime = -1;
+        float detection = 0;
+        int skipped = 0;
+        boolean force = false;
+        int detectCount = 0;
+
+        Result result = new Result();
+        float[] out = new float[2];
+        float[] points = new float[2];
+        float last = Float.NaN;
+        float held = 0;
+        double jitter = 0;
+        int jitterCount = 0;
+        double rampError = 0;
+        int rampCount = 0;
+        double swingError = 0;
+        int swingCount = 0;
+        // 匀速运动阶段的渲染时间和输出，用于估计延迟
+        long[] rampTimes = new long[(int) (duration / RENDER_INTERVAL)];
+        float[] rampValues = new float[rampTimes.length];
+        for (long time = 0; time < duration; time += MS) {
+            // 检测结果到达
+            if (detectTime >= 0 && time >= detectTime + DETECT_LATENCY) {
+                points[0] = detection;
+                points[1] = detection;
+                float error = tracker.update(points, detectTime);
+                force = maxError > 0 && error > maxError;
+                held = detection;
+                detectTime = -1;
+            }
+            // 预览帧到达，检测器空闲并且到了检测的时间才检测
+            if (time % FRAME_INTERVAL == 0) {
+                if (detectTime < 0 && (force || skipped >= trackFrames)) {
+                    detectTime = time;
+                    detection = truth(time) + (float) random.nextGaussian() * NOISE;
+                    detectCount++;
+                    skipped = 0;
+                    force = false;
+                } else {
+                    skipped++;
+                }
+            }
+            if (time % RENDER_INTERVAL != 0) {
+                continue;
+            }
+            float value = held;
+            if (track && tracker.predict(time, out)) {
+                value = out[0];
+            }
+            if (time > 300 * MS && time < 1000 * MS) {
+                if (!Float.isNaN(last)) {
+                    jitter += (value - last) * (value - last);
+                    jitterCount++;
+                }
+            } else if (time > 1300 * MS && time < 2000 * MS) {
+                rampError += Math.abs(value - truth(time));
+                rampTimes[rampCount] = time;
+                rampValues[rampCount] = value;
+                rampCount++;
+            } else if (time > 2300 * MS) {
+                swingError += Math.abs(value - truth(time));
+                swingCount++;
+            }
+            last = value;
+        }
+        result.jitter = (float) Math.sqrt(jitter / jitterCount);
+        result.rampError = (float) (rampError / rampCount);
+        result.swingError = (float) (swingError / swingCount);
+        result.rampLag = estimateLag(rampTimes, rampValues, rampCount);
+        result.detectRate = detectCount / (duration / 1e9f);
+        return result;
+    }
+
+    /**
+     * 估计输出落后于真实轨迹的时间，在-100ms到300ms之间移动真实轨迹，取与输出的均方差最小的偏移，
+     * 即输出与真实轨迹互相关最大的位置
+     * @return 毫秒
+     */
+    private static float estimateLag(long[] times, float[] values, int count) {
+        long bestLag = 0;
+        double bestError = Double.MAX_VALUE;
+        for (long lag = -100; lag <= 300; lag++) {
+            double error = 0;
+            for (int i = 0; i < count; i++) {
+                float diff = values[i] - truth(times[i] - lag * MS);
+                error += diff * diff;
+            }
+            if (error < bestError) {
+                bestError = error;
+                bestLag = lag;
+            }
+        }
+        return bestLag;
+    }
+
+    @Test
+    public void firstDetectionIsShownDirectly() {
+        LandmarkTracker tracker = new LandmarkTracker();
+        float[] out = new float[2];
+        assertFalse(tracker.predict(0, out));
+        assertEquals(0, tracker.update(new float[] {0.1f, 0.2f}, 0), EPSILON);
+        assertTrue(tracker.predict(10 * MS, out));
+        assertArrayEquals(new float[] {0.1f, 0.2f}, out, EPSILON);
+    }
+
+    @Test
+    public void predictsWithConstantVelocity() {
+        // 不滤波，只看运动模型
+        LandmarkTracker tracker = new LandmarkTracker(1e6f, 0, 1);
+        float[] out = new float[2];
+        tracker.update(new float[] {0, 0}, 0);
+        tracker.update(new float[] {0.1f, -0.1f}, 100 * MS);
+        assertTrue(tracker.predict(150 * MS, out));
+        assertArrayEquals(new float[] {0.15f, -0.15f}, out, 1e-3f);
+        // 推算时长有上限
+        assertTrue(tracker.predict(1000 * MS, out));
+        assertArrayEquals(new float[] {0.2f, -0.2f}, out, 1e-3f);
+        // 运动方向改变时偏差变大
+        assertEquals(0, tracker.update(new float[] {0.2f, -0.2f}, 200 * MS), EPSILON);
+        float error = tracker.update(new float[] {0.2f, -0.2f}, 300 * MS);
+        assertEquals(0.1f * Math.sqrt(2), error, 1e-3f);
+        assertEquals(error, tracker.getError(), EPSILON);
+    }
+
+    @Test
+    public void restartsAfterLongGap() {
+        LandmarkTracker tracker = new LandmarkTracker();
+        float[] out = new float[2];
+        tracker.update(new float[] {0, 0}, 0);
+        tracker.update(new float[] {0.1f, 0.1f}, 100 * MS);
+        assertEquals(0, tracker.update(new float[] {0.5f, 0.5f}, 1000 * MS), EPSILON);
+        assertTrue(tracker.predict(1100 * MS, out));
+        assertArrayEquals(new float[] {0.5f, 0.5f}, out, EPSILON);
+    }
+
+    @Test
+    public void smoothsJitterAndCompensatesLatency() {
+        Result held = simulate(0, 0, false);
+        Result tracked = simulate(0, 0, true);
+        String message = "held: " + held + ", tracked: " + tracked;
+        assertTrue(message, tracked.jitter < held.jitter * 0.5f);
+        assertTrue(message, tracked.rampError < held.rampError * 0.5f);
+        // 直接显示时至少落后检测延迟，跟踪时推算到渲染时刻，只剩下滤波的延迟
+        assertTrue(message, held.rampLag >= DETECT_LATENCY / MS);
+        assertTrue(message, tracked.rampLag < held.rampLag * 0.5f);
+        assertTrue(message, tracked.rampLag < DETECT_LATENCY / MS);
+    }
+
+    @Test
+    public void tracksBetweenDetections() {
+        Result everyFrame = simulate(0, 0, true);
+        Result held = simulate(2, 0, false);
+        Result tracked = simulate(2, 0, true);
+        String message = "held: " + held + ", tracked: " + tracked;
+        assertEquals(held.detectRate, tracked.detectRate, EPSILON);
+        assertTrue(message, tracked.detectRate < everyFrame.detectRate * 0.6f);
+        assertTrue(message, tracked.jitter < held.jitter * 0.5f);
+        assertTrue(message, tracked.rampError < held.rampError * 0.5f);
+        // 跳帧时直接显示的延迟更大，跟踪的延迟仍然小于检测延迟
+        assertTrue(message, held.rampLag >= (DETECT_LATENCY + FRAME_INTERVAL) / MS);
+        assertTrue(message, tracked.rampLag < held.rampLag * 0.5f);
+        assertTrue(message, tracked.rampLag < DETECT_LATENCY / MS);
+    }
+
+    @Test
+    public void redetectsWhenPredictionIsOff() {
+        Result everyFrame = simulate(0, 0, true);
+        Result tracked = simulate(2, 0, true);
+        Result adaptive = simulate(2, 0.02f, true);
+        // 静止和匀速时按照间隔检测，来回摆动时预测不准，检测变多，误差接近每一帧都检测
+        assertTrue(adaptive.detectRate > tracked.detectRate);
+        assertTrue(adaptive.detectRate < everyFrame.detectRate);
+        assertTrue(adaptive.swingError < tracked.swingError);
+        assertTrue(adaptive.jitter < simulate(2, 0, false).jitter * 0.5f);
+    }
+}
@@ -9,9 +9,15 @@ import android.os.HandlerThread;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
+import com.cgfay.media.mixer.AudioMixer;
+import com.cgfay.media.mixer.MixTrack;
+import com.cgfay.media.mixer.PcmFileSink;
+import com.cgfay.media.mixer.PcmFileSource;
 import com.cgfay.uitls.utils.FileUtils;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
@@ -25,6 +31,8 @@ public class CainCommandEditor {
     private static final String TAG = "CainCommandEditor";
 
     private Handler mHandler;
+    // 进程内混音器
+    private AudioMixer mAudioMixer;
 
     public CainCommandEditor() {
         HandlerThread thread = new HandlerThread("cain_command_editor");
@@ -45,6 +53,13 @@ public class CainCommandEditor {
         if (mHandler == null) {
             return;
         }
+        // 混音器只在处理线程中使用，在处理线程中释放
+        mHandler.post(() -> {
+            if (mAudioMixer != null) {
+                mAudioMixer.release();
+                mAudioMixer = null;
+            }
+        });
         mHandler.getLooper().quitSafely();
         mHandler = null;
     }
@@ -59,6 +74,13 @@ public class CainCommandEditor {
             callback.onProcessResult(-1);
             return;
         }
+        // 已经释放时不再执行，依次执行的命令可能在前一个命令的回调中提交
+        if (mHandler == null) {
+            if (callback != null) {
+                callback.onProcessResult(-1);
+            }
+            return;
+        }
         mHandler.post(() -> {
             int ret = FFmpegUtils.execute(cmd);
             if (callback != null) {
@@ -67,6 +89,77 @@ public class CainCommandEditor {
         });
     }
 
+    /**
+     * 在进程内混合两个PCM音频，与{@link #pcmMix}命令(amix=inputs=2)一样将两路累加后乘以1/2，
+     * 但不需要执行ffmpeg命令行。amix在较短的一路结束后会逐渐恢复剩余轨道的音量，这里保持1/2不变
+     * @param srcPath       第一个PCM文件，输出时长和格式以它为准
+     * @param srcPath1      第二个PCM文件
+     * @param dstPath       输出的PCM文件
+     * @param sampleRate    第一个PCM文件的采样率
+     * @param channel       第一个PCM文件的声道数
+     * @param volume        第一个PCM文件的音量
+     * @param sampleRate1   第二个PCM文件的采样率
+     * @param channel1      第二个PCM文件的声道数
+     * @param volume1       第二个PCM文件的音量
+     * @param delayMs1      第二个PCM文件相对于第一个的延时(毫秒)
+     * @param callback      处理结果回调，0表示成功
+     */
+    public void mixPcm(@NonNull String srcPath, @NonNull String srcPath1, @NonNull String dstPath,
+                       int sampleRate, int channel, float volume,
+                       int sampleRate1, int channel1, float volume1, int delayMs1,
+                       CommandProcessCallback callback) {
+        if (mHandler == null) {
+            if (callback != null) {
+                callback.onProcessResult(-1);
+            }
+            return;
+        }
+        mHandler.post(() -> {
+            if (mAudioMixer == null || mAudioMixer.getSampleRate() != sampleRate
+                    || mAudioMixer.getChannelCount() != channel) {
+                if (mAudioMixer != null) {
+                    mAudioMixer.release();
+                }
+                mAudioMixer = new AudioMixer(sampleRate, channel);
+            }
+            int ret = 0;
+            PcmFileSource source = null;
+            PcmFileSource source1 = null;
+            PcmFileSink sink = null;
+            try {
+                source = new PcmFileSource(srcPath, sampleRate, channel);
+                source1 = new PcmFileSource(srcPath1, sampleRate1, channel1);
+                sink = new PcmFileSink(dstPath, channel);
+                List<MixTrack> tracks = new ArrayList<>();
+                tracks.add(new MixTrack(source).setVolume(volume));
+                tracks.add(new MixTrack(source1).setVolume(volume1).setDelayMs(delayMs1));
+                mAudioMixer.mix(tracks, sink);
+                Log.d(TAG, "mixPcm: " + mAudioMixer.getOutputFrames() + " frames in "
+                        + (mAudioMixer.getProcessTimeNs() / 1000000f) + " ms");
+            } catch (Exception e) {
+                Log.e(TAG, "mixPcm: ", e);
+                ret = -1;
+            } finally {
+                closeQuietly(source);
+                closeQuietly(source1);
+                closeQuietly(sink);
+            }
+            if (callback != null) {
+                callback.onProcessResult(ret);
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * 命令行执行回调
      */
@@ -360,6 +453,92 @@ public class CainCommandEditor {
         return cmds;
     }
 
+    /**
+     * 将音频或者视频中的音频流解码为PCM文件命令，用于进程内混音
+     * @param srcPath       音频或视频文件路径
+     * @param dstPath       输出的PCM文件路径
+     * @param sampleRate    输出采样率
+     * @param channel       输出声道数
+     * @return
+     */
+    public static String[] audioToPcm(@NonNull String srcPath, @NonNull String dstPath, int sampleRate, int channel) {
+        List<String> cmdList = new ArrayList<String>();
+
+        cmdList.add("ffmpeg");
+
+        cmdList.add("-i");
+        cmdList.add(srcPath);
+
+        cmdList.add("-vn");
+        cmdList.add("-acodec");
+        cmdList.add("pcm_s16le");
+        cmdList.add("-f");
+        cmdList.add("s16le");
+        cmdList.add("-ar");
+        cmdList.add(String.valueOf(sampleRate));
+        cmdList.add("-ac");
+        cmdList.add(String.valueOf(channel));
+
+        cmdList.add("-y");
+        cmdList.add(dstPath);
+
+        String[] cmds = new String[cmdList.size()];
+        cmdList.toArray(cmds);
+        return cmds;
+    }
+
+    /**
+     * 用PCM文件替换视频的音频流命令，视频流直接复制，PCM编码为aac
+     * @param pcmPath       PCM文件路径
+     * @param videoPath     视频文件路径，可以带有音频流
+     * @param dstPath       输出的mp4文件路径
+     * @param sampleRate    PCM采样率
+     * @param channel       PCM声道数
+     * @return
+     */
+    public static String[] pcmVideoMix(@NonNull String pcmPath, @NonNull String videoPath,
+                                       @NonNull String dstPath, int sampleRate, int channel) {
+        List<String> cmdList = new ArrayList<String>();
+
+        cmdList.add("ffmpeg");
+
+        cmdList.add("-f");
+        cmdList.add("s16le");
+        cmdList.add("-ar");
+        cmdList.add(String.valueOf(sampleRate));
+        cmdList.add("-ac");
+        cmdList.add(String.valueOf(channel));
+
+        cmdList.add("-i");
+        cmdList.add(pcmPath);
+
+        cmdList.add("-i");
+        cmdList.add(videoPath);
+
+        cmdList.add("-map");
+        cmdList.add("1:v:0");
+        cmdList.add("-map");
+        cmdList.add("0:a:0");
+
+        cmdList.add("-c:v");
+        cmdList.add("copy");
+        cmdList.add("-c:a");
+        cmdList.add("aac");
+        cmdList.add("-strict");
+        cmdList.add("-2");
+
+        cmdList.add("-f");
+        cmdList.add("mp4");
+        cmdList.add("-y");
+        cmdList.add("-movflags");
+        cmdList.add("faststart");
+        cmdList.add(dstPath);
+
+        String[] cmds = new String[cmdList.size()];
+        cmdList.toArray(cmds);
+        return cmds;
+    }
+
     /**
      * 音頻和視頻按不同音量进行混合命令
      * @param videoPath     源视频路径
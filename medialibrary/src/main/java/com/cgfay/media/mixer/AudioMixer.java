@@ -0,0 +1,279 @@
+package com.cgfay.media.mixer;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 进程内PCM混音器，用于替代ffmpeg命令行的amix混音
+ * 多路轨道按块流式处理，每一块中各轨道的延时、重采样和音量调节在线程池中并行执行，
+ * 然后把这一块切成多个分段，在线程池中并行累加并截断为16位输出，整个过程不需要中间文件
+ * 默认与amix一样将累加结果乘以1/轨道数，避免多路叠加后响度增大和削波
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+public class AudioMixer {
+
+    /**
+     * 混音时长模式
+     */
+    public enum DurationMode {
+        FIRST,      // 以第一路轨道的时长为准，与amix的duration=first一致
+        LONGEST,    // 以最长的轨道为准
+        SHORTEST    // 以最短的轨道为准
+    }
+
+    private static final int DEFAULT_BLOCK_FRAMES = 4096;
+    // 每个累加分段的最少采样数，分段太小时线程切换的开销超过累加本身
+    private static final int MIN_CHUNK_SAMPLES = 2048;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private int mBlockFrames = DEFAULT_BLOCK_FRAMES;
+    private DurationMode mDurationMode = DurationMode.FIRST;
+    private boolean mNormalize = true;
+    private int mThreadCount = Runtime.getRuntime().availableProcessors();
+    private ExecutorService mExecutor;
+
+    // 统计信息
+    private long mProcessTimeNs;
+    private long mOutputFrames;
+
+    /**
+     * 创建混音器
+     * @param sampleRate    输出采样率
+     * @param channelCount  输出声道数
+     */
+    public AudioMixer(int sampleRate, int channelCount) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+    }
+
+    /**
+     * 设置每一块处理的帧数
+     */
+    public void setBlockFrames(int blockFrames) {
+        mBlockFrames = Math.max(64, blockFrames);
+    }
+
+    /**
+     * 设置时长模式
+     */
+    public void setDurationMode(@NonNull DurationMode mode) {
+        mDurationMode = mode;
+    }
+
+    /**
+     * 设置是否按轨道数归一化
+     * @param normalize true时与amix一致，累加结果乘以1/轨道数；false时直接累加后截断
+     */
+    public void setNormalize(boolean normalize) {
+        mNormalize = normalize;
+    }
+
+    /**
+     * 设置并行处理的线程数，1表示在调用线程中处理
+     */
+    public synchronized void setThreadCount(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+        shutdownExecutor();
+    }
+
+    /**
+     * 释放线程池
+     */
+    public synchronized void release() {
+        shutdownExecutor();
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 上一次混音的处理耗时(纳秒)
+     */
+    public long getProcessTimeNs() {
+        return mProcessTimeNs;
+    }
+
+    /**
+     * 上一次混音输出的帧数
+     */
+    public long getOutputFrames() {
+        return mOutputFrames;
+    }
+
+    /**
+     * 混合多路轨道并写入输出端，混音完成后不会关闭数据源和输出端
+     * @param tracks 混音轨道
+     * @param sink   输出端
+     * @throws IOException
+     */
+    public void mix(@NonNull List<MixTrack> tracks, @NonNull PcmSink sink) throws IOException {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        final int trackCount = tracks.size();
+        final int blockFrames = mBlockFrames;
+        final TrackProcessor[] processors = new TrackProcessor[trackCount];
+        final float[][] blocks = new float[trackCount][blockFrames * mChannelCount];
+        final int[] produced = new int[trackCount];
+        final float scale = mNormalize ? 1.0f / trackCount : 1.0f;
+        for (int i = 0; i < trackCount; i++) {
+            processors[i] = new TrackProcessor(tracks.get(i), mSampleRate, mChannelCount);
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(trackCount);
+        for (int i = 0; i < trackCount; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                produced[index] = processors[index].process(blocks[index], blockFrames);
+                return null;
+            });
+        }
+        final ExecutorService executor = obtainExecutor();
+        final short[] output = new short[blockFrames * mChannelCount];
+        // 当前块的采样数，累加分段按照它划分
+        final int[] blockSamples = new int[1];
+        final int chunkCount = executor != null
+                ? Math.max(1, Math.min(mThreadCount, output.length / MIN_CHUNK_SAMPLES)) : 1;
+        List<Callable<Void>> chunkTasks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            final int chunk = i;
+            chunkTasks.add(() -> {
+                int samples = blockSamples[0];
+                mixRange(blocks, output, (int) ((long) samples * chunk / chunkCount),
+                        (int) ((long) samples * (chunk + 1) / chunkCount), scale);
+                return null;
+            });
+        }
+
+        long outputFrames = 0;
+        while (true) {
+            processBlock(trackCount > 1 ? executor : null, tasks, processors, blocks, produced, blockFrames);
+            int frames = blockLength(produced, blockFrames);
+            if (frames <= 0) {
+                break;
+            }
+            int samples = frames * mChannelCount;
+            if (chunkCount > 1 && samples >= MIN_CHUNK_SAMPLES * 2) {
+                blockSamples[0] = samples;
+                invokeAll(executor, chunkTasks);
+            } else {
+                mixRange(blocks, output, 0, samples, scale);
+            }
+            sink.write(output, frames);
+            outputFrames += frames;
+            if (frames < blockFrames) {
+                break;
+            }
+        }
+        mOutputFrames = outputFrames;
+        mProcessTimeNs = System.nanoTime() - startTime;
+    }
+
+    /**
+     * 累加各轨道[start, end)范围内的采样，乘以归一化系数后截断为16位
+     */
+    private static void mixRange(float[][] blocks, short[] output, int start, int end, float scale) {
+        for (int j = start; j < end; j++) {
+            float value = blocks[0][j];
+            for (int i = 1; i < blocks.length; i++) {
+                value += blocks[i][j];
+            }
+            value *= scale;
+            output[j] = value >= Short.MAX_VALUE ? Short.MAX_VALUE
+                    : value <= Short.MIN_VALUE ? Short.MIN_VALUE : (short) value;
+        }
+    }
+
+    /**
+     * 处理一块数据，多路轨道时在线程池中并行处理
+     */
+    private void processBlock(ExecutorService executor, List<Callable<Void>> tasks,
+                              TrackProcessor[] processors, float[][] blocks, int[] produced,
+                              int blockFrames) throws IOException {
+        if (executor == null) {
+            for (int i = 0; i < processors.length; i++) {
+                produced[i] = processors[i].process(blocks[i], blockFrames);
+            }
+            return;
+        }
+        invokeAll(executor, tasks);
+    }
+
+    /**
+     * 在线程池中执行一组任务并等待全部完成
+     */
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("audio mix interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 根据时长模式计算当前块需要输出的帧数
+     */
+    private int blockLength(int[] produced, int blockFrames) {
+        switch (mDurationMode) {
+            case LONGEST: {
+                int frames = 0;
+                for (int count : produced) {
+                    frames = Math.max(frames, count);
+                }
+                return frames;
+            }
+            case SHORTEST: {
+                int frames = blockFrames;
+                for (int count : produced) {
+                    frames = Math.min(frames, count);
+                }
+                return frames;
+            }
+            case FIRST:
+            default:
+                return produced[0];
+        }
+    }
+
+    private synchronized ExecutorService obtainExecutor() {
+        if (mThreadCount <= 1) {
+            return null;
+        }
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(mThreadCount);
+        }
+        return mExecutor;
+    }
+
+    private void shutdownExecutor() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.cgfay.media.mixer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 混音轨道，描述一路输入的音量和延时
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+public class MixTrack {
+
+    // 数据源
+    private final PcmSource mSource;
+    // 音量
+    private float mVolume = 1.0f;
+    // 相对于混音起点的延时(毫秒)
+    private int mDelayMs;
+
+    public MixTrack(@NonNull PcmSource source) {
+        mSource = source;
+    }
+
+    /**
+     * 设置音量
+     * @param volume 音量，1.0为原始音量
+     */
+    public MixTrack setVolume(float volume) {
+        mVolume = Math.max(0.0f, volume);
+        return this;
+    }
+
+    /**
+     * 设置延时
+     * @param delayMs 相对于混音起点的延时(毫秒)
+     */
+    public MixTrack setDelayMs(int delayMs) {
+        mDelayMs = Math.max(0, delayMs);
+        return this;
+    }
+
+    public PcmSource getSource() {
+        return mSource;
+    }
+
+    public float getVolume() {
+        return mVolume;
+    }
+
+    public int getDelayMs() {
+        return mDelayMs;
+    }
+}
@@ -0,0 +1,53 @@
+package com.cgfay.media.mixer;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * s16le格式的PCM文件输出端
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+public class PcmFileSink implements PcmSink {
+
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private final int mChannelCount;
+    private ByteBuffer mByteBuffer;
+    private ShortBuffer mShortBuffer;
+
+    public PcmFileSink(@NonNull String path, int channelCount) throws IOException {
+        mOutputStream = new FileOutputStream(path);
+        mChannel = mOutputStream.getChannel();
+        mChannelCount = channelCount;
+        mByteBuffer = ByteBuffer.allocateDirect(0);
+        mShortBuffer = mByteBuffer.asShortBuffer();
+    }
+
+    @Override
+    public void write(short[] buffer, int frames) throws IOException {
+        int samples = frames * mChannelCount;
+        if (mShortBuffer.capacity() < samples) {
+            mByteBuffer = ByteBuffer.allocateDirect(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+            mShortBuffer = mByteBuffer.asShortBuffer();
+        }
+        mShortBuffer.clear();
+        mShortBuffer.put(buffer, 0, samples);
+        mByteBuffer.clear();
+        mByteBuffer.limit(samples * 2);
+        while (mByteBuffer.hasRemaining()) {
+            mChannel.write(mByteBuffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOutputStream.close();
+    }
+}
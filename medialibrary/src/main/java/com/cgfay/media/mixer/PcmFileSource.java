@@ -0,0 +1,73 @@
+package com.cgfay.media.mixer;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * s16le格式的PCM文件数据源
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+public class PcmFileSource implements PcmSource {
+
+    private static final int BUFFER_FRAMES = 4096;
+
+    private final FileInputStream mInputStream;
+    private final FileChannel mChannel;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mFrameSize;
+    private final ByteBuffer mByteBuffer;
+    private final ShortBuffer mShortBuffer;
+
+    public PcmFileSource(@NonNull String path, int sampleRate, int channelCount) throws IOException {
+        mInputStream = new FileInputStream(path);
+        mChannel = mInputStream.getChannel();
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mFrameSize = channelCount * 2;
+        mByteBuffer = ByteBuffer.allocateDirect(BUFFER_FRAMES * mFrameSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        mShortBuffer = mByteBuffer.asShortBuffer();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public int read(short[] buffer, int frames) throws IOException {
+        int framesToRead = Math.min(frames, BUFFER_FRAMES);
+        mByteBuffer.clear();
+        mByteBuffer.limit(framesToRead * mFrameSize);
+        while (mByteBuffer.hasRemaining()) {
+            if (mChannel.read(mByteBuffer) < 0) {
+                break;
+            }
+        }
+        int framesRead = mByteBuffer.position() / mFrameSize;
+        if (framesRead == 0) {
+            return -1;
+        }
+        mShortBuffer.clear();
+        mShortBuffer.get(buffer, 0, framesRead * mChannelCount);
+        return framesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInputStream.close();
+    }
+}
@@ -0,0 +1,20 @@
+package com.cgfay.media.mixer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 混音输出端，接收交错排列的16位有符号PCM数据
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+public interface PcmSink extends Closeable {
+
+    /**
+     * 写入PCM数据
+     * @param buffer 交错排列的采样数据
+     * @param frames 帧数
+     * @throws IOException
+     */
+    void write(short[] buffer, int frames) throws IOException;
+}
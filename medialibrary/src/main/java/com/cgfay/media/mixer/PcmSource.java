@@ -0,0 +1,31 @@
+package com.cgfay.media.mixer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 已解码的PCM数据源，数据为交错排列的16位有符号PCM
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+public interface PcmSource extends Closeable {
+
+    /**
+     * 采样率
+     */
+    int getSampleRate();
+
+    /**
+     * 声道数
+     */
+    int getChannelCount();
+
+    /**
+     * 读取PCM数据
+     * @param buffer 交错排列的采样数据
+     * @param frames 最多读取的帧数
+     * @return 实际读取的帧数，-1表示数据已结束
+     * @throws IOException
+     */
+    int read(short[] buffer, int frames) throws IOException;
+}
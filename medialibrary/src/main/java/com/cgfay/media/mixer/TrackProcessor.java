@@ -0,0 +1,188 @@
+package com.cgfay.media.mixer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 单路混音轨道的处理器，按块输出经过延时、重采样、声道映射和音量调节后的采样
+ * 每个处理器只会被一个线程调用，处理过程中不分配内存
+ * @author CainHuang
+ * @date 2019/8/3
+ */
+/* package */ final class TrackProcessor {
+
+    private static final int INPUT_FRAMES = 2048;
+
+    private final PcmSource mSource;
+    private final int mInputChannels;
+    private final int mOutputChannels;
+    private final float mGain;
+    // 输入采样率与输出采样率之比
+    private final double mStep;
+    private final boolean mResample;
+
+    // 输入缓冲
+    private final short[] mInput;
+    private int mInputFrames;
+    private int mInputIndex;
+
+    // 重采样时当前输出位置两侧的输入帧
+    private final float[] mPrevFrame;
+    private final float[] mNextFrame;
+    private double mFraction;
+    private boolean mPrimed;
+    private boolean mSourceEnded;
+
+    // 剩余的延时帧数
+    private long mDelayFrames;
+    // 是否已经输出完毕
+    private boolean mEnded;
+
+    TrackProcessor(MixTrack track, int outputSampleRate, int outputChannels) {
+        mSource = track.getSource();
+        mInputChannels = mSource.getChannelCount();
+        mOutputChannels = outputChannels;
+        mGain = track.getVolume();
+        mStep = (double) mSource.getSampleRate() / outputSampleRate;
+        mResample = mSource.getSampleRate() != outputSampleRate;
+        mInput = new short[INPUT_FRAMES * mInputChannels];
+        mPrevFrame = new float[outputChannels];
+        mNextFrame = new float[outputChannels];
+        mDelayFrames = (long) track.getDelayMs() * outputSampleRate / 1000;
+    }
+
+    /**
+     * 输出一块采样，不足的部分填充静音
+     * @param output 交错排列的输出采样
+     * @param frames 需要输出的帧数
+     * @return 实际输出的帧数，小于frames表示轨道已结束
+     * @throws IOException
+     */
+    int process(float[] output, int frames) throws IOException {
+        int produced = 0;
+        // 延时部分输出静音
+        if (mDelayFrames > 0) {
+            int silence = (int) Math.min(mDelayFrames, frames);
+            Arrays.fill(output, 0, silence * mOutputChannels, 0.0f);
+            mDelayFrames -= silence;
+            produced = silence;
+        }
+        if (!mEnded && produced < frames) {
+            produced = mResample ? resample(output, produced, frames) : copy(output, produced, frames);
+        }
+        if (produced < frames) {
+            Arrays.fill(output, produced * mOutputChannels, frames * mOutputChannels, 0.0f);
+        }
+        return produced;
+    }
+
+    /**
+     * 采样率相同时直接按块转换
+     */
+    private int copy(float[] output, int produced, int frames) throws IOException {
+        while (produced < frames) {
+            if (!fillInput()) {
+                mEnded = true;
+                break;
+            }
+            int count = Math.min(frames - produced, mInputFrames - mInputIndex);
+            for (int i = 0; i < count; i++) {
+                mapFrame(mInputIndex + i, output, (produced + i) * mOutputChannels);
+            }
+            mInputIndex += count;
+            produced += count;
+        }
+        return produced;
+    }
+
+    /**
+     * 线性插值重采样
+     */
+    private int resample(float[] output, int produced, int frames) throws IOException {
+        if (!mPrimed) {
+            mPrimed = true;
+            if (!nextFrame(mPrevFrame)) {
+                mEnded = true;
+                return produced;
+            }
+            if (!nextFrame(mNextFrame)) {
+                Arrays.fill(mNextFrame, 0.0f);
+                mSourceEnded = true;
+            }
+        }
+        while (produced < frames) {
+            float fraction = (float) mFraction;
+            int offset = produced * mOutputChannels;
+            for (int c = 0; c < mOutputChannels; c++) {
+                output[offset + c] = mPrevFrame[c] + (mNextFrame[c] - mPrevFrame[c]) * fraction;
+            }
+            produced++;
+            mFraction += mStep;
+            while (mFraction >= 1.0) {
+                mFraction -= 1.0;
+                if (mSourceEnded) {
+                    mEnded = true;
+                    return produced;
+                }
+                System.arraycopy(mNextFrame, 0, mPrevFrame, 0, mOutputChannels);
+                if (!nextFrame(mNextFrame)) {
+                    Arrays.fill(mNextFrame, 0.0f);
+                    mSourceEnded = true;
+                }
+            }
+        }
+        return produced;
+    }
+
+    private boolean nextFrame(float[] frame) throws IOException {
+        if (!fillInput()) {
+            return false;
+        }
+        mapFrame(mInputIndex++, frame, 0);
+        return true;
+    }
+
+    /**
+     * 确保输入缓冲中有未处理的数据
+     * @return false表示数据源已结束
+     */
+    private boolean fillInput() throws IOException {
+        if (mInputIndex < mInputFrames) {
+            return true;
+        }
+        int frames = mSource.read(mInput, INPUT_FRAMES);
+        if (frames <= 0) {
+            return false;
+        }
+        mInputFrames = frames;
+        mInputIndex = 0;
+        return true;
+    }
+
+    /**
+     * 将一帧输入映射到输出声道并调节音量
+     */
+    private void mapFrame(int inputFrame, float[] output, int offset) {
+        int base = inputFrame * mInputChannels;
+        if (mInputChannels == mOutputChannels) {
+            for (int c = 0; c < mOutputChannels; c++) {
+                output[offset + c] = mInput[base + c] * mGain;
+            }
+        } else if (mInputChannels == 1) {
+            float value = mInput[base] * mGain;
+            for (int c = 0; c < mOutputChannels; c++) {
+                output[offset + c] = value;
+            }
+        } else if (mOutputChannels == 1) {
+            float sum = 0;
+            for (int c = 0; c < mInputChannels; c++) {
+                sum += mInput[base + c];
+            }
+            output[offset] = sum * mGain / mInputChannels;
+        } else {
+            for (int c = 0; c < mOutputChannels; c++) {
+                output[offset + c] = mInput[base + c % mInputChannels] * mGain;
+            }
+        }
+    }
+}
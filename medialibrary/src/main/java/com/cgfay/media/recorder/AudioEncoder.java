@@ -11,15 +11,19 @@ import java.nio.ByteBuffer;
 /**
  * 音频编码器
  */
-public class AudioEncoder {
+public class AudioEncoder implements AudioSink {
 
     private static final String TAG = "AudioEncoder";
+    private static final boolean VERBOSE = false;
 
     static final int BUFFER_SIZE = 8192;
 
     private static final String AUDIO_MIME_TYPE = "audio/mp4a-latm";
 
     private static final int ENCODE_TIMEOUT = -1;
+    // 写入结束标志时每次等待输入缓冲区的时长和重试次数
+    private static final long END_OF_STREAM_TIMEOUT_US = 10_000L;
+    private static final int END_OF_STREAM_RETRY = 50;
 
     private final int mBitrate;
     private final int mSampleRate;
@@ -114,23 +118,70 @@ public class AudioEncoder {
      * @param len
      */
     public void encodePCM(byte[] data, int len) {
-        int inputIndex;
-        inputIndex = mMediaCodec.dequeueInputBuffer(ENCODE_TIMEOUT);
+        int inputIndex = dequeueInputBuffer(ENCODE_TIMEOUT);
         if (inputIndex >= 0) {
-            ByteBuffer buffer = mInputBuffers[inputIndex];
-            buffer.clear();
-
             if (len < 0) {
-                mMediaCodec.queueInputBuffer(inputIndex, 0, 0, (long) mPresentationTimeUs, 0);
+                signalEndOfStream(inputIndex);
             } else {
-                mTotalBytesRead += len;
+                ByteBuffer buffer = getInputBuffer(inputIndex);
                 buffer.put(data, 0, len);
-                mMediaCodec.queueInputBuffer(inputIndex, 0, len, (long) mPresentationTimeUs, 0);
-                mPresentationTimeUs = 1000000L * (mTotalBytesRead / mChannelCount / 2) / mSampleRate;
-                Log.d(TAG, "encodePCM: presentationUs：" + mPresentationTimeUs + ", s: " + (mPresentationTimeUs / 1000000f));
+                queueInputBuffer(inputIndex, len);
             }
+        } else {
+            drainEncoder();
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        int index = mMediaCodec.dequeueInputBuffer(timeoutUs);
+        if (index < 0) {
+            // 没有空闲的输入缓冲区时先取走编码输出，避免编码器因为输出未取走而停顿
+            drainEncoder();
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        ByteBuffer buffer = mInputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size) {
+        mTotalBytesRead += size;
+        mMediaCodec.queueInputBuffer(index, 0, size, mPresentationTimeUs, 0);
+        mPresentationTimeUs = 1000000L * (mTotalBytesRead / mChannelCount / 2) / mSampleRate;
+        if (VERBOSE) {
+            Log.d(TAG, "encodePCM: presentationUs：" + mPresentationTimeUs + ", s: " + (mPresentationTimeUs / 1000000f));
         }
+        drainEncoder();
+    }
 
+    @Override
+    public void signalEndOfStream() {
+        int inputIndex = -1;
+        for (int i = 0; i < END_OF_STREAM_RETRY && inputIndex < 0; i++) {
+            inputIndex = dequeueInputBuffer(END_OF_STREAM_TIMEOUT_US);
+        }
+        if (inputIndex >= 0) {
+            signalEndOfStream(inputIndex);
+        } else {
+            drainEncoder();
+        }
+    }
+
+    private void signalEndOfStream(int inputIndex) {
+        mMediaCodec.queueInputBuffer(inputIndex, 0, 0, mPresentationTimeUs, 0);
+        drainEncoder();
+    }
+
+    /**
+     * 取出编码后的数据写入复用器
+     */
+    private void drainEncoder() {
         int outputIndex = 0;
         while (outputIndex != MediaCodec.INFO_TRY_AGAIN_LATER) {
             outputIndex = mMediaCodec.dequeueOutputBuffer(mBufferInfo, 0);
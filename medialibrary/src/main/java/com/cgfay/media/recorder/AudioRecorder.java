@@ -9,6 +9,7 @@ import androidx.annotation.NonNull;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 音频录制器
@@ -17,6 +18,15 @@ import java.nio.ByteOrder;
  */
 public final class AudioRecorder implements Runnable {
 
+    // 环形缓冲区缓存的音频时长(毫秒)
+    private static final int RING_BUFFER_DURATION_MS = 1000;
+    // 等待对方线程的超时时间
+    private static final long PARK_TIMEOUT_NANOS = 10_000_000L;
+    // 等待编码器输入缓冲区的时长，时长有限，停止和释放时不会一直等待编码线程
+    private static final long ENCODE_TIMEOUT_US = 10_000L;
+    // 录音读取失败后的重试间隔
+    private static final long READ_RETRY_NANOS = 100_000_000L;
+
     private int mBufferSize = AudioEncoder.BUFFER_SIZE;
 
     // 录音器
@@ -34,6 +44,23 @@ public final class AudioRecorder implements Runnable {
     // 录制状态监听器
     private OnRecordListener mRecordListener;
 
+    // 录音器锁
+    private final Object mRecordLock = new Object();
+    // 编码器锁
+    private final Object mEncoderLock = new Object();
+    // 编码线程是否正在使用编码器，释放编码器时需要等待使用结束
+    private boolean mEncoderBusy;
+    // 采集与编码之间的PCM环形缓冲区
+    private PcmRingBuffer mRingBuffer;
+    // 采集线程
+    private volatile Thread mCaptureThread;
+    // 编码线程
+    private volatile Thread mEncodeThread;
+    // 采集是否结束
+    private volatile boolean mCaptureFinished;
+    // 采集线程是否在等待缓冲区空间
+    private volatile boolean mProducerWaiting;
+
     public MediaType getMediaType() {
         return MediaType.AUDIO;
     }
@@ -47,7 +74,7 @@ public final class AudioRecorder implements Runnable {
      */
     public void startRecord() {
         mRecording = true;
-        new Thread(this).start();
+        new Thread(this, "AudioRecordThread").start();
     }
 
     /**
@@ -98,37 +125,93 @@ public final class AudioRecorder implements Runnable {
         mAudioTranscoder.setSpeed(speed);
         mAudioTranscoder.configure(params.getSampleRate(), channelCount, params.getAudioFormat());
         mAudioTranscoder.setOutputSampleRateHz(params.getSampleRate());
+        mAudioTranscoder.setMaxInputSize(minBufferSize);
         mAudioTranscoder.flush();
+
+        // 采集与编码之间的环形缓冲区，慢速录制时转码输出会变多
+        int bytesPerSecond = params.getSampleRate() * channelCount * 2;
+        int ringBufferSize = Math.max(mBufferSize * 4,
+                (int) (bytesPerSecond / speed * RING_BUFFER_DURATION_MS / 1000));
+        if (mRingBuffer == null || mRingBuffer.capacity() < ringBufferSize
+                || mRingBuffer.getFrameSize() != channelCount * 2) {
+            mRingBuffer = new PcmRingBuffer(ringBufferSize, channelCount * 2);
+        } else {
+            mRingBuffer.clear();
+        }
     }
 
     /**
      * 释放数据
      */
-    public synchronized void release() {
-        if (mAudioRecord != null) {
-            try {
-                mAudioRecord.release();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                mAudioRecord = null;
+    public void release() {
+        synchronized (mRecordLock) {
+            if (mAudioRecord != null) {
+                try {
+                    mAudioRecord.release();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    mAudioRecord = null;
+                }
             }
         }
-        if (mAudioEncoder != null) {
-            mAudioEncoder.release();
+        AudioEncoder encoder;
+        boolean interrupted = false;
+        synchronized (mEncoderLock) {
+            encoder = mAudioEncoder;
             mAudioEncoder = null;
+            // 编码线程不会再取到编码器，等待正在进行的读取结束，每次读取的等待时长有限
+            while (mEncoderBusy) {
+                try {
+                    mEncoderLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (encoder != null) {
+            encoder.release();
+        }
+    }
+
+    /**
+     * 编码线程取出编码器，使用期间编码器不会被释放
+     * @return 编码器已经释放时返回null
+     */
+    private AudioEncoder acquireEncoder() {
+        synchronized (mEncoderLock) {
+            if (mAudioEncoder != null) {
+                mEncoderBusy = true;
+            }
+            return mAudioEncoder;
+        }
+    }
+
+    /**
+     * 编码线程使用编码器结束
+     */
+    private void releaseEncoder() {
+        synchronized (mEncoderLock) {
+            mEncoderBusy = false;
+            mEncoderLock.notifyAll();
         }
     }
 
     @Override
     public void run() {
         long duration = 0;
+        Thread encodeThread = null;
         try {
+            mCaptureThread = Thread.currentThread();
+            mCaptureFinished = false;
 
             // 初始化录音器
             boolean needToStart = true;
             while (mRecording && needToStart) {
-                synchronized (this) {
+                synchronized (mRecordLock) {
                     if (mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
                         mAudioRecord.startRecording();
                         // 录制开始回调
@@ -141,12 +224,18 @@ public final class AudioRecorder implements Runnable {
                 SystemClock.sleep(10);
             }
 
+            // 启动编码线程
+            encodeThread = new Thread(mEncodeRunnable, "AudioEncodeThread");
+            mEncodeThread = encodeThread;
+            encodeThread.start();
+
             byte[] pcmData = new byte[minBufferSize];
-            // 录制编码
+            ByteBuffer inBuffer = ByteBuffer.wrap(pcmData).order(ByteOrder.LITTLE_ENDIAN);
+            // 录制转码
             while (mRecording) {
                 int size;
                 // 取出录音PCM数据
-                synchronized (this) {
+                synchronized (mRecordLock) {
                     if (mAudioRecord == null) {
                         break;
                     }
@@ -154,53 +243,42 @@ public final class AudioRecorder implements Runnable {
                 }
                 // 将音频送去转码处理
                 if (size > 0) {
-                    ByteBuffer inBuffer = ByteBuffer.wrap(pcmData,0,size).order(ByteOrder.LITTLE_ENDIAN);
+                    inBuffer.clear();
+                    inBuffer.limit(size);
                     mAudioTranscoder.queueInput(inBuffer);
                 } else {
-                    Thread.sleep(100);
+                    LockSupport.parkNanos(this, READ_RETRY_NANOS);
                 }
 
-                // 音频倍速转码输出
-                ByteBuffer outPut = mAudioTranscoder.getOutput();
-                if (outPut != null && outPut.hasRemaining()) {
-                    byte[] outData = new byte[outPut.remaining()];
-                    outPut.get(outData);
-                    synchronized (this) {
-                        if (mAudioEncoder == null) {
-                            break;
-                        }
-                        mAudioEncoder.encodePCM(outData, outData.length);
-                    }
-                } else {
-                    Thread.sleep(5);
-                }
+                // 音频倍速转码输出直接写入环形缓冲区
+                drainTranscoder();
             }
 
-            // 刷新缓冲区
-            synchronized (this) {
-                if (mAudioTranscoder != null) {
-                    mAudioTranscoder.endOfStream();
-                    ByteBuffer outBuffer = mAudioTranscoder.getOutput();
-                    if (outBuffer != null && outBuffer.hasRemaining()) {
-                        byte[] output = new byte[outBuffer.remaining()];
-                        outBuffer.get(output);
-                        synchronized (this) {
-                            if (mAudioEncoder != null) {
-                                mAudioEncoder.encodePCM(output, output.length);
-                            }
-                        }
-                    }
-                }
-                if (mAudioEncoder != null) {
-                    mAudioEncoder.encodePCM(null, -1);
-                }
-            }
-            if (mAudioEncoder != null) {
-                duration = mAudioEncoder.getDuration();
+            // 刷新转码器缓冲区
+            if (mAudioTranscoder != null) {
+                mAudioTranscoder.endOfStream();
+                drainTranscoder();
             }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
+            // 通知编码线程处理剩余数据并结束
+            mCaptureFinished = true;
+            if (encodeThread != null) {
+                LockSupport.unpark(encodeThread);
+                try {
+                    encodeThread.join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            mEncodeThread = null;
+            mCaptureThread = null;
+            synchronized (mEncoderLock) {
+                if (mAudioEncoder != null) {
+                    duration = mAudioEncoder.getDuration();
+                }
+            }
             try {
                 release();
             } catch (Exception e) {
@@ -214,4 +292,86 @@ public final class AudioRecorder implements Runnable {
         }
     }
 
+    /**
+     * 将转码输出直接写入环形缓冲区，缓冲区已满时等待编码线程消费
+     */
+    private void drainTranscoder() {
+        while (mAudioTranscoder.getPendingOutputSize() > 0) {
+            ByteBuffer region = mRingBuffer.beginWrite();
+            mRingBuffer.commitWrite(mAudioTranscoder.getOutput(region));
+            LockSupport.unpark(mEncodeThread);
+            if (mAudioTranscoder.getPendingOutputSize() > 0 && mRingBuffer.remaining() == 0) {
+                if (mEncodeThread == null) {
+                    break;
+                }
+                mProducerWaiting = true;
+                LockSupport.parkNanos(this, PARK_TIMEOUT_NANOS);
+                mProducerWaiting = false;
+            }
+        }
+    }
+
+    /**
+     * 编码线程，从环形缓冲区中取出PCM数据送去编码
+     */
+    private final Runnable mEncodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    // 先读取结束标志，再读取数据，保证结束前写入的数据都能被消费
+                    boolean finished = mCaptureFinished;
+                    AudioEncoder encoder = acquireEncoder();
+                    if (encoder == null) {
+                        break;
+                    }
+                    int size;
+                    // PCM数据直接从环形缓冲区读取到编码器的输入缓冲区，等待输入缓冲区时不持有锁
+                    try {
+                        size = mRingBuffer.read(encoder, mBufferSize, ENCODE_TIMEOUT_US);
+                    } finally {
+                        releaseEncoder();
+                    }
+                    if (size > 0) {
+                        if (mProducerWaiting) {
+                            LockSupport.unpark(mCaptureThread);
+                        }
+                    } else if (finished) {
+                        break;
+                    } else {
+                        LockSupport.parkNanos(this, PARK_TIMEOUT_NANOS);
+                    }
+                }
+                // 写入结束标志
+                AudioEncoder encoder = acquireEncoder();
+                if (encoder != null) {
+                    try {
+                        encoder.signalEndOfStream();
+                    } finally {
+                        releaseEncoder();
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                mEncodeThread = null;
+                LockSupport.unpark(mCaptureThread);
+            }
+        }
+    };
+
+    /**
+     * 获取环形缓冲区写满的次数
+     */
+    public long getOverrunCount() {
+        return mRingBuffer != null ? mRingBuffer.getOverrunCount() : 0;
+    }
+
+    /**
+     * 获取编码线程等待数据的次数
+     */
+    public long getUnderrunCount() {
+        return mRingBuffer != null ? mRingBuffer.getUnderrunCount() : 0;
+    }
+
 }
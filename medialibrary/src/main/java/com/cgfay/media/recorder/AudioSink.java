@@ -0,0 +1,38 @@
+package com.cgfay.media.recorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PCM数据输出端，接口与MediaCodec的输入缓冲区一致，
+ * 调用者直接将PCM数据写入输出端提供的缓冲区，避免中间拷贝
+ * @author CainHuang
+ * @date 2019/7/13
+ */
+public interface AudioSink {
+
+    /**
+     * 取出一个可写入的输入缓冲区
+     * @param timeoutUs 等待时长，负数表示一直等待
+     * @return 输入缓冲区索引，没有可用缓冲区时返回负数
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    /**
+     * 获取输入缓冲区
+     * @param index 输入缓冲区索引
+     * @return 已清空的输入缓冲区
+     */
+    ByteBuffer getInputBuffer(int index);
+
+    /**
+     * 提交写入完成的输入缓冲区
+     * @param index 输入缓冲区索引
+     * @param size  写入的字节数
+     */
+    void queueInputBuffer(int index, int size);
+
+    /**
+     * 通知输出端数据已结束
+     */
+    void signalEndOfStream();
+}
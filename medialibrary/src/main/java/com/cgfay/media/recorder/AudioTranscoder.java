@@ -61,6 +61,7 @@ public final class AudioTranscoder {
     private float speed;
     private float pitch;
     private int outputSampleRateHz;
+    private int maxInputSize;
 
     private ByteBuffer buffer;
     private ShortBuffer shortBuffer;
@@ -106,6 +107,17 @@ public final class AudioTranscoder {
         return pitch;
     }
 
+    /**
+     * Sets the largest number of bytes that will be passed to {@link #queueInput(ByteBuffer)} in one
+     * call. When known, the time-stretching buffers are allocated once at full size and never grow
+     * or shift during recording. The new size will take effect after a call to {@link #flush()}.
+     *
+     * @param maxInputSize The largest input chunk in bytes, or 0 to grow buffers on demand.
+     */
+    public void setMaxInputSize(int maxInputSize) {
+        this.maxInputSize = Math.max(0, maxInputSize);
+    }
+
     /**
      * Sets the sample rate for output audio, in hertz. Pass {@link #SAMPLE_RATE_NO_CHANGE} to output
      * audio at the same sample rate as the input. After calling this method, call
@@ -222,20 +234,6 @@ public final class AudioTranscoder {
             sonic.queueInput(shortBuffer);
             inputBuffer.position(inputBuffer.position() + inputSize);
         }
-        int outputSize = sonic.getSamplesAvailable() * channelCount * 2;
-        if (outputSize > 0) {
-            if (buffer.capacity() < outputSize) {
-                buffer = ByteBuffer.allocateDirect(outputSize).order(ByteOrder.nativeOrder());
-                shortBuffer = buffer.asShortBuffer();
-            } else {
-                buffer.clear();
-                shortBuffer.clear();
-            }
-            sonic.getOutput(shortBuffer);
-            outputBytes += outputSize;
-            buffer.limit(outputSize);
-            outputBuffer = buffer;
-        }
     }
 
     /**
@@ -258,11 +256,57 @@ public final class AudioTranscoder {
      * @return A buffer containing processed output data between its position and limit.
      */
     public ByteBuffer getOutput() {
+        int outputSize = getPendingOutputSize();
+        if (outputSize > 0) {
+            if (buffer.capacity() < outputSize) {
+                buffer = ByteBuffer.allocateDirect(outputSize).order(ByteOrder.nativeOrder());
+                shortBuffer = buffer.asShortBuffer();
+            } else {
+                buffer.clear();
+                shortBuffer.clear();
+            }
+            sonic.getOutput(shortBuffer);
+            outputBytes += outputSize;
+            buffer.limit(outputSize);
+            outputBuffer = buffer;
+        }
         ByteBuffer outputBuffer = this.outputBuffer;
         this.outputBuffer = EMPTY_BUFFER;
         return outputBuffer;
     }
 
+    /**
+     * Writes processed output data straight into {@code target}, starting at its position, without
+     * going through the internal output buffer. Only whole frames are written, up to
+     * {@code target.remaining()} bytes; the target's position is advanced by the number of bytes
+     * written. The samples are written in the target's byte order, so a MediaCodec input buffer or
+     * any other native-order buffer can be passed directly.
+     *
+     * @param target The buffer to write output data into.
+     * @return The number of bytes written.
+     */
+    public int getOutput(ByteBuffer target) {
+        int frameSize = channelCount * 2;
+        int outputSize = Math.min(getPendingOutputSize(), target.remaining() / frameSize * frameSize);
+        if (outputSize <= 0) {
+            return 0;
+        }
+        ShortBuffer targetBuffer = target.asShortBuffer();
+        targetBuffer.limit(outputSize / 2);
+        sonic.getOutput(targetBuffer);
+        target.position(target.position() + outputSize);
+        outputBytes += outputSize;
+        return outputSize;
+    }
+
+    /**
+     * Returns the number of processed bytes that can be read with {@link #getOutput()} or
+     * {@link #getOutput(ByteBuffer)}.
+     */
+    public int getPendingOutputSize() {
+        return sonic == null ? 0 : sonic.getSamplesAvailable() * channelCount * 2;
+    }
+
     /**
      * Returns whether this processor will return no more output from {@link #getOutput()} until it
      * has been {@link #flush()}ed and more input has been queued.
@@ -275,7 +319,9 @@ public final class AudioTranscoder {
      * Clears any state in preparation for receiving a new stream of input buffers.
      */
     public void flush() {
-        sonic = new Sonic(sampleRateHz, channelCount, speed, pitch, outputSampleRateHz);
+        int maxInputSamples = channelCount > 0 ? maxInputSize / (channelCount * 2) : 0;
+        sonic = new Sonic(sampleRateHz, channelCount, speed, pitch, outputSampleRateHz,
+                maxInputSamples);
         outputBuffer = EMPTY_BUFFER;
         inputBytes = 0;
         outputBytes = 0;
@@ -0,0 +1,262 @@
+package com.cgfay.media.recorder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单生产者/单消费者的无锁PCM环形缓冲区
+ * 容量为2的幂，底层使用预分配的direct内存，写入和读取过程中不再分配任何对象。
+ * 只允许一个线程调用写入方法、一个线程调用读取方法。
+ * 读取到输出端时按帧对齐，不会把一个采样帧拆到两个输入缓冲区中。
+ * @author CainHuang
+ * @date 2019/7/6
+ */
+public final class PcmRingBuffer {
+
+    // 缓冲区
+    private final ByteBuffer mBuffer;
+    // 写入视图，仅生产者线程使用
+    private final ByteBuffer mWriteView;
+    // 读取视图，仅消费者线程使用
+    private final ByteBuffer mReadView;
+    // 容量
+    private final int mCapacity;
+    // 下标掩码
+    private final int mMask;
+    // 每帧的字节数，声道数 x 每个采样的字节数
+    private final int mFrameSize;
+
+    // 写入位置，只由生产者更新
+    private final AtomicLong mWritePosition = new AtomicLong();
+    // 读取位置，只由消费者更新
+    private final AtomicLong mReadPosition = new AtomicLong();
+
+    // 写入时缓冲区空间不足的次数
+    private final AtomicLong mOverrunCount = new AtomicLong();
+    // 读取时缓冲区为空的次数
+    private final AtomicLong mUnderrunCount = new AtomicLong();
+
+    /**
+     * 创建环形缓冲区，按字节读取
+     * @param minCapacity 最小容量(字节)，实际容量向上取整为2的幂
+     */
+    public PcmRingBuffer(int minCapacity) {
+        this(minCapacity, 1);
+    }
+
+    /**
+     * 创建环形缓冲区
+     * @param minCapacity 最小容量(字节)，实际容量向上取整为2的幂
+     * @param frameSize   每帧的字节数，16位PCM为声道数 x 2
+     */
+    public PcmRingBuffer(int minCapacity, int frameSize) {
+        if (minCapacity <= 0 || minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + minCapacity);
+        }
+        if (frameSize <= 0 || frameSize > minCapacity) {
+            throw new IllegalArgumentException("Invalid frame size: " + frameSize);
+        }
+        mFrameSize = frameSize;
+        mCapacity = roundUpToPowerOfTwo(minCapacity);
+        mMask = mCapacity - 1;
+        mBuffer = ByteBuffer.allocateDirect(mCapacity).order(ByteOrder.nativeOrder());
+        mWriteView = mBuffer.duplicate().order(ByteOrder.nativeOrder());
+        mReadView = mBuffer.duplicate();
+    }
+
+    /**
+     * 获取容量
+     */
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 获取每帧的字节数
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * 获取可读取的字节数
+     */
+    public int available() {
+        return (int) (mWritePosition.get() - mReadPosition.get());
+    }
+
+    /**
+     * 获取可写入的字节数
+     */
+    public int remaining() {
+        return mCapacity - available();
+    }
+
+    /**
+     * 写入数据，仅生产者线程调用。
+     * 写入src的position到limit之间的数据，空间不足时只写入能容纳的部分，并记录一次溢出。
+     * @param src 数据源，position会前进写入的字节数
+     * @return 实际写入的字节数
+     */
+    public int write(ByteBuffer src) {
+        long writePosition = mWritePosition.get();
+        int free = mCapacity - (int) (writePosition - mReadPosition.get());
+        int length = src.remaining();
+        if (length > free) {
+            mOverrunCount.incrementAndGet();
+            length = free;
+        }
+        if (length <= 0) {
+            return 0;
+        }
+        int offset = (int) (writePosition & mMask);
+        int first = Math.min(length, mCapacity - offset);
+        int srcLimit = src.limit();
+        // 写入到缓冲区末尾
+        src.limit(src.position() + first);
+        mWriteView.limit(offset + first).position(offset);
+        mWriteView.put(src);
+        // 回绕写入到缓冲区开头
+        if (first < length) {
+            src.limit(src.position() + length - first);
+            mWriteView.limit(length - first).position(0);
+            mWriteView.put(src);
+        }
+        src.limit(srcLimit);
+        mWritePosition.lazySet(writePosition + length);
+        return length;
+    }
+
+    /**
+     * 获取可直接写入的连续区域，仅生产者线程调用。
+     * 返回的缓冲区为原生字节序，position为写入位置，limit为连续可写区域的末尾，
+     * 写入完成后需要调用{@link #commitWrite(int)}提交。缓冲区已满时返回的区域为空，并记录一次溢出。
+     * @return 可写入区域
+     */
+    public ByteBuffer beginWrite() {
+        long writePosition = mWritePosition.get();
+        int free = mCapacity - (int) (writePosition - mReadPosition.get());
+        int offset = (int) (writePosition & mMask);
+        if (free == 0) {
+            mOverrunCount.incrementAndGet();
+        }
+        mWriteView.limit(offset + Math.min(free, mCapacity - offset)).position(offset);
+        return mWriteView;
+    }
+
+    /**
+     * 提交通过{@link #beginWrite()}写入的数据，仅生产者线程调用
+     * @param length 写入的字节数
+     */
+    public void commitWrite(int length) {
+        if (length > 0) {
+            mWritePosition.lazySet(mWritePosition.get() + length);
+        }
+    }
+
+    /**
+     * 将数据直接读取到输出端的输入缓冲区中，仅消费者线程调用
+     * @param sink      输出端
+     * @param maxLength 单次最大读取长度，向下取整为整帧
+     * @param timeoutUs 等待输入缓冲区的时长
+     * @return 实际读取的字节数，为整帧的长度，缓冲区不足一帧或者输出端没有可用缓冲区时返回0
+     */
+    public int read(AudioSink sink, int maxLength, long timeoutUs) {
+        int available = available();
+        if (available < mFrameSize) {
+            mUnderrunCount.incrementAndGet();
+            return 0;
+        }
+        int index = sink.dequeueInputBuffer(timeoutUs);
+        if (index < 0) {
+            return 0;
+        }
+        ByteBuffer inputBuffer = sink.getInputBuffer(index);
+        int length = Math.min(Math.min(inputBuffer.remaining(), maxLength), available);
+        length -= length % mFrameSize;
+        inputBuffer.limit(inputBuffer.position() + length);
+        int size = read(inputBuffer);
+        sink.queueInputBuffer(index, size);
+        return size;
+    }
+
+    /**
+     * 读取数据，仅消费者线程调用
+     * @param dst   目标数组
+     * @param offset 起始偏移
+     * @param length 最大读取长度
+     * @return 实际读取的字节数，缓冲区为空时返回0，并记录一次欠载
+     */
+    public int read(byte[] dst, int offset, int length) {
+        long readPosition = mReadPosition.get();
+        int size = Math.min(length, (int) (mWritePosition.get() - readPosition));
+        if (size <= 0) {
+            mUnderrunCount.incrementAndGet();
+            return 0;
+        }
+        int index = (int) (readPosition & mMask);
+        int first = Math.min(size, mCapacity - index);
+        mReadView.limit(index + first).position(index);
+        mReadView.get(dst, offset, first);
+        if (first < size) {
+            mReadView.limit(size - first).position(0);
+            mReadView.get(dst, offset + first, size - first);
+        }
+        mReadPosition.lazySet(readPosition + size);
+        return size;
+    }
+
+    /**
+     * 读取数据到目标缓冲区，仅消费者线程调用
+     * @param dst 目标缓冲区，读取dst.remaining()以内的数据，position会前进读取的字节数
+     * @return 实际读取的字节数，缓冲区为空时返回0，并记录一次欠载
+     */
+    public int read(ByteBuffer dst) {
+        long readPosition = mReadPosition.get();
+        int size = Math.min(dst.remaining(), (int) (mWritePosition.get() - readPosition));
+        if (size <= 0) {
+            mUnderrunCount.incrementAndGet();
+            return 0;
+        }
+        int index = (int) (readPosition & mMask);
+        int first = Math.min(size, mCapacity - index);
+        mReadView.limit(index + first).position(index);
+        dst.put(mReadView);
+        if (first < size) {
+            mReadView.limit(size - first).position(0);
+            dst.put(mReadView);
+        }
+        mReadPosition.lazySet(readPosition + size);
+        return size;
+    }
+
+    /**
+     * 清空缓冲区，只能在生产者和消费者都停止时调用
+     */
+    public void clear() {
+        mWritePosition.set(0);
+        mReadPosition.set(0);
+        mOverrunCount.set(0);
+        mUnderrunCount.set(0);
+    }
+
+    /**
+     * 获取写入时空间不足的次数
+     */
+    public long getOverrunCount() {
+        return mOverrunCount.get();
+    }
+
+    /**
+     * 获取读取时缓冲区为空的次数
+     */
+    public long getUnderrunCount() {
+        return mUnderrunCount.get();
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+}
@@ -28,6 +28,10 @@ import java.util.Arrays;
     private short[] inputBuffer;
     private int outputBufferSize;
     private short[] outputBuffer;
+    // Index of the first unprocessed input frame. Consumed input is skipped rather than shifted.
+    private int inputStart;
+    // Index of the first unread output frame. Read output is skipped rather than shifted.
+    private int outputStart;
     private int pitchBufferSize;
     private short[] pitchBuffer;
     private int oldRatePosition;
@@ -52,24 +56,48 @@ import java.util.Arrays;
      */
     public Sonic(int inputSampleRateHz, int numChannels, float speed, float pitch,
                  int outputSampleRateHz) {
+        this(inputSampleRateHz, numChannels, speed, pitch, outputSampleRateHz, 0);
+    }
+
+    /**
+     * Creates a new Sonic audio stream processor whose buffers are sized up front, so that
+     * {@link #queueInput(ShortBuffer)} and {@link #getOutput(ShortBuffer)} never allocate as long
+     * as no single call queues more than {@code maxInputSamples} samples per channel.
+     *
+     * @param inputSampleRateHz The sample rate of input audio, in hertz.
+     * @param numChannels The number of channels in the input audio.
+     * @param speed The speedup factor for output audio.
+     * @param pitch The pitch factor for output audio.
+     * @param outputSampleRateHz The sample rate for output audio, in hertz.
+     * @param maxInputSamples The largest number of samples per channel queued in one call, or 0 if
+     *     unknown, in which case buffers grow on demand.
+     */
+    public Sonic(int inputSampleRateHz, int numChannels, float speed, float pitch,
+                 int outputSampleRateHz, int maxInputSamples) {
         this.inputSampleRateHz = inputSampleRateHz;
         this.numChannels = numChannels;
         minPeriod = inputSampleRateHz / MAXIMUM_PITCH;
         maxPeriod = inputSampleRateHz / MINIMUM_PITCH;
         maxRequired = 2 * maxPeriod;
         downSampleBuffer = new short[maxRequired];
-        inputBufferSize = maxRequired;
-        inputBuffer = new short[maxRequired * numChannels];
-        outputBufferSize = maxRequired;
-        outputBuffer = new short[maxRequired * numChannels];
-        pitchBufferSize = maxRequired;
-        pitchBuffer = new short[maxRequired * numChannels];
+        this.rate = (float) inputSampleRateHz / outputSampleRateHz;
+        // Input holds one queued chunk, the unprocessed tail of the previous one and the silence
+        // appended by queueEndOfStream(). Output and pitch buffers hold that input at the largest
+        // expansion the speed and rate can produce.
+        int maxInput = maxInputSamples + 3 * maxRequired;
+        float expansion = 1.0f / (Math.min(1.0f, speed / pitch) * Math.min(1.0f, rate * pitch));
+        int maxOutput = (int) (maxInput * expansion) + maxRequired;
+        inputBufferSize = maxInputSamples > 0 ? maxInput : maxRequired;
+        inputBuffer = new short[inputBufferSize * numChannels];
+        outputBufferSize = maxInputSamples > 0 ? maxOutput : maxRequired;
+        outputBuffer = new short[outputBufferSize * numChannels];
+        pitchBufferSize = maxInputSamples > 0 ? maxOutput : maxRequired;
+        pitchBuffer = new short[pitchBufferSize * numChannels];
         oldRatePosition = 0;
         newRatePosition = 0;
         prevPeriod = 0;
         this.speed = speed;
         this.pitch = pitch;
-        this.rate = (float) inputSampleRateHz / outputSampleRateHz;
     }
 
     /**
@@ -82,7 +110,7 @@ import java.util.Arrays;
         int samplesToWrite = buffer.remaining() / numChannels;
         int bytesToWrite = samplesToWrite * numChannels * 2;
         enlargeInputBufferIfNeeded(samplesToWrite);
-        buffer.get(inputBuffer, numInputSamples * numChannels, bytesToWrite / 2);
+        buffer.get(inputBuffer, (inputStart + numInputSamples) * numChannels, bytesToWrite / 2);
         numInputSamples += samplesToWrite;
         processStreamInput();
     }
@@ -95,10 +123,9 @@ import java.util.Arrays;
      */
     public void getOutput(ShortBuffer buffer) {
         int samplesToRead = Math.min(buffer.remaining() / numChannels, numOutputSamples);
-        buffer.put(outputBuffer, 0, samplesToRead * numChannels);
+        buffer.put(outputBuffer, outputStart * numChannels, samplesToRead * numChannels);
         numOutputSamples -= samplesToRead;
-        System.arraycopy(outputBuffer, samplesToRead * numChannels, outputBuffer, 0,
-                numOutputSamples * numChannels);
+        outputStart = numOutputSamples == 0 ? 0 : outputStart + samplesToRead;
     }
 
     /**
@@ -113,10 +140,10 @@ import java.util.Arrays;
                 numOutputSamples + (int) ((remainingSamples / s + numPitchSamples) / r + 0.5f);
 
         // Add enough silence to flush both input and pitch buffers.
-        enlargeInputBufferIfNeeded(remainingSamples + 2 * maxRequired);
-        for (int xSample = 0; xSample < 2 * maxRequired * numChannels; xSample++) {
-            inputBuffer[remainingSamples * numChannels + xSample] = 0;
-        }
+        enlargeInputBufferIfNeeded(2 * maxRequired);
+        int silenceStart = (inputStart + remainingSamples) * numChannels;
+        Arrays.fill(inputBuffer, silenceStart, silenceStart + 2 * maxRequired * numChannels,
+                (short) 0);
         numInputSamples += 2 * maxRequired;
         processStreamInput();
         // Throw away any extra samples we generated due to the silence we added.
@@ -125,6 +152,7 @@ import java.util.Arrays;
         }
         // Empty input and pitch buffers.
         numInputSamples = 0;
+        inputStart = 0;
         remainingInputToCopy = 0;
         numPitchSamples = 0;
     }
@@ -138,31 +166,58 @@ import java.util.Arrays;
 
     // Internal methods.
 
+    /**
+     * Makes room for {@code numSamples} more output samples after the unread ones. Unread output is
+     * moved to the start of the buffer only when the tail is exhausted, and the buffer only grows
+     * when the unread output plus the new samples exceed its capacity.
+     */
     private void enlargeOutputBufferIfNeeded(int numSamples) {
+        if (outputStart + numOutputSamples + numSamples <= outputBufferSize) {
+            return;
+        }
         if (numOutputSamples + numSamples > outputBufferSize) {
             outputBufferSize += (outputBufferSize / 2) + numSamples;
-            outputBuffer = Arrays.copyOf(outputBuffer, outputBufferSize * numChannels);
+            short[] newBuffer = new short[outputBufferSize * numChannels];
+            System.arraycopy(outputBuffer, outputStart * numChannels, newBuffer, 0,
+                    numOutputSamples * numChannels);
+            outputBuffer = newBuffer;
+        } else {
+            System.arraycopy(outputBuffer, outputStart * numChannels, outputBuffer, 0,
+                    numOutputSamples * numChannels);
         }
+        outputStart = 0;
     }
 
+    /**
+     * Makes room for {@code numSamples} more input samples after the unprocessed ones, in the same
+     * way as {@link #enlargeOutputBufferIfNeeded(int)}.
+     */
     private void enlargeInputBufferIfNeeded(int numSamples) {
+        if (inputStart + numInputSamples + numSamples <= inputBufferSize) {
+            return;
+        }
         if (numInputSamples + numSamples > inputBufferSize) {
             inputBufferSize += (inputBufferSize / 2) + numSamples;
-            inputBuffer = Arrays.copyOf(inputBuffer, inputBufferSize * numChannels);
+            short[] newBuffer = new short[inputBufferSize * numChannels];
+            System.arraycopy(inputBuffer, inputStart * numChannels, newBuffer, 0,
+                    numInputSamples * numChannels);
+            inputBuffer = newBuffer;
+        } else {
+            System.arraycopy(inputBuffer, inputStart * numChannels, inputBuffer, 0,
+                    numInputSamples * numChannels);
         }
+        inputStart = 0;
     }
 
     private void removeProcessedInputSamples(int position) {
-        int remainingSamples = numInputSamples - position;
-        System.arraycopy(inputBuffer, position * numChannels, inputBuffer, 0,
-                remainingSamples * numChannels);
-        numInputSamples = remainingSamples;
+        numInputSamples -= position;
+        inputStart = numInputSamples == 0 ? 0 : inputStart + position;
     }
 
     private void copyToOutput(short[] samples, int position, int numSamples) {
         enlargeOutputBufferIfNeeded(numSamples);
-        System.arraycopy(samples, position * numChannels, outputBuffer, numOutputSamples * numChannels,
-                numSamples * numChannels);
+        System.arraycopy(samples, position * numChannels, outputBuffer,
+                (outputStart + numOutputSamples) * numChannels, numSamples * numChannels);
         numOutputSamples += numSamples;
     }
 
@@ -198,12 +253,7 @@ import java.util.Arrays;
         int maxDiff = 0;
         position *= numChannels;
         for (int period = minPeriod; period <= maxPeriod; period++) {
-            int diff = 0;
-            for (int i = 0; i < period; i++) {
-                short sVal = samples[position + i];
-                short pVal = samples[position + period + i];
-                diff += Math.abs(sVal - pVal);
-            }
+            int diff = averageMagnitudeDifference(samples, position, period);
             // Note that the highest number of samples we add into diff will be less than 256, since we
             // skip samples. Thus, diff is a 24 bit number, and we can safely multiply by numSamples
             // without overflow.
@@ -221,6 +271,33 @@ import java.util.Arrays;
         return bestPeriod;
     }
 
+    /**
+     * Returns the sum of absolute differences between the {@code period} samples starting at
+     * {@code position} and the {@code period} samples that follow them. The loop is unrolled into
+     * four independent accumulators so that the JIT can keep them in registers and vectorize the
+     * body; integer addition is associative, so the result is identical to the plain loop.
+     */
+    /* package */ static int averageMagnitudeDifference(short[] samples, int position, int period) {
+        int diff0 = 0;
+        int diff1 = 0;
+        int diff2 = 0;
+        int diff3 = 0;
+        int p = position + period;
+        int end = position + (period & ~3);
+        int i = position;
+        for (; i < end; i += 4, p += 4) {
+            diff0 += Math.abs(samples[i] - samples[p]);
+            diff1 += Math.abs(samples[i + 1] - samples[p + 1]);
+            diff2 += Math.abs(samples[i + 2] - samples[p + 2]);
+            diff3 += Math.abs(samples[i + 3] - samples[p + 3]);
+        }
+        end = position + period;
+        for (; i < end; i++, p++) {
+            diff0 += Math.abs(samples[i] - samples[p]);
+        }
+        return diff0 + diff1 + diff2 + diff3;
+    }
+
     /**
      * Returns whether the previous pitch period estimate is a better approximation, which can occur
      * at the abrupt end of voiced words.
@@ -293,8 +370,8 @@ import java.util.Arrays;
             pitchBufferSize += (pitchBufferSize / 2) + numSamples;
             pitchBuffer = Arrays.copyOf(pitchBuffer, pitchBufferSize * numChannels);
         }
-        System.arraycopy(outputBuffer, originalNumOutputSamples * numChannels, pitchBuffer,
-                numPitchSamples * numChannels, numSamples * numChannels);
+        System.arraycopy(outputBuffer, (outputStart + originalNumOutputSamples) * numChannels,
+                pitchBuffer, numPitchSamples * numChannels, numSamples * numChannels);
         numOutputSamples = originalNumOutputSamples;
         numPitchSamples += numSamples;
     }
@@ -336,7 +413,7 @@ import java.util.Arrays;
             while ((oldRatePosition + 1) * newSampleRate > newRatePosition * oldSampleRate) {
                 enlargeOutputBufferIfNeeded(1);
                 for (int i = 0; i < numChannels; i++) {
-                    outputBuffer[numOutputSamples * numChannels + i] =
+                    outputBuffer[(outputStart + numOutputSamples) * numChannels + i] =
                             interpolate(pitchBuffer, position * numChannels + i, oldSampleRate, newSampleRate);
                 }
                 newRatePosition++;
@@ -364,8 +441,8 @@ import java.util.Arrays;
             remainingInputToCopy = (int) (period * (2.0f - speed) / (speed - 1.0f));
         }
         enlargeOutputBufferIfNeeded(newSamples);
-        overlapAdd(newSamples, numChannels, outputBuffer, numOutputSamples, samples, position, samples,
-                position + period);
+        overlapAdd(newSamples, numChannels, outputBuffer, outputStart + numOutputSamples, samples,
+                position, samples, position + period);
         numOutputSamples += newSamples;
         return newSamples;
     }
@@ -380,10 +457,10 @@ import java.util.Arrays;
             remainingInputToCopy = (int) (period * (2.0f * speed - 1.0f) / (1.0f - speed));
         }
         enlargeOutputBufferIfNeeded(period + newSamples);
-        System.arraycopy(samples, position * numChannels, outputBuffer, numOutputSamples * numChannels,
-                period * numChannels);
-        overlapAdd(newSamples, numChannels, outputBuffer, numOutputSamples + period, samples,
-                position + period, samples, position);
+        System.arraycopy(samples, position * numChannels, outputBuffer,
+                (outputStart + numOutputSamples) * numChannels, period * numChannels);
+        overlapAdd(newSamples, numChannels, outputBuffer, outputStart + numOutputSamples + period,
+                samples, position + period, samples, position);
         numOutputSamples += period + newSamples;
         return newSamples;
     }
@@ -396,13 +473,14 @@ import java.util.Arrays;
         int position = 0;
         do {
             if (remainingInputToCopy > 0) {
-                position += copyInputToOutput(position);
+                position += copyInputToOutput(inputStart + position);
             } else {
-                int period = findPitchPeriod(inputBuffer, position, true);
+                int start = inputStart + position;
+                int period = findPitchPeriod(inputBuffer, start, true);
                 if (speed > 1.0) {
-                    position += period + skipPitchPeriod(inputBuffer, position, speed, period);
+                    position += period + skipPitchPeriod(inputBuffer, start, speed, period);
                 } else {
-                    position += insertPitchPeriod(inputBuffer, position, speed, period);
+                    position += insertPitchPeriod(inputBuffer, start, speed, period);
                 }
             }
         } while (position + maxRequired <= numSamples);
@@ -417,8 +495,9 @@ import java.util.Arrays;
         if (s > 1.00001 || s < 0.99999) {
             changeSpeed(s);
         } else {
-            copyToOutput(inputBuffer, 0, numInputSamples);
+            copyToOutput(inputBuffer, inputStart, numInputSamples);
             numInputSamples = 0;
+            inputStart = 0;
         }
         if (r != 1.0f) {
             adjustRate(r, originalNumOutputSamples);
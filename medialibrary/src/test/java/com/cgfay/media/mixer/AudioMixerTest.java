@@ -0,0 +1,292 @@
+package com.cgfay.media.mixer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 进程内混音器的单元测试，输出与逐帧计算的参考混音结果比较
+ */
+public class AudioMixerTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BLOCK_FRAMES = 256;
+
+    /**
+     * 内存数据源，每次读取的帧数不固定，用于覆盖分块边界
+     */
+    private static final class MemoryPcmSource implements PcmSource {
+
+        private final short[] mData;
+        private final int mSampleRate;
+        private final int mChannelCount;
+        private final Random mRandom = new Random(7);
+        private int mPosition;
+
+        MemoryPcmSource(short[] data, int sampleRate, int channelCount) {
+            mData = data;
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        @Override
+        public int read(short[] buffer, int frames) {
+            int remain = (mData.length - mPosition) / mChannelCount;
+            if (remain <= 0) {
+                return -1;
+            }
+            int count = Math.min(remain, 1 + mRandom.nextInt(frames));
+            System.arraycopy(mData, mPosition, buffer, 0, count * mChannelCount);
+            mPosition += count * mChannelCount;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 内存输出端
+     */
+    private static final class MemoryPcmSink implements PcmSink {
+
+        private final int mChannelCount;
+        private short[] mData = new short[0];
+        private int mSize;
+
+        MemoryPcmSink(int channelCount) {
+            mChannelCount = channelCount;
+        }
+
+        @Override
+        public void write(short[] buffer, int frames) {
+            int samples = frames * mChannelCount;
+            if (mSize + samples > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mSize + samples));
+            }
+            System.arraycopy(buffer, 0, mData, mSize, samples);
+            mSize += samples;
+        }
+
+        short[] toArray() {
+            return Arrays.copyOf(mData, mSize);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void delayMatchesReference() throws Exception {
+        short[] first = createInput(SAMPLE_RATE, 1, 1);
+        short[] second = createInput(SAMPLE_RATE / 2, 1, 2);
+        int delayMs = 250;
+        int delayFrames = SAMPLE_RATE * delayMs / 1000;
+
+        List<MixTrack> tracks = new ArrayList<>();
+        tracks.add(new MixTrack(new MemoryPcmSource(first, SAMPLE_RATE, 1)));
+        tracks.add(new MixTrack(new MemoryPcmSource(second, SAMPLE_RATE, 1)).setDelayMs(delayMs));
+        short[] output = mix(new AudioMixer(SAMPLE_RATE, 1), tracks);
+
+        short[] expected = new short[first.length];
+        for (int i = 0; i < expected.length; i++) {
+            float value = first[i];
+            int j = i - delayFrames;
+            if (j >= 0 && j < second.length) {
+                value += second[j];
+            }
+            expected[i] = clip(value / 2);
+        }
+        assertArrayEquals(expected, output);
+    }
+
+    @Test
+    public void resampleMatchesLinearInterpolation() throws Exception {
+        int inputRate = 22050;
+        short[] input = createInput(inputRate / 4, 1, 3);
+        List<MixTrack> tracks = new ArrayList<>();
+        tracks.add(new MixTrack(new MemoryPcmSource(input, inputRate, 1)));
+        short[] output = mix(new AudioMixer(SAMPLE_RATE, 1), tracks);
+
+        double step = (double) inputRate / SAMPLE_RATE;
+        int expectedFrames = (int) Math.ceil(input.length / step);
+        assertTrue("output frames " + output.length,
+                Math.abs(output.length - expectedFrames) <= 1);
+        int compareFrames = (int) ((input.length - 1) / step);
+        for (int n = 0; n < compareFrames; n++) {
+            double position = n * step;
+            int index = (int) position;
+            double fraction = position - index;
+            double expected = input[index] + (input[index + 1] - input[index]) * fraction;
+            assertEquals("frame " + n, expected, output[n], 1.0);
+        }
+    }
+
+    @Test
+    public void channelMappingMatchesReference() throws Exception {
+        short[] mono = createInput(SAMPLE_RATE / 10, 1, 4);
+        short[] stereo = createInput(SAMPLE_RATE / 10, 2, 5);
+        List<MixTrack> tracks = new ArrayList<>();
+        tracks.add(new MixTrack(new MemoryPcmSource(stereo, SAMPLE_RATE, 2)));
+        tracks.add(new MixTrack(new MemoryPcmSource(mono, SAMPLE_RATE, 1)));
+        short[] output = mix(new AudioMixer(SAMPLE_RATE, 2), tracks);
+
+        short[] expected = new short[stereo.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = clip((stereo[i] + (float) mono[i / 2]) / 2);
+        }
+        assertArrayEquals(expected, output);
+    }
+
+    @Test
+    public void durationModes() throws Exception {
+        int shortFrames = 1000;
+        int longFrames = 3000;
+        assertEquals(shortFrames, mixLength(AudioMixer.DurationMode.FIRST, shortFrames, longFrames, 0));
+        assertEquals(longFrames, mixLength(AudioMixer.DurationMode.FIRST, longFrames, shortFrames, 0));
+        assertEquals(longFrames, mixLength(AudioMixer.DurationMode.LONGEST, shortFrames, longFrames, 0));
+        assertEquals(shortFrames, mixLength(AudioMixer.DurationMode.SHORTEST, longFrames, shortFrames, 0));
+        // 延时计入轨道时长
+        int delayMs = 100;
+        int delayFrames = SAMPLE_RATE * delayMs / 1000;
+        assertEquals(longFrames + delayFrames,
+                mixLength(AudioMixer.DurationMode.LONGEST, shortFrames, longFrames, delayMs));
+        assertEquals(shortFrames,
+                mixLength(AudioMixer.DurationMode.SHORTEST, shortFrames, longFrames, delayMs));
+    }
+
+    @Test
+    public void gainMatchesReference() throws Exception {
+        short[] first = createInput(SAMPLE_RATE / 5, 2, 6);
+        short[] second = createInput(SAMPLE_RATE / 5, 2, 7);
+        float volume = 0.5f;
+        float volume1 = 3.0f;
+        for (boolean normalize : new boolean[] {true, false}) {
+            List<MixTrack> tracks = new ArrayList<>();
+            tracks.add(new MixTrack(new MemoryPcmSource(first, SAMPLE_RATE, 2)).setVolume(volume));
+            tracks.add(new MixTrack(new MemoryPcmSource(second, SAMPLE_RATE, 2)).setVolume(volume1));
+            AudioMixer mixer = new AudioMixer(SAMPLE_RATE, 2);
+            mixer.setNormalize(normalize);
+            short[] output = mix(mixer, tracks);
+
+            float scale = normalize ? 0.5f : 1.0f;
+            short[] expected = new short[first.length];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = clip((first[i] * volume + second[i] * volume1) * scale);
+            }
+            assertArrayEquals("normalize " + normalize, expected, output);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSingleThread() throws Exception {
+        short[][] inputs = new short[4][];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = createInput(SAMPLE_RATE / 3, 2, 10 + i);
+        }
+        short[] single = null;
+        for (int threadCount : new int[] {1, 4}) {
+            List<MixTrack> tracks = new ArrayList<>();
+            for (int i = 0; i < inputs.length; i++) {
+                tracks.add(new MixTrack(new MemoryPcmSource(inputs[i], i % 2 == 0 ? SAMPLE_RATE : 48000, 2))
+                        .setVolume(0.25f * (i + 1)).setDelayMs(i * 20));
+            }
+            AudioMixer mixer = new AudioMixer(SAMPLE_RATE, 2);
+            mixer.setThreadCount(threadCount);
+            short[] output = mix(mixer, tracks);
+            mixer.release();
+            if (single == null) {
+                single = output;
+            } else {
+                assertArrayEquals(single, output);
+            }
+        }
+    }
+
+    @Test
+    public void chunkedMixMatchesSingleThread() throws Exception {
+        short[] first = createInput(SAMPLE_RATE, 2, 12);
+        short[] second = createInput(SAMPLE_RATE / 2, 2, 13);
+        short[] single = null;
+        for (int threadCount : new int[] {1, 4}) {
+            List<MixTrack> tracks = new ArrayList<>();
+            tracks.add(new MixTrack(new MemoryPcmSource(first, SAMPLE_RATE, 2)).setVolume(0.8f));
+            tracks.add(new MixTrack(new MemoryPcmSource(second, SAMPLE_RATE, 2)).setVolume(1.5f));
+            AudioMixer mixer = new AudioMixer(SAMPLE_RATE, 2);
+            mixer.setThreadCount(threadCount);
+            // 大块时每一块的累加切成多个分段并行执行
+            mixer.setBlockFrames(16384);
+            MemoryPcmSink sink = new MemoryPcmSink(2);
+            mixer.mix(tracks, sink);
+            mixer.release();
+            short[] output = sink.toArray();
+            assertEquals(first.length, output.length);
+            if (single == null) {
+                single = output;
+            } else {
+                assertArrayEquals(single, output);
+            }
+        }
+    }
+
+    private static int mixLength(AudioMixer.DurationMode mode, int frames, int frames1, int delayMs1)
+            throws IOException {
+        List<MixTrack> tracks = new ArrayList<>();
+        tracks.add(new MixTrack(new MemoryPcmSource(createInput(frames, 1, 8), SAMPLE_RATE, 1)));
+        tracks.add(new MixTrack(new MemoryPcmSource(createInput(frames1, 1, 9), SAMPLE_RATE, 1))
+                .setDelayMs(delayMs1));
+        AudioMixer mixer = new AudioMixer(SAMPLE_RATE, 1);
+        mixer.setDurationMode(mode);
+        int length = mix(mixer, tracks).length;
+        assertEquals(length, mixer.getOutputFrames());
+        return length;
+    }
+
+    private static short[] mix(AudioMixer mixer, List<MixTrack> tracks) throws IOException {
+        mixer.setBlockFrames(BLOCK_FRAMES);
+        MemoryPcmSink sink = new MemoryPcmSink(mixer.getChannelCount());
+        mixer.mix(tracks, sink);
+        mixer.release();
+        return sink.toArray();
+    }
+
+    private static short clip(float value) {
+        return value >= Short.MAX_VALUE ? Short.MAX_VALUE
+                : value <= Short.MIN_VALUE ? Short.MIN_VALUE : (short) value;
+    }
+
+    /**
+     * 生成带噪声的正弦波输入
+     */
+    private static short[] createInput(int frames, int channelCount, long seed) {
+        Random random = new Random(seed);
+        short[] data = new short[frames * channelCount];
+        for (int i = 0; i < frames; i++) {
+            double base = Math.sin(i * 2 * Math.PI * (220 + seed * 30) / SAMPLE_RATE) * 12000;
+            for (int c = 0; c < channelCount; c++) {
+                data[i * channelCount + c] = (short) (base + random.nextInt(4000) - 2000);
+            }
+        }
+        return data;
+    }
+}
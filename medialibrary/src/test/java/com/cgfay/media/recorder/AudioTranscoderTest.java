@@ -0,0 +1,189 @@
+package com.cgfay.media.recorder;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 倍速转码直接写入输出端的单元测试
+ */
+public class AudioTranscoderTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHUNK_SIZE = 3528;
+
+    /**
+     * 内存输出端，模拟MediaCodec的输入缓冲区
+     */
+    private static final class MemoryAudioSink implements AudioSink {
+
+        private final ByteBuffer[] mInputBuffers;
+        private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+        private final byte[] mCopyBuffer;
+        private int mNextIndex;
+        private boolean mEndOfStream;
+
+        MemoryAudioSink(int bufferCount, int bufferSize) {
+            mInputBuffers = new ByteBuffer[bufferCount];
+            for (int i = 0; i < bufferCount; i++) {
+                mInputBuffers[i] = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+            }
+            mCopyBuffer = new byte[bufferSize];
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            int index = mNextIndex;
+            mNextIndex = (mNextIndex + 1) % mInputBuffers.length;
+            return index;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            ByteBuffer buffer = mInputBuffers[index];
+            buffer.clear();
+            return buffer;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size) {
+            ByteBuffer buffer = mInputBuffers[index];
+            buffer.position(0);
+            buffer.get(mCopyBuffer, 0, size);
+            mOutput.write(mCopyBuffer, 0, size);
+        }
+
+        @Override
+        public void signalEndOfStream() {
+            mEndOfStream = true;
+        }
+
+        byte[] toByteArray() {
+            return mOutput.toByteArray();
+        }
+    }
+
+    @Test
+    public void directOutputMatchesBufferedOutput() throws Exception {
+        for (int channelCount = 1; channelCount <= 2; channelCount++) {
+            for (float speed : new float[] {1 / 3f, 0.5f, 2.0f, 3.0f}) {
+                byte[] input = createInput(channelCount, 2);
+                byte[] expected = transcodeBuffered(input, channelCount, speed);
+                byte[] actual = transcodeDirect(input, channelCount, speed);
+                assertTrue(expected.length > 0);
+                assertArrayEquals("channels " + channelCount + ", speed " + speed, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void ringBufferWrapsIntoSink() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(1000);
+        MemoryAudioSink sink = new MemoryAudioSink(2, 300);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte value = 0;
+        for (int i = 0; i < 50; i++) {
+            ByteBuffer region = ringBuffer.beginWrite();
+            int length = Math.min(region.remaining(), 128);
+            for (int j = 0; j < length; j++) {
+                region.put(value);
+                expected.write(value++);
+            }
+            ringBuffer.commitWrite(length);
+            while (ringBuffer.available() > 200) {
+                ringBuffer.read(sink, 300, 0);
+            }
+        }
+        while (ringBuffer.read(sink, 300, 0) > 0) {
+            // 读取剩余数据
+        }
+        assertEquals(1024, ringBuffer.capacity());
+        assertArrayEquals(expected.toByteArray(), sink.toByteArray());
+    }
+
+    private static byte[] createInput(int channelCount, int seconds) {
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_RATE * channelCount * 2 * seconds)
+                .order(ByteOrder.nativeOrder());
+        Random random = new Random(channelCount);
+        int i = 0;
+        while (buffer.hasRemaining()) {
+            buffer.putShort((short) (8000 * Math.sin(i++ * 0.02) + random.nextInt(800)));
+        }
+        return buffer.array();
+    }
+
+    private static AudioTranscoder createTranscoder(int channelCount, float speed) throws Exception {
+        AudioTranscoder transcoder = new AudioTranscoder();
+        transcoder.setSpeed(speed);
+        transcoder.configure(SAMPLE_RATE, channelCount, AudioFormat.ENCODING_PCM_16BIT);
+        transcoder.setOutputSampleRateHz(SAMPLE_RATE);
+        transcoder.setMaxInputSize(CHUNK_SIZE);
+        transcoder.flush();
+        return transcoder;
+    }
+
+    /**
+     * 原有路径：转码输出复制到堆数组
+     */
+    private static byte[] transcodeBuffered(byte[] input, int channelCount, float speed)
+            throws Exception {
+        AudioTranscoder transcoder = createTranscoder(channelCount, speed);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int offset = 0; offset < input.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, input.length - offset);
+            transcoder.queueInput(ByteBuffer.wrap(input, offset, length).order(ByteOrder.nativeOrder()));
+            writeTo(transcoder.getOutput(), output);
+        }
+        transcoder.endOfStream();
+        writeTo(transcoder.getOutput(), output);
+        return output.toByteArray();
+    }
+
+    /**
+     * 直接路径：转码输出写入环形缓冲区，再直接读取到输出端的输入缓冲区
+     */
+    private static byte[] transcodeDirect(byte[] input, int channelCount, float speed)
+            throws Exception {
+        AudioTranscoder transcoder = createTranscoder(channelCount, speed);
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(CHUNK_SIZE * 4);
+        MemoryAudioSink sink = new MemoryAudioSink(4, AudioEncoder.BUFFER_SIZE);
+        for (int offset = 0; offset < input.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, input.length - offset);
+            transcoder.queueInput(ByteBuffer.wrap(input, offset, length).order(ByteOrder.nativeOrder()));
+            drain(transcoder, ringBuffer, sink);
+        }
+        transcoder.endOfStream();
+        drain(transcoder, ringBuffer, sink);
+        while (ringBuffer.read(sink, AudioEncoder.BUFFER_SIZE, 0) > 0) {
+            // 读取剩余数据
+        }
+        sink.signalEndOfStream();
+        assertTrue(sink.mEndOfStream);
+        return sink.toByteArray();
+    }
+
+    private static void drain(AudioTranscoder transcoder, PcmRingBuffer ringBuffer,
+                              MemoryAudioSink sink) {
+        while (transcoder.getPendingOutputSize() > 0) {
+            ringBuffer.commitWrite(transcoder.getOutput(ringBuffer.beginWrite()));
+            if (ringBuffer.remaining() == 0) {
+                ringBuffer.read(sink, AudioEncoder.BUFFER_SIZE, 0);
+            }
+        }
+    }
+
+    private static void writeTo(ByteBuffer buffer, ByteArrayOutputStream output) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        output.write(data, 0, data.length);
+    }
+}
@@ -0,0 +1,177 @@
+package com.cgfay.media.recorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * PCM环形缓冲区的单元测试
+ */
+public class PcmRingBufferTest {
+
+    /**
+     * 内存输出端，每个输入缓冲区记录一次写入的长度
+     */
+    private static final class MemoryAudioSink implements AudioSink {
+
+        private final ByteBuffer mInputBuffer;
+        private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+        private boolean mAvailable = true;
+        private int mLastSize = -1;
+
+        MemoryAudioSink(int bufferSize) {
+            mInputBuffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return mAvailable ? 0 : -1;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            mInputBuffer.clear();
+            return mInputBuffer;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size) {
+            byte[] data = new byte[size];
+            mInputBuffer.position(0);
+            mInputBuffer.get(data);
+            mOutput.write(data, 0, size);
+            mLastSize = size;
+        }
+
+        @Override
+        public void signalEndOfStream() {
+
+        }
+    }
+
+    @Test
+    public void wrapsAroundEnd() {
+        PcmRingBuffer buffer = new PcmRingBuffer(16);
+        byte[] out = new byte[16];
+        // 读写位置移动到缓冲区中间，下一次写入跨过末尾
+        assertEquals(12, buffer.write(ByteBuffer.wrap(sequence(0, 12))));
+        assertEquals(12, buffer.read(out, 0, 12));
+        assertEquals(10, buffer.write(ByteBuffer.wrap(sequence(12, 10))));
+        assertEquals(10, buffer.available());
+        assertEquals(10, buffer.read(out, 0, 16));
+        assertArrayEquals(sequence(12, 10), copyOf(out, 10));
+
+        // 直接写入的区域在末尾截断，剩余部分从开头继续
+        ByteBuffer region = buffer.beginWrite();
+        assertEquals(10, region.remaining());
+        region.put(sequence(22, 10));
+        buffer.commitWrite(10);
+        region = buffer.beginWrite();
+        assertEquals(6, region.remaining());
+        region.put(sequence(32, 3));
+        buffer.commitWrite(3);
+        ByteBuffer dst = ByteBuffer.allocate(13);
+        assertEquals(13, buffer.read(dst));
+        assertArrayEquals(sequence(22, 13), dst.array());
+    }
+
+    @Test
+    public void partialReads() {
+        PcmRingBuffer buffer = new PcmRingBuffer(32);
+        buffer.write(ByteBuffer.wrap(sequence(0, 20)));
+        byte[] out = new byte[20];
+        assertEquals(7, buffer.read(out, 0, 7));
+        assertEquals(5, buffer.read(out, 7, 5));
+        assertEquals(8, buffer.read(out, 12, 100));
+        assertArrayEquals(sequence(0, 20), out);
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void fullAndEmpty() {
+        PcmRingBuffer buffer = new PcmRingBuffer(10);
+        assertEquals(16, buffer.capacity());
+
+        // 缓冲区为空时读取记录一次欠载
+        assertEquals(0, buffer.read(new byte[4], 0, 4));
+        assertEquals(1, buffer.getUnderrunCount());
+
+        // 写满时只写入能容纳的部分，并记录一次溢出
+        ByteBuffer src = ByteBuffer.wrap(sequence(0, 20));
+        assertEquals(16, buffer.write(src));
+        assertEquals(4, src.remaining());
+        assertEquals(1, buffer.getOverrunCount());
+        assertEquals(0, buffer.remaining());
+        assertEquals(0, buffer.beginWrite().remaining());
+        assertEquals(2, buffer.getOverrunCount());
+        assertEquals(0, buffer.write(src));
+
+        byte[] out = new byte[16];
+        assertEquals(16, buffer.read(out, 0, 16));
+        assertArrayEquals(sequence(0, 16), out);
+        assertEquals(16, buffer.remaining());
+
+        buffer.clear();
+        assertEquals(0, buffer.available());
+        assertEquals(0, buffer.getOverrunCount());
+        assertEquals(0, buffer.getUnderrunCount());
+    }
+
+    @Test
+    public void sinkReadKeepsWholeFrames() {
+        // 双声道16位，每帧4字节
+        PcmRingBuffer buffer = new PcmRingBuffer(64, 4);
+        MemoryAudioSink sink = new MemoryAudioSink(64);
+
+        // 最大长度不是整帧时向下取整
+        buffer.write(ByteBuffer.wrap(sequence(0, 40)));
+        assertEquals(8, buffer.read(sink, 10, 0));
+        assertEquals(8, sink.mLastSize);
+
+        // 输入缓冲区比可读数据大时只读取整帧，剩余的半帧留到下一次
+        buffer.write(ByteBuffer.wrap(sequence(40, 2)));
+        assertEquals(32, buffer.read(sink, 64, 0));
+        assertEquals(2, buffer.available());
+        assertEquals(0, buffer.read(sink, 64, 0));
+        assertEquals(1, buffer.getUnderrunCount());
+
+        // 输出端没有可用缓冲区时不读取
+        buffer.write(ByteBuffer.wrap(sequence(42, 6)));
+        sink.mAvailable = false;
+        assertEquals(0, buffer.read(sink, 64, 0));
+        assertEquals(8, buffer.available());
+        sink.mAvailable = true;
+        assertEquals(8, buffer.read(sink, 64, 0));
+        assertArrayEquals(sequence(0, 48), sink.mOutput.toByteArray());
+    }
+
+    @Test
+    public void sinkReadAcrossEnd() {
+        PcmRingBuffer buffer = new PcmRingBuffer(16, 4);
+        MemoryAudioSink sink = new MemoryAudioSink(16);
+        buffer.write(ByteBuffer.wrap(sequence(0, 12)));
+        assertEquals(12, buffer.read(sink, 16, 0));
+        buffer.write(ByteBuffer.wrap(sequence(12, 12)));
+        assertEquals(12, buffer.read(sink, 16, 0));
+        assertArrayEquals(sequence(0, 24), sink.mOutput.toByteArray());
+    }
+
+    private static byte[] sequence(int start, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (start + i);
+        }
+        return data;
+    }
+
+    private static byte[] copyOf(byte[] data, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return copy;
+    }
+}
@@ -0,0 +1,126 @@
+package com.cgfay.media.recorder;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sonic变速变调的单元测试
+ * 固定的PCM输入经过变速、变调和重采样之后，输出的长度和CRC32与修改缓冲区和AMDF查找之前的Sonic一致
+ */
+public class SonicTest {
+
+    // 每次送入的帧数
+    private static final int CHUNK_FRAMES = 1024;
+
+    /**
+     * 输入采样率、声道数、速度、音调、输出采样率，以及原来的Sonic输出的采样数和CRC32
+     */
+    private static final Object[][] GOLDEN = {
+            {44100, 1, 0.5f, 1.0f, 44100, 174190L, 0xeb45be93L},
+            {44100, 1, 2.0f, 1.0f, 44100, 43736L, 0x42c8eb63L},
+            {48000, 2, 0.5f, 1.0f, 48000, 379156L, 0xb4b44617L},
+            {48000, 2, 2.0f, 1.0f, 48000, 94748L, 0x2741ae8bL},
+            {44100, 2, 1.0f, 1.5f, 44100, 174332L, 0x9cdc98feL},
+            {48000, 1, 1.25f, 0.75f, 48000, 75699L, 0xd174ab8fL},
+            {44100, 1, 1.0f, 1.0f, 22050, 44096L, 0x2a1d0e3aL},
+            {48000, 2, 1.5f, 1.0f, 44100, 116080L, 0x12ca3869L},
+    };
+
+    @Test
+    public void outputMatchesGolden() {
+        for (Object[] golden : GOLDEN) {
+            int inputRate = (int) golden[0];
+            int channels = (int) golden[1];
+            float speed = (float) golden[2];
+            float pitch = (float) golden[3];
+            int outputRate = (int) golden[4];
+            String name = inputRate + "Hz x" + channels + " speed " + speed + " pitch " + pitch
+                    + " -> " + outputRate + "Hz";
+            // 按需扩容和预先分配缓冲区两种方式的输出都要一致
+            for (int maxInputSamples : new int[] {0, CHUNK_FRAMES}) {
+                Sonic sonic = new Sonic(inputRate, channels, speed, pitch, outputRate, maxInputSamples);
+                long[] result = process(sonic, createInput(inputRate, channels, inputRate * 2, 1234),
+                        channels);
+                assertEquals(name, (long) golden[5], result[0]);
+                assertEquals(name, (long) golden[6], result[1]);
+            }
+        }
+    }
+
+    @Test
+    public void unrolledAmdfMatchesPlainLoop() {
+        Random random = new Random(5);
+        short[] samples = new short[2 * 700 + 8];
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < samples.length; i++) {
+                // 包含极值，绝对差值超过short范围
+                samples[i] = round % 4 == 0 ? (random.nextBoolean() ? Short.MAX_VALUE : Short.MIN_VALUE)
+                        : (short) random.nextInt(65536);
+            }
+            for (int position = 0; position < 8; position++) {
+                for (int period = 1; period <= 700; period++) {
+                    int expected = 0;
+                    for (int i = 0; i < period; i++) {
+                        expected += Math.abs(samples[position + i] - samples[position + period + i]);
+                    }
+                    assertEquals(expected, Sonic.averageMagnitudeDifference(samples, position, period));
+                }
+            }
+        }
+    }
+
+    /**
+     * 分块送入输入，每次送入之后取出全部输出
+     * @return 输出的采样数和CRC32
+     */
+    private static long[] process(Sonic sonic, short[] input, int channels) {
+        CRC32 crc = new CRC32();
+        long count = 0;
+        short[] output = new short[1 << 16];
+        ShortBuffer outputBuffer = ShortBuffer.wrap(output);
+        for (int position = 0; position <= input.length; position += CHUNK_FRAMES * channels) {
+            if (position < input.length) {
+                sonic.queueInput(ShortBuffer.wrap(input, position,
+                        Math.min(CHUNK_FRAMES * channels, input.length - position)));
+            } else {
+                sonic.queueEndOfStream();
+            }
+            while (sonic.getSamplesAvailable() > 0) {
+                outputBuffer.clear();
+                sonic.getOutput(outputBuffer);
+                for (int i = 0; i < outputBuffer.position(); i++) {
+                    crc.update(output[i] & 0xff);
+                    crc.update((output[i] >> 8) & 0xff);
+                }
+                count += outputBuffer.position();
+            }
+        }
+        return new long[] {count, crc.getValue()};
+    }
+
+    /**
+     * 音调缓慢变化的浊音信号，加上固定种子的噪声，使用StrictMath保证在不同平台上结果一致
+     */
+    private static short[] createInput(int sampleRate, int channels, int frames, long seed) {
+        Random random = new Random(seed);
+        short[] data = new short[frames * channels];
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / sampleRate;
+            double frequency = 140 + 60 * StrictMath.sin(2 * StrictMath.PI * 1.5 * t);
+            phase += 2 * StrictMath.PI * frequency / sampleRate;
+            double envelope = 0.5 + 0.5 * StrictMath.sin(2 * StrictMath.PI * 3 * t);
+            double value = envelope * (0.6 * StrictMath.sin(phase) + 0.25 * StrictMath.sin(2 * phase)
+                    + 0.1 * StrictMath.sin(3 * phase));
+            for (int c = 0; c < channels; c++) {
+                data[i * channels + c] = (short) (value * 12000 + random.nextInt(801) - 400 + c * 50);
+            }
+        }
+        return data;
+    }
+}